@@ -13,9 +13,12 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import network.GameScheduler;
+
 public class Task2 extends Task {
     private static int pumpCount = 0;
     private static boolean pumpTaskRunning = false;
+    private static GameScheduler.Task pumpTask;
     
     public Task2(TaskPane parent, String taskId) {
         super(parent, taskId);
@@ -111,20 +114,17 @@ public class Task2 extends Task {
             completeTask();
         } else if (!pumpTaskRunning) {
             pumpTaskRunning = true;
-            new Thread(() -> {
-                try {
-                    while (pumpCount > 0 && pumpTaskRunning) {
-                        Thread.sleep(350);
-                        pumpCount--;
-                        double progress = (double) pumpCount / 20;
-                        Platform.runLater(() -> pump.setProgress(progress));
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                } finally {
+            // Drains on the FX thread, so it never races the clicks
+            pumpTask = GameScheduler.get().scheduleAtFixedRate("Pump drain", 350, 350, () -> {
+                if (pumpCount > 0) {
+                    pumpCount--;
+                    pump.setProgress((double) pumpCount / 20);
+                }
+                if (pumpCount <= 0) {
                     pumpTaskRunning = false;
+                    pumpTask.cancel();
                 }
-            }).start();
+            }, Platform::runLater);
         }
     }
 
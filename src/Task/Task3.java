@@ -11,6 +11,7 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import logic.SoundLogic;
 import javafx.application.Platform;
+import network.GameScheduler;
 
 class Task3 extends Task {
     private final String correctCode = generateRandomCode();
@@ -124,29 +125,15 @@ class Task3 extends Task {
                 displayText.setText("ACCESS GRANTED");
                 displayText.setFill(Color.GREEN);
                 
-                new Thread(() -> {
-                    try {
-                        Thread.sleep(1000);
-                        Platform.runLater(() -> completeTask());
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
-                }).start();
+                GameScheduler.get().schedule("Keypad result", 1000, () -> completeTask(), Platform::runLater);
             } else {
                 displayText.setText("ACCESS DENIED");
                 displayText.setFill(Color.RED);
                 
-                new Thread(() -> {
-                    try {
-                        Thread.sleep(1000);
-                        Platform.runLater(() -> {
-                            enteredCode.setLength(0);
-                            updateDisplay();
-                        });
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
-                }).start();
+                GameScheduler.get().schedule("Keypad result", 1000, () -> {
+                    enteredCode.setLength(0);
+                    updateDisplay();
+                }, Platform::runLater);
             }
         });
         
@@ -1,8 +1,5 @@
 package Task;
 
-import java.net.DatagramPacket;
-import java.nio.charset.StandardCharsets;
-
 import org.json.JSONObject;
 
 import gui.GameWindow;
@@ -26,7 +23,7 @@ import logic.ServerLogic;
 import logic.SoundLogic;
 import logic.State;
 import logic.TaskLogic;
-import server.ClientInfo;
+import network.GameScheduler;
 
 /**
  * TaskPane is a manager class that creates and displays the appropriate task
@@ -148,38 +145,15 @@ public class TaskPane extends StackPane {
 					// Call the emergency meeting
 					if (GameWindow.getGameWindowInstance() != null) {
 						String reporterKey = PlayerLogic.getLocalAddressPort();
-						GameWindow.getGameWindowInstance().startEmergencyMeeting(reporterKey, null, 0);
 						GameLogic.recordEmergencyMeetingTime(); // Record the time of emergency meeting
 
-						// If we're in server mode, broadcast the meeting to all clients
+						// In server mode the session opens it, with its deadline, on every window
 						if (MainMenuPane.getState() == State.SERVER) {
-							// Create meeting data
-							JSONObject meetingData = new JSONObject();
-							meetingData.put("reporter", reporterKey);
-							meetingData.put("reportedPlayer", JSONObject.NULL);
-							meetingData.put("reportedCharId", 0);
-							meetingData.put("time", System.currentTimeMillis());
-
-							String meetingMessage = "/meeting/" + meetingData.toString();
-							byte[] buf = meetingMessage.getBytes(StandardCharsets.UTF_8);
-
-							// Send to all connected clients
-							for (ClientInfo clientInfo : ServerLogic.getConnectedClients()) {
-								try {
-									DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-											clientInfo.getPort());
-									ServerLogic.getServerSocket().send(packet);
-
-									// Send multiple times to reduce chance of packet loss
-									for (int i = 0; i < 3; i++) {
-										Thread.sleep(50); // Short delay between retransmissions
-										ServerLogic.getServerSocket().send(packet);
-									}
-								} catch (Exception e) {
-									System.err.println("Error sending meeting message: " + e.getMessage());
-								}
-							}
-						} else if (MainMenuPane.getState() == State.CLIENT) {
+							ServerLogic.callEmergencyMeeting(reporterKey);
+						} else {
+							GameWindow.getGameWindowInstance().startEmergencyMeeting(reporterKey, null, 0);
+						}
+						if (MainMenuPane.getState() == State.CLIENT) {
 							// Client mode - send meeting request to server
 							JSONObject meetingData = new JSONObject();
 							meetingData.put("reporter", reporterKey);
@@ -259,27 +233,21 @@ public class TaskPane extends StackPane {
 			SoundLogic.playSound("assets/sounds/panel_admin_cardaccept.wav", 0);
 			getChildren().add(successOverlay);
 
-			new Thread(() -> {
-				try {
-					Thread.sleep(2000); // Wait 2 seconds
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				Platform.runLater(() -> {
-					getChildren().remove(successOverlay);
+			// Wait 2 seconds
+			GameScheduler.get().schedule("Task success", 2000, () -> {
+				getChildren().remove(successOverlay);
 
-					// Add a fade-out animation
-					FadeTransition fadeOut = new FadeTransition(Duration.millis(800), this);
-					fadeOut.setFromValue(1);
-					fadeOut.setToValue(0);
-					fadeOut.play();
+				// Add a fade-out animation
+				FadeTransition fadeOut = new FadeTransition(Duration.millis(800), this);
+				fadeOut.setFromValue(1);
+				fadeOut.setToValue(0);
+				fadeOut.play();
 
-					// Notify the TaskLogic that the task is complete
-					if (currentTask != null) {
-						TaskLogic.completeTask(currentTask.getTaskId());
-					}
-				});
-			}).start();
+				// Notify the TaskLogic that the task is complete
+				if (currentTask != null) {
+					TaskLogic.completeTask(currentTask.getTaskId());
+				}
+			}, Platform::runLater);
 		} else {
 			// For unsuccessful task completion, just fade out and remove
 			FadeTransition fadeOut = new FadeTransition(Duration.millis(500), this);
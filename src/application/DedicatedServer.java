@@ -0,0 +1,315 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import logic.GameClock;
+import logic.GameLogic.GameResult;
+import logic.GamePhase;
+import logic.GameState;
+import logic.MovementLogic;
+import logic.ServerLogic;
+import logic.State;
+import network.GameScheduler;
+import server.GameSession;
+import server.ServerListener;
+import server.SessionServer;
+
+/**
+ * Runs a server without a host player or any window, for headless machines.
+ *
+ * One process hosts any number of independent lobbies on one port. Everything
+ * the host's game window otherwise drives happens here, per lobby: the match
+ * starts once enough players are ready, roles are assigned, meetings end on
+ * their voting timer and the win conditions are checked until the match is
+ * over, after which the lobby opens again. The JavaFX toolkit is never
+ * started.
+ *
+ * With --journal every datagram in and out is recorded for JournalReplay.
+ *
+ * Usage: DedicatedServer [--port N] [--name NAME] [--tick-rate HZ]
+ * [--min-players N] [--map FILE] [--lobbies N] [--threads N] [--journal DIR]
+ */
+public class DedicatedServer implements ServerListener {
+	private static final int DEFAULT_PORT = 7777;
+	private static final int DEFAULT_MIN_PLAYERS = 3;
+	private static final String DEFAULT_MAP_FILE = "assets/map.tmx";
+	private static final long UPDATE_INTERVAL_MS = 500;
+	private static final long START_COUNTDOWN_MS = 5000;
+	private static final long ROLE_REVEAL_MS = 10000; // win checks wait like the game window's do
+	private static final long ALL_VOTED_MS = 3000;
+	private static final long RESULT_SCREEN_MS = 10000;
+
+	private final int minPlayers;
+	private final int lobbyCount;
+	private final SessionServer server;
+
+	public DedicatedServer(int minPlayers, int lobbyCount, int threads, int tickRate) {
+		this.minPlayers = minPlayers;
+		this.lobbyCount = lobbyCount;
+		this.server = new SessionServer("Server", threads, tickRate);
+	}
+
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		String name = "Dedicated Server";
+		int tickRate = ServerLogic.getTickRate();
+		int minPlayers = DEFAULT_MIN_PLAYERS;
+		String mapFile = DEFAULT_MAP_FILE;
+		int lobbies = 1;
+		int threads = 0;
+		String journal = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--name":
+					name = args[++i];
+					break;
+				case "--tick-rate":
+					tickRate = Integer.parseInt(args[++i]);
+					break;
+				case "--min-players":
+					minPlayers = Math.max(2, Integer.parseInt(args[++i]));
+					break;
+				case "--map":
+					mapFile = args[++i];
+					break;
+				case "--lobbies":
+					lobbies = Math.max(1, Integer.parseInt(args[++i]));
+					break;
+				case "--threads":
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+					break;
+				case "--journal":
+					journal = args[++i];
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			ServerLogic.setTickRate(tickRate);
+		} catch (RuntimeException e) {
+			System.err.println("DedicatedServer: " + e.getMessage());
+			System.err.println("Usage: DedicatedServer [--port N] [--name NAME] [--tick-rate 20|30|60]"
+					+ " [--min-players N] [--map FILE] [--lobbies N] [--threads N] [--journal DIR]");
+			System.exit(1);
+		}
+		if (threads == 0) {
+			// One event loop per core at most; lobbies share them
+			threads = Math.min(lobbies, Runtime.getRuntime().availableProcessors());
+		}
+
+		new DedicatedServer(minPlayers, lobbies, threads, tickRate).start(name, port, mapFile, journal);
+	}
+
+	/**
+	 * Starts the server, its lobbies and the discovery broadcast
+	 *
+	 * @param journal directory to record packets to, or null
+	 */
+	public void start(String name, int port, String mapFile, String journal) {
+		if (!open(port, mapFile)) {
+			return;
+		}
+		if (journal != null) {
+			try {
+				server.startJournal(Paths.get(journal));
+			} catch (IOException e) {
+				System.err.println("SERVER: Could not record packets to " + journal + ": " + e.getMessage());
+			}
+		}
+		ServerLogic.startBroadcasting(State.SERVER, this, name, port, () -> server);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			ServerLogic.stopBroadcasting();
+			server.close();
+			log(GameScheduler.get().getSummary());
+			GameScheduler.shutdownShared();
+		}, "Dedicated-Server-Shutdown"));
+		log("Dedicated server '" + name + "' running " + lobbyCount + " lobby(s) on " + server.getWorkerCount()
+				+ " thread(s), " + minPlayers + " ready players start a match");
+	}
+
+	/**
+	 * Opens the socket and the lobbies without announcing them, e.g. for a
+	 * replay
+	 *
+	 * @return false if the port could not be opened
+	 */
+	public boolean open(int port, String mapFile) {
+		// The map reader uses AWT types, which work without a display in headless mode
+		System.setProperty("java.awt.headless", "true");
+
+		// Server-side movement needs the same walls the clients predict against
+		try {
+			int objects = MovementLogic.loadCollisionGrid(mapFile);
+			log("Loaded " + objects + " collision objects from " + mapFile);
+		} catch (Exception e) {
+			System.err.println("SERVER: Could not load map " + mapFile + ", players will not collide: "
+					+ e.getMessage());
+		}
+
+		try {
+			server.open(port);
+		} catch (IOException e) {
+			System.err.println("SERVER: Could not open port " + port + ": " + e.getMessage());
+			server.close();
+			return false;
+		}
+		for (int i = 0; i < lobbyCount; i++) {
+			new Lobby("Lobby " + (i + 1));
+		}
+		return true;
+	}
+
+	public SessionServer getServer() {
+		return server;
+	}
+
+	/**
+	 * One lobby: its session and the match director that runs on the session's
+	 * event loop
+	 */
+	private class Lobby implements ServerListener {
+		private final String name;
+		private final GameState game = new GameState(false);
+		private final GameSession session;
+
+		// Written through the listener and read by update(), all on the session's thread
+		private boolean allReady = false;
+		private int playerCount = 0;
+		private long meetingDeadline = 0;
+
+		private long startAt = 0;
+		private long rolesAt = 0;
+		private long lobbyAt = 0;
+
+		Lobby(String name) {
+			this.name = name;
+			this.session = server.createSession(name, game, this);
+			server.schedule(session, name + " director", this::update, UPDATE_INTERVAL_MS);
+		}
+
+		/**
+		 * One step of the match: lobby countdown, role reveal and meeting
+		 * deadline. Kills, reports and win checks are the session's rules, on
+		 * its tick.
+		 */
+		private void update() {
+			try {
+				long now = GameClock.now();
+				if (!game.isPrepEnded()) {
+					updateLobby(now);
+					return;
+				}
+
+				if (game.isGameEnded()) {
+					if (lobbyAt == 0) {
+						log("Match over: " + game.getGameResult());
+						lobbyAt = now + RESULT_SCREEN_MS;
+					} else if (now >= lobbyAt) {
+						openLobby();
+					}
+					return;
+				}
+
+				if (game.getPlayers().isEmpty()) {
+					log("Every player left, back to the lobby");
+					openLobby();
+					return;
+				}
+
+				if (rolesAt != 0 && now >= rolesAt) {
+					rolesAt = 0;
+					game.setImposterRolesSet(true);
+				}
+
+				long deadline = meetingDeadline;
+				if (deadline != 0 && now >= deadline) {
+					meetingDeadline = 0;
+					session.endMeetingAndBroadcastResults("default");
+				}
+			} catch (Exception e) {
+				System.err.println("SERVER ERROR in " + name + " update: " + e.getMessage());
+				e.printStackTrace();
+			}
+		}
+
+		private void updateLobby(long now) {
+			if (!allReady || playerCount < minPlayers) {
+				if (startAt != 0) {
+					log("Match start cancelled, not every player is ready");
+					startAt = 0;
+				}
+				return;
+			}
+			if (startAt == 0) {
+				startAt = now + START_COUNTDOWN_MS;
+				log("All " + playerCount + " players are ready, starting in " + START_COUNTDOWN_MS / 1000 + "s");
+			} else if (now >= startAt) {
+				startAt = 0;
+				startMatch(now);
+			}
+		}
+
+		private void startMatch(long now) {
+			game.autoImposterCount();
+			session.randomizeImposters();
+			game.setPrepEnded(true);
+			rolesAt = now + ROLE_REVEAL_MS;
+			log("Match started with " + game.getPlayers().size() + " players");
+		}
+
+		/**
+		 * Forgets the finished match and waits for players to ready up again
+		 */
+		private void openLobby() {
+			meetingDeadline = 0;
+			rolesAt = 0;
+			lobbyAt = 0;
+			allReady = false;
+			game.reset();
+			session.resetMatch();
+			log("Lobby open");
+		}
+
+		@Override
+		public void onReadyStateChanged(boolean allReady, int playerCount) {
+			this.playerCount = playerCount;
+			this.allReady = allReady;
+		}
+
+		@Override
+		public void onPhaseChanged(GamePhase from, GamePhase to, GameResult result) {
+			log("Phase " + from + " -> " + to + (to == GamePhase.ENDED ? ", " + result : ""));
+		}
+
+		@Override
+		public void onMeetingStarted(String reporterKey, String reportedPlayerName, int reportedCharId) {
+			// The deadline the clients were sent, so every timer ends together
+			long votingEnds = game.getMeetingEndsAt();
+			meetingDeadline = votingEnds != 0 ? votingEnds : GameClock.now() + GameState.VOTING_TIME_MS;
+			log("Emergency meeting: " + reportedPlayerName + "'s body was reported");
+		}
+
+		@Override
+		public void onVote(String voterKey, String targetKey, String voterName, String targetName,
+				Map<String, String> votes) {
+			long alive = game.getPlayers().values().stream().filter(p -> !"dead".equals(p.getStatus())).count();
+			long deadline = meetingDeadline;
+			// Like the meeting UI, cut the timer short once everyone alive has voted
+			if (deadline != 0 && votes.size() >= alive) {
+				meetingDeadline = Math.min(deadline, GameClock.now() + ALL_VOTED_MS);
+			}
+		}
+
+		@Override
+		public void log(String message) {
+			System.out.println("SERVER: [" + name + "] " + message);
+		}
+	}
+}
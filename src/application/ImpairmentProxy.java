@@ -0,0 +1,517 @@
+package application;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import logic.ServerLogic;
+import logic.State;
+import network.ImpairmentProfile;
+import server.ServerListener;
+
+/**
+ * A UDP relay that makes a local link behave like a bad one, for testing
+ * clients and servers on one machine.
+ *
+ * Clients talk to the proxy instead of the server. Each client gets its own
+ * socket towards the server, so the server still tells them apart, and every
+ * datagram in either direction is delayed, jittered, dropped, duplicated or
+ * held back so later ones overtake it, following a scripted profile. The
+ * proxy announces itself on the LAN discovery broadcast like a server does,
+ * so game clients find it in their server list.
+ *
+ * Every decision can be recorded, one line per datagram. The recording starts
+ * with the seed and the profile, and --repeat reads them back, so the run can
+ * be reproduced: each client's n-th datagram in each direction meets the same
+ * fate, whatever the other clients do, as long as it is sent in the same
+ * stage.
+ *
+ * Usage: ImpairmentProxy --server HOST:PORT [--port N] [--profile NAME|FILE|SPEC]
+ * [--seed N] [--record FILE] [--repeat FILE] [--duration SECONDS]
+ */
+public class ImpairmentProxy implements ServerListener {
+	private static final int DEFAULT_PORT = 7778;
+	private static final int MAX_DATAGRAM = 65507;
+	private static final long STATS_INTERVAL_MS = 10000;
+	private static final long IDLE_TIMEOUT_MS = 60000;
+	private static final double MIN_REORDER_HOLD_MS = 20; // enough for the next state packet to overtake
+
+	private static final String RECORD_SEED = "# seed ";
+	private static final String RECORD_STAGE = "# | ";
+
+	private final InetSocketAddress server;
+	private final ImpairmentProfile profile;
+	private final long seed;
+	private final Selector selector;
+	private final DatagramChannel listenChannel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+	private final Map<SocketAddress, Flow> flows = new HashMap<>();
+	private final PriorityQueue<Delayed> delayed = new PriorityQueue<>();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private BufferedWriter recorder;
+	private volatile boolean running = true;
+
+	private long startNanos;
+	private long order = 0;
+	private int nextFlowId = 0;
+	private int stageIndex = -1;
+
+	// Totals by direction, 0 towards the server and 1 towards the clients
+	private final long[] forwarded = new long[2];
+	private final long[] dropped = new long[2];
+	private final long[] duplicated = new long[2];
+	private final long[] reordered = new long[2];
+
+	/**
+	 * One client and its socket towards the server
+	 */
+	private class Flow {
+		final int id;
+		final SocketAddress client;
+		final DatagramChannel upstream;
+		// One stream of decisions per direction, so other clients cannot shift them
+		final Random[] random = new Random[2];
+		final long[] sent = new long[2];
+		final long[] lastReleaseNanos = new long[2];
+		long lastSeenNanos;
+
+		Flow(SocketAddress client) throws IOException {
+			this.id = nextFlowId++;
+			this.client = client;
+			upstream = DatagramChannel.open();
+			upstream.configureBlocking(false);
+			upstream.connect(server);
+			upstream.register(selector, SelectionKey.OP_READ, this);
+			for (int direction = 0; direction < 2; direction++) {
+				random[direction] = new Random(seed * 1_000_003L + id * 2L + direction);
+			}
+		}
+	}
+
+	/**
+	 * A datagram waiting for its delivery time
+	 */
+	private static class Delayed implements Comparable<Delayed> {
+		final long releaseNanos;
+		final long order; // keeps equal release times in arrival order
+		final Flow flow;
+		final int direction;
+		final byte[] data;
+
+		Delayed(long releaseNanos, long order, Flow flow, int direction, byte[] data) {
+			this.releaseNanos = releaseNanos;
+			this.order = order;
+			this.flow = flow;
+			this.direction = direction;
+			this.data = data;
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			int byTime = Long.compare(releaseNanos, other.releaseNanos);
+			return byTime != 0 ? byTime : Long.compare(order, other.order);
+		}
+	}
+
+	public ImpairmentProxy(int port, InetSocketAddress server, ImpairmentProfile profile, long seed)
+			throws IOException {
+		this.server = server;
+		this.profile = profile;
+		this.seed = seed;
+		this.selector = Selector.open();
+		this.listenChannel = DatagramChannel.open();
+		listenChannel.configureBlocking(false);
+		listenChannel.bind(new InetSocketAddress(port));
+		listenChannel.register(selector, SelectionKey.OP_READ);
+	}
+
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		String serverSpec = null;
+		String profileSpec = "mobile";
+		long seed = System.nanoTime();
+		String recordFile = null;
+		String repeatFile = null;
+		int duration = 0;
+		ImpairmentProfile profile;
+		InetSocketAddress server;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--server":
+					serverSpec = args[++i];
+					break;
+				case "--profile":
+					profileSpec = args[++i];
+					break;
+				case "--seed":
+					seed = Long.parseLong(args[++i]);
+					break;
+				case "--record":
+					recordFile = args[++i];
+					break;
+				case "--repeat":
+					repeatFile = args[++i];
+					break;
+				case "--duration":
+					duration = Math.max(1, Integer.parseInt(args[++i]));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			if (serverSpec == null) {
+				throw new IllegalArgumentException("--server is required");
+			}
+			int colon = serverSpec.lastIndexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("Expected HOST:PORT, got " + serverSpec);
+			}
+			server = new InetSocketAddress(InetAddress.getByName(serverSpec.substring(0, colon)),
+					Integer.parseInt(serverSpec.substring(colon + 1)));
+
+			if (repeatFile != null) {
+				List<String> stageLines = new ArrayList<>();
+				Long recordedSeed = null;
+				for (String line : Files.readAllLines(Paths.get(repeatFile), StandardCharsets.UTF_8)) {
+					if (line.startsWith(RECORD_SEED)) {
+						recordedSeed = Long.parseLong(line.substring(RECORD_SEED.length()).trim());
+					} else if (line.startsWith(RECORD_STAGE)) {
+						stageLines.add(line.substring(RECORD_STAGE.length()));
+					} else if (!line.startsWith("#")) {
+						break; // the header is over
+					}
+				}
+				if (recordedSeed == null || stageLines.isEmpty()) {
+					throw new IllegalArgumentException(repeatFile + " is not a proxy recording");
+				}
+				seed = recordedSeed;
+				profile = ImpairmentProfile.parse(Paths.get(repeatFile).getFileName().toString(), stageLines);
+			} else {
+				profile = ImpairmentProfile.load(profileSpec);
+			}
+		} catch (RuntimeException | IOException e) {
+			System.err.println("ImpairmentProxy: " + e.getMessage());
+			System.err.println("Usage: ImpairmentProxy --server HOST:PORT [--port N] [--profile NAME|FILE|SPEC]"
+					+ " [--seed N] [--record FILE] [--repeat FILE] [--duration SECONDS]");
+			System.err.println("Built-in profiles: " + ImpairmentProfile.getBuiltInNames());
+			System.exit(1);
+			return;
+		}
+
+		try {
+			ImpairmentProxy proxy = new ImpairmentProxy(port, server, profile, seed);
+			if (recordFile != null) {
+				proxy.record(recordFile);
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread(proxy::stop, "Impairment-Proxy-Shutdown"));
+			// Announce the proxy like a server, so game clients can pick it; the name must not hold a colon
+			ServerLogic.startBroadcasting(State.SERVER, proxy, "Impaired (" + profile.getName() + ")", port);
+			proxy.run(TimeUnit.SECONDS.toMillis(duration));
+		} catch (IOException e) {
+			System.err.println("PROXY: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Records every decision to a file, starting with what --repeat needs
+	 */
+	public void record(String file) throws IOException {
+		recorder = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8);
+		recorder.write("# ImpairmentProxy recording, server " + server + ", profile " + profile.getName());
+		recorder.newLine();
+		recorder.write(RECORD_SEED + seed);
+		recorder.newLine();
+		for (String line : profile.toLines()) {
+			recorder.write(RECORD_STAGE + line);
+			recorder.newLine();
+		}
+		recorder.write("# ms direction flow bytes fate delay_ms");
+		recorder.newLine();
+		log("Recording to " + file);
+	}
+
+	/**
+	 * Relays datagrams until stopped, or for the given time if it is not 0
+	 */
+	public void run(long durationMs) {
+		startNanos = System.nanoTime();
+		long endNanos = durationMs > 0 ? startNanos + TimeUnit.MILLISECONDS.toNanos(durationMs) : 0;
+		long nextStatsNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(STATS_INTERVAL_MS);
+		log("Relaying port " + listenChannel.socket().getLocalPort() + " to " + server + " with profile "
+				+ profile.getName() + ", seed " + seed);
+		try {
+			while (running) {
+				long now = System.nanoTime();
+				if (endNanos != 0 && now - endNanos >= 0) {
+					break;
+				}
+				updateStage(now);
+
+				long timeoutMs = STATS_INTERVAL_MS;
+				Delayed next = delayed.peek();
+				if (next != null) {
+					timeoutMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.releaseNanos - now));
+				}
+				selector.select(timeoutMs);
+				now = System.nanoTime();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.attachment() == null) {
+						receiveFromClients(now);
+					} else {
+						receiveFromServer((Flow) key.attachment(), now);
+					}
+				}
+				deliverDue(System.nanoTime());
+
+				if (now - nextStatsNanos >= 0) {
+					nextStatsNanos = now + TimeUnit.MILLISECONDS.toNanos(STATS_INTERVAL_MS);
+					logStats();
+					closeIdleFlows(now);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("PROXY: Relay stopped: " + e.getMessage());
+			e.printStackTrace();
+		} finally {
+			close();
+			stopped.countDown();
+		}
+	}
+
+	/**
+	 * Stops the relay and waits for it to write out its recording
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+		try {
+			stopped.await(2, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void updateStage(long now) {
+		int index = profile.stageIndexAt(TimeUnit.NANOSECONDS.toMillis(now - startNanos));
+		if (index != stageIndex) {
+			stageIndex = index;
+			log("Stage " + (index + 1) + "/" + profile.getStages().size() + ": " + profile.getStages().get(index));
+		}
+	}
+
+	private void receiveFromClients(long now) throws IOException {
+		SocketAddress client;
+		while ((client = receive(listenChannel)) != null) {
+			Flow flow = flows.get(client);
+			if (flow == null) {
+				flow = new Flow(client);
+				flows.put(client, flow);
+				log("Client " + client + " is flow " + flow.id);
+			}
+			flow.lastSeenNanos = now;
+			impair(flow, 0, now);
+		}
+	}
+
+	private void receiveFromServer(Flow flow, long now) throws IOException {
+		while (receive(flow.upstream) != null) {
+			impair(flow, 1, now);
+		}
+	}
+
+	/**
+	 * Reads one datagram into the buffer
+	 *
+	 * @return its sender, or null if there was none
+	 */
+	private SocketAddress receive(DatagramChannel channel) throws IOException {
+		buffer.clear();
+		SocketAddress sender;
+		try {
+			sender = channel.receive(buffer);
+		} catch (IOException e) {
+			// e.g. ICMP port unreachable from a server that is not up yet
+			return null;
+		}
+		buffer.flip();
+		return sender;
+	}
+
+	/**
+	 * Decides the fate of the datagram in the buffer and queues its copies
+	 */
+	private void impair(Flow flow, int direction, long now) throws IOException {
+		ImpairmentProfile.Stage stage = profile.getStages().get(stageIndex);
+		Random random = flow.random[direction];
+		long packet = flow.sent[direction]++;
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+
+		// Draw every number up front, so the stream stays in step whatever happens
+		double lossRoll = random.nextDouble();
+		double duplicateRoll = random.nextDouble();
+		double reorderRoll = random.nextDouble();
+		double jitter = random.nextDouble();
+		double duplicateJitter = random.nextDouble();
+
+		if (lossRoll < stage.loss) {
+			dropped[direction]++;
+			record(now, direction, flow, data.length, "drop", -1);
+			return;
+		}
+
+		boolean reorder = reorderRoll < stage.reorder;
+		long delayNanos = delayNanos(stage, jitter, reorder);
+		long release = now + delayNanos;
+		if (reorder) {
+			reordered[direction]++;
+		} else {
+			// Jitter alone never reorders, like a queue that varies in length
+			release = Math.max(release, flow.lastReleaseNanos[direction]);
+			flow.lastReleaseNanos[direction] = release;
+		}
+		delayed.add(new Delayed(release, order++, flow, direction, data));
+		forwarded[direction]++;
+		record(now, direction, flow, data.length, reorder ? "reorder" : "pass", release - now);
+
+		if (duplicateRoll < stage.duplicate) {
+			long copyRelease = now + delayNanos(stage, duplicateJitter, false);
+			delayed.add(new Delayed(copyRelease, order++, flow, direction, data));
+			duplicated[direction]++;
+			record(now, direction, flow, data.length, "dup", copyRelease - now);
+		}
+	}
+
+	private static long delayNanos(ImpairmentProfile.Stage stage, double jitter, boolean reorder) {
+		double millis = stage.delayMs + (jitter * 2 - 1) * stage.jitterMs;
+		if (reorder) {
+			millis += Math.max(MIN_REORDER_HOLD_MS, 2 * stage.jitterMs);
+		}
+		return (long) (Math.max(0, millis) * 1_000_000);
+	}
+
+	private void deliverDue(long now) {
+		Delayed next;
+		while ((next = delayed.peek()) != null && next.releaseNanos - now <= 0) {
+			delayed.poll();
+			ByteBuffer data = ByteBuffer.wrap(next.data);
+			try {
+				if (next.direction == 0) {
+					next.flow.upstream.write(data);
+				} else {
+					listenChannel.send(data, next.flow.client);
+				}
+			} catch (IOException e) {
+				// The other end is gone; a real network would drop it too
+			}
+		}
+	}
+
+	private void record(long now, int direction, Flow flow, int bytes, String fate, long delayNanos) {
+		if (recorder == null) {
+			return;
+		}
+		try {
+			recorder.write(String.format(Locale.ROOT, "%.3f %s %d %d %s %s",
+					(now - startNanos) / 1_000_000.0, direction == 0 ? "up" : "down", flow.id, bytes, fate,
+					delayNanos < 0 ? "-" : String.format(Locale.ROOT, "%.3f", delayNanos / 1_000_000.0)));
+			recorder.newLine();
+		} catch (IOException e) {
+			System.err.println("PROXY: Recording stopped: " + e.getMessage());
+			closeRecorder();
+		}
+	}
+
+	private void closeIdleFlows(long now) {
+		Iterator<Flow> iterator = flows.values().iterator();
+		while (iterator.hasNext()) {
+			Flow flow = iterator.next();
+			if (now - flow.lastSeenNanos > TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MS)) {
+				iterator.remove();
+				delayed.removeIf(d -> d.flow == flow);
+				closeQuietly(flow.upstream);
+				log("Flow " + flow.id + " (" + flow.client + ") idle, closed");
+			}
+		}
+	}
+
+	private void logStats() {
+		log(String.format(Locale.ROOT,
+				"%d flow(s); to server %d forwarded, %d dropped, %d duplicated, %d reordered;"
+						+ " to clients %d forwarded, %d dropped, %d duplicated, %d reordered",
+				flows.size(), forwarded[0], dropped[0], duplicated[0], reordered[0], forwarded[1], dropped[1],
+				duplicated[1], reordered[1]));
+	}
+
+	private void close() {
+		logStats();
+		for (Flow flow : flows.values()) {
+			closeQuietly(flow.upstream);
+		}
+		flows.clear();
+		closeQuietly(listenChannel);
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// Closing anyway
+		}
+		closeRecorder();
+	}
+
+	private void closeRecorder() {
+		if (recorder == null) {
+			return;
+		}
+		try {
+			recorder.close();
+		} catch (IOException e) {
+			System.err.println("PROXY: Could not finish the recording: " + e.getMessage());
+		}
+		recorder = null;
+	}
+
+	private static void closeQuietly(DatagramChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Closing anyway
+		}
+	}
+
+	@Override
+	public void log(String message) {
+		System.out.println("PROXY: " + message);
+	}
+}
@@ -0,0 +1,310 @@
+package application;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import logic.GameState;
+import logic.ServerLogic;
+import network.Fragmenter;
+import network.LatencyHistogram;
+import network.MessageCodec;
+import network.PacketJournal;
+import network.PlayerStateCodec;
+import network.ReliableChannel;
+import server.GameSession;
+import server.SessionServer;
+
+/**
+ * Feeds a packet journal recorded with DedicatedServer --journal back through
+ * a fresh server's handleIncomingMessage, to benchmark the message path on
+ * real traffic or to step through a match that went wrong.
+ *
+ * The replayed server runs the same lobbies as the dedicated server but
+ * sends nothing on the wire: its replies are only counted, so the recorded
+ * clients never hear from it. Datagrams are fed at their recorded pace, at a
+ * multiple of it, as fast as possible, or one step at a time. Timers such as
+ * the match countdown still run on the wall clock, and imposters are drawn
+ * again, so only a replay at 1x follows the recorded match closely.
+ *
+ * Usage: JournalReplay --journal DIR [--speed FACTOR|max] [--step]
+ * [--lobbies N] [--min-players N] [--tick-rate HZ] [--map FILE]
+ */
+public class JournalReplay {
+	private static final String DEFAULT_MAP_FILE = "assets/map.tmx";
+	private static final int DEFAULT_MIN_PLAYERS = 3;
+	private static final long DRAIN_TIMEOUT_MS = 10000;
+	private static final int MAX_BODY_SHOWN = 60;
+
+	private final SessionServer server;
+	private final PacketJournal.Reader reader;
+	private final double speed; // 0 is as fast as possible
+	private final LatencyHistogram handleTime = new LatencyHistogram();
+	private BufferedReader console;
+	private long stepsLeft = 0;
+
+	// The pace: a record is due at startNanos plus its time past baseNanos, over speed
+	private long startNanos;
+	private long baseNanos;
+
+	private long inboundCount = 0;
+	private long recordedOutboundCount = 0;
+
+	public JournalReplay(SessionServer server, PacketJournal.Reader reader, double speed, boolean step) {
+		this.server = server;
+		this.reader = reader;
+		this.speed = speed;
+		if (step) {
+			console = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		}
+	}
+
+	public static void main(String[] args) {
+		String journal = null;
+		double speed = 1;
+		boolean step = false;
+		int lobbies = 1;
+		int minPlayers = DEFAULT_MIN_PLAYERS;
+		int tickRate = ServerLogic.getTickRate();
+		String mapFile = DEFAULT_MAP_FILE;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--journal":
+					journal = args[++i];
+					break;
+				case "--speed":
+					String value = args[++i];
+					speed = value.equalsIgnoreCase("max") ? 0 : Double.parseDouble(value);
+					if (speed < 0) {
+						throw new IllegalArgumentException("Negative speed " + value);
+					}
+					break;
+				case "--step":
+					step = true;
+					break;
+				case "--lobbies":
+					lobbies = Math.max(1, Integer.parseInt(args[++i]));
+					break;
+				case "--min-players":
+					minPlayers = Math.max(2, Integer.parseInt(args[++i]));
+					break;
+				case "--tick-rate":
+					tickRate = Integer.parseInt(args[++i]);
+					break;
+				case "--map":
+					mapFile = args[++i];
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			if (journal == null) {
+				throw new IllegalArgumentException("--journal is required");
+			}
+			ServerLogic.setTickRate(tickRate);
+		} catch (RuntimeException e) {
+			System.err.println("JournalReplay: " + e.getMessage());
+			System.err.println("Usage: JournalReplay --journal DIR [--speed FACTOR|max] [--step] [--lobbies N]"
+					+ " [--min-players N] [--tick-rate 20|30|60] [--map FILE]");
+			System.exit(1);
+		}
+
+		DedicatedServer dedicated = new DedicatedServer(minPlayers, lobbies, 1, tickRate);
+		if (!dedicated.open(0, mapFile)) {
+			System.exit(1);
+		}
+		SessionServer server = dedicated.getServer();
+		server.getLoop().setDiscardSends(true);
+		// Faster than recorded, every client would look like a flood
+		server.getFloodGuard().setEnabled(speed > 0 && speed <= 1);
+		try {
+			JournalReplay replay = new JournalReplay(server, new PacketJournal.Reader(Paths.get(journal)), speed,
+					step);
+			replay.run();
+		} catch (IOException e) {
+			System.err.println("REPLAY: " + e.getMessage());
+			e.printStackTrace();
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Feeds every inbound datagram of the journal to the server, then waits
+	 * for the sessions to finish handling them
+	 */
+	public void run() throws IOException {
+		if (!reader.next()) {
+			log("The journal is empty");
+			return;
+		}
+		log("Replaying " + describeSpeed() + ", journal started " + new Date(reader.getStartMillis()));
+		long runStart = System.nanoTime();
+		rebase();
+		boolean more = true;
+		while (more) {
+			if (reader.getKind() == PacketJournal.OUTBOUND) {
+				recordedOutboundCount++;
+			} else if (!feed()) {
+				log("Stopped at datagram " + inboundCount);
+				break;
+			}
+			more = reader.next();
+		}
+		long fedNanos = System.nanoTime() - runStart;
+		drainSessions();
+		long totalNanos = System.nanoTime() - runStart;
+
+		log(String.format("%d datagram(s) fed in %.3f s, %.0f/s; handled by the sessions after %.3f s",
+				inboundCount, fedNanos / 1e9, inboundCount / Math.max(fedNanos / 1e9, 1e-9), totalNanos / 1e9));
+		log(String.format("handleIncomingMessage n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+				handleTime.getCount(), handleTime.getMeanMillis(), handleTime.getPercentileMillis(50),
+				handleTime.getPercentileMillis(99), handleTime.getMaxMillis()));
+		log(recordedOutboundCount + " datagram(s) sent in the recording, " + server.getLoop().getSentCount()
+				+ " by the replay");
+		for (GameSession session : server.getSessions()) {
+			GameState game = session.getGame();
+			log(session.getName() + ": " + session.getConnectedClients().size() + " client(s), "
+					+ game.getPlayers().size() + " player(s), "
+					+ (game.isGameEnded() ? "match over: " + game.getGameResult()
+							: game.isPrepEnded() ? "match running" : "in the lobby"));
+		}
+	}
+
+	/**
+	 * Makes the current record due now
+	 */
+	private void rebase() {
+		startNanos = System.nanoTime();
+		baseNanos = reader.getNanos();
+	}
+
+	/**
+	 * Waits for the datagram's turn and hands it to the server
+	 *
+	 * @return false if the user quit
+	 */
+	private boolean feed() throws IOException {
+		if (console != null) {
+			if (!awaitStep()) {
+				return false;
+			}
+			rebase(); // keeps the pace when continuing after the last step
+		} else if (speed > 0) {
+			long due = startNanos + (long) ((reader.getNanos() - baseNanos) / speed);
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		ByteBuffer data = reader.getData();
+		long before = System.nanoTime();
+		server.handleIncomingMessage(data, reader.getPeer());
+		handleTime.record(System.nanoTime() - before);
+		inboundCount++;
+		return true;
+	}
+
+	/**
+	 * Shows the next datagram and waits for a command: Enter for one step, a
+	 * number for that many, c to run to the end, q to quit
+	 */
+	private boolean awaitStep() throws IOException {
+		if (stepsLeft > 0) {
+			stepsLeft--;
+			return true;
+		}
+		System.out.printf("REPLAY: #%d %.3fs %s %s%n", inboundCount, reader.getNanos() / 1e9, reader.getPeer(),
+				describe(reader.getData()));
+		System.out.print("REPLAY: [Enter] step, N steps, c continue, q quit > ");
+		String line = console.readLine();
+		if (line == null) {
+			console = null;
+			return true;
+		}
+		line = line.trim();
+		if (line.equalsIgnoreCase("q")) {
+			return false;
+		}
+		if (line.equalsIgnoreCase("c")) {
+			console = null;
+		} else if (!line.isEmpty()) {
+			try {
+				stepsLeft = Math.max(0, Long.parseLong(line) - 1);
+			} catch (NumberFormatException e) {
+				System.out.println("REPLAY: Unknown command " + line);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Names a datagram by its opcode, with the body of text messages
+	 */
+	private static String describe(ByteBuffer data) {
+		if (!data.hasRemaining()) {
+			return "empty";
+		}
+		byte opcode = data.get(data.position());
+		int length = data.remaining();
+		if (opcode == PlayerStateCodec.OP_CLIENT_STATE) {
+			return "client state, " + length + " B";
+		} else if (opcode == PlayerStateCodec.OP_SNAPSHOT) {
+			return "snapshot, " + length + " B";
+		} else if (opcode == ReliableChannel.OP_RELIABLE) {
+			return "reliable #" + ReliableChannel.peekSequence(data) + ": "
+					+ describe(ReliableChannel.peekMessage(data));
+		} else if (opcode == ReliableChannel.OP_ACK) {
+			return "ack #" + ReliableChannel.peekSequence(data);
+		} else if (opcode == Fragmenter.OP_FRAGMENT) {
+			return "fragment, " + length + " B";
+		}
+		String body = MessageCodec.readText(data.duplicate());
+		if (body.length() > MAX_BODY_SHOWN) {
+			body = body.substring(0, MAX_BODY_SHOWN) + "...";
+		}
+		return String.format("opcode 0x%02X \"%s\"", opcode & 0xFF, body);
+	}
+
+	/**
+	 * Waits until every session has handled what was queued for it
+	 */
+	private void drainSessions() {
+		List<GameSession> sessions = server.getSessions();
+		CountDownLatch drained = new CountDownLatch(sessions.size());
+		for (GameSession session : sessions) {
+			server.execute(session, drained::countDown);
+		}
+		try {
+			if (!drained.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				log("Sessions still busy after " + DRAIN_TIMEOUT_MS + " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private String describeSpeed() {
+		if (console != null) {
+			return "step by step";
+		}
+		return speed == 0 ? "as fast as possible" : "at " + speed + "x";
+	}
+
+	private static void log(String message) {
+		System.out.println("REPLAY: " + message);
+	}
+}
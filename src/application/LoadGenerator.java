@@ -0,0 +1,811 @@
+package application;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import logic.GameState;
+import logic.MovementLogic;
+import network.EntityState;
+import network.EntityTable;
+import network.Fragmenter;
+import network.LatencyHistogram;
+import network.LinkQuality;
+import network.MessageCodec;
+import network.PlayerStateCodec;
+import network.PredictionBuffer;
+import network.ReliableChannel;
+import network.SendRate;
+import network.SnapshotHistory;
+
+/**
+ * Stress-tests a server with simulated players, e.g. before a LAN event.
+ *
+ * Every bot speaks the protocol ClientLogic does: it registers its name,
+ * handshakes, pings, and sends its state with its movement inputs 25 times a
+ * second. Bots walk the map under the game's own movement and collision rules,
+ * turning when they run into a wall. They get ready in the lobby and play the
+ * match: imposters hunt and kill, crewmates walk to bodies they hear of and
+ * report them, and everyone alive votes in meetings. All bots share one thread
+ * and one selector, so a few hundred fit in a single process.
+ *
+ * Bots are added in stages, e.g. 10, 50 and 100. After each stage has run
+ * for its duration the generator reports the snapshot latency, from sending an
+ * input until a snapshot confirms it, the ping round trip, lost snapshots and
+ * pongs, and the bytes each client sent and received per second.
+ *
+ * Usage: LoadGenerator [--host HOST] [--port N] [--bots N[,N...]]
+ * [--duration SECONDS] [--lobby ID] [--map FILE]
+ */
+public class LoadGenerator {
+	private static final int DEFAULT_PORT = 7777;
+	private static final String DEFAULT_MAP_FILE = "assets/map.tmx";
+	private static final long SEND_INTERVAL_MS = SendRate.MIN_INTERVAL_MS; // as a moving ClientLogic player
+	private static final int SENDS_PER_PING = 9;
+	private static final long HANDSHAKE_RETRY_MS = 1000;
+	private static final long WARMUP_MS = 3000;
+	private static final int NO_ID = -1;
+
+	// Match behaviour, in the game's units
+	private static final double KILL_RANGE = 100;
+	private static final double REPORT_RANGE = 150;
+	private static final long KILL_COOLDOWN_MS = GameState.KILL_COOLDOWN_MS; // the server rejects earlier kills
+	private static final long READY_DELAY_MS = 2000;
+	private static final long MAX_VOTE_DELAY_MS = 8000;
+	private static final long MIN_TURN_MS = 1000;
+	private static final long MAX_TURN_MS = 4000;
+	private static final double ARRIVE_DISTANCE = 20;
+	private static final int[] HEADINGS = { MovementLogic.INPUT_UP, MovementLogic.INPUT_DOWN,
+			MovementLogic.INPUT_LEFT, MovementLogic.INPUT_RIGHT, MovementLogic.INPUT_UP | MovementLogic.INPUT_LEFT,
+			MovementLogic.INPUT_UP | MovementLogic.INPUT_RIGHT, MovementLogic.INPUT_DOWN | MovementLogic.INPUT_LEFT,
+			MovementLogic.INPUT_DOWN | MovementLogic.INPUT_RIGHT };
+
+	// Reliable messages the bots send, resent until acked like ReliableChannel
+	private static final long RESEND_MS = 200;
+	private static final long GIVE_UP_MS = 15000;
+
+	private final InetSocketAddress server;
+	private final String lobby;
+	private final Selector selector;
+	private final Random random = new Random();
+	private final List<Bot> bots = new ArrayList<>();
+	// Receive only; the server's message ids tell the bots' messages apart
+	private final Fragmenter reassembler = new Fragmenter("LoadGenerator", null);
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocate(Fragmenter.MAX_DATAGRAM_SIZE + 64);
+
+	private final LatencyHistogram snapshotLatency = new LatencyHistogram();
+	private final LatencyHistogram pingRoundTrip = new LatencyHistogram();
+	private long lateTicks = 0;
+
+	public LoadGenerator(InetSocketAddress server, String lobby) throws IOException {
+		this.server = server;
+		this.lobby = lobby;
+		this.selector = Selector.open();
+	}
+
+	public static void main(String[] args) {
+		String host = "127.0.0.1";
+		int port = DEFAULT_PORT;
+		int[] stages = { 10, 50, 100 };
+		int duration = 30;
+		String lobby = null;
+		String mapFile = DEFAULT_MAP_FILE;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--host":
+					host = args[++i];
+					break;
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--bots":
+					String[] counts = args[++i].split(",");
+					stages = new int[counts.length];
+					for (int j = 0; j < counts.length; j++) {
+						stages[j] = Math.max(1, Integer.parseInt(counts[j].trim()));
+					}
+					break;
+				case "--duration":
+					duration = Math.max(1, Integer.parseInt(args[++i]));
+					break;
+				case "--lobby":
+					lobby = Integer.toString(Integer.parseInt(args[++i]));
+					break;
+				case "--map":
+					mapFile = args[++i];
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			System.err.println("LoadGenerator: " + e.getMessage());
+			System.err.println("Usage: LoadGenerator [--host HOST] [--port N] [--bots N[,N...]]"
+					+ " [--duration SECONDS] [--lobby ID] [--map FILE]");
+			System.exit(1);
+		}
+
+		// The map reader uses AWT types, which work without a display in headless mode
+		System.setProperty("java.awt.headless", "true");
+		try {
+			int objects = MovementLogic.loadCollisionGrid(mapFile);
+			System.out.println("LOADGEN: Loaded " + objects + " collision objects from " + mapFile);
+		} catch (Exception e) {
+			System.err.println("LOADGEN: Could not load map " + mapFile + ", bots will walk through walls: "
+					+ e.getMessage());
+		}
+
+		try {
+			LoadGenerator generator = new LoadGenerator(new InetSocketAddress(InetAddress.getByName(host), port),
+					lobby);
+			generator.run(stages, TimeUnit.SECONDS.toMillis(duration));
+			generator.close();
+		} catch (IOException e) {
+			System.err.println("LOADGEN: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Adds bots stage by stage, reporting on each stage once it has run for
+	 * the given time
+	 */
+	public void run(int[] stages, long stageMillis) throws IOException {
+		for (int target : stages) {
+			while (bots.size() < target) {
+				bots.add(new Bot(bots.size()));
+			}
+			System.out.println("LOADGEN: " + bots.size() + " bot(s) connecting to " + server);
+			runFor(WARMUP_MS);
+
+			resetStats();
+			long start = System.nanoTime();
+			runFor(stageMillis);
+			report((System.nanoTime() - start) / 1e9);
+		}
+	}
+
+	/**
+	 * Runs the event loop: drains every readable bot, and every SEND_INTERVAL_MS
+	 * lets each bot take its turn
+	 */
+	private void runFor(long millis) throws IOException {
+		long now = System.nanoTime();
+		long end = now + TimeUnit.MILLISECONDS.toNanos(millis);
+		long interval = TimeUnit.MILLISECONDS.toNanos(SEND_INTERVAL_MS);
+		long nextTick = now;
+		while (end - now > 0) {
+			long wait = TimeUnit.NANOSECONDS.toMillis(nextTick - now);
+			if (wait > 0) {
+				selector.select(wait);
+			} else {
+				selector.selectNow();
+			}
+			for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+				SelectionKey key = it.next();
+				it.remove();
+				((Bot) key.attachment()).receiveAll();
+			}
+
+			now = System.nanoTime();
+			if (now - nextTick >= 0) {
+				for (Bot bot : bots) {
+					bot.tick(now);
+				}
+				nextTick += interval;
+				if (now - nextTick >= 0) {
+					lateTicks++; // the generator itself cannot keep up
+					nextTick = now + interval;
+				}
+			}
+		}
+	}
+
+	private void resetStats() {
+		snapshotLatency.reset();
+		pingRoundTrip.reset();
+		lateTicks = 0;
+		for (Bot bot : bots) {
+			bot.resetStats();
+		}
+	}
+
+	private void report(double seconds) {
+		long snapshots = 0, lost = 0, late = 0, pings = 0, pongs = 0, resent = 0, givenUp = 0;
+		long kills = 0, reports = 0, votes = 0, connected = 0;
+		double minIn = Double.MAX_VALUE, maxIn = 0, totalIn = 0, totalOut = 0;
+		for (Bot bot : bots) {
+			snapshots += bot.snapshotCount;
+			lost += bot.lostSnapshots;
+			late += bot.lateSnapshots;
+			pings += bot.pingCount;
+			pongs += bot.pongCount;
+			resent += bot.resentCount;
+			givenUp += bot.givenUpCount;
+			kills += bot.killCount;
+			reports += bot.reportCount;
+			votes += bot.voteCount;
+			if (bot.playerId != NO_ID) {
+				connected++;
+			}
+			double in = bot.bytesIn / seconds;
+			minIn = Math.min(minIn, in);
+			maxIn = Math.max(maxIn, in);
+			totalIn += in;
+			totalOut += bot.bytesOut / seconds;
+		}
+		int n = bots.size();
+		System.out.println(String.format("LOADGEN: === %d bot(s), %.1f s, %d connected ===", n, seconds, connected));
+		System.out.println("LOADGEN: snapshot latency " + snapshotLatency.getSummary() + String.format(
+				" p90=%.3fms p999=%.3fms", snapshotLatency.getPercentileMillis(90),
+				snapshotLatency.getPercentileMillis(99.9)));
+		System.out.println("LOADGEN: ping round trip " + pingRoundTrip.getSummary());
+		System.out.println(String.format("LOADGEN: snapshots %d received, %d lost (%.2f%%), %d late", snapshots, lost,
+				percent(lost, snapshots + lost), late));
+		System.out.println(String.format("LOADGEN: pings %d sent, %d unanswered (%.2f%%)", pings,
+				Math.max(0, pings - pongs), percent(Math.max(0, pings - pongs), pings)));
+		System.out.println(String.format("LOADGEN: per client %.0f B/s in (min %.0f, max %.0f), %.0f B/s out",
+				totalIn / n, minIn, maxIn, totalOut / n));
+		System.out.println(String.format(
+				"LOADGEN: %d kill(s), %d report(s), %d vote(s); %d reliable resend(s), %d given up; %d late tick(s)",
+				kills, reports, votes, resent, givenUp, lateTicks));
+	}
+
+	private static double percent(long part, long whole) {
+		return whole == 0 ? 0 : 100.0 * part / whole;
+	}
+
+	public void close() {
+		for (Bot bot : bots) {
+			bot.close();
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			System.err.println("LOADGEN: Error closing selector: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * One simulated client with its own socket
+	 */
+	private class Bot {
+		private final String name;
+		private final DatagramChannel channel;
+		private final ByteBuffer stateBuffer = ByteBuffer.allocate(PlayerStateCodec.MAX_PACKET_SIZE);
+		private final PredictionBuffer prediction = new PredictionBuffer();
+		private final SnapshotHistory history = new SnapshotHistory();
+		private final PlayerStateCodec.SnapshotHeader header = new PlayerStateCodec.SnapshotHeader();
+		private final long[] inputSentNanos = new long[PredictionBuffer.CAPACITY];
+		private final int charId;
+
+		private int playerId = NO_ID;
+		private String key;
+		private long lastHandshakeNanos;
+		private int sends = 0;
+		private long pingSentNanos = 0;
+		private int pingSequence = 0;
+		private int lastInputAck = PredictionBuffer.NO_SEQUENCE;
+		private int lastSnapshotSequence = SnapshotHistory.NO_SEQUENCE;
+
+		// What the bot knows of the game
+		private final double[] position = new double[2];
+		private EntityTable players = new EntityTable();
+		private String status = "crewmate";
+		private boolean prepEnded = false;
+		private boolean ready = false;
+		private long readyAtNanos;
+		private int direction = 2;
+		private int heading;
+		private long turnAtNanos;
+		private long detourUntilNanos;
+		private long nextKillNanos;
+		private final Map<String, double[]> corpses = new HashMap<>();
+		private boolean inMeeting = false;
+		private long voteAtNanos;
+
+		// Reliable messages: ours until acked, theirs to acknowledge and dedupe
+		private final int epoch = random.nextInt();
+		private int nextSequence = 0;
+		private final LinkedHashMap<Integer, Pending> unacked = new LinkedHashMap<>();
+		private boolean hasRemoteEpoch = false;
+		private int remoteEpoch;
+		private int nextExpected = 0;
+		private final TreeSet<Integer> aheadReceived = new TreeSet<>();
+
+		// Counted since the last resetStats
+		private long snapshotCount, lostSnapshots, lateSnapshots, pingCount, pongCount;
+		private long bytesIn, bytesOut, resentCount, givenUpCount, killCount, reportCount, voteCount;
+
+		Bot(int index) throws IOException {
+			this.name = "Bot-" + index;
+			this.charId = random.nextInt(9);
+			this.channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			channel.bind(new InetSocketAddress(0));
+			channel.connect(server);
+			channel.register(selector, SelectionKey.OP_READ, this);
+
+			int spawn = random.nextInt(MovementLogic.SPAWN_X.length);
+			position[0] = MovementLogic.SPAWN_X[spawn];
+			position[1] = MovementLogic.SPAWN_Y[spawn];
+			prediction.recordTeleport(position[0], position[1]);
+
+			long now = System.nanoTime();
+			readyAtNanos = now + TimeUnit.MILLISECONDS.toNanos(random.nextInt((int) READY_DELAY_MS));
+			pickHeading(now);
+			send(MessageCodec.encode(MessageCodec.OP_NAME, name));
+			handshake(now);
+		}
+
+		private void handshake(long now) {
+			lastHandshakeNanos = now;
+			send(MessageCodec.encode(MessageCodec.OP_HANDSHAKE, lobby != null ? "lobby:" + lobby : ""));
+		}
+
+		/**
+		 * The bot's turn: moves, acts on the match, and sends its state and
+		 * every SENDS_PER_PING sends a heartbeat probe in it, like ClientLogic
+		 */
+		void tick(long now) {
+			if (playerId == NO_ID) {
+				if (now - lastHandshakeNanos > TimeUnit.MILLISECONDS.toNanos(HANDSHAKE_RETRY_MS)) {
+					handshake(now);
+				}
+				return;
+			}
+
+			int probe = -1;
+			if (++sends >= SENDS_PER_PING) {
+				// The heartbeat rides in the state packet, as ClientLogic's does while moving
+				sends = 0;
+				pingSentNanos = now;
+				pingCount++;
+				probe = ++pingSequence;
+			}
+			if (!ready && now - readyAtNanos >= 0) {
+				ready = true;
+			}
+
+			act(now);
+			int input = inMeeting ? 0 : steer(now);
+			boolean ghost = "dead".equals(status);
+			prediction.reconcile(position,
+					(replayed, replayedInput, dtMillis) -> MovementLogic.step(replayed, replayedInput, dtMillis, ghost));
+			double oldX = position[0];
+			double oldY = position[1];
+			boolean moving = MovementLogic.step(position, input, (int) SEND_INTERVAL_MS, ghost);
+			direction = MovementLogic.directionOf(input, direction);
+			int sequence = prediction.record(input, (int) SEND_INTERVAL_MS, position[0], position[1]);
+			inputSentNanos[Math.floorMod(sequence, PredictionBuffer.CAPACITY)] = now;
+			if (moving && oldX == position[0] && oldY == position[1]) {
+				// Walked into a wall: wander off in another direction for a while
+				pickHeading(now);
+				detourUntilNanos = turnAtNanos;
+			}
+
+			PlayerStateCodec.writeClientState(stateBuffer, name, position[0], position[1], direction, moving, charId,
+					ready, 0, history.getAckedSequence(), history.isFullRequested(), prediction, probe);
+			sendBuffer(stateBuffer);
+			resendDue(now);
+		}
+
+		/**
+		 * Kills, reports and votes, once the match is on
+		 */
+		private void act(long now) {
+			if (!prepEnded || "dead".equals(status)) {
+				return;
+			}
+			if (inMeeting) {
+				if (voteAtNanos != 0 && now - voteAtNanos >= 0) {
+					voteAtNanos = 0;
+					vote();
+				}
+				return;
+			}
+			if ("imposter".equals(status)) {
+				EntityState target = nearestCrewmate();
+				if (target != null && now - nextKillNanos >= 0 && distanceTo(target.getX(), target.getY()) <= KILL_RANGE) {
+					nextKillNanos = now + TimeUnit.MILLISECONDS.toNanos(KILL_COOLDOWN_MS);
+					JSONObject kill = new JSONObject();
+					kill.put("killedPlayer", target.getKey());
+					kill.put("reporter", key);
+					sendReliable(MessageCodec.encode(MessageCodec.OP_KILL, kill.toString()));
+					killCount++;
+				}
+				return;
+			}
+			for (Iterator<Map.Entry<String, double[]>> it = corpses.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, double[]> corpse = it.next();
+				if (distanceTo(corpse.getValue()[0], corpse.getValue()[1]) <= REPORT_RANGE) {
+					it.remove();
+					JSONObject report = new JSONObject();
+					report.put("reporter", key);
+					report.put("corpse", corpse.getKey());
+					sendReliable(MessageCodec.encode(MessageCodec.OP_REPORT, report.toString()));
+					reportCount++;
+					return;
+				}
+			}
+		}
+
+		private void vote() {
+			List<String> candidates = new ArrayList<>();
+			for (int i = 0; i < players.size(); i++) {
+				EntityState state = players.at(i);
+				if (state.getId() != playerId && !"dead".equals(state.getStatus())) {
+					candidates.add(state.getKey());
+				}
+			}
+			// Some skip, so not every meeting ejects someone
+			String target = candidates.isEmpty() || random.nextInt(4) == 0 ? "skip"
+					: candidates.get(random.nextInt(candidates.size()));
+			JSONObject vote = new JSONObject();
+			vote.put("voter", key);
+			vote.put("target", target);
+			sendReliable(MessageCodec.encode(MessageCodec.OP_VOTE, vote.toString()));
+			voteCount++;
+		}
+
+		/**
+		 * Returns the input for this turn: imposters chase the nearest
+		 * crewmate, crewmates walk to bodies they know of, and everyone else
+		 * wanders, turning every few seconds
+		 */
+		private int steer(long now) {
+			double[] goal = null;
+			if (prepEnded && "imposter".equals(status)) {
+				EntityState target = nearestCrewmate();
+				if (target != null) {
+					goal = new double[] { target.getX(), target.getY() };
+				}
+			} else if (prepEnded && !"dead".equals(status) && !corpses.isEmpty()) {
+				goal = corpses.values().iterator().next();
+			}
+			if (goal != null && now - detourUntilNanos >= 0) {
+				return inputToward(goal[0], goal[1]);
+			}
+			if (now - turnAtNanos >= 0) {
+				pickHeading(now);
+			}
+			return heading;
+		}
+
+		private void pickHeading(long now) {
+			heading = HEADINGS[random.nextInt(HEADINGS.length)];
+			long turnMillis = MIN_TURN_MS + random.nextInt((int) (MAX_TURN_MS - MIN_TURN_MS));
+			turnAtNanos = now + TimeUnit.MILLISECONDS.toNanos(turnMillis);
+		}
+
+		private int inputToward(double x, double y) {
+			int input = 0;
+			double dx = x - position[0];
+			double dy = y - position[1];
+			if (dx > ARRIVE_DISTANCE) {
+				input |= MovementLogic.INPUT_RIGHT;
+			} else if (dx < -ARRIVE_DISTANCE) {
+				input |= MovementLogic.INPUT_LEFT;
+			}
+			if (dy > ARRIVE_DISTANCE) {
+				input |= MovementLogic.INPUT_DOWN;
+			} else if (dy < -ARRIVE_DISTANCE) {
+				input |= MovementLogic.INPUT_UP;
+			}
+			return input;
+		}
+
+		/**
+		 * Returns the nearest other living player that is not an imposter, or
+		 * null
+		 */
+		private EntityState nearestCrewmate() {
+			EntityState best = null;
+			double bestDistance = Double.MAX_VALUE;
+			for (int i = 0; i < players.size(); i++) {
+				EntityState state = players.at(i);
+				if (state.getId() == playerId || "dead".equals(state.getStatus())
+						|| "imposter".equals(state.getStatus())) {
+					continue;
+				}
+				double distance = distanceTo(state.getX(), state.getY());
+				if (distance < bestDistance) {
+					best = state;
+					bestDistance = distance;
+				}
+			}
+			return best;
+		}
+
+		private double distanceTo(double x, double y) {
+			return Math.hypot(x - position[0], y - position[1]);
+		}
+
+		/**
+		 * Reads every datagram waiting on the socket
+		 */
+		void receiveAll() {
+			try {
+				while (true) {
+					receiveBuffer.clear();
+					if (channel.receive(receiveBuffer) == null) {
+						return;
+					}
+					receiveBuffer.flip();
+					bytesIn += receiveBuffer.remaining();
+					handleDatagram(receiveBuffer);
+				}
+			} catch (IOException e) {
+				// e.g. ICMP port unreachable while the server is down; keep trying
+			}
+		}
+
+		private void handleDatagram(ByteBuffer data) {
+			if (Fragmenter.isFragment(data)) {
+				ByteBuffer message = reassembler.receive(data, server);
+				if (message != null) {
+					handleMessage(message);
+					reassembler.release(message);
+				}
+				return;
+			}
+			handleMessage(data);
+		}
+
+		private void handleMessage(ByteBuffer data) {
+			if (!data.hasRemaining()) {
+				return;
+			}
+			int opcode = data.get(data.position()) & 0xFF;
+			if (opcode == (ReliableChannel.OP_RELIABLE & 0xFF)) {
+				handleReliable(data);
+				return;
+			}
+			if (opcode == (ReliableChannel.OP_ACK & 0xFF)) {
+				if (ReliableChannel.isAck(data) && ReliableChannel.peekEpoch(data) == epoch) {
+					unacked.remove(ReliableChannel.peekSequence(data));
+				}
+				return;
+			}
+			if (opcode == (PlayerStateCodec.OP_SNAPSHOT & 0xFF)) {
+				handleSnapshot(data);
+				return;
+			}
+			switch (opcode) {
+			case MessageCodec.OP_HANDSHAKE_ACK:
+				if (playerId == NO_ID) {
+					try {
+						// "<id> <resume token>"; bots never resume, so the token is not kept
+						playerId = Integer.parseInt(MessageCodec.readText(data).trim().split(" ")[0]);
+					} catch (NumberFormatException e) {
+						System.err.println("LOADGEN: " + name + " got a bad player id");
+					}
+				}
+				break;
+			case MessageCodec.OP_PING:
+				// The server measuring our link
+				send(LinkQuality.encodeProbe(MessageCodec.OP_PONG, LinkQuality.readProbeSequence(data)));
+				break;
+			case MessageCodec.OP_PONG:
+				if (pingSentNanos != 0 && LinkQuality.readProbeSequence(data) == pingSequence) {
+					pingRoundTrip.record(System.nanoTime() - pingSentNanos);
+					pingSentNanos = 0;
+					pongCount++;
+				}
+				break;
+			case MessageCodec.OP_KILL:
+				JSONObject kill = new JSONObject(MessageCodec.readText(data));
+				corpses.put(kill.getString("killedPlayer"),
+						new double[] { kill.getDouble("x"), kill.getDouble("y") });
+				break;
+			case MessageCodec.OP_MEETING:
+				inMeeting = true;
+				corpses.clear(); // the server starts one meeting per body; the rest stay found
+				voteAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1 + random.nextInt((int) MAX_VOTE_DELAY_MS));
+				break;
+			case MessageCodec.OP_RESULTS:
+			case MessageCodec.OP_EJECTION:
+				inMeeting = false;
+				voteAtNanos = 0;
+				break;
+			default:
+				break; // chat, votes of others and lists only matter to a person
+			}
+		}
+
+		/**
+		 * Acks a reliable frame and handles its message unless it is a
+		 * duplicate. Messages are handled as they arrive; a bot does not need
+		 * them in order.
+		 */
+		private void handleReliable(ByteBuffer frame) {
+			if (!ReliableChannel.isReliable(frame)) {
+				return;
+			}
+			int frameEpoch = ReliableChannel.peekEpoch(frame);
+			int sequence = ReliableChannel.peekSequence(frame);
+			sendBuffer(ReliableChannel.encodeAck(frameEpoch, sequence));
+			if (!hasRemoteEpoch || remoteEpoch != frameEpoch) {
+				hasRemoteEpoch = true;
+				remoteEpoch = frameEpoch;
+				nextExpected = 0;
+				aheadReceived.clear();
+			}
+			if (sequence < nextExpected || !aheadReceived.add(sequence)) {
+				return;
+			}
+			while (aheadReceived.remove(nextExpected)) {
+				nextExpected++;
+			}
+			handleMessage(ReliableChannel.peekMessage(frame));
+		}
+
+		/**
+		 * Applies a snapshot the way ClientLogic does, and records how long the
+		 * newest input it confirms took and which snapshots went missing
+		 */
+		private void handleSnapshot(ByteBuffer view) {
+			if (!PlayerStateCodec.readSnapshotHeader(view, header)) {
+				return;
+			}
+			long now = System.nanoTime();
+			int sequence = header.getSequence();
+			if (lastSnapshotSequence != SnapshotHistory.NO_SEQUENCE && sequence > lastSnapshotSequence) {
+				lostSnapshots += sequence - lastSnapshotSequence - 1;
+			} else if (sequence <= lastSnapshotSequence && !header.isFull()) {
+				lateSnapshots++;
+				return;
+			}
+			lastSnapshotSequence = sequence;
+			snapshotCount++;
+
+			int inputAck = header.getInputAck();
+			if (inputAck > lastInputAck && inputAck < prediction.getNextSequence()
+					&& prediction.getNextSequence() - inputAck <= PredictionBuffer.CAPACITY) {
+				snapshotLatency.record(now - inputSentNanos[Math.floorMod(inputAck, PredictionBuffer.CAPACITY)]);
+				lastInputAck = inputAck;
+			}
+
+			EntityTable baseline = null;
+			if (header.isFull()) {
+				if (sequence <= history.getLatestSequence()) {
+					history.reset(); // server restarted its sequence
+				}
+			} else {
+				baseline = history.get(header.getBaseSequence());
+				if (baseline == null) {
+					history.setFullRequested(true);
+					return;
+				}
+			}
+			EntityTable snapshot = baseline == null ? new EntityTable() : new EntityTable(baseline);
+			int removedCount = PlayerStateCodec.readCount(view);
+			for (int i = 0; i < removedCount; i++) {
+				int id = PlayerStateCodec.readRemovedEntity(view);
+				if (id < 0) {
+					history.setFullRequested(true);
+					return;
+				}
+				snapshot.remove(id);
+			}
+			int count = removedCount < 0 ? -1 : PlayerStateCodec.readCount(view);
+			for (int i = 0; i < count; i++) {
+				EntityState state = PlayerStateCodec.readEntityDelta(view, baseline);
+				if (state == null) {
+					count = -1;
+					break;
+				}
+				snapshot.put(state);
+			}
+			if (count < 0) {
+				history.setFullRequested(true);
+				return;
+			}
+			history.store(sequence, snapshot);
+			history.acknowledge(sequence);
+			if (header.isFull()) {
+				history.setFullRequested(false);
+			}
+			players = snapshot;
+
+			if (prepEnded && !header.isPrepEnded()) {
+				// Match over, the lobby is open again
+				corpses.clear();
+				inMeeting = false;
+				ready = false;
+				readyAtNanos = now + TimeUnit.MILLISECONDS.toNanos(random.nextInt((int) READY_DELAY_MS));
+			} else if (!prepEnded && header.isPrepEnded()) {
+				nextKillNanos = now + TimeUnit.MILLISECONDS.toNanos(KILL_COOLDOWN_MS);
+			}
+			prepEnded = header.isPrepEnded();
+
+			EntityState own = snapshot.get(playerId);
+			if (own != null) {
+				key = own.getKey();
+				status = own.getStatus();
+				prediction.setServerState(inputAck, own.getX(), own.getY());
+			}
+		}
+
+		private void sendReliable(byte[] message) {
+			if (key == null) {
+				return;
+			}
+			int sequence = nextSequence++;
+			Pending pending = new Pending(ReliableChannel.encodeFrame(epoch, sequence, message), System.nanoTime());
+			unacked.put(sequence, pending);
+			send(pending.frame);
+		}
+
+		private void resendDue(long now) {
+			for (Iterator<Pending> it = unacked.values().iterator(); it.hasNext();) {
+				Pending pending = it.next();
+				if (now - pending.firstSentNanos > TimeUnit.MILLISECONDS.toNanos(GIVE_UP_MS)) {
+					it.remove();
+					givenUpCount++;
+				} else if (now - pending.lastSentNanos > TimeUnit.MILLISECONDS.toNanos(RESEND_MS)) {
+					pending.lastSentNanos = now;
+					resentCount++;
+					send(pending.frame);
+				}
+			}
+		}
+
+		private void send(byte[] message) {
+			sendBuffer(ByteBuffer.wrap(message));
+		}
+
+		private void sendBuffer(ByteBuffer data) {
+			try {
+				bytesOut += channel.write(data);
+			} catch (IOException e) {
+				// Counted as lost by the server's side of the statistics
+			}
+		}
+
+		void resetStats() {
+			snapshotCount = lostSnapshots = lateSnapshots = pingCount = pongCount = 0;
+			bytesIn = bytesOut = resentCount = givenUpCount = killCount = reportCount = voteCount = 0;
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("LOADGEN: Error closing " + name + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * A reliable message a bot sent that the server has not acked yet
+	 */
+	private static class Pending {
+		final byte[] frame;
+		final long firstSentNanos;
+		long lastSentNanos;
+
+		Pending(byte[] frame, long now) {
+			this.frame = frame;
+			this.firstSentNanos = now;
+			this.lastSentNanos = now;
+		}
+	}
+}
@@ -5,6 +5,7 @@ import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
+import network.GameScheduler;
 
 
 public class Main extends Application {
@@ -35,6 +36,12 @@ public class Main extends Application {
         
     }
 
+    @Override
+    public void stop() {
+        // Ends the timer thread shared by the client, the server and the UI
+        GameScheduler.shutdownShared();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -2,11 +2,8 @@ package gui;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.ArrayList;
@@ -66,6 +63,8 @@ import javafx.scene.text.TextAlignment;
 import javafx.stage.Stage;
 import javafx.util.Duration;
 import logic.*;
+import network.GameScheduler;
+import network.LinkQuality;
 
 import org.json.JSONObject;
 import org.mapeditor.core.Map;
@@ -79,7 +78,6 @@ import org.mapeditor.view.OrthogonalRenderer;
 import org.mapeditor.view.IsometricRenderer;
 import org.mapeditor.view.HexagonalRenderer;
 
-import server.ClientInfo;
 import server.PlayerInfo;
 
 import java.util.concurrent.ExecutorService;
@@ -110,9 +108,8 @@ public class GameWindow {
 	private static boolean MeetingOpen = false;
 
 	// === Player Properties ===
-	private static double playerX = 980; // Starting Position
-	private static double playerY = 3616; // Starting Position
-	private static double speed = 130; // Movement speed in units per second
+	private static double playerX = MovementLogic.LOBBY_X; // Starting Position
+	private static double playerY = MovementLogic.LOBBY_Y; // Starting Position
 	private ImageView playerIMG;
 	private Animation animation;
 	private boolean wasAlive = true; // Add as a class field
@@ -144,11 +141,6 @@ public class GameWindow {
 	private MapRenderer renderer;
 	private MeetingUI activeMeetingUI;
 	private long lastUpdate = 0; // Track the last update time
-	private static int PossibleSpawnsX[] = { 1681, 1711, 1742, 1774, 1774, 1809, 1809, 1840, 1840, 1840, 1840, 1807,
-			1807, 1777, 1777, 1744, 1711, 1679, 1679, 1646, 1646, 1615, 1615, 1615, 1615, 1646, 1646, 1679 };
-	private static int PossibleSpawnsY[] = { 1491, 1491, 1491, 1491, 1526, 1526, 1556, 1556, 1589, 1618, 1651, 1651,
-			1687, // 0-27
-			1686, 1714, 1714, 1714, 1714, 1684, 1684, 1652, 1652, 1621, 1590, 1557, 1557, 1526, 1526 };
 
 	// === Collision & Events ===
 	private List<gameObjects.CollisionObject> collisionObjects = new CopyOnWriteArrayList<>();
@@ -181,7 +173,6 @@ public class GameWindow {
 	// === Animation Timer ===
 	private AnimationTimer timer;
 	private long lastchecktask = 0;
-	private long laskcheckkill = 0;
 
 	// === Player Size ===
 	private final double PLAYER_RADIUS = 10;
@@ -258,9 +249,11 @@ public class GameWindow {
 					GameLogic.autoImposterCount(); // For now, automatically set imposter count to be 1/4 of player size
 					// System.out.println(GameLogic.getImposterCount());
 					if (MainMenuPane.getState().equals(logic.State.SERVER)) {
-						ServerLogic.randomizeImposters();
+						// The reveal shows our role, so it waits for the session to deal them
+						ServerLogic.randomizeImposters(GameWindow::triggerGameStartTransition);
+					} else {
+						triggerGameStartTransition(); // this auto teleports us
 					}
-					triggerGameStartTransition(); // this auto teleports us
 				}
 
 				if (!GameLogic.isPrepEnded() && prepPhaseGui != null) {
@@ -276,6 +269,7 @@ public class GameWindow {
 				keylogger();
 				updateMovement(now);
 				updateCamera();
+				ClientLogic.interpolateRemotePlayers(now);
 				render();
 				displayFPS();
 				checkPlayerStateChange();
@@ -287,16 +281,7 @@ public class GameWindow {
 				}
 				if (System.currentTimeMillis() - lastchecktask > 500) {
 					lastchecktask = System.currentTimeMillis();
-					PlayerLogic.updateTaskPercent();
-					GameLogic.checkGameConditions();
-				}
-				if (System.currentTimeMillis() - laskcheckkill > 1000) {
-					laskcheckkill = System.currentTimeMillis();
-					if (GameLogic.getKillCooldown() > 0)
-						GameLogic.setKillCooldown(GameLogic.getKillCooldown() - 1);
-
-					if (GameLogic.getEmergencyMeetingCooldown() > 0)
-						GameLogic.setEmergencyMeetingCooldown(GameLogic.getEmergencyMeetingCooldown() - 1);
+					PlayerLogic.updateTaskPercent(); // the server checks the win conditions on its tick
 				}
 				if (PlayerLogic.getMoving()) {
 					animation.play();
@@ -538,37 +523,8 @@ public class GameWindow {
 
 	private void loadCollisionObjects() {
 		collisionObjects.clear();
-		final List<gameObjects.CollisionObject> tempCollisionObjects = Collections.synchronizedList(new ArrayList<>());
-
-		for (MapLayer layer : map.getLayers()) {
-			if (layer instanceof ObjectGroup) {
-				ObjectGroup objectGroup = (ObjectGroup) layer;
-
-				if (objectGroup.getName().toLowerCase().contains("collision")
-						|| "true".equals(objectGroup.getProperties().getProperty("collision"))) {
-
-					for (org.mapeditor.core.MapObject object : objectGroup.getObjects()) {
-						double x = object.getX();
-						double y = object.getY();
-						double width = object.getWidth();
-						double height = object.getHeight();
-
-						// Debug: Print collision object coordinates
-						// System.out.println(
-						// "Collision Object: x=" + x + ", y=" + y + ", width=" + width + ", height=" +
-						// height);
-
-						tempCollisionObjects.add(new CollisionObject(x, y, width, height));
-					}
-				}
-			}
-		}
-
-		collisionObjects.addAll(tempCollisionObjects);
+		collisionObjects.addAll(MovementLogic.readCollisionObjects(map));
 		initializeSpatialGrid();
-
-		// System.out.println("Loaded " + collisionObjects.size() + " collision
-		// objects");
 	}
 
 	private void loadEventObjects() {
@@ -708,13 +664,13 @@ public class GameWindow {
 
 					// Check if player is within FOV radius before adding to render list
 					final int FOV_RADIUS = 1000; // Adjust as needed
-					double distX = playerInfo.getX() - PlayerLogic.getMyPosX();
-					double distY = playerInfo.getY() - PlayerLogic.getMyPosY();
+					double distX = playerInfo.getRenderX() - PlayerLogic.getMyPosX();
+					double distY = playerInfo.getRenderY() - PlayerLogic.getMyPosY();
 					double distance = Math.sqrt(distX * distX + distY * distY);
 
 					if (distance <= FOV_RADIUS) {
-						playersToRender.add(new PlayerRenderInfo(key, playerInfo.getX(), playerInfo.getY(), playerInfo,
-								playerInfo.getCharacterID()));
+						playersToRender.add(new PlayerRenderInfo(key, playerInfo.getRenderX(), playerInfo.getRenderY(),
+								playerInfo, playerInfo.getCharacterID()));
 					}
 				}
 			}
@@ -926,13 +882,13 @@ public class GameWindow {
 	// Update the renderOtherPlayer method for non-local player ghosts
 	private void renderOtherPlayer(PlayerInfo playerInfo) {
 		final int FOV_RADIUS = 1000; // Adjust this value as needed
-		double distX = playerInfo.getX() - PlayerLogic.getMyPosX();
-		double distY = playerInfo.getY() - PlayerLogic.getMyPosY();
+		double distX = playerInfo.getRenderX() - PlayerLogic.getMyPosX();
+		double distY = playerInfo.getRenderY() - PlayerLogic.getMyPosY();
 		double distance = Math.sqrt(distX * distX + distY * distY);
 
 		if (distance <= FOV_RADIUS) {
-			double playerScreenX = playerInfo.getX() - viewportX;
-			double playerScreenY = playerInfo.getY() - viewportY;
+			double playerScreenX = playerInfo.getRenderX() - viewportX;
+			double playerScreenY = playerInfo.getRenderY() - viewportY;
 
 			String playerID = playerInfo.toString(); // Unique key per player
 
@@ -1009,50 +965,34 @@ public class GameWindow {
 			deltaTime = 0.1;
 		}
 
-		// Calculate movement
-		double dx = 0, dy = 0;
-		int Direction = PlayerLogic.getDirection();
-		boolean moved = false;
-
+		// Collect input
+		int input = 0;
 		if (pressedKeys.contains(KeyCode.W)) {
-			dy -= speed * deltaTime; // Move up
-			moved = true;
+			input |= MovementLogic.INPUT_UP;
 		}
 		if (pressedKeys.contains(KeyCode.S)) {
-			dy += speed * deltaTime; // Move down
-			moved = true;
+			input |= MovementLogic.INPUT_DOWN;
 		}
 		if (pressedKeys.contains(KeyCode.A)) {
-			dx -= speed * deltaTime; // Move left
-			Direction = 1;
-			moved = true;
+			input |= MovementLogic.INPUT_LEFT;
 		}
 		if (pressedKeys.contains(KeyCode.D)) {
-			dx += speed * deltaTime; // Move right
-			Direction = 2;
-			moved = true;
-		}
-		if (dx != 0 && dy != 0) { // cap diag speed
-			dx /= Math.sqrt(2);
-			dy /= Math.sqrt(2);
-		}
-		if (!PlayerLogic.getStatus().equals("dead")) { // if alive check for collision
-			// Move horizontally
-			if (dx != 0) {
-				if (!checkCollision(playerX + dx, playerY)) {
-					playerX += dx;
-				}
-			}
+			input |= MovementLogic.INPUT_RIGHT;
+		}
+		// Whole milliseconds, so the server replays exactly the step predicted here
+		int dtMillis = (int) Math.round(deltaTime * 1000);
+		boolean ghost = PlayerLogic.getStatus().equals("dead");
 
-			// Move vertically
-			if (dy != 0) {
-				if (!checkCollision(playerX, playerY + dy)) {
-					playerY += dy;
-				}
-			}
-		} else { // if dead - no collision checks
-			playerX += dx;
-			playerY += dy;
+		// Apply any correction from the server before predicting this frame
+		double[] position = { playerX, playerY };
+		ClientLogic.reconcileLocalPlayer(position, ghost);
+
+		boolean moved = MovementLogic.step(position, input, dtMillis, ghost);
+		int Direction = MovementLogic.directionOf(input, PlayerLogic.getDirection());
+		playerX = position[0];
+		playerY = position[1];
+		if (moved) {
+			ClientLogic.recordLocalInput(input, dtMillis, playerX, playerY);
 		}
 
 		// Send the updated position to the server or client
@@ -1115,7 +1055,6 @@ public class GameWindow {
 								"EMERGENCY MEETING COOLDOWN : " + GameLogic.getRemainingEmergencyMeetingCooldown());
 						return;
 					}
-					GameLogic.setEmergencyMeetingCooldown(30);
 					System.out.println("Emergency meeting button pressed");
 					TaskLogic.openTask(eventId, taskContainer);
 
@@ -1161,7 +1100,8 @@ public class GameWindow {
 						showNotification("KILL COOLDOWN : " + GameLogic.getKillCooldown());
 						return;
 					}
-					GameLogic.setKillCooldown(25);
+					// A guess until the server's kill broadcast says when the cooldown ends
+					GameLogic.setKillCooldown((int) (GameState.KILL_COOLDOWN_MS / 1000));
 					PlayerInfo closestTarget = findClosestKillablePlayer();
 					if (closestTarget != null) {
 						// Trigger kill method
@@ -1236,10 +1176,14 @@ public class GameWindow {
 
 			System.out.println("GAMEWINDOW: Kill details - Victim: " + killedPlayerKey + ", Killer: " + killerKey);
 
-			target.setStatus("dead");
-			Corpse corpse = new Corpse(target);
-			GameLogic.corpseList.put(killedPlayerKey, corpse);
-			System.out.println("GAMEWINDOW: Created local corpse at " + corpse.getX() + "," + corpse.getY());
+			if (MainMenuPane.getState().equals(State.CLIENT)) {
+				// Shown ahead of the server, which sends a resync if it rejects the kill.
+				// The host's player list is the server's own, so the host waits for the tick.
+				target.setStatus("dead");
+				Corpse corpse = new Corpse(target);
+				GameLogic.corpseList.put(killedPlayerKey, corpse);
+				System.out.println("GAMEWINDOW: Created local corpse at " + corpse.getX() + "," + corpse.getY());
+			}
 
 			// Construct the report payload
 			JSONObject killReport = new JSONObject();
@@ -1259,8 +1203,8 @@ public class GameWindow {
 			if (MainMenuPane.getState().equals(State.CLIENT)) {
 				ClientLogic.sendMessage(message, ServerSelectGui.getLogArea());
 			} else if (MainMenuPane.getState().equals(State.SERVER)) {
-				// If server, directly call server logic
-				ServerLogic.handleKillReport(killedPlayerKey, killerKey, ServerSelectGui.getLogArea());
+				// If server, hand the kill to the rules engine
+				ServerLogic.handleKillReport(killedPlayerKey, killerKey);
 			}
 
 			System.out.println("GAMEWINDOW: Kill report sent for player: " + target.getName());
@@ -1363,20 +1307,13 @@ public class GameWindow {
 		fadeIn.play();
 
 		// Hold then fade out
-		new Thread(() -> {
-			try {
-				Thread.sleep(1500);
-				Platform.runLater(() -> {
-					FadeTransition fadeOut = new FadeTransition(Duration.millis(200), messagePane);
-					fadeOut.setFromValue(1);
-					fadeOut.setToValue(0);
-					fadeOut.setOnFinished(e -> root.getChildren().remove(messagePane));
-					fadeOut.play();
-				});
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}).start();
+		GameScheduler.get().schedule("Message fade", 1500, () -> {
+			FadeTransition fadeOut = new FadeTransition(Duration.millis(200), messagePane);
+			fadeOut.setFromValue(1);
+			fadeOut.setToValue(0);
+			fadeOut.setOnFinished(e -> root.getChildren().remove(messagePane));
+			fadeOut.play();
+		}, Platform::runLater);
 	}
 
 	public void onCharacterSelected() {
@@ -1384,44 +1321,6 @@ public class GameWindow {
 		loadPlayerimg();
 	}
 
-	// Maintain backwards compatibility with original method
-	private boolean checkCollision(double x, double y) {
-		double playerLeft = x - 24; // Half of 48 (width)
-		double playerRight = x + 24; // Half of 48 (width)
-		double playerBottom = y + 34; // Bottom of the player's bounding box (64 height)
-		double playerFeetTop = playerBottom - 20; // Top of the 20-pixel tall collision area
-
-		int startGridX = (int) (playerLeft / GRID_CELL_SIZE);
-		int startGridY = (int) (playerFeetTop / GRID_CELL_SIZE);
-		int endGridX = (int) (playerRight / GRID_CELL_SIZE);
-		int endGridY = (int) (playerBottom / GRID_CELL_SIZE);
-
-		for (int gridY = startGridY; gridY <= endGridY; gridY++) {
-			for (int gridX = startGridX; gridX <= endGridX; gridX++) {
-				String key = gridX + ":" + gridY;
-				ConcurrentLinkedQueue<CollisionObject> cellObjects = spatialGrid.get(key);
-
-				if (cellObjects != null) {
-					for (CollisionObject obj : cellObjects) {
-						double objLeft = obj.getX();
-						double objRight = obj.getX() + obj.getWidth();
-						double objTop = obj.getY();
-						double objBottom = obj.getY() + obj.getHeight();
-
-						// Check for collision with the bottom 20 pixels of the player
-						if (playerRight > objLeft && playerLeft < objRight && playerBottom > objTop
-								&& playerFeetTop < objBottom) {
-							// System.out.println("Collision with object at (" + obj.getX() + ", " +
-							// obj.getY() + ")");
-							return true; // Collision detected
-						}
-					}
-				}
-			}
-		}
-		return false; // No collision
-	}
-
 	private void drawMap(GraphicsContext gc, double viewportX, double viewportY, double viewportWidth,
 			double viewportHeight) {
 		gc.setFill(Color.BLACK);
@@ -1647,64 +1546,17 @@ public class GameWindow {
 
 	private void initializeSpatialGrid() {
 		// Adjust grid cell size based on average object size for better performance
-		// Using smaller cells for denser maps, larger cells for sparse maps
-		GRID_CELL_SIZE = calculateOptimalGridSize();
-
-		spatialGrid = new ConcurrentHashMap<>();
+		GRID_CELL_SIZE = MovementLogic.optimalCellSize(collisionObjects, map.getWidth() * map.getTileWidth(),
+				map.getHeight() * map.getTileHeight());
+		spatialGrid = MovementLogic.buildCollisionGrid(collisionObjects, GRID_CELL_SIZE);
 
-		for (CollisionObject obj : collisionObjects) {
-			int startGridX = (int) (obj.getX() / GRID_CELL_SIZE);
-			int startGridY = (int) (obj.getY() / GRID_CELL_SIZE);
-			int endGridX = (int) ((obj.getX() + obj.getWidth()) / GRID_CELL_SIZE);
-			int endGridY = (int) ((obj.getY() + obj.getHeight()) / GRID_CELL_SIZE);
-
-			for (int gridY = startGridY; gridY <= endGridY; gridY++) {
-				for (int gridX = startGridX; gridX <= endGridX; gridX++) {
-					String key = gridX + ":" + gridY;
-					spatialGrid.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(obj);
-				}
-			}
-		}
+		// Shared with the movement simulation, for prediction and the server alike
+		MovementLogic.setCollisionGrid(spatialGrid, GRID_CELL_SIZE);
 
 		System.out.println(
 				"Spatial grid initialized with cell size: " + GRID_CELL_SIZE + ", total cells: " + spatialGrid.size());
 	}
 
-	private int calculateOptimalGridSize() {
-		if (collisionObjects.isEmpty()) {
-			return 128; // Default size
-		}
-
-		// Calculate average object size
-		double totalWidth = 0;
-		double totalHeight = 0;
-
-		for (CollisionObject obj : collisionObjects) {
-			totalWidth += obj.getWidth();
-			totalHeight += obj.getHeight();
-		}
-
-		double avgWidth = totalWidth / collisionObjects.size();
-		double avgHeight = totalHeight / collisionObjects.size();
-
-		// Estimate object density
-		int mapWidth = map.getWidth() * map.getTileWidth();
-		int mapHeight = map.getHeight() * map.getTileHeight();
-		double mapArea = mapWidth * mapHeight;
-		double objArea = collisionObjects.size() * avgWidth * avgHeight;
-		double density = objArea / mapArea;
-
-		// Adjust grid size based on density
-		// Higher density = smaller cells, Lower density = larger cells
-		if (density > 0.4) {
-			return 64; // Very dense map
-		} else if (density > 0.2) {
-			return 96; // Medium density
-		} else {
-			return 128; // Sparse map
-		}
-	}
-
 	private void initializePrepPhaseUI() {
 		// Initialize the prep phase UI
 		prepPhaseGui = new PrepGui(ServerSelectGui.getState());
@@ -1733,15 +1585,32 @@ public class GameWindow {
 				playerCount += GameLogic.playerList.size();
 			}
 			prepPhaseGui.updatePlayerCount(playerCount, 10); // 10 is max players
+			updatePrepPhaseNetworkQuality();
+		}
+	}
+
+	private void updatePrepPhaseNetworkQuality() {
+		if (MainMenuPane.getState().equals(logic.State.SERVER)) {
+			prepPhaseGui.updateNetworkQuality(ServerLogic.getLinkSummary(), -1);
+			return;
 		}
+		LinkQuality link = ClientLogic.getLinkQuality();
+		double rtt = link.getRttMillis();
+		if (rtt < 0) {
+			prepPhaseGui.updateNetworkQuality(null, -1);
+			return;
+		}
+		prepPhaseGui.updateNetworkQuality(String.format("Ping %.0f ms \u00B1%.0f, loss %.0f%%", rtt,
+				link.getJitterMillis(), link.getLossRate() * 100), rtt);
 	}
 
 	public static void TeleportToStart() {
 		Random random = new Random();
 		int select = random.nextInt(27);
-		PlayerLogic.setPosition(PossibleSpawnsX[select], PossibleSpawnsY[select]);
+		PlayerLogic.setPosition(MovementLogic.SPAWN_X[select], MovementLogic.SPAWN_Y[select]);
 		playerX = PlayerLogic.getMyPosX();
 		playerY = PlayerLogic.getMyPosY();
+		ClientLogic.recordLocalTeleport(playerX, playerY);
 		viewportX = playerX - (screenWidth / 2) / CAMERA_ZOOM;
 		viewportY = playerY - (screenHeight / 2) / CAMERA_ZOOM;
 	}
@@ -2581,9 +2450,9 @@ public class GameWindow {
 
 			// Send report based on game mode (server or client)
 			if (MainMenuPane.getState().equals(State.SERVER)) {
-				// For server: handle the report locally and broadcast to all clients
+				// For server: hand the report to the rules engine
 				System.out.println("CALLING HANDLE BODY REPORT");
-				ServerLogic.handleBodyReport(reporterKey, closestCorpseKey, ServerSelectGui.getLogArea());
+				ServerLogic.handleBodyReport(reporterKey, closestCorpseKey);
 
 			} else if (MainMenuPane.getState().equals(State.CLIENT)) {
 				closestCorpse.setFound(true);
@@ -2597,9 +2466,7 @@ public class GameWindow {
 				String reportMessage = "/report/" + reportData.toString();
 				ClientLogic.sendMessage(reportMessage, ServerSelectGui.getLogArea());
 			}
-
-			// Start emergency meeting UI with character ID for the local player
-			startEmergencyMeeting(reporterKey, closestCorpse.getPlayerName(), closestCorpse.getCharacterID());
+			// The meeting UI opens once the server accepts the report and starts the meeting for everyone
 		} else {
 			// No corpses nearby
 			System.out.println("No unreported corpses nearby");
@@ -3056,17 +2923,7 @@ public class GameWindow {
 	}
 
 	public static double getTotalPercentage() {
-		double totalCompleted = 0;
-		totalCompleted += PlayerLogic.getTaskPercent();
-		for (String key : GameLogic.playerList.keySet()) {
-			PlayerInfo info = GameLogic.playerList.get(key);
-			totalCompleted += Math.round(info.getTaskPercent());
-		}
-		totalCompleted /= (GameLogic.playerList.size() - GameLogic.getImposterCount() + 1);
-		if (totalCompleted > 100) {
-			totalCompleted = 100;
-		}
-		return totalCompleted;
+		return GameLogic.getTotalTaskPercentage();
 	}
 
 	private void showEjectionPanel(String ejectedPlayerKey, boolean wasImposter) {
@@ -3380,37 +3237,7 @@ public class GameWindow {
 		if (MainMenuPane.getState().equals(State.SERVER) && ejectedPlayerKey != null
 				&& !ejectedPlayerKey.equals(PlayerLogic.getLocalAddressPort())) {
 
-			// Create ejection data to broadcast
-			try {
-				JSONObject ejectionData = new JSONObject();
-				ejectionData.put("type", "ejection");
-				ejectionData.put("ejectedPlayer", ejectedPlayerKey);
-				ejectionData.put("wasImposter", wasImposter);
-
-				String ejectionMessage = "/ejection/" + ejectionData.toString();
-
-				// Broadcast to all clients
-				for (ClientInfo clientInfo : ServerLogic.getConnectedClients()) {
-					try {
-						DatagramSocket socket = ServerLogic.getServerSocket();
-						if (socket != null) {
-							byte[] buf = ejectionMessage.getBytes(StandardCharsets.UTF_8);
-							DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-									clientInfo.getPort());
-
-							// Send multiple times to ensure delivery
-							for (int i = 0; i < 3; i++) {
-								socket.send(packet);
-								Thread.sleep(50);
-							}
-						}
-					} catch (Exception e) {
-						System.err.println("Error broadcasting ejection info: " + e.getMessage());
-					}
-				}
-			} catch (Exception e) {
-				System.err.println("Error creating ejection broadcast: " + e.getMessage());
-			}
+			ServerLogic.broadcastEjection(ejectedPlayerKey, wasImposter);
 		}
 	}
 
@@ -0,0 +1,89 @@
+package gui;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import javafx.application.Platform;
+import javafx.scene.control.TextArea;
+import logic.GameLogic;
+import logic.GameLogic.GameResult;
+import logic.GamePhase;
+import logic.PlayerLogic;
+import server.ServerListener;
+
+/**
+ * Shows server events in the host's windows: the log area, the prep lobby's
+ * start button and the meeting UI.
+ */
+public class HostServerListener implements ServerListener {
+	private final TextArea logArea;
+
+	public HostServerListener(TextArea logArea) {
+		this.logArea = logArea;
+	}
+
+	@Override
+	public void log(String message) {
+		Platform.runLater(() -> logArea.appendText(message + "\n"));
+	}
+
+	@Override
+	public void onClientHandshake(InetSocketAddress client) {
+		ServerSelectGui.settoGamedisable(false);
+	}
+
+	@Override
+	public void onReadyStateChanged(boolean allReady, int playerCount) {
+		PrepGui.setReadydisable(!allReady);
+	}
+
+	@Override
+	public void onMeetingStarted(String reporterKey, String reportedPlayerName, int reportedCharId) {
+		GameWindow window = GameWindow.getGameWindowInstance();
+		if (window != null) {
+			Platform.runLater(() -> window.startEmergencyMeeting(reporterKey, reportedPlayerName, reportedCharId));
+		}
+	}
+
+	@Override
+	public void onMeetingChat(String senderName, String message, String senderStatus, boolean isGhostMessage) {
+		// Ghost messages are only shown if the host is a ghost too
+		if (isGhostMessage && !"dead".equals(PlayerLogic.getStatus())) {
+			return;
+		}
+		MeetingUI activeMeeting = getActiveMeeting();
+		if (activeMeeting != null) {
+			activeMeeting.receiveChatMessage(senderName, message, senderStatus);
+		}
+	}
+
+	@Override
+	public void onVote(String voterKey, String targetKey, String voterName, String targetName,
+			Map<String, String> votes) {
+		MeetingUI activeMeeting = getActiveMeeting();
+		if (activeMeeting != null) {
+			activeMeeting.receiveVote(voterKey, targetKey);
+			activeMeeting.addChatMessage("SYSTEM", voterName + " voted for " + targetName);
+		}
+	}
+
+	@Override
+	public void onVotingResults(String ejectedPlayerKey, Map<String, Integer> voteCounts) {
+		MeetingUI activeMeeting = getActiveMeeting();
+		if (activeMeeting != null) {
+			activeMeeting.showVotingResults(ejectedPlayerKey, voteCounts);
+		}
+	}
+
+	@Override
+	public void onPhaseChanged(GamePhase from, GamePhase to, GameResult result) {
+		if (to == GamePhase.ENDED) {
+			GameLogic.showGameResult();
+		}
+	}
+
+	private static MeetingUI getActiveMeeting() {
+		GameWindow window = GameWindow.getGameWindowInstance();
+		return window != null ? window.getActiveMeetingUI() : null;
+	}
+}
@@ -1,9 +1,5 @@
 package gui;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -11,9 +7,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.json.JSONObject;
 
@@ -63,11 +56,13 @@ import javafx.scene.text.Text;
 import javafx.scene.text.TextAlignment;
 import javafx.util.Duration;
 import logic.ClientLogic;
+import logic.GameClock;
 import logic.GameLogic;
+import logic.GameState;
 import logic.PlayerLogic;
 import logic.ServerLogic;
 import logic.State;
-import server.ClientInfo;
+import network.GameScheduler;
 import server.PlayerInfo;
 
 public class MeetingUI extends StackPane {
@@ -88,7 +83,9 @@ public class MeetingUI extends StackPane {
 	private long lastLocalMessageTimestamp = 0;
 	private Set<String> processedVoterKeys = new HashSet<>();
 	private List<String> playerKeys = new ArrayList<>();
-	private int votingTimeSeconds = 60;
+	private static final double TIMER_TICK_SECONDS = 0.25; // finer than a second, so the end is on time
+	private long votingEndsAt; // game time
+	private int votingTimeSeconds;
 	private Timeline votingTimer;
 	private String reportedBodyPlayer = null;
 	private String reporterKey = null;
@@ -102,7 +99,7 @@ public class MeetingUI extends StackPane {
 
 	// References
 	private GameWindow gameWindow;
-	private ScheduledExecutorService executor;
+	private GameScheduler.Task closeTask;
 
 	/**
 	 * Creates a new voting interface for emergency meetings
@@ -117,16 +114,14 @@ public class MeetingUI extends StackPane {
 		this.reportedBodyPlayer = reportedPlayer;
 		this.reporterKey = reporterKey;
 
-		// Create a daemon thread executor to prevent application hang on shutdown
-		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
-			Thread t = new Thread(r);
-			t.setDaemon(true); // Make the thread a daemon thread
-			return t;
-		});
-
 		// Generate a unique meeting ID based on time and reporter
 		this.meetingId = reporterKey + "_" + System.currentTimeMillis();
 
+		// The server's deadline if its meeting message came first, else our own
+		long deadline = GameLogic.getState().getMeetingEndsAt();
+		this.votingEndsAt = deadline > GameClock.now() ? deadline : GameClock.now() + GameState.VOTING_TIME_MS;
+		this.votingTimeSeconds = GameClock.secondsUntil(votingEndsAt);
+
 		initializeUI();
 		populatePlayerGrid();
 		startVotingTimer();
@@ -634,32 +629,8 @@ public class MeetingUI extends StackPane {
 
 				// Send message based on client/server role
 				if (MainMenuPane.getState() == State.SERVER) {
-					// If server, broadcast to appropriate clients
-					for (ClientInfo clientInfo : ServerLogic.getConnectedClients()) {
-						try {
-							// Skip sending ghost messages to living players
-							if (isGhost) {
-								String clientKey = clientInfo.getAddress().getHostAddress() + ":"
-										+ clientInfo.getPort();
-								PlayerInfo targetPlayer = GameLogic.playerList.get(clientKey);
-
-								// Only send to other ghosts
-								if (targetPlayer == null || !"dead".equals(targetPlayer.getStatus())) {
-									continue; // Skip living players
-								}
-							}
-
-							DatagramSocket socket = ServerLogic.getServerSocket();
-							if (socket != null) {
-								byte[] buf = meetingMessage.getBytes(StandardCharsets.UTF_8);
-								DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-										clientInfo.getPort());
-								socket.send(packet);
-							}
-						} catch (IOException e) {
-							System.err.println("Error broadcasting meeting chat: " + e.getMessage());
-						}
-					}
+					// If server, the session relays it; ghost messages only reach ghosts
+					ServerLogic.sendMeetingChat(playerName, message, playerStatus, timestamp, isGhost);
 				} else {
 					// If client, send to server
 					ClientLogic.sendMessage(meetingMessage, null);
@@ -877,14 +848,15 @@ public class MeetingUI extends StackPane {
 	}
 
 	/**
-	 * Starts the voting timer
+	 * Starts the voting timer, which counts down to votingEndsAt on the game
+	 * clock
 	 */
 	private void startVotingTimer() {
 		votingTimer = new Timeline();
-		votingTimer.setCycleCount(votingTimeSeconds);
+		votingTimer.setCycleCount(Animation.INDEFINITE);
 
-		KeyFrame frame = new KeyFrame(Duration.seconds(1), event -> {
-			votingTimeSeconds--;
+		KeyFrame frame = new KeyFrame(Duration.seconds(TIMER_TICK_SECONDS), event -> {
+			votingTimeSeconds = GameClock.secondsUntil(votingEndsAt);
 
 			// Update timer
 			timerText.setText("Voting Ends: " + votingTimeSeconds + "s");
@@ -896,7 +868,6 @@ public class MeetingUI extends StackPane {
 
 			if (votingTimeSeconds <= 0) {
 				endVoting();
-
 			}
 		});
 
@@ -944,7 +915,7 @@ public class MeetingUI extends StackPane {
 			// Send vote to server
 			if (MainMenuPane.getState() == State.SERVER) {
 				// If server, handle the vote locally via ServerLogic
-				ServerLogic.handleVote(PlayerLogic.getLocalAddressPort(), targetPlayerKey, meetingId, null);
+				ServerLogic.handleVote(PlayerLogic.getLocalAddressPort(), targetPlayerKey, meetingId);
 			} else {
 				// If client, send vote to server
 				sendVoteToServer(targetPlayerKey);
@@ -995,7 +966,7 @@ public class MeetingUI extends StackPane {
 			// Send vote to server
 			if (MainMenuPane.getState() == State.SERVER) {
 				// If server, handle the vote directly
-				ServerLogic.handleVote(PlayerLogic.getLocalAddressPort(), "skip", meetingId, null);
+				ServerLogic.handleVote(PlayerLogic.getLocalAddressPort(), "skip", meetingId);
 			} else {
 				// If client, send vote to server
 				sendVoteToServer("skip");
@@ -1098,7 +1069,7 @@ public class MeetingUI extends StackPane {
 		// For server: calculate results and broadcast
 		if (MainMenuPane.getState() == State.SERVER) {
 			// Calculate results
-			ServerLogic.endMeetingAndBroadcastResults(meetingId, chatArea);
+			ServerLogic.endMeetingAndBroadcastResults(meetingId);
 		}
 		System.out.println("FLAG CHECK");
 		// For clients: wait for server to send results
@@ -1106,6 +1077,19 @@ public class MeetingUI extends StackPane {
 		ensureProperClosing();
 	}
 
+	/**
+	 * Moves the end of the vote, e.g. to the deadline the server announced
+	 *
+	 * @param gameTime When voting ends, on the game clock
+	 */
+	public void setVotingEndsAt(long gameTime) {
+		votingEndsAt = gameTime;
+		votingTimeSeconds = GameClock.secondsUntil(votingEndsAt);
+		if (votingTimer != null && votingTimer.getStatus() == Animation.Status.RUNNING) {
+			timerText.setText("Voting Ends: " + votingTimeSeconds + "s");
+		}
+	}
+
 	private void checkAllPlayersVoted() {
 		// Skip if timer is already accelerated or we're already at 3 seconds or less
 		if (votingTimeSeconds <= 3) {
@@ -1152,32 +1136,10 @@ public class MeetingUI extends StackPane {
 				System.out.println("MEETING UI: All players voted to skip!");
 			}
 
-			// Stop existing timer
-			if (votingTimer != null) {
-				votingTimer.stop();
-			}
-
-			// Set remaining time to 3 seconds
-			votingTimeSeconds = 3;
-			timerText.setText("Voting Ends: " + votingTimeSeconds + "s");
+			// Bring the deadline forward to 3 seconds; the running timer picks it up
+			setVotingEndsAt(Math.min(votingEndsAt, GameClock.now() + 3000));
 			timerText.setFill(Color.RED); // Set to red for urgency
 
-			// Start a new timer for the last 3 seconds
-			votingTimer = new Timeline();
-			votingTimer.setCycleCount(3);
-
-			KeyFrame frame = new KeyFrame(Duration.seconds(1), event -> {
-				votingTimeSeconds--;
-				timerText.setText("Voting Ends: " + votingTimeSeconds + "s");
-
-				if (votingTimeSeconds <= 0) {
-					endVoting();
-				}
-			});
-
-			votingTimer.getKeyFrames().add(frame);
-			votingTimer.play();
-
 			// Add message in chat about shortened timer
 			addChatMessage("SYSTEM", "All players have voted! Discussion time shortened.");
 		}
@@ -1242,13 +1204,7 @@ public class MeetingUI extends StackPane {
 
 					// Close meeting UI quickly to show ejection screen - REDUCED DELAY from 5+
 					// seconds
-					if (executor != null && !executor.isShutdown()) {
-						executor.schedule(() -> Platform.runLater(this::closeMeetingUI), 1, TimeUnit.SECONDS);
-					} else {
-						// Fallback if executor is already shut down
-						Timeline closingTimer = new Timeline(new KeyFrame(Duration.seconds(1), e -> closeMeetingUI()));
-						closingTimer.play();
-					}
+					scheduleClose(1000);
 
 					// Skip showing ejection text in meeting UI
 					return;
@@ -1285,13 +1241,7 @@ public class MeetingUI extends StackPane {
 				boolean isSkip = skipVotes > highestVotes;
 
 				// Close the meeting UI quickly
-				if (executor != null && !executor.isShutdown()) {
-					executor.schedule(() -> Platform.runLater(this::closeMeetingUI), 1, TimeUnit.SECONDS);
-				} else {
-					// Fallback if executor is already shut down
-					Timeline closingTimer = new Timeline(new KeyFrame(Duration.seconds(1), e -> closeMeetingUI()));
-					closingTimer.play();
-				}
+				scheduleClose(1000);
 
 				// Show the skip/draw panel after closing the meeting UI
 				if (gameWindow != null) {
@@ -1347,13 +1297,7 @@ public class MeetingUI extends StackPane {
 
 				// Schedule closing the meeting UI after showing results - REDUCED DELAY from 7
 				// seconds
-				if (executor != null && !executor.isShutdown()) {
-					executor.schedule(() -> Platform.runLater(this::closeMeetingUI), 3, TimeUnit.SECONDS);
-				} else {
-					// Fallback if executor is already shut down
-					Timeline closingTimer = new Timeline(new KeyFrame(Duration.seconds(3), e -> closeMeetingUI()));
-					closingTimer.play();
-				}
+				scheduleClose(3000);
 			} catch (Exception e) {
 				System.err.println("CLIENT UI ERROR: Failed to show voting results: " + e.getMessage());
 				e.printStackTrace();
@@ -1363,13 +1307,7 @@ public class MeetingUI extends StackPane {
 
 	private void ensureProperClosing() {
 		// Schedule the UI to close after results are displayed - REDUCED DELAY
-		if (executor != null && !executor.isShutdown()) {
-			executor.schedule(() -> Platform.runLater(this::closeMeetingUI), 3, TimeUnit.SECONDS);
-		} else {
-			// Fallback if executor is unavailable
-			Timeline closingTimer = new Timeline(new KeyFrame(Duration.seconds(3), e -> closeMeetingUI()));
-			closingTimer.play();
-		}
+		scheduleClose(3000);
 	}
 
 	private void debugPrintVotes() {
@@ -1661,6 +1599,18 @@ public class MeetingUI extends StackPane {
 		}
 	}
 
+	/**
+	 * Closes the meeting UI on the FX thread after delayMillis, replacing a
+	 * close already scheduled
+	 */
+	private void scheduleClose(long delayMillis) {
+		if (closeTask != null) {
+			closeTask.cancel();
+		}
+		closeTask = GameScheduler.get().schedule("Meeting close", delayMillis, this::closeMeetingUI,
+				Platform::runLater);
+	}
+
 	private void closeMeetingUI() {
 		// First clean up resources
 		if (votingTimer != null) {
@@ -1668,9 +1618,9 @@ public class MeetingUI extends StackPane {
 			votingTimer = null;
 		}
 
-		if (executor != null && !executor.isShutdown()) {
-			executor.shutdownNow();
-			executor = null;
+		if (closeTask != null) {
+			closeTask.cancel();
+			closeTask = null;
 		}
 
 		// Clean up references
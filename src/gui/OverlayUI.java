@@ -26,6 +26,7 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import javafx.util.Duration;
 import logic.PlayerLogic;
+import network.GameScheduler;
 import server.PlayerInfo;
 
 /**
@@ -696,13 +697,6 @@ public class OverlayUI extends Pane {
 		String originalStyle = button.getStyle();
 		button.setStyle(flashStyle);
 
-		new Thread(() -> {
-			try {
-				Thread.sleep(200);
-				Platform.runLater(() -> button.setStyle(originalStyle));
-			} catch (InterruptedException ex) {
-				ex.printStackTrace();
-			}
-		}).start();
+		GameScheduler.get().schedule("Button flash", 200, () -> button.setStyle(originalStyle), Platform::runLater);
 	}
 }
\ No newline at end of file
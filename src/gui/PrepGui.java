@@ -30,6 +30,7 @@ public class PrepGui extends VBox {
 
 	private Label codeLabel;
 	private Label serverInfoLabel;
+	private Label networkLabel;
 	private Label playerCountLabel;
 	private static Button readyButton;
 	private boolean isReady = false;
@@ -59,10 +60,15 @@ public class PrepGui extends VBox {
 		serverInfoLabel.setTextFill(Color.BLACK);
 		serverInfoLabel.setFont(Font.font("Monospace", FontWeight.LIGHT, 14));
 
+		// Link quality (ping, loss), filled in once measured
+		networkLabel = new Label("");
+		networkLabel.setTextFill(Color.rgb(0, 100, 0));
+		networkLabel.setFont(Font.font("Monospace", FontWeight.LIGHT, 11));
+
 		// IP section on left
 		VBox ipSection = new VBox(2);
 		ipSection.setAlignment(Pos.CENTER_LEFT);
-		ipSection.getChildren().addAll(codeLabel, serverInfoLabel);
+		ipSection.getChildren().addAll(codeLabel, serverInfoLabel, networkLabel);
 
 		// Ready button
 		readyButton = new Button("READY");
@@ -181,6 +187,24 @@ public class PrepGui extends VBox {
 		}
 	}
 
+	/**
+	 * Shows the measured link quality, colored by the round trip
+	 *
+	 * @param summary e.g. "Ping 23 ms, loss 0%", or null before the first
+	 *                measurement
+	 * @param rttMillis round trip used for the color, or -1
+	 */
+	public void updateNetworkQuality(String summary, double rttMillis) {
+		networkLabel.setText(summary != null ? summary : "");
+		if (rttMillis > 150) {
+			networkLabel.setTextFill(Color.RED);
+		} else if (rttMillis > 80) {
+			networkLabel.setTextFill(Color.rgb(160, 110, 0));
+		} else {
+			networkLabel.setTextFill(Color.rgb(0, 100, 0));
+		}
+	}
+
 	// add the ability to differencate server and client
 	private void toggleReady() {
 		if (MainMenuPane.getState().equals(logic.State.SERVER)) { //Press to start game for server
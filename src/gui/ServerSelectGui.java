@@ -21,6 +21,7 @@ import javafx.scene.layout.Pane;
 
 public class ServerSelectGui extends Pane {
 	private static TextArea logArea = new TextArea(); // Create a TextArea for logging
+	private static HostServerListener serverListener = new HostServerListener(logArea);
 	private static TextArea typeArea = new TextArea(); // Create a TextArea for typing messages
 	private static Button sendButton = new Button("Send"); // Create a Send button
 	private static Button startButton = new Button("Connect"); // Create a Connect button
@@ -76,10 +77,10 @@ public class ServerSelectGui extends Pane {
 			startButton.setOnAction(event -> {
 				broadcastServer();
 				PlayerLogic.setName(MainMenuPane.getServerName());
-				ServerLogic.startServer(CurState, logArea, serverPort);
+				ServerLogic.startServer(CurState, serverListener, MainMenuPane.getServerName(), serverPort);
 			});
 			sendButton.setOnAction(event -> {
-				ServerLogic.sendMessageToClients(typeArea.getText(), logArea);
+				ServerLogic.sendMessageToClients(typeArea.getText());
 				typeArea.clear();
 			});
 
@@ -124,7 +125,7 @@ public class ServerSelectGui extends Pane {
 		MainMenuPane.setJoinDisable(true); // Disable JOIN
 		typeArea.setPromptText("Send massage to connected clients...");
 		CurState = logic.State.SERVER;
-		ServerLogic.startBroadcasting(CurState, logArea, MainMenuPane.getServerName(), serverPort);
+		ServerLogic.startBroadcasting(CurState, serverListener, MainMenuPane.getServerName(), serverPort);
 	}
 
 	public void connectClient() {
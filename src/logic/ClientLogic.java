@@ -3,18 +3,21 @@ package logic;
 import javafx.application.Platform;
 import javafx.scene.control.TextArea;
 import server.PlayerInfo;
+import server.SessionServer;
 
 import java.io.IOException;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import gameObjects.Corpse;
@@ -27,100 +30,243 @@ import gui.GameWindow;
 import gui.MainMenuPane;
 import gui.MeetingUI;
 import gui.ServerSelectGui;
+import network.ClockSync;
+import network.EntityState;
+import network.EntityTable;
+import network.Fragmenter;
+import network.GameScheduler;
+import network.LinkQuality;
+import network.InboundDatagram;
+import network.LanDiscovery;
+import network.InterpolationBuffer;
+import network.MessageCodec;
+import network.MessageDispatcher;
+import network.PlayerStateCodec;
+import network.PredictionBuffer;
+import network.ReliableChannel;
+import network.SendRate;
+import network.ServerTable;
+import network.SnapshotHistory;
+import network.SnapshotTimeline;
+import network.UdpEventLoop;
 
 public class ClientLogic {
-	private static final Set<String> serverSet = new HashSet<>();
-	private static final List<String> serverList = new ArrayList<>();
+	private static final ServerTable SERVER_TABLE = new ServerTable();
+	private static final long SERVER_LIST_CHECK_MS = 500;
+	private static final long QUERY_INTERVAL_MS = 5000; // refreshes the pings; beacons keep the table alive
+	private static final Random QUERY_NONCES = new Random();
+	private static volatile int queryNonce = LanDiscovery.NO_NONCE;
+	private static volatile long queryNanos;
+	private static volatile long shownServerVersion = -1; // the server list last logged
 	private static Set<String> processedVotes = new HashSet<>();
 
-	private static String lastLoggedData = "";
-	private static DatagramSocket clientSocket;
+	private static UdpEventLoop clientLoop;
+	private static Fragmenter fragmenter;
+	private static ReliableChannel reliableChannel;
+	private static MessageDispatcher dispatcher;
+	private static DatagramSocket clientSocket; // socket view of clientLoop, for the local port only
 	private static InetAddress connectedServerAddress;
 	private static int connectedServerPort = -1;
 	private static Thread clientThread;
-	private static Timer timer;
+	private static DatagramSocket discoverySocket; // closed to stop clientThread, which blocks in receive
+	private static GameScheduler.Task serverListTask;
+	private static GameScheduler.Task sendTask;
+	private static final long SEND_POLL_MS = 20;
 	private static int missedPings = 0;
 	private static boolean wasDiscon = false;
+	private static volatile String resumeToken; // from the handshake ACK, takes our place back after a disconnect
+	private static volatile boolean resuming = false;
+	private static final long HANDSHAKE_TIMEOUT_MS = 10000;
 	private static long lastPRint = 0;
 
+	// Reused by the send task and receive thread for the binary /data/ path
+	private static final ByteBuffer STATE_BUFFER = ByteBuffer.allocateDirect(PlayerStateCodec.MAX_PACKET_SIZE);
+	private static final PlayerStateCodec.SnapshotHeader SNAPSHOT_HEADER = new PlayerStateCodec.SnapshotHeader();
+	private static final SnapshotHistory SNAPSHOT_HISTORY = new SnapshotHistory();
+	private static final SnapshotTimeline SNAPSHOT_TIMELINE = new SnapshotTimeline();
+	private static final double[] RENDER_POSITION = new double[2]; // render thread only
+	private static final PredictionBuffer PREDICTION = new PredictionBuffer();
+	// Remote players by the compact id the server gave them, receive thread only
+	private static final PlayerInfo[] PLAYERS_BY_ID = new PlayerInfo[EntityTable.CAPACITY];
+	private static final LinkQuality LINK_QUALITY = new LinkQuality();
+	private static final ClockSync CLOCK_SYNC = new ClockSync();
+	private static final SendRate SEND_RATE = new SendRate(SEND_POLL_MS);
+	// What the last state packet carried, send task only
+	private static long lastSentSignature;
+	private static int lastSentAck = SnapshotHistory.NO_SEQUENCE;
+
 	public static void startClient(State state, TextArea logArea) {
 		try {
-			clientSocket = new DatagramSocket();
-			clientSocket.setBroadcast(true);
-			clientSocket.setSoTimeout(10000); // Set timeout for the socket to a higher value
-		} catch (SocketException e) {
+			clientLoop = new UdpEventLoop("Client");
+			clientLoop.open(0, true);
+			clientSocket = clientLoop.getSocket();
+			fragmenter = new Fragmenter("Client", clientLoop);
+			reliableChannel = new ReliableChannel("Client", clientLoop, fragmenter);
+			reliableChannel.start();
+		} catch (IOException e) {
 			log(logArea, "Error: " + e.getMessage());
 		}
 
 		clientThread = new Thread(() -> {
-			try (DatagramSocket socket = new DatagramSocket(4446)) {
+			try (DatagramSocket socket = new DatagramSocket(LanDiscovery.BEACON_PORT)) {
+				discoverySocket = socket;
 				socket.setBroadcast(true);
-				byte[] buf = new byte[1024];
+				byte[] buf = new byte[LanDiscovery.MAX_BEACON_SIZE];
 				DatagramPacket packet = new DatagramPacket(buf, buf.length);
+				LanDiscovery.Beacon beacon = new LanDiscovery.Beacon();
 
-				log(logArea, "Client started. Waiting for server information...");
+				log(logArea, "Client started. Looking for servers...");
+				sendDiscoveryQuery();
 
 				while (state.equals(logic.State.CLIENT)) {
+					packet.setLength(buf.length);
 					socket.receive(packet);
-					String received = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-					InetAddress serverAddress = packet.getAddress();
-					int serverPort = packet.getPort();
-					String serverID = serverAddress.getHostAddress() + ":" + serverPort + " - " + received;
-					if (serverSet.add(serverID)) {
-						serverList.add(serverID);
-						// log(logArea, "Received new server info: " + serverID);
+					long now = System.nanoTime();
+					if (!LanDiscovery.readBeacon(ByteBuffer.wrap(buf, 0, packet.getLength()), beacon)) {
+						continue; // our own query, or not discovery at all
+					}
+					double ping = beacon.nonce != LanDiscovery.NO_NONCE && beacon.nonce == queryNonce
+							? (now - queryNanos) / 1e6
+							: -1;
+					if (SERVER_TABLE.update((InetSocketAddress) packet.getSocketAddress(), beacon, ping, now)) {
+						Platform.runLater(() -> showServerList(logArea));
 					}
 				}
 			} catch (IOException e) {
-				log(logArea, "Error: " + e.getMessage());
+				if (discoverySocket != null) { // not closed by stopClient
+					log(logArea, "Error: " + e.getMessage());
+				}
 			}
 		});
+		clientThread.setName("Client-Discovery-Thread");
+		clientThread.setDaemon(true);
 		clientThread.start();
 
-		timer = new Timer(true);
-		timer.scheduleAtFixedRate(new TimerTask() {
-			@Override
-			public void run() {
-				Platform.runLater(() -> logUniqueServerIDs(logArea));
-				// System.out.println("Corpse size =" + GameLogic.corpseList.size());
-			}
-		}, 0, 1000); // 0 delay, 1000 milliseconds (1 seconds) period
+		stopServerListRefresh();
+		serverListTask = GameScheduler.get().scheduleAtFixedRate("Server list refresh", SERVER_LIST_CHECK_MS,
+				SERVER_LIST_CHECK_MS, () -> refreshServerList(logArea));
+	}
+
+	/**
+	 * Asks every server on the LAN to answer at once, rather than at its next
+	 * beacon, which also times the round trip to each
+	 */
+	private static void sendDiscoveryQuery() {
+		DatagramSocket socket = discoverySocket;
+		if (socket == null) {
+			return;
+		}
+		int nonce = QUERY_NONCES.nextInt();
+		if (nonce == LanDiscovery.NO_NONCE) {
+			nonce = 1;
+		}
+		byte[] query = LanDiscovery.encodeQuery(nonce);
+		queryNanos = System.nanoTime();
+		queryNonce = nonce;
+		try {
+			socket.send(new DatagramPacket(query, query.length,
+					new InetSocketAddress(InetAddress.getByName("255.255.255.255"), LanDiscovery.QUERY_PORT)));
+		} catch (IOException e) {
+			System.err.println("CLIENT: Discovery query failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Refresh task: drops servers that went quiet, queries again when due and
+	 * shows the list if it changed
+	 */
+	private static void refreshServerList(TextArea logArea) {
+		long now = System.nanoTime();
+		SERVER_TABLE.expire(now);
+		if (now - queryNanos >= TimeUnit.MILLISECONDS.toNanos(QUERY_INTERVAL_MS)) {
+			sendDiscoveryQuery();
+		}
+		if (SERVER_TABLE.getVersion() != shownServerVersion) {
+			Platform.runLater(() -> showServerList(logArea));
+		}
+	}
+
+	/**
+	 * Logs the numbered server list, unless it is the one shown last. Runs on
+	 * the JavaFX thread.
+	 */
+	private static void showServerList(TextArea logArea) {
+		long version = SERVER_TABLE.getVersion();
+		if (version != shownServerVersion) {
+			shownServerVersion = version;
+			log(logArea, SERVER_TABLE.format());
+		}
+	}
+
+	private static void stopServerListRefresh() {
+		if (serverListTask != null) {
+			serverListTask.cancel();
+			serverListTask = null;
+		}
+	}
+
+	/**
+	 * Stops listening for server broadcasts and frees the port
+	 */
+	private static void stopDiscovery() {
+		DatagramSocket socket = discoverySocket;
+		discoverySocket = null;
+		if (socket != null) {
+			socket.close();
+		}
+		if (clientThread != null && clientThread.isAlive()) {
+			clientThread.interrupt();
+		}
+		clientThread = null;
 	}
 
 	public static boolean connectToServer(int serverIndex, TextArea logArea, String playerName) {
-		if (serverIndex >= 0 && serverIndex < serverList.size()) {
-			String selectedServer = serverList.get(serverIndex);
+		ServerTable.Entry selectedServer = SERVER_TABLE.get(serverIndex);
+		if (selectedServer != null) {
 			try {
-				String[] parts = selectedServer.split(" - ");
-				String[] addressParts = parts[1].split(":");
-				connectedServerAddress = InetAddress.getByName(parts[0].split(":")[0]);
-				connectedServerPort = Integer.parseInt(addressParts[1]);
+				connectedServerAddress = selectedServer.getAddress().getAddress();
+				connectedServerPort = selectedServer.getAddress().getPort();
+				SNAPSHOT_HISTORY.reset();
+				SNAPSHOT_TIMELINE.reset();
+				PREDICTION.reset();
+				LINK_QUALITY.reset();
+				CLOCK_SYNC.reset();
+				GameClock.follow(CLOCK_SYNC);
+				Arrays.fill(PLAYERS_BY_ID, null);
+				PlayerLogic.setPlayerId(-1);
+				resumeToken = null;
+				resuming = false;
+				reliableChannel.removePeer(new InetSocketAddress(connectedServerAddress, connectedServerPort));
 				log(logArea, "Connected to " + connectedServerAddress.getHostAddress() + ":" + connectedServerPort
-						+ " - " + addressParts[0]);
+						+ " - " + selectedServer.getName());
 
 				// Send player's name to the server
 				sendMessage("/name/" + playerName, logArea);
 
 				// Perform handshake
 				sendMessage("/sys/Test_Handshake", logArea);
-				byte[] buf = new byte[1024];
-				DatagramPacket packet = new DatagramPacket(buf, buf.length);
 				try {
 					System.out.println("Waiting for response...");
-					clientSocket.receive(packet);
-					String received = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-					System.out.println("Server response: " + received);
+					InboundDatagram response = clientLoop.receive(HANDSHAKE_TIMEOUT_MS);
+					int opcode = response.peekFirstByte() & 0xFF;
+					if (opcode == MessageCodec.OP_HANDSHAKE_ACK) {
+						String ack = MessageCodec.readText(response.getData());
+						PlayerLogic.setPlayerId(parsePlayerId(ack));
+						resumeToken = parseResumeToken(ack);
+					}
+					response.release();
+					System.out.println("Server response: opcode " + opcode);
 					System.out.println("Handshake Complete");
-					if ("/sys/ACK".equals(received)) {
+					if (opcode == MessageCodec.OP_HANDSHAKE_ACK) {
 						log(logArea, "Connection established.");
 						// Start receiving messages from server
 						receiveMessagesFromServer(logArea);
 
-						// Start the ping thread
-						startPingThread(logArea);
+						// Start sending our state and heartbeat
+						startSending(logArea);
 						return true;
 					} else {
-						log(logArea, "Received unexpected response: " + received);
+						log(logArea, "Received unexpected response: opcode " + opcode);
 						return false;
 					}
 				} catch (SocketTimeoutException e) {
@@ -141,16 +287,10 @@ public class ClientLogic {
 		if (connectedServerAddress != null && connectedServerPort != -1) {
 			try {
 				if (message.startsWith("/sys/") || message.startsWith("/name/") || message.startsWith("/kill/")) {
-					byte[] buf = message.getBytes(StandardCharsets.UTF_8);
-					DatagramPacket packet = new DatagramPacket(buf, buf.length, connectedServerAddress,
-							connectedServerPort);
-					clientSocket.send(packet);
+					sendToServer(message);
 					System.out.println("Sent system message: " + message); // Print to terminal for debugging
 				} else {
-					byte[] buf = message.getBytes(StandardCharsets.UTF_8);
-					DatagramPacket packet = new DatagramPacket(buf, buf.length, connectedServerAddress,
-							connectedServerPort);
-					clientSocket.send(packet);
+					sendToServer(message);
 					log(logArea, "You : " + message);
 				}
 			} catch (IOException e) {
@@ -161,22 +301,53 @@ public class ClientLogic {
 		}
 	}
 
+	/**
+	 * Sends game events (kills, reports, meetings, votes) over the reliable
+	 * channel so the server handles each exactly once; everything else is a
+	 * plain datagram
+	 */
+	private static void sendToServer(String message) throws IOException {
+		byte[] encoded = MessageCodec.encode(message);
+		if (isReliableMessage(MessageCodec.opcodeOf(encoded))) {
+			reliableChannel.send(encoded, new InetSocketAddress(connectedServerAddress, connectedServerPort));
+			return;
+		}
+		sendBytes(encoded);
+	}
+
+	private static boolean isReliableMessage(int opcode) {
+		return opcode == MessageCodec.OP_KILL || opcode == MessageCodec.OP_REPORT || opcode == MessageCodec.OP_MEETING
+				|| opcode == MessageCodec.OP_VOTE;
+	}
+
 	public static void stopClient(TextArea logArea) {
-		if (clientSocket != null && !clientSocket.isClosed()) {
-			clientSocket.close();
+		if (dispatcher != null) {
+			System.out.println("CLIENT: " + dispatcher.getStatsSummary());
+		}
+		System.out.println("CLIENT: " + SNAPSHOT_TIMELINE.getSummary() + ", " + PREDICTION.getCorrectionCount()
+				+ " prediction correction(s)");
+		System.out.println("CLIENT: Link " + LINK_QUALITY.getSummary() + ", " + CLOCK_SYNC.getSummary());
+		System.out.println("CLIENT: " + SEND_RATE.getSummary());
+		GameClock.lead();
+		if (reliableChannel != null) {
+			reliableChannel.close();
+		}
+		if (fragmenter != null) {
+			System.out.println("CLIENT: " + fragmenter.getStatsSummary());
+			fragmenter.clear();
+		}
+		if (clientLoop != null && clientLoop.isOpen()) {
+			clientLoop.close();
 			log(logArea, "Disconnected from server and closed socket.");
 		}
 		connectedServerAddress = null;
 		connectedServerPort = -1;
-		if (clientThread != null && clientThread.isAlive()) {
-			clientThread.interrupt();
-		}
-		if (timer != null) {
-			timer.cancel();
-		}
-		serverSet.clear();
-		serverList.clear();
-		lastLoggedData = "";
+		stopSending();
+		stopDiscovery();
+		stopServerListRefresh();
+		SERVER_TABLE.clear();
+		shownServerVersion = -1;
+		queryNonce = LanDiscovery.NO_NONCE;
 	}
 
 	private static void log(TextArea logArea, String message) {
@@ -186,500 +357,91 @@ public class ClientLogic {
 			System.out.println("logArea missing " + message);
 	}
 
-	private static void logUniqueServerIDs(TextArea logArea) {
-		StringBuilder builder = new StringBuilder();
-		builder.append("Unique Server IDs:\n");
-		Set<String> uniqueServers = new HashSet<>();
-
-		for (int i = 0; i < serverList.size(); i++) {
-			String serverEntry = serverList.get(i);
-			String[] parts = serverEntry.split(" - ");
-			String[] serverInfo = parts[1].split(":");
-			String uniqueServerEntry = parts[0].split(":")[0] + ":" + serverInfo[1] + " - " + serverInfo[0];
-
-			if (uniqueServers.add(uniqueServerEntry)) {
-				builder.append(uniqueServers.size()).append(". ").append(uniqueServerEntry).append("\n");
+	/**
+	 * Builds the opcode table for everything the server sends
+	 */
+	private static MessageDispatcher createDispatcher(TextArea logArea) {
+		MessageDispatcher table = new MessageDispatcher("CLIENT");
+		ReliableChannel channel = reliableChannel;
+		Fragmenter reassembler = fragmenter;
+
+		// Snapshots are binary and never need a String
+		table.register(PlayerStateCodec.OP_SNAPSHOT, "snapshot", 2, (data, sender) -> handleSnapshot(data));
+		table.register(ReliableChannel.OP_ACK, "reliable-ack", 2, channel::handleAck);
+		table.register(ReliableChannel.OP_RELIABLE, "reliable", 2, (data, sender) -> {
+			// A reliable frame can release several in-order messages at once
+			for (ByteBuffer message : channel.receive(data, sender)) {
+				if (!ReliableChannel.isReliable(message)) {
+					table.dispatch(message, sender);
+				}
 			}
-		}
+		});
+		table.register(Fragmenter.OP_FRAGMENT, "fragment", 2, (data, sender) -> {
+			ByteBuffer message = reassembler.receive(data, sender);
+			if (message != null) {
+				try {
+					if (!Fragmenter.isFragment(message)) {
+						table.dispatch(message, sender);
+					}
+				} finally {
+					reassembler.release(message);
+				}
+			}
+		});
 
-		String currentData = builder.toString();
-		if (!currentData.equals(lastLoggedData)) {
-			log(logArea, currentData);
-			lastLoggedData = currentData;
-			serverSet.clear();
-			serverList.clear();
-		}
+		table.register(MessageCodec.OP_PONG, "pong", 1, (data, sender) -> {
+			long now = System.nanoTime();
+			long roundTrip = LINK_QUALITY.onEcho(LinkQuality.readProbeSequence(data), now);
+			long serverTime = ClockSync.readServerTime(data);
+			if (roundTrip >= 0 && serverTime != Long.MIN_VALUE) {
+				CLOCK_SYNC.onSample(now - roundTrip, serverTime, now);
+				if (CLOCK_SYNC.getSampleCount() == 1) {
+					System.out.println("CLIENT: Following the server's " + CLOCK_SYNC.getSummary());
+				}
+			}
+			missedPings = 0;
+		});
+		// The server probes us too, to measure our link from its side
+		table.register(MessageCodec.OP_PING, "ping", LinkQuality.PROBE_SIZE, (data, sender) -> sendBytes(
+				LinkQuality.encodeProbe(MessageCodec.OP_PONG, LinkQuality.readProbeSequence(data))));
+		table.registerText(MessageCodec.OP_HANDSHAKE_ACK, "handshake-ack", (ack, sender) -> {
+			System.out.println("Handshake Test Complete");
+			PlayerLogic.setPlayerId(parsePlayerId(ack));
+			resumeToken = parseResumeToken(ack);
+			if (resuming) {
+				resuming = false;
+				// Names us again in case the server had already given our place up
+				sendMessage("/name/" + MainMenuPane.getPlayerName(), logArea);
+				log(logArea, "Server Reconnect Succesful");
+			}
+		});
+		table.registerJson(MessageCodec.OP_RESYNC, "resync", (json, sender) -> handleResyncMessage(json));
+		table.registerJson(MessageCodec.OP_KILL, "kill", (json, sender) -> handleKillMessage(json));
+		table.registerJson(MessageCodec.OP_MEETING, "meeting", (json, sender) -> handleMeetingMessage(json));
+		table.registerJson(MessageCodec.OP_VOTE, "vote", (json, sender) -> handleVoteMessage(json));
+		table.registerJson(MessageCodec.OP_RESULTS, "results", (json, sender) -> handleResultsMessage(json));
+		table.registerJson(MessageCodec.OP_EJECTION, "ejection", (json, sender) -> handleEjectionMessage(json));
+		table.registerJson(MessageCodec.OP_PHASE, "phase", (json, sender) -> handlePhaseMessage(json));
+		table.registerText(MessageCodec.OP_RELAYED_CHAT, "relayed-chat", (text, sender) -> log(logArea, text));
+		table.registerText(MessageCodec.OP_SERVER_CHAT, "server-chat", (text, sender) -> log(logArea, text));
+		table.registerText(MessageCodec.OP_LIST, "list", (text, sender) -> log(logArea, text));
+		table.registerText(MessageCodec.OP_CHAT, "chat", (text, sender) -> log(logArea, text));
+		return table;
 	}
 
 	public static void receiveMessagesFromServer(TextArea logArea) {
+		MessageDispatcher table = createDispatcher(logArea);
+		dispatcher = table;
 		Thread receiveThread = new Thread(() -> {
 			try {
-				byte[] buf = new byte[1024];
-				DatagramPacket packet = new DatagramPacket(buf, buf.length);
-
+				UdpEventLoop loop = clientLoop;
 				while (true) {
 					try {
-						clientSocket.receive(packet);
-						String received = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-						// Handle system messages
-						if (received.startsWith("/sys/")) {
-							if ("/sys/PONG".equals(received)) {
-								missedPings = 0; // Reset missed ping count
-								// System.out.println("Received PONG from server"); // Print to terminal for
-								// debugging
-							} else if ("/sys/ACK".equals(received)) {
-								System.out.println("Handshake Test Complete"); // Print to terminal for debugging
-							}
-						}
-						// Handle game data messages
-						else if (received.startsWith("/data/")) {
-							String jsonStr = received.substring(6);
-							JSONObject json = new JSONObject(jsonStr);
-							// System.out.println(received);
-
-							// Update positions and additional fields
-							for (String key : json.keySet()) {
-								JSONObject playerData = json.getJSONObject(key);
-								double[] pos = playerData.getJSONArray("position").toList().stream()
-										.mapToDouble(o -> ((Number) o).doubleValue()).toArray();
-
-								String name = playerData.getString("name");
-								int direction = playerData.getInt("Direction");
-								boolean isMoving = playerData.getBoolean("isMoving");
-								int charID = playerData.getInt("charID");
-								double taskCompleted = playerData.getDouble("task");
-								String Status = "crewmate";
-								Status = playerData.optString("Status", "Unknown");
-
-								// === For ending Prep Phase ===
-								if (!GameLogic.isPrepEnded()) {
-									boolean prepEnded = playerData.getBoolean("prepEnded");
-									GameLogic.setPrepEnded(prepEnded);
-								}
-								if (getConnectedServerInfo().equals(key)) { // this is the servers data
-
-								}
-								// ================================
-								if (PlayerLogic.getLocalAddressPort().equals(key)) { // our own
-									if (!PlayerLogic.getStatus().equals(Status)) {
-										System.out.println("Set Status to " + Status);
-										PlayerLogic.setStatus(Status);
-									}
-								} else if (GameLogic.playerList.containsKey(key)) {
-									PlayerInfo existing = GameLogic.playerList.get(key);
-									existing.setX(pos[0]);
-									existing.setY(pos[1]);
-									existing.setMoving(isMoving);
-									existing.setDirection(direction);
-									existing.setStatus(Status);
-									existing.setCharacterID(charID);
-									existing.setStatus(Status);
-									existing.setTaskPercent(taskCompleted);
-								} else {
-									PlayerInfo newPlayer = new PlayerInfo(InetAddress.getByName(key.split(":")[0]),
-											Integer.parseInt(key.split(":")[1]), name, pos[0], pos[1], isMoving,
-											direction, Status, charID);
-									newPlayer.setTaskPercent(taskCompleted);
-									GameLogic.playerList.put(key, newPlayer);
-								}
-							}
-						} else if (received.startsWith("/kill/")) {
-							try {
-								System.out.println("CLIENT: Received kill message: " + received);
-
-								// Extract and parse the JSON data
-								String jsonStr = received.substring(6); // Remove "/kill/" prefix
-								JSONObject killData = new JSONObject(jsonStr);
-
-								// Extract all needed fields
-								String killedPlayerKey = killData.getString("killedPlayer");
-								String playerName = killData.getString("playerName");
-								double x = killData.getDouble("x");
-								double y = killData.getDouble("y");
-								int characterID = killData.getInt("characterID");
-
-								System.out.println("CLIENT: Processing kill report for " + playerName + " at " + x + ","
-										+ y + " (Character ID: " + characterID + ")");
-
-								// Special handling if we are the killed player
-								if (killedPlayerKey.equals(PlayerLogic.getLocalAddressPort())) {
-									System.out.println("CLIENT: Local player was killed!");
-
-									// Set temporary killed flag instead of changing status directly
-									PlayerLogic.flagKilled(true);
-
-									System.out.println("CLIENT: Local player flagged as being killed");
-								}
-
-								// Find the killed player in our list
-								PlayerInfo killedPlayer = GameLogic.playerList.get(killedPlayerKey);
-
-								if (killedPlayer != null) {
-									System.out
-											.println("CLIENT: Found player in player list: " + killedPlayer.getName());
-
-									// Set normal "dead" status for other players - we don't need temporary flags
-									// for them
-									killedPlayer.setStatus("dead");
-
-									// Create a corpse if not already exists
-									if (!GameLogic.corpseList.containsKey(killedPlayerKey)) {
-										Corpse corpse = new Corpse(killedPlayer);
-										GameLogic.corpseList.put(killedPlayerKey, corpse);
-
-										System.out.println("CLIENT: Created corpse for " + killedPlayer.getName()
-												+ " at " + corpse.getX() + "," + corpse.getY());
-
-										// Print info about the corpse list
-										System.out.println(
-												"CLIENT: Current corpse list size: " + GameLogic.corpseList.size());
-									} else {
-										Corpse existingCorpse = GameLogic.corpseList.get(killedPlayerKey);
-										System.out.println("CLIENT: Corpse already exists at " + existingCorpse.getX()
-												+ "," + existingCorpse.getY());
-									}
-								} else {
-									System.out.println("CLIENT: Player " + killedPlayerKey
-											+ " not found in player list, creating placeholder");
-
-									// Create a placeholder player
-									try {
-										String[] addressParts = killedPlayerKey.split(":");
-										InetAddress address = InetAddress.getByName(addressParts[0]);
-										int port = Integer.parseInt(addressParts[1]);
-
-										// Create new player info
-										PlayerInfo placeholderPlayer = new PlayerInfo(address, port, playerName, x, y,
-												false, 0, "dead", characterID);
-
-										// Add to player list
-										GameLogic.playerList.put(killedPlayerKey, placeholderPlayer);
-
-										// Create corpse
-										Corpse corpse = new Corpse(placeholderPlayer);
-										GameLogic.corpseList.put(killedPlayerKey, corpse);
-
-										System.out.println(
-												"CLIENT: Created placeholder player and corpse at " + x + "," + y);
-										System.out.println(
-												"CLIENT: Current corpse list size: " + GameLogic.corpseList.size());
-									} catch (Exception e) {
-										System.err
-												.println("CLIENT ERROR creating placeholder player: " + e.getMessage());
-										e.printStackTrace();
-									}
-								}
-
-								// Play sound if not our own death (which already plays a sound via PlayerLogic)
-								if (!killedPlayerKey.equals(PlayerLogic.getLocalAddressPort())) {
-									SoundLogic.playSound("assets/sounds/dead_body.wav", 0);
-								}
-
-								// Debug info about all corpses
-								for (String key : GameLogic.corpseList.keySet()) {
-									Corpse c = GameLogic.corpseList.get(key);
-									System.out.println("CLIENT DEBUG - Corpse: " + c.getPlayerName() + " at " + c.getX()
-											+ "," + c.getY() + " (found: " + c.isFound() + ")");
-								}
-
-							} catch (Exception e) {
-								System.err.println("CLIENT ERROR processing kill message: " + e.getMessage());
-								e.printStackTrace();
-							}
-						} else if (received.startsWith("/meeting/")) {
-							try {
-								String jsonStr = received.substring(9); // Remove "/meeting/" prefix
-								JSONObject meetingData = new JSONObject(jsonStr);
-
-								System.out.println("Client received meeting message: " + jsonStr);
-								String meetingType = meetingData.optString("type", "null");
-
-								if (meetingType.equals("chat")) {
-									String meetingId = meetingData.getString("meetingId");
-									String senderName = meetingData.getString("name");
-									String message = meetingData.getString("message");
-									String status = meetingData.optString("status", "crewmate");
-									boolean isGhostMessage = meetingData.optBoolean("isGhostMessage", false);
-
-									// Check if this is a ghost message and if we should display it
-									boolean shouldDisplay = true;
-									if (isGhostMessage) {
-										// If ghost message, only show to other ghosts
-										if (!"dead".equals(PlayerLogic.getStatus())) {
-											shouldDisplay = false;
-										}
-									}
-
-									if (shouldDisplay) {
-										System.out.println("Client processing chat message for meeting: " + meetingId);
-
-										GameWindow gameWindowInstance = GameWindow.getGameWindowInstance();
-										if (gameWindowInstance != null) {
-											MeetingUI activeMeeting = gameWindowInstance.getActiveMeetingUI();
-
-											if (activeMeeting != null) {
-												activeMeeting.receiveChatMessage(senderName, message, status);
-											}
-										}
-									} else {
-										System.out
-												.println("Client ignoring ghost message (player is alive): " + message);
-									}
-								} else {
-									// Extract meeting details
-									String reporterKey = meetingData.getString("reporter");
-									String reportedPlayerName = meetingData.optString("reportedPlayer", null);
-									int reportedCharId = meetingData.getInt("reportedCharId");
-									// IMPORTANT: Mark the reported corpse as found
-									if (reportedPlayerName != null) {
-										// Find and mark the corresponding corpse as found
-										boolean corpseFound = false;
-										for (String corpseKey : GameLogic.corpseList.keySet()) {
-											Corpse corpse = GameLogic.corpseList.get(corpseKey);
-											if (corpse != null && corpse.getPlayerName().equals(reportedPlayerName)) {
-												corpse.setFound(true);
-												corpseFound = true;
-												System.out.println("CLIENT: Marked corpse of " + reportedPlayerName
-														+ " as found after meeting notification");
-												break;
-											}
-										}
-
-										if (!corpseFound) {
-											System.out.println("CLIENT: Could not find corpse for reported player: "
-													+ reportedPlayerName);
-										}
-									}
-									Platform.runLater(() -> {
-										GameWindow.getGameWindowInstance().startEmergencyMeeting(reporterKey,
-												reportedPlayerName, reportedCharId);
-									});
-								}
-							} catch (Exception e) {
-								System.err.println("Error processing meeting message: " + e.getMessage());
-								e.printStackTrace();
-							}
-						} else if (received.startsWith("/vote/")) {
-							try {
-								// Extract vote data
-								String jsonStr = received.substring(6); // Remove "/vote/" prefix
-								JSONObject voteData = new JSONObject(jsonStr);
-
-								String voterKey = voteData.getString("voter");
-								String targetKey = voteData.getString("target");
-
-								// Extract voteId to identify duplicates - if not present, create one
-								String voteId = voteData.has("voteId") ? voteData.getString("voteId")
-										: voterKey + "_" + (voteData.has("time") ? voteData.getLong("time")
-												: System.currentTimeMillis());
-
-								// Check if this vote has already been processed
-								if (processedVotes.contains(voteId)) {
-									System.out.println("CLIENT: Ignoring duplicate vote from " + voterKey);
-									// return;
-								} else {
-
-									// Mark this vote as processed
-									processedVotes.add(voteId);
-
-									// Limit the size of processedVotes to prevent memory issues
-									if (processedVotes.size() > 1000) {
-										// Remove oldest votes (just keep the latest 500)
-										processedVotes = processedVotes.stream().skip(processedVotes.size() - 500)
-												.collect(java.util.stream.Collectors.toSet());
-									}
-
-									System.out.println("CLIENT: Received vote data - Voter: " + voterKey + ", Target: "
-											+ targetKey);
-
-									// If there's an active meeting UI, update it with this vote
-									if (GameWindow.getGameWindowInstance() != null) {
-										MeetingUI activeMeeting = GameWindow.getGameWindowInstance()
-												.getActiveMeetingUI();
-										if (activeMeeting != null) {
-											// Only process the vote if it's for the active meeting
-											System.out.println("CLIENT: Updating meeting UI with vote");
-											activeMeeting.receiveVote(voterKey, targetKey);
-										} else {
-											System.err.println("CLIENT: Received vote but no active meeting UI found");
-										}
-									}
-								}
-							} catch (Exception e) {
-								System.err.println("CLIENT ERROR: Failed to process vote message: " + e.getMessage());
-								e.printStackTrace();
-							}
-						} else if (received.startsWith("/results/")) {
-							try {
-								// Extract results data
-								String jsonStr = received.substring(9); // Remove "/results/" prefix
-								JSONObject resultsData = new JSONObject(jsonStr);
-
-								// Create a unique ID for this results message
-								String resultsId = resultsData.has("meetingId")
-										? resultsData.getString("meetingId") + "_"
-												+ (resultsData.has("time") ? resultsData.getLong("time") : 0)
-										: "results_" + System.currentTimeMillis();
-
-								// Check if this results message has already been processed
-								if (processedVotes.contains(resultsId)) {
-									System.out.println("CLIENT: Ignoring duplicate results message");
-								} else {
-									// Mark this results message as processed
-									processedVotes.add(resultsId);
-
-									System.out.println("CLIENT: Received voting results: " + jsonStr);
-
-									// Check if ejected is null
-									String ejectedPlayerKey = null;
-									if (!resultsData.isNull("ejected")) {
-										ejectedPlayerKey = resultsData.getString("ejected");
-										System.out.println("CLIENT: Player ejected: " + ejectedPlayerKey);
-									} else {
-										System.out.println("CLIENT: No player ejected");
-									}
-
-									String meetingId = resultsData.getString("meetingId");
-
-									// Get vote counts
-									JSONObject votesJson = resultsData.getJSONObject("votes");
-									Map<String, Integer> voteResults = new HashMap<>();
-									for (String key : votesJson.keySet()) {
-										voteResults.put(key, votesJson.getInt(key));
-									}
-
-									System.out.println("CLIENT: Vote counts: " + voteResults);
-
-									// Handle player ejection
-									if (ejectedPlayerKey != null) {
-										// IMPORTANT: Get wasImposter directly from the server's result data
-										boolean wasImposter = resultsData.has("wasImposter")
-												? resultsData.getBoolean("wasImposter")
-												: false;
-
-										System.out.println(
-												"CLIENT: Ejected player wasImposter from server: " + wasImposter);
-
-										// If it's the local player
-										if (ejectedPlayerKey.equals(PlayerLogic.getLocalAddressPort())) {
-											System.out.println("CLIENT: You were ejected!");
-
-											// Store original status for debugging purposes only
-											boolean localStatusIsImposter = "imposter".equals(PlayerLogic.getStatus());
-											System.out.println(
-													"CLIENT: Local player status isImposter? " + localStatusIsImposter);
-
-											// CRITICAL: Don't override server's wasImposter value
-											// wasImposter = "imposter".equals(PlayerLogic.getStatus()); <-- REMOVED
-											// THIS LINE
-
-											// Flag as ejected instead of changing status directly
-											PlayerLogic.flagEjected(true);
-
-											System.out.println("CLIENT: Local player flagged as being ejected");
-											System.out.println(
-													"CLIENT: Using server's wasImposter value: " + wasImposter);
-										}
-										// If it's another player
-										else if (GameLogic.playerList.containsKey(ejectedPlayerKey)) {
-											PlayerInfo player = GameLogic.playerList.get(ejectedPlayerKey);
-											if (player != null) {
-												System.out.println("CLIENT: " + player.getName() + " was ejected");
-
-												// Store the player's imposter status before changing it
-												String originalStatus = player.getStatus();
-												System.out.println(
-														"CLIENT: Original status of ejected player: " + originalStatus);
-
-												// Set to dead status
-												player.setStatus("dead");
-
-												System.out.println("CLIENT: Other player set to dead");
-											}
-										}
-
-										// Explicitly set ejection info in the GameWindow
-										if (GameWindow.getGameWindowInstance() != null) {
-											System.out.println(
-													"CLIENT: Setting ejection info in GameWindow with wasImposter="
-															+ wasImposter);
-											GameWindow.getGameWindowInstance().setEjectionInfo(ejectedPlayerKey,
-													wasImposter);
-										} else {
-											System.err.println(
-													"CLIENT ERROR: GameWindow instance is null when handling ejection result");
-										}
-									}
-
-									// If there's an active meeting UI, update it with the results
-									if (GameWindow.getGameWindowInstance() != null) {
-										MeetingUI activeMeeting = GameWindow.getGameWindowInstance()
-												.getActiveMeetingUI();
-										if (activeMeeting != null) {
-											System.out.println("CLIENT: Updating meeting UI with voting results");
-											activeMeeting.showVotingResults(ejectedPlayerKey, voteResults);
-										} else {
-											System.out.println(
-													"CLIENT: No active meeting UI found or meeting ID doesn't match");
-										}
-									} else {
-										System.err.println(
-												"CLIENT ERROR: GameWindow instance is null when updating meeting UI");
-									}
-								}
-							} catch (Exception e) {
-								System.err.println("CLIENT ERROR: Failed to process voting results: " + e.getMessage());
-								e.printStackTrace();
-							}
-						} else if (received.startsWith("/ejection/")) {
-							try {
-								// Extract ejection data
-								String jsonStr = received.substring(10); // Remove "/ejection/" prefix
-								JSONObject ejectionData = new JSONObject(jsonStr);
-
-								String ejectedPlayerKey = ejectionData.getString("ejectedPlayer");
-								boolean wasImposter = ejectionData.getBoolean("wasImposter");
-
-								System.out.println("CLIENT: Received ejection notification - Player: "
-										+ ejectedPlayerKey + ", Was Imposter: " + wasImposter);
-
-								// Mark player as dead
-								if (GameLogic.playerList.containsKey(ejectedPlayerKey)) {
-									PlayerInfo player = GameLogic.playerList.get(ejectedPlayerKey);
-									if (player != null) {
-										player.setStatus("dead");
-									}
-								}
-
-								// If we have a GameWindow instance, set the ejection info
-								if (GameWindow.getGameWindowInstance() != null) {
-									GameWindow.getGameWindowInstance().setEjectionInfo(ejectedPlayerKey, wasImposter);
-								}
-
-							} catch (Exception e) {
-								System.err
-										.println("CLIENT ERROR: Failed to process ejection message: " + e.getMessage());
-								e.printStackTrace();
-							}
-						}
-						// Handle relay messages
-						else if (received.startsWith("/r/")) {
-							String msg = received.substring(3);
-							log(logArea, msg);
-						}
-						// Handle server name messages
-						else if (received.startsWith("/sname/")) {
-							String output = received.substring(7);
-							log(logArea, output);
-						}
-						// Handle list messages
-						else if (received.startsWith("/ls/")) {
-							String list = received.substring(4);
-							log(logArea, list);
-						}
-						// Handle other messages (regular chat, etc.)
-						else {
-							log(logArea, received);
+						InboundDatagram datagram = loop.receive();
+						try {
+							table.dispatch(datagram.getData(), datagram.getSocketAddress());
+						} finally {
+							datagram.release();
 						}
 					} catch (SocketTimeoutException e) {
 						System.out.println("Waiting for msg : shouldn't timeout");
@@ -698,90 +460,937 @@ public class ClientLogic {
 
 	}
 
-	private static void startPingThread(TextArea logArea) {
-		Thread pingThread = new Thread(() -> {
-			while (connectedServerAddress != null && connectedServerPort != -1) {
-				try {
-					sendPing(logArea);
-					Thread.sleep(40); // Ping every 40 ms
+	/**
+	 * Handles a kill broadcast: marks the victim dead and leaves a corpse
+	 */
+	private static void handleKillMessage(JSONObject killData) {
+		try {
+			System.out.println("CLIENT: Received kill message: " + killData);
+
+
+			// Extract all needed fields
+			String killedPlayerKey = killData.getString("killedPlayer");
+			String playerName = killData.getString("playerName");
+			double x = killData.getDouble("x");
+			double y = killData.getDouble("y");
+			int characterID = killData.getInt("characterID");
+
+			System.out.println("CLIENT: Processing kill report for " + playerName + " at " + x + ","
+					+ y + " (Character ID: " + characterID + ")");
+
+			// Special handling if we are the killed player
+			if (killedPlayerKey.equals(PlayerLogic.getLocalAddressPort())) {
+				System.out.println("CLIENT: Local player was killed!");
 
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					log(logArea, "Ping thread interrupted.");
+				// Set temporary killed flag instead of changing status directly
+				PlayerLogic.flagKilled(true);
+
+				System.out.println("CLIENT: Local player flagged as being killed");
+			}
+
+			// Our own kill: the server says when we may kill again
+			if (PlayerLogic.getLocalAddressPort().equals(killData.optString("killer", null))
+					&& killData.has("killReadyAt")) {
+				GameLogic.setKillReadyAt(killData.getLong("killReadyAt"));
+			}
+
+			// Find the killed player in our list
+			PlayerInfo killedPlayer = GameLogic.playerList.get(killedPlayerKey);
+
+			if (killedPlayer != null) {
+				System.out
+						.println("CLIENT: Found player in player list: " + killedPlayer.getName());
+
+				// Set normal "dead" status for other players - we don't need temporary flags
+				// for them
+				killedPlayer.setStatus("dead");
+
+				// Create a corpse if not already exists
+				if (!GameLogic.corpseList.containsKey(killedPlayerKey)) {
+					Corpse corpse = new Corpse(killedPlayer);
+					GameLogic.corpseList.put(killedPlayerKey, corpse);
+
+					System.out.println("CLIENT: Created corpse for " + killedPlayer.getName()
+							+ " at " + corpse.getX() + "," + corpse.getY());
+
+					// Print info about the corpse list
+					System.out.println(
+							"CLIENT: Current corpse list size: " + GameLogic.corpseList.size());
+				} else {
+					Corpse existingCorpse = GameLogic.corpseList.get(killedPlayerKey);
+					System.out.println("CLIENT: Corpse already exists at " + existingCorpse.getX()
+							+ "," + existingCorpse.getY());
+				}
+			} else {
+				System.out.println("CLIENT: Player " + killedPlayerKey
+						+ " not found in player list, creating placeholder");
+
+				// Create a placeholder player
+				try {
+					String[] addressParts = killedPlayerKey.split(":");
+					InetAddress address = InetAddress.getByName(addressParts[0]);
+					int port = Integer.parseInt(addressParts[1]);
+
+					// Create new player info
+					PlayerInfo placeholderPlayer = new PlayerInfo(address, port, playerName, x, y,
+							false, 0, "dead", characterID);
+
+					// Add to player list
+					GameLogic.playerList.put(killedPlayerKey, placeholderPlayer);
+
+					// Create corpse
+					Corpse corpse = new Corpse(placeholderPlayer);
+					GameLogic.corpseList.put(killedPlayerKey, corpse);
+
+					System.out.println(
+							"CLIENT: Created placeholder player and corpse at " + x + "," + y);
+					System.out.println(
+							"CLIENT: Current corpse list size: " + GameLogic.corpseList.size());
+				} catch (Exception e) {
+					System.err
+							.println("CLIENT ERROR creating placeholder player: " + e.getMessage());
+					e.printStackTrace();
 				}
 			}
-		});
-		pingThread.start();
+
+			// Play sound if not our own death (which already plays a sound via PlayerLogic)
+			if (!killedPlayerKey.equals(PlayerLogic.getLocalAddressPort())) {
+				SoundLogic.playSound("assets/sounds/dead_body.wav", 0);
+			}
+
+			// Debug info about all corpses
+			for (String key : GameLogic.corpseList.keySet()) {
+				Corpse c = GameLogic.corpseList.get(key);
+				System.out.println("CLIENT DEBUG - Corpse: " + c.getPlayerName() + " at " + c.getX()
+						+ "," + c.getY() + " (found: " + c.isFound() + ")");
+			}
+
+		} catch (Exception e) {
+			System.err.println("CLIENT ERROR processing kill message: " + e.getMessage());
+			e.printStackTrace();
+		}
 	}
 
-	private static int sendPingCount = 0;
+	/**
+	 * Handles meeting chat and emergency meeting announcements
+	 */
+	private static void handleMeetingMessage(JSONObject meetingData) {
+		try {
+			System.out.println("Client received meeting message: " + meetingData);
+			String meetingType = meetingData.optString("type", "null");
+
+			if (meetingType.equals("chat")) {
+				String meetingId = meetingData.getString("meetingId");
+				String senderName = meetingData.getString("name");
+				String message = meetingData.getString("message");
+				String status = meetingData.optString("status", "crewmate");
+				boolean isGhostMessage = meetingData.optBoolean("isGhostMessage", false);
+
+				// Check if this is a ghost message and if we should display it
+				boolean shouldDisplay = true;
+				if (isGhostMessage) {
+					// If ghost message, only show to other ghosts
+					if (!"dead".equals(PlayerLogic.getStatus())) {
+						shouldDisplay = false;
+					}
+				}
 
-	private static void sendPing(TextArea logArea) { /// send ping and also information to server run every 100ms
-		if (connectedServerAddress != null && connectedServerPort != -1) {
-			try {
-				if (sendPingCount > 8) { // run to check if server avail
-					sendPingCount = 0;
-
-					if (missedPings > 5) {
-						wasDiscon = true;
-						if (missedPings == 11) { // run once on disconnect
-							log(logArea, "Server disconnected.");
-							System.out.println("Server disconnected."); // Print to terminal for debugging
-							log(logArea, "Attempting Reconnection ...");
+				if (shouldDisplay) {
+					System.out.println("Client processing chat message for meeting: " + meetingId);
+
+					GameWindow gameWindowInstance = GameWindow.getGameWindowInstance();
+					if (gameWindowInstance != null) {
+						MeetingUI activeMeeting = gameWindowInstance.getActiveMeetingUI();
+
+						if (activeMeeting != null) {
+							activeMeeting.receiveChatMessage(senderName, message, status);
 						}
-					} else {
-						if (wasDiscon) {
-							sendMessage("/name/" + MainMenuPane.getPlayerName(), logArea);
-							log(logArea, "Server Reconnect Succesful");
-							wasDiscon = false;
+					}
+				} else {
+					System.out
+							.println("Client ignoring ghost message (player is alive): " + message);
+				}
+			} else {
+				// Extract meeting details
+				String reporterKey = meetingData.getString("reporter");
+				String reportedPlayerName = meetingData.optString("reportedPlayer", null);
+				int reportedCharId = meetingData.getInt("reportedCharId");
+				long votingEnds = meetingData.optLong("votingEnds", 0);
+				if (votingEnds != 0) {
+					GameLogic.getState().setMeetingEndsAt(votingEnds);
+					// If our meeting is already open, it ends on the server's deadline
+					Platform.runLater(() -> {
+						GameWindow window = GameWindow.getGameWindowInstance();
+						MeetingUI meeting = window != null ? window.getActiveMeetingUI() : null;
+						if (meeting != null) {
+							meeting.setVotingEndsAt(votingEnds);
+						}
+					});
+				}
+				// IMPORTANT: Mark the reported corpse as found
+				if (reportedPlayerName != null) {
+					// Find and mark the corresponding corpse as found
+					boolean corpseFound = false;
+					for (String corpseKey : GameLogic.corpseList.keySet()) {
+						Corpse corpse = GameLogic.corpseList.get(corpseKey);
+						if (corpse != null && corpse.getPlayerName().equals(reportedPlayerName)) {
+							corpse.setFound(true);
+							corpseFound = true;
+							System.out.println("CLIENT: Marked corpse of " + reportedPlayerName
+									+ " as found after meeting notification");
+							break;
 						}
 					}
 
-					String pingMessage = "/sys/PING";
-					byte[] buf = pingMessage.getBytes(StandardCharsets.UTF_8);
-					DatagramPacket packet = new DatagramPacket(buf, buf.length, connectedServerAddress,
-							connectedServerPort);
-					clientSocket.send(packet);
-					missedPings += 1;
+					if (!corpseFound) {
+						System.out.println("CLIENT: Could not find corpse for reported player: "
+								+ reportedPlayerName);
+					}
+				}
+				Platform.runLater(() -> {
+					GameWindow.getGameWindowInstance().startEmergencyMeeting(reporterKey,
+							reportedPlayerName, reportedCharId);
+				});
+			}
+		} catch (Exception e) {
+			System.err.println("Error processing meeting message: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Handles a vote cast by another player during a meeting
+	 */
+	private static void handleVoteMessage(JSONObject voteData) {
+		try {
+			String voterKey = voteData.getString("voter");
+			String targetKey = voteData.getString("target");
+
+			// Extract voteId to identify duplicates - if not present, create one
+			String voteId = voteData.has("voteId") ? voteData.getString("voteId")
+					: voterKey + "_" + (voteData.has("time") ? voteData.getLong("time")
+							: System.currentTimeMillis());
+
+			// Check if this vote has already been processed
+			if (processedVotes.contains(voteId)) {
+				System.out.println("CLIENT: Ignoring duplicate vote from " + voterKey);
+				// return;
+			} else {
+
+				// Mark this vote as processed
+				processedVotes.add(voteId);
+
+				// Limit the size of processedVotes to prevent memory issues
+				if (processedVotes.size() > 1000) {
+					// Remove oldest votes (just keep the latest 500)
+					processedVotes = processedVotes.stream().skip(processedVotes.size() - 500)
+							.collect(java.util.stream.Collectors.toSet());
+				}
+
+				System.out.println("CLIENT: Received vote data - Voter: " + voterKey + ", Target: "
+						+ targetKey);
+
+				// If there's an active meeting UI, update it with this vote
+				if (GameWindow.getGameWindowInstance() != null) {
+					MeetingUI activeMeeting = GameWindow.getGameWindowInstance()
+							.getActiveMeetingUI();
+					if (activeMeeting != null) {
+						// Only process the vote if it's for the active meeting
+						System.out.println("CLIENT: Updating meeting UI with vote");
+						activeMeeting.receiveVote(voterKey, targetKey);
+					} else {
+						System.err.println("CLIENT: Received vote but no active meeting UI found");
+					}
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("CLIENT ERROR: Failed to process vote message: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Handles the voting results at the end of a meeting
+	 */
+	private static void handleResultsMessage(JSONObject resultsData) {
+		try {
+			// Create a unique ID for this results message
+			String resultsId = resultsData.has("meetingId")
+					? resultsData.getString("meetingId") + "_"
+							+ (resultsData.has("time") ? resultsData.getLong("time") : 0)
+					: "results_" + System.currentTimeMillis();
+
+			// Check if this results message has already been processed
+			if (processedVotes.contains(resultsId)) {
+				System.out.println("CLIENT: Ignoring duplicate results message");
+			} else {
+				// Mark this results message as processed
+				processedVotes.add(resultsId);
+
+				System.out.println("CLIENT: Received voting results: " + resultsData);
+
+				// Check if ejected is null
+				String ejectedPlayerKey = null;
+				if (!resultsData.isNull("ejected")) {
+					ejectedPlayerKey = resultsData.getString("ejected");
+					System.out.println("CLIENT: Player ejected: " + ejectedPlayerKey);
 				} else {
-					sendPingCount++;
+					System.out.println("CLIENT: No player ejected");
 				}
 
-				// Send Player Information (Not Ping)
-				if (ServerSelectGui.isGameWindow()) {
-					try {
-						JSONObject json = new JSONObject();
-						json.put("name", PlayerLogic.getName());
-						json.put("PosX", PlayerLogic.getMyPosX());
-						json.put("PosY", PlayerLogic.getMyPosY());
-						json.put("Direction", PlayerLogic.getDirection());
-						json.put("isMoving", PlayerLogic.getMoving());
-						json.put("charID", PlayerLogic.getCharID());
-						json.put("playerReady", PlayerLogic.isPlayerReady());
-						json.put("task", PlayerLogic.getTaskPercent());
-
-						String message = "/data/" + json.toString();
-						byte[] buf = message.getBytes(StandardCharsets.UTF_8);
-						DatagramPacket packet = new DatagramPacket(buf, buf.length, connectedServerAddress,
-								connectedServerPort);
-						clientSocket.send(packet);
-						// System.out.println("Sent information to server: " + message);
-					} catch (IOException ex) {
-						ex.printStackTrace();
+				String meetingId = resultsData.getString("meetingId");
+
+				// Get vote counts
+				JSONObject votesJson = resultsData.getJSONObject("votes");
+				Map<String, Integer> voteResults = new HashMap<>();
+				for (String key : votesJson.keySet()) {
+					voteResults.put(key, votesJson.getInt(key));
+				}
+
+				System.out.println("CLIENT: Vote counts: " + voteResults);
+
+				// Handle player ejection
+				if (ejectedPlayerKey != null) {
+					// IMPORTANT: Get wasImposter directly from the server's result data
+					boolean wasImposter = resultsData.has("wasImposter")
+							? resultsData.getBoolean("wasImposter")
+							: false;
+
+					System.out.println(
+							"CLIENT: Ejected player wasImposter from server: " + wasImposter);
+
+					// If it's the local player
+					if (ejectedPlayerKey.equals(PlayerLogic.getLocalAddressPort())) {
+						System.out.println("CLIENT: You were ejected!");
+
+						// Store original status for debugging purposes only
+						boolean localStatusIsImposter = "imposter".equals(PlayerLogic.getStatus());
+						System.out.println(
+								"CLIENT: Local player status isImposter? " + localStatusIsImposter);
+
+						// CRITICAL: Don't override server's wasImposter value
+						// wasImposter = "imposter".equals(PlayerLogic.getStatus()); <-- REMOVED
+						// THIS LINE
+
+						// Flag as ejected instead of changing status directly
+						PlayerLogic.flagEjected(true);
+
+						System.out.println("CLIENT: Local player flagged as being ejected");
+						System.out.println(
+								"CLIENT: Using server's wasImposter value: " + wasImposter);
+					}
+					// If it's another player
+					else if (GameLogic.playerList.containsKey(ejectedPlayerKey)) {
+						PlayerInfo player = GameLogic.playerList.get(ejectedPlayerKey);
+						if (player != null) {
+							System.out.println("CLIENT: " + player.getName() + " was ejected");
+
+							// Store the player's imposter status before changing it
+							String originalStatus = player.getStatus();
+							System.out.println(
+									"CLIENT: Original status of ejected player: " + originalStatus);
+
+							// Set to dead status
+							player.setStatus("dead");
+
+							System.out.println("CLIENT: Other player set to dead");
+						}
+					}
+
+					// Explicitly set ejection info in the GameWindow
+					if (GameWindow.getGameWindowInstance() != null) {
+						System.out.println(
+								"CLIENT: Setting ejection info in GameWindow with wasImposter="
+										+ wasImposter);
+						GameWindow.getGameWindowInstance().setEjectionInfo(ejectedPlayerKey,
+								wasImposter);
+					} else {
+						System.err.println(
+								"CLIENT ERROR: GameWindow instance is null when handling ejection result");
 					}
 				}
-			} catch (IOException e) {
-				log(logArea, "Error sending PING to server: " + e.getMessage());
+
+				// If there's an active meeting UI, update it with the results
+				if (GameWindow.getGameWindowInstance() != null) {
+					MeetingUI activeMeeting = GameWindow.getGameWindowInstance()
+							.getActiveMeetingUI();
+					if (activeMeeting != null) {
+						System.out.println("CLIENT: Updating meeting UI with voting results");
+						activeMeeting.showVotingResults(ejectedPlayerKey, voteResults);
+					} else {
+						System.out.println(
+								"CLIENT: No active meeting UI found or meeting ID doesn't match");
+					}
+				} else {
+					System.err.println(
+							"CLIENT ERROR: GameWindow instance is null when updating meeting UI");
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("CLIENT ERROR: Failed to process voting results: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Handles the notification that a player was ejected
+	 */
+	private static void handleEjectionMessage(JSONObject ejectionData) {
+		try {
+			String ejectedPlayerKey = ejectionData.getString("ejectedPlayer");
+			boolean wasImposter = ejectionData.getBoolean("wasImposter");
+
+			System.out.println("CLIENT: Received ejection notification - Player: "
+					+ ejectedPlayerKey + ", Was Imposter: " + wasImposter);
+
+			// Mark player as dead
+			if (GameLogic.playerList.containsKey(ejectedPlayerKey)) {
+				PlayerInfo player = GameLogic.playerList.get(ejectedPlayerKey);
+				if (player != null) {
+					player.setStatus("dead");
+				}
+			}
+
+			// If we have a GameWindow instance, set the ejection info
+			if (GameWindow.getGameWindowInstance() != null) {
+				GameWindow.getGameWindowInstance().setEjectionInfo(ejectedPlayerKey, wasImposter);
+			}
+
+		} catch (Exception e) {
+			System.err
+					.println("CLIENT ERROR: Failed to process ejection message: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reconstructs a delta-compressed snapshot on top of the baseline it names
+	 * and applies the players that changed to the local player list. If the
+	 * baseline is gone the snapshot is dropped and a full one is requested.
+	 */
+	private static void handleSnapshot(ByteBuffer view) {
+		if (!PlayerStateCodec.readSnapshotHeader(view, SNAPSHOT_HEADER)) {
+			System.out.println("CLIENT: Dropped malformed snapshot");
+			return;
+		}
+		long arrivalNanos = System.nanoTime();
+		int sequence = SNAPSHOT_HEADER.getSequence();
+		EntityTable baseline = null;
+		if (SNAPSHOT_HEADER.isFull()) {
+			if (sequence <= SNAPSHOT_HISTORY.getLatestSequence()) {
+				SNAPSHOT_HISTORY.reset(); // server restarted its sequence
+				SNAPSHOT_TIMELINE.reset();
 			}
 		} else {
+			if (sequence <= SNAPSHOT_HISTORY.getLatestSequence()) {
+				return; // late or duplicate, a newer snapshot was already applied
+			}
+			baseline = SNAPSHOT_HISTORY.get(SNAPSHOT_HEADER.getBaseSequence());
+			if (baseline == null) {
+				SNAPSHOT_HISTORY.setFullRequested(true);
+				return;
+			}
+		}
+
+		EntityTable snapshot = baseline == null ? new EntityTable() : new EntityTable(baseline);
+		List<EntityState> removed = new ArrayList<>();
+		List<EntityState> changed = new ArrayList<>();
+		int removedCount = PlayerStateCodec.readCount(view);
+		for (int i = 0; i < removedCount; i++) {
+			int id = PlayerStateCodec.readRemovedEntity(view);
+			if (id < 0) {
+				removedCount = -1;
+				break;
+			}
+			EntityState gone = snapshot.remove(id);
+			if (gone != null) {
+				removed.add(gone);
+			}
+		}
+		int count = removedCount < 0 ? -1 : PlayerStateCodec.readCount(view);
+		for (int i = 0; i < count; i++) {
+			EntityState state = PlayerStateCodec.readEntityDelta(view, baseline);
+			if (state == null) {
+				count = -1;
+				break;
+			}
+			snapshot.put(state);
+			changed.add(state);
+		}
+		if (count < 0) {
+			System.out.println("CLIENT: Dropped malformed snapshot " + sequence);
+			SNAPSHOT_HISTORY.setFullRequested(true);
+			return;
+		}
+
+		SNAPSHOT_HISTORY.store(sequence, snapshot);
+		SNAPSHOT_HISTORY.acknowledge(sequence);
+		if (SNAPSHOT_HEADER.isFull()) {
+			SNAPSHOT_HISTORY.setFullRequested(false);
+		}
+
+		// === For ending Prep Phase ===
+		if (!GameLogic.isPrepEnded()) {
+			GameLogic.setPrepEnded(SNAPSHOT_HEADER.isPrepEnded());
+		}
+
+		for (EntityState state : removed) {
+			if (!isLocalPlayer(state)) {
+				forgetPlayer(state.getId());
+			}
+		}
+		for (EntityState state : changed) {
+			String key = state.getKey();
+			String status = state.getStatus();
+			PlayerInfo existing = PLAYERS_BY_ID[state.getId()];
+			if (existing != null && !existing.getKey().equals(key)) {
+				forgetPlayer(state.getId()); // the id now belongs to someone who joined since
+				existing = null;
+			}
+			if (existing == null) {
+				existing = GameLogic.playerList.get(key); // e.g. a placeholder from a kill message
+			}
+
+			if (isLocalPlayer(state)) { // our own
+				if (!PlayerLogic.getStatus().equals(status)) {
+					System.out.println("Set Status to " + status);
+					PlayerLogic.setStatus(status);
+				}
+				// Our position is predicted locally, the game loop reconciles it
+			} else if (existing != null) {
+				PLAYERS_BY_ID[state.getId()] = existing;
+				existing.setX(state.getX());
+				existing.setY(state.getY());
+				existing.setMoving(state.isMoving());
+				existing.setDirection(state.getDirection());
+				existing.setStatus(status);
+				existing.setCharacterID(state.getCharID());
+				existing.setTaskPercent(state.getTaskPercent());
+			} else {
+				PlayerInfo newPlayer = new PlayerInfo(state.getAddress(), state.getPort(), state.getName(),
+						state.getX(), state.getY(), state.isMoving(), state.getDirection(), status, state.getCharID());
+				newPlayer.setTaskPercent(state.getTaskPercent());
+				newPlayer.setPlayerId(state.getId());
+				PLAYERS_BY_ID[state.getId()] = newPlayer;
+				GameLogic.playerList.put(key, newPlayer);
+			}
+		}
+
+		// Every player gets a sample per snapshot, unchanged ones included, so
+		// the interpolation buffers see standing still as well as movement
+		double serverTime = SNAPSHOT_TIMELINE.onSnapshot(SNAPSHOT_HEADER.getServerTime(), arrivalNanos);
+		for (int i = 0; i < snapshot.size(); i++) {
+			EntityState state = snapshot.at(i);
+			if (isLocalPlayer(state)) {
+				PREDICTION.setServerState(SNAPSHOT_HEADER.getInputAck(), state.getX(), state.getY());
+				continue;
+			}
+			PlayerInfo info = PLAYERS_BY_ID[state.getId()];
+			if (info != null) {
+				info.getInterpolationBuffer().add(serverTime, state.getX(), state.getY());
+			}
+		}
+	}
+
+	/**
+	 * Whether a snapshot entry is our own player: by the id the server gave us,
+	 * or by address if it did not send one
+	 */
+	private static boolean isLocalPlayer(EntityState state) {
+		int localId = PlayerLogic.getPlayerId();
+		return localId >= 0 ? state.getId() == localId : state.getKey().equals(PlayerLogic.getLocalAddressPort());
+	}
+
+	/**
+	 * Removes the player that had an id from the player list
+	 */
+	private static void forgetPlayer(int id) {
+		PlayerInfo player = PLAYERS_BY_ID[id];
+		PLAYERS_BY_ID[id] = null;
+		if (player != null) {
+			GameLogic.playerList.remove(player.getKey(), player);
+		}
+	}
+
+	/**
+	 * Reads the player id from a handshake ACK body, "&lt;id&gt; &lt;token&gt;"
+	 *
+	 * @return the id, or -1 if the server did not send one
+	 */
+	private static int parsePlayerId(String body) {
+		try {
+			int id = Integer.parseInt(body.trim().split(" ")[0]);
+			return EntityTable.isValidId(id) ? id : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads the resume token from a handshake ACK body
+	 *
+	 * @return the token, or null if the server did not send one
+	 */
+	private static String parseResumeToken(String body) {
+		String[] parts = body.trim().split(" ");
+		return parts.length > 1 ? parts[1] : null;
+	}
+
+	/**
+	 * Follows the server's phase of the match. The server alone decides when
+	 * the match is over and who won.
+	 */
+	private static void handlePhaseMessage(JSONObject phaseData) {
+		GamePhase phase = GamePhase.parse(phaseData.optString("phase"));
+		if (phase == null) {
+			System.out.println("CLIENT: Ignored unknown match phase " + phaseData.optString("phase"));
+			return;
+		}
+		System.out.println("CLIENT: Match phase " + phaseData.optString("previous") + " -> " + phase);
+		if (phase == GamePhase.ENDED && !GameLogic.isGameEnded()) {
+			String result = phaseData.optString("result");
+			for (GameLogic.GameResult known : GameLogic.GameResult.values()) {
+				if (known.name().equals(result)) {
+					GameLogic.endGame(known);
+					return;
+				}
+			}
+			System.out.println("CLIENT: Ignored unknown match result " + result);
+		}
+	}
+
+	/**
+	 * Applies the whole match state the server sends when we take our place
+	 * back after a disconnect: players and roles, corpses, the open meeting
+	 * with its votes and our kill cooldown. Anything we missed meanwhile is
+	 * replaced, so one message makes the game consistent again.
+	 */
+	private static void handleResyncMessage(JSONObject state) {
+		try {
+			int playerId = state.getInt("playerId");
+			PlayerLogic.setPlayerId(EntityTable.isValidId(playerId) ? playerId : -1);
+			if (state.optBoolean("prepEnded", false) && !GameLogic.isPrepEnded()) {
+				GameLogic.setPrepEnded(true);
+			}
+
+			// Players and their roles
+			Set<String> present = new HashSet<>();
+			JSONArray playerList = state.getJSONArray("players");
+			for (int i = 0; i < playerList.length(); i++) {
+				JSONObject data = playerList.getJSONObject(i);
+				int id = data.getInt("id");
+				String key = data.getString("key");
+				String status = data.getString("status");
+				if (id == playerId) {
+					if (!PlayerLogic.getStatus().equals(status)) {
+						System.out.println("Set Status to " + status);
+						PlayerLogic.setStatus(status);
+					}
+					continue;
+				}
+				present.add(key);
+				PlayerInfo player = GameLogic.playerList.get(key);
+				if (player == null) {
+					String[] address = key.split(":");
+					player = new PlayerInfo(InetAddress.getByName(address[0]), Integer.parseInt(address[1]),
+							data.getString("name"), 0, 0, false, 0, status, data.getInt("characterID"));
+					GameLogic.playerList.put(key, player);
+				}
+				if (EntityTable.isValidId(id)) {
+					PlayerInfo previous = PLAYERS_BY_ID[id];
+					if (previous != null && previous != player) {
+						forgetPlayer(id);
+					}
+					player.setPlayerId(id);
+					PLAYERS_BY_ID[id] = player;
+				}
+				player.setStatus(status);
+				player.setCharacterID(data.getInt("characterID"));
+				player.setTaskPercent(data.getDouble("taskPercent"));
+			}
+
+			// Corpses, found or not
+			Set<String> corpseKeys = new HashSet<>();
+			JSONArray corpseList = state.getJSONArray("corpses");
+			for (int i = 0; i < corpseList.length(); i++) {
+				JSONObject data = corpseList.getJSONObject(i);
+				String key = data.getString("key");
+				corpseKeys.add(key);
+				Corpse corpse = GameLogic.corpseList.get(key);
+				if (corpse == null) {
+					String[] address = key.split(":");
+					PlayerInfo body = new PlayerInfo(InetAddress.getByName(address[0]), Integer.parseInt(address[1]),
+							data.getString("playerName"), data.getDouble("x"), data.getDouble("y"), false, 0, "dead",
+							data.getInt("characterID"));
+					corpse = new Corpse(body);
+					GameLogic.corpseList.put(key, corpse);
+				}
+				corpse.setFound(data.getBoolean("found"));
+			}
+			GameLogic.corpseList.keySet().retainAll(corpseKeys);
+
+			// Players that left while we were away
+			for (String key : new ArrayList<>(GameLogic.playerList.keySet())) {
+				if (!present.contains(key) && !corpseKeys.contains(key)) {
+					PlayerInfo gone = GameLogic.playerList.remove(key);
+					if (gone != null && EntityTable.isValidId(gone.getPlayerId())
+							&& PLAYERS_BY_ID[gone.getPlayerId()] == gone) {
+						PLAYERS_BY_ID[gone.getPlayerId()] = null;
+					}
+				}
+			}
+
+			if (state.has("killReadyAt")) {
+				GameLogic.setKillReadyAt(state.getLong("killReadyAt"));
+			}
+
+			// The meeting in progress, opened if we missed its start, with the votes so far
+			JSONObject meeting = state.optJSONObject("meeting");
+			if (meeting != null) {
+				GameWindow window = GameWindow.getGameWindowInstance();
+				if (window == null || window.getActiveMeetingUI() == null) {
+					handleMeetingMessage(meeting);
+				} else {
+					GameLogic.getState().setMeetingEndsAt(meeting.optLong("votingEnds", 0));
+				}
+				JSONObject votes = meeting.optJSONObject("votes");
+				long votingEnds = meeting.optLong("votingEnds", 0);
+				Platform.runLater(() -> {
+					GameWindow current = GameWindow.getGameWindowInstance();
+					MeetingUI active = current != null ? current.getActiveMeetingUI() : null;
+					if (active == null) {
+						return;
+					}
+					if (votingEnds != 0) {
+						active.setVotingEndsAt(votingEnds);
+					}
+					if (votes != null) {
+						for (String voter : votes.keySet()) {
+							active.receiveVote(voter, votes.getString(voter));
+						}
+					}
+				});
+			}
+
+			System.out.println("CLIENT: Resynced as player " + playerId + ": " + present.size()
+					+ " other player(s), " + corpseKeys.size() + " corpse(s)"
+					+ (meeting != null ? ", meeting in progress" : ""));
+		} catch (Exception e) {
+			System.err.println("CLIENT ERROR processing resync: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Moves every remote player's render position to where it was one
+	 * interpolation delay ago. Called once per frame before drawing.
+	 */
+	public static void interpolateRemotePlayers(long nowNanos) {
+		double renderTime = SNAPSHOT_TIMELINE.getRenderTime(nowNanos);
+		if (Double.isNaN(renderTime)) {
+			return; // not a client, or no snapshot yet
+		}
+		for (PlayerInfo info : GameLogic.playerList.values()) {
+			if (info.getInterpolationBuffer().sample(renderTime, RENDER_POSITION) != InterpolationBuffer.EMPTY) {
+				info.setRenderPosition(RENDER_POSITION[0], RENDER_POSITION[1]);
+			}
+		}
+	}
+
+	/**
+	 * Records a movement command the local player just applied, along with the
+	 * position predicted after it, so it is sent to the server and can be
+	 * replayed on a correction. Does nothing unless connected to a server.
+	 */
+	public static void recordLocalInput(int input, int dtMillis, double x, double y) {
+		if (connectedServerAddress != null) {
+			PREDICTION.record(input, dtMillis, x, y);
+		}
+	}
+
+	/**
+	 * Records that the local player was placed somewhere, e.g. on a spawn point
+	 */
+	public static void recordLocalTeleport(double x, double y) {
+		if (connectedServerAddress != null) {
+			PREDICTION.recordTeleport(x, y);
+		}
+	}
+
+	/**
+	 * Applies the server's latest verdict on the local player's position.
+	 * position holds the predicted position and is replaced by the corrected
+	 * one, with the commands the server has not processed yet replayed.
+	 *
+	 * @return true if position was corrected
+	 */
+	public static boolean reconcileLocalPlayer(double[] position, boolean ghost) {
+		return PREDICTION.reconcile(position,
+				(replayed, input, dtMillis) -> MovementLogic.step(replayed, input, dtMillis, ghost));
+	}
+
+	/**
+	 * Returns the client's snapshot timeline, for the interpolation delay and
+	 * jitter it measured
+	 */
+	public static SnapshotTimeline getSnapshotTimeline() {
+		return SNAPSHOT_TIMELINE;
+	}
+
+	/**
+	 * Returns the measured round trip, jitter, loss and bandwidth of the link
+	 * to the server
+	 */
+	public static LinkQuality getLinkQuality() {
+		return LINK_QUALITY;
+	}
+
+	/**
+	 * Returns the estimate of the server's game clock
+	 */
+	public static ClockSync getClockSync() {
+		return CLOCK_SYNC;
+	}
+
+	/**
+	 * Looks at our state every SEND_POLL_MS from the game scheduler and sends
+	 * it when SEND_RATE says so, until disconnected
+	 */
+	private static synchronized void startSending(TextArea logArea) {
+		stopSending();
+		SEND_RATE.reset();
+		sendTask = GameScheduler.get().scheduleAtFixedRate("Client send", 0, SEND_POLL_MS, () -> {
+			if (connectedServerAddress == null || connectedServerPort == -1) {
+				stopSending();
+				return;
+			}
+			sendState(logArea);
+		});
+	}
+
+	private static synchronized void stopSending() {
+		if (sendTask != null) {
+			sendTask.cancel();
+			sendTask = null;
+		}
+	}
+
+	/**
+	 * Sends our state if it is due, carrying the heartbeat when that is due
+	 * too; without a game window there is no state, and the heartbeat goes as
+	 * a PING
+	 */
+	private static void sendState(TextArea logArea) {
+		if (connectedServerAddress == null || connectedServerPort == -1) {
 			log(logArea, "Server connection not established. Cannot send PING.");
+			return;
+		}
+		long now = System.nanoTime();
+		SEND_RATE.adapt(LINK_QUALITY.getLossRate(), LINK_QUALITY.getRttMillis(), now);
+		boolean moving = PlayerLogic.getMoving() || PREDICTION.getFirstUnacked() < PREDICTION.getNextSequence();
+		boolean heartbeat = SEND_RATE.isHeartbeatDue(now, moving || missedPings > 1);
+		try {
+			if (heartbeat) {
+				checkServerAlive(logArea);
+			}
+
+			if (!ServerSelectGui.isGameWindow()) {
+				if (heartbeat) {
+					sendBytes(LinkQuality.encodeProbe(MessageCodec.OP_PING, LINK_QUALITY.nextProbe(now)));
+					SEND_RATE.onHeartbeatSent(now);
+					missedPings += 1;
+				}
+				return;
+			}
+
+			long signature = stateSignature();
+			int ack = SNAPSHOT_HISTORY.getAckedSequence();
+			if (!heartbeat
+					&& !SEND_RATE.isStateDue(now, moving, signature != lastSentSignature, ack != lastSentAck)) {
+				return;
+			}
+			int probe = heartbeat ? LINK_QUALITY.nextProbe(now) : -1;
+			PlayerStateCodec.writeClientState(STATE_BUFFER, PlayerLogic.getName(), PlayerLogic.getMyPosX(),
+					PlayerLogic.getMyPosY(), PlayerLogic.getDirection(), PlayerLogic.getMoving(),
+					PlayerLogic.getCharID(), PlayerLogic.isPlayerReady(), PlayerLogic.getTaskPercent(), ack,
+					SNAPSHOT_HISTORY.isFullRequested(), PREDICTION, probe);
+			LINK_QUALITY.onBytesSent(STATE_BUFFER.remaining());
+			clientLoop.send(STATE_BUFFER, new InetSocketAddress(connectedServerAddress, connectedServerPort));
+			SEND_RATE.onStateSent(now);
+			lastSentSignature = signature;
+			lastSentAck = ack;
+			if (heartbeat) {
+				SEND_RATE.onHeartbeatSent(now);
+				missedPings += 1;
+			}
+		} catch (IOException e) {
+			log(logArea, "Error sending state to server: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Notices when the server stops answering our heartbeats, and asks for
+	 * our place back once it answers again
+	 */
+	private static void checkServerAlive(TextArea logArea) throws IOException {
+		if (missedPings > 5) {
+			wasDiscon = true;
+			if (missedPings == 11) { // run once on disconnect
+				log(logArea, "Server disconnected.");
+				System.out.println("Server disconnected."); // Print to terminal for debugging
+				log(logArea, "Attempting Reconnection ...");
+			}
+		} else {
+			if (wasDiscon) {
+				// The server answers again: take our place back, the ACK finishes it
+				resuming = true;
+				wasDiscon = false;
+			}
 		}
+		if (resuming) {
+			String token = resumeToken;
+			sendBytes(MessageCodec.encode(MessageCodec.OP_HANDSHAKE,
+					token != null ? SessionServer.RESUME_PREFIX + token : ""));
+		}
+	}
+
+	/**
+	 * Sums up everything in our state packet but the inputs and the ack, to
+	 * tell whether it changed since the last one sent
+	 */
+	private static long stateSignature() {
+		long signature = Float.floatToIntBits((float) PlayerLogic.getMyPosX());
+		signature = signature * 31 + Float.floatToIntBits((float) PlayerLogic.getMyPosY());
+		signature = signature * 31 + PlayerLogic.getDirection();
+		signature = signature * 31 + PlayerLogic.getCharID();
+		signature = signature * 31 + (PlayerLogic.isPlayerReady() ? 1 : 0);
+		signature = signature * 31 + (int) PlayerLogic.getTaskPercent();
+		signature = signature * 31 + (SNAPSHOT_HISTORY.isFullRequested() ? 1 : 0);
+		signature = signature * 31 + String.valueOf(PlayerLogic.getName()).hashCode();
+		return signature;
 	}
 
+	/**
+	 * Returns the client's socket for its local port. The socket is the view of a
+	 * non-blocking channel and cannot send, use sendMessage.
+	 */
 	public static DatagramSocket getClientSocket() {
 		return clientSocket;
 	}
 
+	/**
+	 * Sends an already encoded message to the connected server, fragmented if
+	 * it does not fit in one datagram
+	 */
+	private static void sendBytes(byte[] message) throws IOException {
+		Fragmenter sender = fragmenter;
+		if (sender == null) {
+			throw new SocketException("Socket closed");
+		}
+		LINK_QUALITY.onBytesSent(message.length);
+		sender.send(message, new InetSocketAddress(connectedServerAddress, connectedServerPort));
+	}
+
 	public static String getConnectedServerInfo() {
 		if (connectedServerAddress != null && connectedServerPort != -1) {
 			return connectedServerAddress.getHostAddress() + ":" + connectedServerPort;
@@ -791,36 +1400,51 @@ public class ClientLogic {
 
 	public static void resetClientState() {
 		// Clear server discovery information
-		serverSet.clear();
-		serverList.clear();
+		SERVER_TABLE.clear();
 		processedVotes.clear();
 
 		// Reset network connection variables
-		if (clientSocket != null && !clientSocket.isClosed()) {
-			clientSocket.close();
+		if (reliableChannel != null) {
+			reliableChannel.close();
+		}
+		reliableChannel = null;
+		if (fragmenter != null) {
+			fragmenter.clear();
 		}
+		fragmenter = null;
+		if (clientLoop != null) {
+			clientLoop.close();
+		}
+		clientLoop = null;
 		clientSocket = null;
 
 		connectedServerAddress = null;
 		connectedServerPort = -1;
+		stopSending();
 
-		// Stop client thread
-		if (clientThread != null && clientThread.isAlive()) {
-			clientThread.interrupt();
-			clientThread = null;
-		}
+		// Stop listening for servers
+		stopDiscovery();
 
 		// Reset connection tracking variables
-		lastLoggedData = "";
+		shownServerVersion = -1;
+		queryNonce = LanDiscovery.NO_NONCE;
 		missedPings = 0;
 		wasDiscon = false;
+		resuming = false;
+		resumeToken = null;
 		lastPRint = 0;
-
-		// Stop timer if running
-		if (timer != null) {
-			timer.cancel();
-			timer = null;
-		}
+		SNAPSHOT_HISTORY.reset();
+		SNAPSHOT_TIMELINE.reset();
+		PREDICTION.reset();
+		LINK_QUALITY.reset();
+		CLOCK_SYNC.reset();
+		SEND_RATE.reset();
+		lastSentAck = SnapshotHistory.NO_SEQUENCE;
+		Arrays.fill(PLAYERS_BY_ID, null);
+		PlayerLogic.setPlayerId(-1);
+
+		// Stop the server list refresh if running
+		stopServerListRefresh();
 	}
 
 }
\ No newline at end of file
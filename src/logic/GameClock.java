@@ -0,0 +1,94 @@
+package logic;
+
+import java.util.concurrent.TimeUnit;
+
+import network.ClockSync;
+import network.GameScheduler;
+
+/**
+ * The match's shared clock, in milliseconds.
+ *
+ * The server keeps the time: wall-clock time when it started, then advanced
+ * by the monotonic clock so it never jumps. A client follows the server's
+ * clock through a ClockSync fed by the heartbeat. Deadlines such as the end
+ * of a vote or of a kill cooldown are sent as game-clock times, and every
+ * machine counts down to the same instant without further messages.
+ *
+ * Until a client's first PONG is timed it runs on its own time, which on a
+ * LAN with synced clocks is close.
+ */
+public class GameClock {
+	private static final long START_MILLIS = System.currentTimeMillis();
+	private static final long START_NANOS = System.nanoTime();
+
+	private static volatile ClockSync sync; // null while this process keeps the time
+
+	/**
+	 * Returns the current game time
+	 */
+	public static long now() {
+		ClockSync current = sync;
+		long nanos = System.nanoTime();
+		if (current != null && current.isSynced()) {
+			return current.toServerMillis(nanos);
+		}
+		return ownTime(nanos);
+	}
+
+	/**
+	 * Returns this process's own game time, the one a server hands out
+	 */
+	public static long ownTime() {
+		return ownTime(System.nanoTime());
+	}
+
+	private static long ownTime(long nanos) {
+		return START_MILLIS + TimeUnit.NANOSECONDS.toMillis(nanos - START_NANOS);
+	}
+
+	/**
+	 * Follows a server's clock, e.g. when a client connects
+	 */
+	public static void follow(ClockSync serverClock) {
+		sync = serverClock;
+	}
+
+	/**
+	 * Keeps the time in this process, e.g. when it hosts a server
+	 */
+	public static void lead() {
+		sync = null;
+	}
+
+	public static boolean isLeading() {
+		return sync == null;
+	}
+
+	/**
+	 * Returns the milliseconds until a game time, negative once it has passed
+	 */
+	public static long millisUntil(long gameTime) {
+		return gameTime - now();
+	}
+
+	/**
+	 * Returns the whole seconds left until a game time, rounded up, or 0 once
+	 * it has passed
+	 */
+	public static int secondsUntil(long gameTime) {
+		long millis = millisUntil(gameTime);
+		return millis <= 0 ? 0 : (int) ((millis + 999) / 1000);
+	}
+
+	public static boolean hasPassed(long gameTime) {
+		return millisUntil(gameTime) <= 0;
+	}
+
+	/**
+	 * Runs a task once at a game time, on the game scheduler's thread. UI work
+	 * must be passed on with Platform.runLater.
+	 */
+	public static GameScheduler.Task schedule(String name, long gameTime, Runnable task) {
+		return GameScheduler.get().schedule(name, millisUntil(gameTime), task);
+	}
+}
@@ -1,8 +1,6 @@
 package logic;
 
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import gameObjects.Corpse;
@@ -12,23 +10,15 @@ import javafx.application.Platform;
 import server.PlayerInfo;
 
 public class GameLogic {
-	private static int ImposterCount;
-	private static int AlivePlayers;
-	private static int AliveCrewMates;
-	private static int AliveImposters;
-	private static boolean gameEnded = false;
-	private static GameResult gameResult = GameResult.ONGOING;
-	public static ConcurrentHashMap<String, Corpse> corpseList = new ConcurrentHashMap<>();
-	public static ConcurrentHashMap<String, PlayerInfo> playerList = new ConcurrentHashMap<>();
-	private static boolean prepEnded = false;
-	private static ScheduledExecutorService gameLoopExecutor;
-	private static boolean isImposterRolesSet = false;
-
-	// Cooldown related variables
-	private static int KillCooldown = 25; // Kill cooldown in seconds
-	private static int EmergencyMeetingCooldown = 10; // Emergency meeting cooldown in seconds
-	private static long lastKillTime = 0;
-	private static long lastEmergencyMeetingTime = 0;
+	// The game this process plays in, including the local player
+	private static final GameState STATE = new GameState(true);
+	public static ConcurrentHashMap<String, Corpse> corpseList = STATE.getCorpses();
+	public static ConcurrentHashMap<String, PlayerInfo> playerList = STATE.getPlayers();
+
+	// Cooldowns end at a game clock time, so every machine agrees on them
+	private static final int EMERGENCY_MEETING_COOLDOWN = 30; // seconds after calling a meeting
+	private static volatile long killReadyAt = 0;
+	private static volatile long emergencyMeetingReadyAt = 0;
 
 	private static int taskAmount = 5;
 	private static float SFXVolume = 0; // 0 is max -- to make quiet
@@ -38,12 +28,16 @@ public class GameLogic {
 		ONGOING, CREWMATE_WIN, IMPOSTER_WIN
 	}
 
+	public static GameState getState() {
+		return STATE;
+	}
+
 	public static boolean isImposterRolesSet() {
-		return isImposterRolesSet;
+		return STATE.isImposterRolesSet();
 	}
 
 	public static void setImposterRolesSet(boolean isImposterRolesSet) {
-		GameLogic.isImposterRolesSet = isImposterRolesSet;
+		STATE.setImposterRolesSet(isImposterRolesSet);
 	}
 
 	public static float getSFXVolume() {
@@ -74,78 +68,18 @@ public class GameLogic {
 		System.out.println("GameLogic initialized.");
 	}
 
-	public static void checkGameConditions() {
-		// Count alive players and imposters
-		updatePlayerCounts();
-
-		if (!GameLogic.prepEnded || !isImposterRolesSet) {
-			// System.out.println("WAIT FOR CHECK");
-			return;
-		}
-		// Check win conditions
-		if (checkImpostorWinCondition()) {
-			// System.out.println("IMPOSTER WINS");
-			endGame(GameResult.IMPOSTER_WIN);
-		} else if (checkCrewmateWinCondition()) {
-			// System.out.println("CREWMATE WINS");
-			endGame(GameResult.CREWMATE_WIN);
-		}
-	}
-
-	private static void updatePlayerCounts() {
-		int totalPlayers = 0;
-		int aliveImposters = 0;
-		int aliveCrewmates = 0;
-
-		if (PlayerLogic.getStatus().equals("dead")) {
-			totalPlayers++;
-		} else if (PlayerLogic.getStatus().equals("imposter")) {
-			aliveImposters++;
-		} else {
-			aliveCrewmates++;
-		}
-
-		for (PlayerInfo player : playerList.values()) {
-			// Assuming each player has a "status" field that tracks their alive/dead state
-			if (!player.getStatus().equals("dead")) {
-				totalPlayers++;
-
-				if (player.getStatus().equals("imposter")) {
-					aliveImposters++;
-				} else {
-					aliveCrewmates++;
-				}
-			}
-		}
-		AliveCrewMates = aliveCrewmates;
-		AlivePlayers = totalPlayers;
-		AliveImposters = aliveImposters;
-//		System.out.println("ALIVE PLAYERS = " + totalPlayers);
-//		System.out.println("ALIVE IMPOSTERS = " + aliveImposters);
-	}
-
-	private static boolean checkImpostorWinCondition() {
-		// Imposters win if they equal or outnumber crewmates
-		return AliveImposters >= AliveCrewMates;
+	/**
+	 * Ends the game with the result the server decided and shows it
+	 */
+	public static void endGame(GameResult result) {
+		STATE.endGame(result);
+		showGameResult();
 	}
 
-	private static boolean checkCrewmateWinCondition() {
-		// Crewmates win if all tasks are complete and at least one crewmate is alive
-		return (GameWindow.getTotalPercentage() >= 100) || (AliveImposters == 0);
-	}
-
-	private static void endGame(GameResult result) {
-		if (gameEnded || !GameLogic.isPrepEnded())
-			return;
-
-		gameEnded = true;
-		gameResult = result;
-
-		// Shutdown the game loop executor
-		if (gameLoopExecutor != null) {
-			gameLoopExecutor.shutdown();
-		}
-
+	/**
+	 * Shows the result screen for the game's result
+	 */
+	public static void showGameResult() {
 		// Run game end logic on JavaFX thread
 		Platform.runLater(() -> {
 			// Get the GameWindow instance and show the result screen
@@ -156,6 +90,13 @@ public class GameLogic {
 		});
 	}
 
+	/**
+	 * Returns the task progress of all crewmates together, 0 to 100
+	 */
+	public static double getTotalTaskPercentage() {
+		return STATE.getTotalTaskPercentage();
+	}
+
 //		// Run game end logic on JavaFX thread
 //		Platform.runLater(() -> {
 //			switch (result) {
@@ -172,70 +113,82 @@ public class GameLogic {
 //	}
 
 	// Cooldown management methods
+
+	/**
+	 * Returns the seconds left until the local player can kill again
+	 */
 	public static int getKillCooldown() {
-		return KillCooldown;
+		return GameClock.secondsUntil(killReadyAt);
+	}
+
+	/**
+	 * Starts a kill cooldown of the given seconds from now
+	 */
+	public static void setKillCooldown(int seconds) {
+		killReadyAt = GameClock.now() + seconds * 1000L;
+	}
+
+	/**
+	 * Sets when the kill cooldown ends, e.g. from the server's kill broadcast
+	 */
+	public static void setKillReadyAt(long gameTime) {
+		killReadyAt = gameTime;
 	}
 
-	public static void setKillCooldown(int killCooldown) {
-		KillCooldown = killCooldown;
+	public static long getKillReadyAt() {
+		return killReadyAt;
 	}
 
 	public static boolean isKillAvailable() {
-		long currentTime = System.currentTimeMillis() / 1000; // Convert to seconds
-		return currentTime - lastKillTime >= KillCooldown;
+		return GameClock.hasPassed(killReadyAt);
 	}
 
 	public static void recordKillTime() {
-		lastKillTime = System.currentTimeMillis() / 1000; // Convert to seconds
+		killReadyAt = GameClock.now() + GameState.KILL_COOLDOWN_MS;
 	}
 
 	public static int getRemainingKillCooldown() {
-		long currentTime = System.currentTimeMillis() / 1000;
-		int remainingCooldown = KillCooldown - (int) (currentTime - lastKillTime);
-		return Math.max(0, remainingCooldown);
+		return getKillCooldown();
 	}
 
+	/**
+	 * Returns the seconds left until the local player can call a meeting
+	 */
 	public static int getEmergencyMeetingCooldown() {
-		return EmergencyMeetingCooldown;
+		return GameClock.secondsUntil(emergencyMeetingReadyAt);
 	}
 
-	public static void setEmergencyMeetingCooldown(int cooldown) {
-		EmergencyMeetingCooldown = cooldown;
+	/**
+	 * Starts an emergency meeting cooldown of the given seconds from now
+	 */
+	public static void setEmergencyMeetingCooldown(int seconds) {
+		emergencyMeetingReadyAt = GameClock.now() + seconds * 1000L;
 	}
 
 	// Reset emergency meeting cooldown when game prep ends
 	public static void resetEmergencyMeetingCooldown() {
-		lastEmergencyMeetingTime = 0; // This ensures the first meeting is always available
+		emergencyMeetingReadyAt = 0; // This ensures the first meeting is always available
 	}
 
 	public static boolean isEmergencyMeetingAvailable() {
-		long currentTime = System.currentTimeMillis() / 1000; // Convert to seconds
-		// If lastEmergencyMeetingTime is 0, it means the first meeting is always
-		// available
-		return lastEmergencyMeetingTime == 0 || currentTime - lastEmergencyMeetingTime >= EmergencyMeetingCooldown;
+		return GameClock.hasPassed(emergencyMeetingReadyAt);
 	}
 
 	public static void recordEmergencyMeetingTime() {
-		lastEmergencyMeetingTime = System.currentTimeMillis() / 1000; // Convert to seconds
+		setEmergencyMeetingCooldown(EMERGENCY_MEETING_COOLDOWN);
 	}
 
 	public static int getRemainingEmergencyMeetingCooldown() {
-		long currentTime = System.currentTimeMillis() / 1000;
-		// If lastEmergencyMeetingTime is 0, there's no cooldown
-		if (lastEmergencyMeetingTime == 0) {
-			return 0;
-		}
-		int remainingCooldown = EmergencyMeetingCooldown - (int) (currentTime - lastEmergencyMeetingTime);
-		return Math.max(0, remainingCooldown);
+		return getEmergencyMeetingCooldown();
 	}
 
 	// Existing methods remain the same
 	public static boolean isPrepEnded() {
-		return prepEnded;
+		return STATE.isPrepEnded();
 	}
 
 	public static void setPrepEnded(boolean prepEnded) {
-		GameLogic.prepEnded = prepEnded;
+		STATE.setPrepEnded(prepEnded);
 	}
 
 	public static void reportDeadBody(String playerName) {
@@ -249,49 +202,32 @@ public class GameLogic {
 	}
 
 	public static void setImposterCount(int count) {
-		ImposterCount = count;
+		STATE.setImposterCount(count);
 	}
 
 	public static int autoImposterCount() {
-		int count = playerList.size() / 4;
-		if (count < 1) {
-			count = 1;
-		}
-		setImposterCount(count);
+		int count = STATE.autoImposterCount();
 		System.out.println(playerList.size());
-		System.out.println(ImposterCount);
-		return ImposterCount;
+		System.out.println(count);
+		return count;
 	}
 
 	public static int getImposterCount() {
-		return ImposterCount;
+		return STATE.getImposterCount();
 	}
 
 	// Getter for game result
 	public static GameResult getGameResult() {
-		return gameResult;
+		return STATE.getGameResult();
 	}
 
 	// Getter for game ended status
 	public static boolean isGameEnded() {
-		return gameEnded;
+		return STATE.isGameEnded();
 	}
 
 	public static Corpse createCorpse(PlayerInfo player) {
-		String playerKey = player.getAddress().getHostAddress() + ":" + player.getPort();
-
-		// Check if a corpse already exists for this player
-		if (corpseList.containsKey(playerKey)) {
-			System.out.println("GAMELOGIC: Corpse already exists for player " + player.getName());
-			return corpseList.get(playerKey);
-		}
-
-		System.out.println(
-				"GAMELOGIC: Creating corpse for " + player.getName() + " at " + player.getX() + "," + player.getY());
-		Corpse corpse = new Corpse(player);
-		corpseList.put(playerKey, corpse);
-		System.out.println("GAMELOGIC: Corpse created, total corpses: " + corpseList.size());
-		return corpse;
+		return STATE.createCorpse(player);
 	}
 
 	public static Corpse getCorpse(String playerKey) {
@@ -316,37 +252,16 @@ public class GameLogic {
 
 
 	public static void resetGameState() {
-		// Game state variables
-		ImposterCount = 0;
-		AlivePlayers = 0;
-		AliveCrewMates = 0;
-		AliveImposters = 0;
-		gameEnded = false;
-		gameResult = GameResult.ONGOING;
-
-		// Clear collections
-		corpseList.clear();
-		playerList.clear();
+		// Players, corpses, phase and result
+		STATE.reset();
 
-		// Prep and role setup flags
-		prepEnded = false;
-		isImposterRolesSet = false;
-
-		// Cooldown and time tracking
-		lastKillTime = 0;
-		lastEmergencyMeetingTime = 0;
-		KillCooldown = 25; // Reset to default
-		EmergencyMeetingCooldown = 10; // Reset to default
+		// Cooldowns
+		killReadyAt = 0;
+		emergencyMeetingReadyAt = 0;
 
 		// Volume and task settings
 		taskAmount = 5;
 		SFXVolume = 0;
 		MUSICVolume = 0;
-
-		// Stop any running game loop executor
-		if (gameLoopExecutor != null) {
-			gameLoopExecutor.shutdownNow();
-			gameLoopExecutor = null;
-		}
 	}
 }
\ No newline at end of file
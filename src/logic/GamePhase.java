@@ -0,0 +1,22 @@
+package logic;
+
+/**
+ * Where a match is, as the server works it out on its tick and tells the
+ * clients
+ */
+public enum GamePhase {
+	LOBBY, ROLE_REVEAL, PLAYING, MEETING, ENDED;
+
+	/**
+	 * Returns the phase of a name from the wire, or null for one this version
+	 * does not know
+	 */
+	public static GamePhase parse(String name) {
+		for (GamePhase phase : values()) {
+			if (phase.name().equals(name)) {
+				return phase;
+			}
+		}
+		return null;
+	}
+}
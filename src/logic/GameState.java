@@ -0,0 +1,218 @@
+package logic;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import gameObjects.Corpse;
+import logic.GameLogic.GameResult;
+import server.PlayerInfo;
+
+/**
+ * The state of one game: its players, corpses, phase and result.
+ *
+ * The game a window plays in is GameLogic's, which also counts the local
+ * player. A dedicated server keeps one per lobby, without a local player.
+ */
+public class GameState {
+	public static final long VOTING_TIME_MS = 60000;
+	public static final long KILL_COOLDOWN_MS = 25000;
+
+	private final ConcurrentHashMap<String, PlayerInfo> players = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Corpse> corpses = new ConcurrentHashMap<>();
+	private final boolean localPlayer;
+
+	private volatile boolean prepEnded = false;
+	private volatile boolean imposterRolesSet = false;
+	private volatile boolean gameEnded = false;
+	private volatile GameResult gameResult = GameResult.ONGOING;
+	private volatile int imposterCount;
+	private volatile long meetingEndsAt = 0; // game clock
+	private int aliveCrewmates;
+	private int aliveImposters;
+
+	/**
+	 * @param localPlayer whether PlayerLogic's player takes part in this game
+	 */
+	public GameState(boolean localPlayer) {
+		this.localPlayer = localPlayer;
+	}
+
+	public ConcurrentHashMap<String, PlayerInfo> getPlayers() {
+		return players;
+	}
+
+	public ConcurrentHashMap<String, Corpse> getCorpses() {
+		return corpses;
+	}
+
+	public boolean hasLocalPlayer() {
+		return localPlayer;
+	}
+
+	/**
+	 * Checks the win conditions once roles are set
+	 *
+	 * @return true if the game ended on this call
+	 */
+	public boolean checkGameConditions() {
+		updatePlayerCounts();
+
+		if (!prepEnded || !imposterRolesSet || gameEnded) {
+			return false;
+		}
+		if (aliveImposters >= aliveCrewmates) {
+			// Imposters win if they equal or outnumber crewmates
+			endGame(GameResult.IMPOSTER_WIN);
+			return true;
+		} else if (getTotalTaskPercentage() >= 100 || aliveImposters == 0) {
+			// Crewmates win if all tasks are complete or every imposter is out
+			endGame(GameResult.CREWMATE_WIN);
+			return true;
+		}
+		return false;
+	}
+
+	private void updatePlayerCounts() {
+		int imposters = 0;
+		int crewmates = 0;
+
+		if (localPlayer && !PlayerLogic.getStatus().equals("dead")) {
+			if (PlayerLogic.getStatus().equals("imposter")) {
+				imposters++;
+			} else {
+				crewmates++;
+			}
+		}
+		for (PlayerInfo player : players.values()) {
+			if (!player.getStatus().equals("dead")) {
+				if (player.getStatus().equals("imposter")) {
+					imposters++;
+				} else {
+					crewmates++;
+				}
+			}
+		}
+		aliveCrewmates = crewmates;
+		aliveImposters = imposters;
+	}
+
+	/**
+	 * Ends the game with a result, e.g. the one the server decided
+	 */
+	public void endGame(GameResult result) {
+		gameEnded = true;
+		gameResult = result;
+	}
+
+	/**
+	 * Returns the task progress of all crewmates together, 0 to 100
+	 */
+	public double getTotalTaskPercentage() {
+		double totalCompleted = 0;
+		int crewmates = players.size() - imposterCount;
+		if (localPlayer) {
+			totalCompleted += PlayerLogic.getTaskPercent();
+			crewmates++;
+		}
+		for (PlayerInfo info : players.values()) {
+			totalCompleted += Math.round(info.getTaskPercent());
+		}
+		if (crewmates <= 0) {
+			return 0;
+		}
+		totalCompleted /= crewmates;
+		if (totalCompleted > 100) {
+			totalCompleted = 100;
+		}
+		return totalCompleted;
+	}
+
+	/**
+	 * Sets the imposter count to a quarter of the connected players, at least
+	 * one
+	 */
+	public int autoImposterCount() {
+		imposterCount = Math.max(1, players.size() / 4);
+		return imposterCount;
+	}
+
+	public Corpse createCorpse(PlayerInfo player) {
+		String playerKey = player.getAddress().getHostAddress() + ":" + player.getPort();
+
+		// Check if a corpse already exists for this player
+		Corpse existing = corpses.get(playerKey);
+		if (existing != null) {
+			System.out.println("GAMELOGIC: Corpse already exists for player " + player.getName());
+			return existing;
+		}
+
+		System.out.println(
+				"GAMELOGIC: Creating corpse for " + player.getName() + " at " + player.getX() + "," + player.getY());
+		Corpse corpse = new Corpse(player);
+		corpses.put(playerKey, corpse);
+		System.out.println("GAMELOGIC: Corpse created, total corpses: " + corpses.size());
+		return corpse;
+	}
+
+	public Corpse getCorpse(String playerKey) {
+		return corpses.get(playerKey);
+	}
+
+	public int getImposterCount() {
+		return imposterCount;
+	}
+
+	public void setImposterCount(int count) {
+		imposterCount = count;
+	}
+
+	public boolean isPrepEnded() {
+		return prepEnded;
+	}
+
+	public void setPrepEnded(boolean prepEnded) {
+		this.prepEnded = prepEnded;
+	}
+
+	public boolean isImposterRolesSet() {
+		return imposterRolesSet;
+	}
+
+	public void setImposterRolesSet(boolean imposterRolesSet) {
+		this.imposterRolesSet = imposterRolesSet;
+	}
+
+	public boolean isGameEnded() {
+		return gameEnded;
+	}
+
+	public GameResult getGameResult() {
+		return gameResult;
+	}
+
+	/**
+	 * Returns the game time the current or last meeting's vote ends, or 0
+	 */
+	public long getMeetingEndsAt() {
+		return meetingEndsAt;
+	}
+
+	public void setMeetingEndsAt(long meetingEndsAt) {
+		this.meetingEndsAt = meetingEndsAt;
+	}
+
+	/**
+	 * Clears players, corpses and the result for a new game
+	 */
+	public void reset() {
+		players.clear();
+		corpses.clear();
+		prepEnded = false;
+		imposterRolesSet = false;
+		gameEnded = false;
+		gameResult = GameResult.ONGOING;
+		imposterCount = 0;
+		meetingEndsAt = 0;
+		aliveCrewmates = 0;
+		aliveImposters = 0;
+	}
+}
@@ -0,0 +1,274 @@
+package logic;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.mapeditor.core.MapLayer;
+import org.mapeditor.core.MapObject;
+import org.mapeditor.core.ObjectGroup;
+import org.mapeditor.io.TMXMapReader;
+
+import gameObjects.CollisionObject;
+
+/**
+ * Player movement shared by the client's prediction and the server's
+ * simulation, so both move a player the same way for the same input.
+ *
+ * An input is a bit set of the movement keys held for dtMillis. Alive players
+ * collide with the map's collision objects; ghosts walk through them.
+ */
+public class MovementLogic {
+	public static final int INPUT_UP = 1;
+	public static final int INPUT_DOWN = 1 << 1;
+	public static final int INPUT_LEFT = 1 << 2;
+	public static final int INPUT_RIGHT = 1 << 3;
+	public static final int INPUT_MOVE_MASK = INPUT_UP | INPUT_DOWN | INPUT_LEFT | INPUT_RIGHT;
+
+	public static final double SPEED = 130; // Movement speed in units per second
+	public static final int MAX_STEP_MILLIS = 100; // Longer frames are capped to avoid huge jumps
+
+	// Where a player enters the map before the match starts
+	public static final double LOBBY_X = 980;
+	public static final double LOBBY_Y = 3616;
+
+	// Spawn points around the meeting table, indexed together
+	public static final int[] SPAWN_X = { 1681, 1711, 1742, 1774, 1774, 1809, 1809, 1840, 1840, 1840, 1840, 1807,
+			1807, 1777, 1777, 1744, 1711, 1679, 1679, 1646, 1646, 1615, 1615, 1615, 1615, 1646, 1646, 1679 };
+	public static final int[] SPAWN_Y = { 1491, 1491, 1491, 1491, 1526, 1526, 1556, 1556, 1589, 1618, 1651, 1651,
+			1687, // 0-27
+			1686, 1714, 1714, 1714, 1714, 1684, 1684, 1652, 1652, 1621, 1590, 1557, 1557, 1526, 1526 };
+
+	private static volatile Map<String, ConcurrentLinkedQueue<CollisionObject>> spatialGrid;
+	private static volatile int gridCellSize = 128;
+
+	/**
+	 * Installs the collision objects of the loaded map, bucketed by grid cell
+	 */
+	public static void setCollisionGrid(Map<String, ConcurrentLinkedQueue<CollisionObject>> grid, int cellSize) {
+		gridCellSize = cellSize;
+		spatialGrid = grid;
+	}
+
+	public static boolean hasCollisionGrid() {
+		return spatialGrid != null;
+	}
+
+	/**
+	 * Reads a TMX map and installs its collision grid, for a server that has
+	 * no game window to load the map
+	 *
+	 * @return the number of collision objects
+	 */
+	public static int loadCollisionGrid(String mapFile) throws Exception {
+		org.mapeditor.core.Map map = new TMXMapReader().readMap(new File(mapFile).toURI().toURL());
+		List<CollisionObject> objects = readCollisionObjects(map);
+		int cellSize = optimalCellSize(objects, map.getWidth() * map.getTileWidth(),
+				map.getHeight() * map.getTileHeight());
+		setCollisionGrid(buildCollisionGrid(objects, cellSize), cellSize);
+		return objects.size();
+	}
+
+	/**
+	 * Returns the objects of every layer named for collision or marked with the
+	 * collision property
+	 */
+	public static List<CollisionObject> readCollisionObjects(org.mapeditor.core.Map map) {
+		List<CollisionObject> objects = new ArrayList<>();
+		for (MapLayer layer : map.getLayers()) {
+			if (layer instanceof ObjectGroup) {
+				ObjectGroup objectGroup = (ObjectGroup) layer;
+				if (objectGroup.getName().toLowerCase().contains("collision")
+						|| "true".equals(objectGroup.getProperties().getProperty("collision"))) {
+					for (MapObject object : objectGroup.getObjects()) {
+						objects.add(new CollisionObject(object.getX(), object.getY(), object.getWidth(),
+								object.getHeight()));
+					}
+				}
+			}
+		}
+		return objects;
+	}
+
+	/**
+	 * Buckets collision objects by the grid cells they overlap
+	 */
+	public static ConcurrentHashMap<String, ConcurrentLinkedQueue<CollisionObject>> buildCollisionGrid(
+			List<CollisionObject> objects, int cellSize) {
+		ConcurrentHashMap<String, ConcurrentLinkedQueue<CollisionObject>> grid = new ConcurrentHashMap<>();
+		for (CollisionObject obj : objects) {
+			int startGridX = (int) (obj.getX() / cellSize);
+			int startGridY = (int) (obj.getY() / cellSize);
+			int endGridX = (int) ((obj.getX() + obj.getWidth()) / cellSize);
+			int endGridY = (int) ((obj.getY() + obj.getHeight()) / cellSize);
+
+			for (int gridY = startGridY; gridY <= endGridY; gridY++) {
+				for (int gridX = startGridX; gridX <= endGridX; gridX++) {
+					String key = gridX + ":" + gridY;
+					grid.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(obj);
+				}
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Picks the grid cell size from how densely the objects cover the map:
+	 * smaller cells for denser maps, larger cells for sparse maps
+	 */
+	public static int optimalCellSize(List<CollisionObject> objects, int mapWidth, int mapHeight) {
+		if (objects.isEmpty()) {
+			return 128; // Default size
+		}
+
+		double totalWidth = 0;
+		double totalHeight = 0;
+		for (CollisionObject obj : objects) {
+			totalWidth += obj.getWidth();
+			totalHeight += obj.getHeight();
+		}
+		double avgWidth = totalWidth / objects.size();
+		double avgHeight = totalHeight / objects.size();
+
+		double mapArea = (double) mapWidth * mapHeight;
+		double objArea = objects.size() * avgWidth * avgHeight;
+		double density = objArea / mapArea;
+
+		if (density > 0.4) {
+			return 64; // Very dense map
+		} else if (density > 0.2) {
+			return 96; // Medium density
+		} else {
+			return 128; // Sparse map
+		}
+	}
+
+	/**
+	 * Applies one input to position, updating it in place
+	 *
+	 * @param position {x, y}
+	 * @param ghost    dead players pass through walls
+	 * @return true if any movement key was held
+	 */
+	public static boolean step(double[] position, int input, int dtMillis, boolean ghost) {
+		double deltaTime = Math.min(dtMillis, MAX_STEP_MILLIS) / 1000.0;
+		double dx = 0, dy = 0;
+
+		if ((input & INPUT_UP) != 0) {
+			dy -= SPEED * deltaTime;
+		}
+		if ((input & INPUT_DOWN) != 0) {
+			dy += SPEED * deltaTime;
+		}
+		if ((input & INPUT_LEFT) != 0) {
+			dx -= SPEED * deltaTime;
+		}
+		if ((input & INPUT_RIGHT) != 0) {
+			dx += SPEED * deltaTime;
+		}
+		if (dx != 0 && dy != 0) { // cap diag speed
+			dx /= Math.sqrt(2);
+			dy /= Math.sqrt(2);
+		}
+
+		if (!ghost) {
+			// Each axis separately, so players slide along walls
+			if (dx != 0 && !checkCollision(position[0] + dx, position[1])) {
+				position[0] += dx;
+			}
+			if (dy != 0 && !checkCollision(position[0], position[1] + dy)) {
+				position[1] += dy;
+			}
+		} else {
+			position[0] += dx;
+			position[1] += dy;
+		}
+		return (input & INPUT_MOVE_MASK) != 0;
+	}
+
+	/**
+	 * Whether x, y is one of the spawn points
+	 */
+	public static boolean isSpawnPoint(double x, double y) {
+		for (int i = 0; i < SPAWN_X.length; i++) {
+			if (Math.abs(x - SPAWN_X[i]) < 0.5 && Math.abs(y - SPAWN_Y[i]) < 0.5) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether x, y is within reach of the lobby start or a spawn point
+	 */
+	public static boolean isNearStart(double x, double y, double reach) {
+		if (Math.hypot(x - LOBBY_X, y - LOBBY_Y) <= reach) {
+			return true;
+		}
+		for (int i = 0; i < SPAWN_X.length; i++) {
+			if (Math.hypot(x - SPAWN_X[i], y - SPAWN_Y[i]) <= reach) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the facing direction after an input: 1 left, 2 right, otherwise
+	 * unchanged
+	 */
+	public static int directionOf(int input, int currentDirection) {
+		if ((input & INPUT_RIGHT) != 0) {
+			return 2;
+		}
+		if ((input & INPUT_LEFT) != 0) {
+			return 1;
+		}
+		return currentDirection;
+	}
+
+	/**
+	 * Checks the bottom 20 pixels of a 48x64 player centred at x, y against
+	 * the collision objects
+	 */
+	public static boolean checkCollision(double x, double y) {
+		Map<String, ConcurrentLinkedQueue<CollisionObject>> grid = spatialGrid;
+		if (grid == null) {
+			return false;
+		}
+		int cellSize = gridCellSize;
+		double playerLeft = x - 24; // Half of 48 (width)
+		double playerRight = x + 24; // Half of 48 (width)
+		double playerBottom = y + 34; // Bottom of the player's bounding box (64 height)
+		double playerFeetTop = playerBottom - 20; // Top of the 20-pixel tall collision area
+
+		int startGridX = (int) (playerLeft / cellSize);
+		int startGridY = (int) (playerFeetTop / cellSize);
+		int endGridX = (int) (playerRight / cellSize);
+		int endGridY = (int) (playerBottom / cellSize);
+
+		for (int gridY = startGridY; gridY <= endGridY; gridY++) {
+			for (int gridX = startGridX; gridX <= endGridX; gridX++) {
+				ConcurrentLinkedQueue<CollisionObject> cellObjects = grid.get(gridX + ":" + gridY);
+
+				if (cellObjects != null) {
+					for (CollisionObject obj : cellObjects) {
+						double objLeft = obj.getX();
+						double objRight = obj.getX() + obj.getWidth();
+						double objTop = obj.getY();
+						double objBottom = obj.getY() + obj.getHeight();
+
+						if (playerRight > objLeft && playerLeft < objRight && playerBottom > objTop
+								&& playerFeetTop < objBottom) {
+							return true; // Collision detected
+						}
+					}
+				}
+			}
+		}
+		return false; // No collision
+	}
+}
@@ -31,6 +31,11 @@ public class PlayerLogic  {
 	private static Set<Integer> tasks = new HashSet<>();
 	private static double taskPercent = 0;
 
+	// Our identity, cached since it is looked up many times per frame
+	private static volatile String localKey = "unknown:0";
+	private static volatile int localKeyPort = -1;
+	private static volatile int playerId = -1;
+
 	public static void finalizeDeathState() {
 		if (temporaryKilled || temporaryEjected) {
 			System.out.println("PLAYERLOGIC: Finalizing death state to 'dead'");
@@ -195,6 +200,11 @@ public class PlayerLogic  {
 		return isMoving;
 	}
 
+	/**
+	 * Returns our "host:port" key. It is called many times per frame, so the
+	 * key is built once per socket instead of resolving the local host each
+	 * time.
+	 */
 	public static String getLocalAddressPort() {
 		DatagramSocket socket;
 		if (MainMenuPane.getState().equals(logic.State.SERVER)) {
@@ -205,16 +215,33 @@ public class PlayerLogic  {
 		if (socket == null) {
 			return "unknown:0";
 		}
+		int localPort = socket.getLocalPort();
+		// The port is written after the key, so a matching port means a matching key
+		if (localKeyPort == localPort) {
+			return localKey;
+		}
 		try {
 			InetAddress localAddress = InetAddress.getLocalHost();
-			int localPort = socket.getLocalPort();
-			return localAddress.getHostAddress() + ":" + localPort;
+			localKey = localAddress.getHostAddress() + ":" + localPort;
+			localKeyPort = localPort;
+			return localKey;
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
 			return "unknown:0";
 		}
 	}
 
+	/**
+	 * Returns the compact id the server gave us at handshake, or -1
+	 */
+	public static int getPlayerId() {
+		return playerId;
+	}
+
+	public static void setPlayerId(int id) {
+		playerId = id;
+	}
+
 	public static void randomizeTasks(int Amount) {
 		Random random = new Random();
 		while (tasks.size() < Amount) {
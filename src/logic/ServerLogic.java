@@ -1,1297 +1,446 @@
 package logic;
 
-import javafx.application.Platform;
-import javafx.scene.control.TextArea;
 import server.ClientInfo;
-import server.PlayerInfo;
+import server.GameSession;
+import server.ServerListener;
+import server.ServerTick;
+import server.SessionServer;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import org.json.JSONObject;
-
-import gameObjects.Corpse;
-import gui.GameWindow;
-import gui.MainMenuPane;
-import gui.MeetingUI;
-import gui.PrepGui;
-import gui.ServerSelectGui;
-
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import network.GameScheduler;
+import network.LanDiscovery;
+import network.UdpEventLoop;
+
+/**
+ * The server the host's windows run: a SessionServer with a single session
+ * that plays in GameLogic's state, so the host takes part in it. A dedicated
+ * server uses SessionServer directly to host many lobbies.
+ *
+ * What the host's windows ask of the session is queued on the session's
+ * event loop, so it never runs alongside the tick; kills and reports wait
+ * for the tick in the rules engine.
+ */
 public class ServerLogic {
 	// Constants
-	private static final int MAX_MISSED_PINGS = 5;
 	private static final int BROADCAST_INTERVAL_MS = 1000;
-	private static final int PING_CHECK_INTERVAL_MS = 1000;
-	private static final byte[] BUFFER = new byte[1024];
 
 	// Server state
-	private static DatagramSocket serverSocket;
-	private static Thread serverThread;
-	private static Set<ClientInfo> clientAddresses = new HashSet<>();
-	private static ConcurrentHashMap<ClientInfo, AtomicInteger> clientPingCount = new ConcurrentHashMap<>();
-	private static ConcurrentHashMap<String, Map<String, String>> meetingVotes = new ConcurrentHashMap<>();
-	private static Set<String> recentChatMessages = new HashSet<>();
-	private static Timer pingCheckTimer;
-	private static int readyPlayers = 0;
+	private static volatile SessionServer sessionServer;
+	private static volatile GameSession session;
 	private static boolean isRunning = false;
+	private static volatile ServerListener listener = new ServerListener() {
+	};
+	private static int tickRate = ServerTick.DEFAULT_RATE;
+	private static GameScheduler.Task broadcastTask;
+	private static DatagramSocket broadcastSocket; // closed to stop discoveryThread, which blocks in receive
+	private static Thread discoveryThread;
 
 	/**
-	 * Starts broadcasting server information to potential clients
+	 * Starts announcing the server on the LAN, until stopBroadcasting or
+	 * stopServer. The beacons tell about the server startServer opens.
 	 * 
-	 * @param state      Current server state
-	 * @param logArea    TextArea for logging
-	 * @param serverName Name of the server
-	 * @param serverPort Port on which the server is running
+	 * @param state          Current server state, nothing is broadcast unless
+	 *                       it is SERVER
+	 * @param serverListener Receives the server log
+	 * @param serverName     Name of the server
+	 * @param serverPort     Port on which the server is running
 	 */
-	public static void startBroadcasting(State state, TextArea logArea, String serverName, int serverPort) {
-		Thread thread = new Thread(() -> {
-			try (DatagramSocket socket = new DatagramSocket()) {
-				socket.setBroadcast(true);
-				String broadcastMessage = serverName + ":" + serverPort;
-				byte[] buf = broadcastMessage.getBytes(StandardCharsets.UTF_8);
-				InetAddress broadcastAddress = InetAddress.getByName("255.255.255.255");
-				DatagramPacket packet = new DatagramPacket(buf, buf.length, broadcastAddress, 4446);
-
-				while (state.equals(State.SERVER)) {
-					socket.send(packet);
-					Thread.sleep(BROADCAST_INTERVAL_MS);
-				}
-			} catch (IOException | InterruptedException e) {
-				log(logArea, "Error in broadcasting: " + e.getMessage());
-				System.err.println("Broadcasting error: " + e.getMessage());
-			}
-		});
-		thread.setName("Server-Broadcast-Thread");
-		thread.setDaemon(true);
-		thread.start();
-
-		log(logArea, "Broadcasting as " + serverName + " on port " + serverPort + "...");
+	public static synchronized void startBroadcasting(State state, ServerListener serverListener, String serverName,
+			int serverPort) {
+		startBroadcasting(state, serverListener, serverName, serverPort, () -> sessionServer);
 	}
 
 	/**
-	 * Starts the server to listen for client connections and messages
+	 * Starts announcing a server on the LAN: a beacon once a second from the
+	 * game scheduler, and an immediate answer to every discovery query, until
+	 * stopBroadcasting or stopServer
 	 * 
-	 * @param state      Current server state
-	 * @param logArea    TextArea for logging
-	 * @param serverPort Port on which to run the server
+	 * @param state          Current server state, nothing is broadcast unless
+	 *                       it is SERVER
+	 * @param serverListener Receives the server log
+	 * @param serverName     Name of the server
+	 * @param serverPort     Port on which the server is running
+	 * @param server         Returns the server the beacons tell about, or
+	 *                       null while it is not open
 	 */
-	public static void startServer(State state, TextArea logArea, int serverPort) {
-		if (isRunning) {
-			log(logArea, "Server is already running.");
+	public static synchronized void startBroadcasting(State state, ServerListener serverListener, String serverName,
+			int serverPort, Supplier<SessionServer> server) {
+		listener = serverListener;
+		if (!state.equals(State.SERVER)) {
 			return;
 		}
-
-		isRunning = true;
-
-		serverThread = new Thread(() -> {
+		stopBroadcasting();
+		InetSocketAddress beaconAddress;
+		try {
+			broadcastSocket = openDiscoverySocket();
+			beaconAddress = new InetSocketAddress(InetAddress.getByName("255.255.255.255"),
+					LanDiscovery.BEACON_PORT);
+		} catch (IOException e) {
+			log("Error in broadcasting: " + e.getMessage());
+			System.err.println("Broadcasting error: " + e.getMessage());
+			stopBroadcasting();
+			return;
+		}
+		DatagramSocket socket = broadcastSocket;
+		broadcastTask = GameScheduler.get().scheduleAtFixedRate("LAN broadcast", 0, BROADCAST_INTERVAL_MS, () -> {
 			try {
-				serverSocket = new DatagramSocket(serverPort);
-				log(logArea, "Server started on port " + serverPort + ", waiting for messages...");
-
-				// Start the ping check timer
-				pingCheckTimer = new Timer(true);
-				pingCheckTimer.scheduleAtFixedRate(new TimerTask() {
-					@Override
-					public void run() {
-						checkClientPings(logArea);
-					}
-				}, 0, PING_CHECK_INTERVAL_MS);
-
-				// Schedule regular ready player check
-				ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
-					Thread t = new Thread(r, "Ready-Players-Check-Thread");
-					t.setDaemon(true);
-					return t;
-				});
-				executor.scheduleAtFixedRate(ServerLogic::checkReadyPlayers, 0, 1, TimeUnit.SECONDS);
-
-				// Main server loop
-				while (state.equals(State.SERVER)) {
-					DatagramPacket packet = new DatagramPacket(BUFFER, BUFFER.length);
-					serverSocket.receive(packet);
-
-					String received = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-					InetAddress clientAddress = packet.getAddress();
-					int clientPort = packet.getPort();
-
-					handleIncomingMessage(received, clientAddress, clientPort, packet, logArea);
-				}
-
-				executor.shutdown();
-				isRunning = false;
+				byte[] beacon = encodeBeacon(serverName, serverPort, server.get(), LanDiscovery.NO_NONCE);
+				socket.send(new DatagramPacket(beacon, beacon.length, beaconAddress));
 			} catch (IOException e) {
-				if (!e.getMessage().contains("Socket closed")) {
-					log(logArea, "Server error: " + e.getMessage());
-					System.err.println("Server error: " + e.getMessage());
-				}
-				isRunning = false;
+				log("Error in broadcasting: " + e.getMessage());
+				System.err.println("Broadcasting error: " + e.getMessage());
+				stopBroadcasting();
 			}
 		});
+		if (socket.getLocalPort() == LanDiscovery.QUERY_PORT) {
+			discoveryThread = new Thread(() -> answerQueries(socket, serverName, serverPort, server),
+					"LAN-Discovery-Thread");
+			discoveryThread.setDaemon(true);
+			discoveryThread.start();
+		}
 
-		serverThread.setName("Server-Main-Thread");
-		serverThread.start();
+		log("Broadcasting as " + serverName + " on port " + serverPort + "...");
 	}
 
 	/**
-	 * Handles incoming messages from clients
+	 * Opens the socket beacons go out from, bound to the query port if it can
+	 * be. Every server on the host binds it with address reuse, so a
+	 * broadcast query reaches all of them.
 	 */
-	private static void handleIncomingMessage(String received, InetAddress clientAddress, int clientPort,
-			DatagramPacket packet, TextArea logArea) throws IOException {
-		if (received.startsWith("/name/")) {
-			handleNameRegistration(received, clientAddress, clientPort, logArea);
-		} else if (received.startsWith("/sys/")) {
-			handleSystemMessage(received, clientAddress, clientPort, packet, logArea);
-		} else if (received.startsWith("/data/")) {
-			handlePlayerData(received, packet);
-		} else if (received.startsWith("/kill/")) {
-			handleKillMessage(received, clientAddress, clientPort, logArea);
-		} else if (received.startsWith("/report/")) {
-			handleReportMessage(received, clientAddress, clientPort, logArea);
-		} else if (received.startsWith("/meeting/")) {
-			// New handler for meeting-specific messages
-			System.out.println("RECIEVE MEETING");
-			handleMeetingMessage(received, clientAddress, clientPort, logArea);
-		} else if (received.startsWith("/vote/")) {
-			handleVoteMessage(received, clientAddress, clientPort, logArea);
-		} else {
-			handleChatMessage(received, clientAddress, clientPort, logArea);
-		}
-	}
-
-	private static void handleVoteMessage(String received, InetAddress clientAddress, int clientPort,
-			TextArea logArea) {
+	private static DatagramSocket openDiscoverySocket() throws SocketException {
+		DatagramSocket socket = new DatagramSocket(null);
 		try {
-			// Extract the JSON data from the message
-			String jsonStr = received.substring(6); // Remove "/vote/" prefix
-			JSONObject voteData = new JSONObject(jsonStr);
-
-			// Extract vote details
-			String voterKey = voteData.getString("voter");
-			String targetKey = voteData.getString("target");
-			String meetingId = "default";
-
-			System.out.println("SERVER: Received vote from " + clientAddress + ":" + clientPort);
-			System.out.println("SERVER: Vote details - Voter: " + voterKey + ", Target: " + targetKey);
-
-			// Process the vote
-			handleVote(voterKey, targetKey, meetingId, logArea);
-		} catch (Exception e) {
-			System.err.println("SERVER ERROR: Failed to process vote message: " + e.getMessage());
-			e.printStackTrace();
-			log(logArea, "Error processing vote: " + e.getMessage());
+			socket.setReuseAddress(true);
+			socket.setBroadcast(true);
+			socket.bind(new InetSocketAddress(LanDiscovery.QUERY_PORT));
+			return socket;
+		} catch (SocketException e) {
+			socket.close();
+			System.err.println("SERVER: Not answering discovery queries, port " + LanDiscovery.QUERY_PORT
+					+ " is taken: " + e.getMessage());
 		}
+		socket = new DatagramSocket();
+		socket.setBroadcast(true);
+		return socket;
 	}
 
-	private static void handleKillMessage(String received, InetAddress clientAddress, int clientPort,
-			TextArea logArea) {
-		try {
-			String jsonStr = received.substring(6); // Remove "/kill/" prefix
-			JSONObject killReport = new JSONObject(jsonStr);
-
-			String killedPlayerKey = killReport.getString("killedPlayer");
-			String reporterKey = killReport.getString("reporter");
-
-			System.out.println("SERVER: Received kill report from " + clientAddress + ":" + clientPort);
-			System.out.println("SERVER: Kill details - Victim: " + killedPlayerKey + ", Reporter: " + reporterKey);
-
-			// Process the kill report
-			handleKillReport(killedPlayerKey, reporterKey, logArea);
-		} catch (Exception e) {
-			System.err.println("SERVER ERROR: Failed to process kill message: " + e.getMessage());
-			e.printStackTrace();
-		}
-	}
-
-	private static void handleMeetingMessage(String received, InetAddress clientAddress, int clientPort,
-			TextArea logArea) {
-		try {
-			// Extract the JSON data from the message
-			String jsonStr = received.substring(9); // Remove "/meeting/" prefix
-			JSONObject meetingData = new JSONObject(jsonStr);
-
-			String messageType = meetingData.getString("type");
-			String senderKey = clientAddress.getHostAddress() + ":" + clientPort;
-
-			// Handle different types of meeting messages
-			switch (messageType) {
-			case "chat":
-				// Meeting chat message
-				String chatMessage = meetingData.getString("message");
-				String senderName = meetingData.getString("name");
-				String senderStatus = meetingData.optString("status", "crewmate");
-				boolean isGhostMessage = meetingData.optBoolean("isGhostMessage", false);
-
-				// Get timestamp for deduplication if available
-				long timestamp = meetingData.has("timestamp") ? meetingData.getLong("timestamp")
-						: System.currentTimeMillis();
-
-				// Create a unique message ID for server-side deduplication
-				String messageId = senderName + ":" + chatMessage + ":" + timestamp;
-
-				// Check if this is a duplicate on the server side
-				if (recentChatMessages.contains(messageId)) {
-					System.out.println("SERVER: Ignoring duplicate chat message: " + messageId);
-					return;
-				}
-
-				// Add to recent messages
-				recentChatMessages.add(messageId);
-
-				// Limit cache size
-				if (recentChatMessages.size() > 100) {
-					// Keep only the most recent 50 messages
-					recentChatMessages = recentChatMessages.stream().skip(recentChatMessages.size() - 50)
-							.collect(java.util.stream.Collectors.toSet());
-				}
-
-				// Log the message
-				if (isGhostMessage) {
-					System.out.println("SERVER: Ghost " + senderName + " sent ghost message: " + chatMessage);
-				} else {
-					System.out.println("SERVER: " + senderName + " sent message: " + chatMessage);
+	/**
+	 * Discovery thread: answers each query with a beacon sent straight back,
+	 * until stopBroadcasting closes the socket
+	 */
+	private static void answerQueries(DatagramSocket socket, String serverName, int serverPort,
+			Supplier<SessionServer> server) {
+		byte[] buffer = new byte[LanDiscovery.MAX_BEACON_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (!socket.isClosed()) {
+			try {
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				int nonce = LanDiscovery.readQuery(ByteBuffer.wrap(buffer, 0, packet.getLength()));
+				if (nonce == LanDiscovery.NO_NONCE) {
+					continue;
 				}
-
-				// If server is a ghost, display ghost messages or if it's a regular message
-				boolean serverIsGhost = "dead".equals(PlayerLogic.getStatus());
-				if (!isGhostMessage || serverIsGhost) {
-					// Display the message in the server's MeetingUI if appropriate
-					if (GameWindow.getGameWindowInstance() != null) {
-						MeetingUI activeMeeting = GameWindow.getGameWindowInstance().getActiveMeetingUI();
-						if (activeMeeting != null) {
-							activeMeeting.receiveChatMessage(senderName, chatMessage, senderStatus);
-						}
-					}
+				byte[] answer = encodeBeacon(serverName, serverPort, server.get(), nonce);
+				socket.send(new DatagramPacket(answer, answer.length, packet.getSocketAddress()));
+			} catch (IOException e) {
+				if (!socket.isClosed()) {
+					System.err.println("SERVER: Discovery error: " + e.getMessage());
 				}
-
-				// Relay the chat message to appropriate clients
-				relayMeetingChatToClients(senderKey, senderName, chatMessage, "default", senderStatus, timestamp,
-						isGhostMessage, logArea);
-				break;
-			default:
-				log(logArea, "Unknown meeting message type: " + messageType);
-				break;
 			}
-		} catch (Exception e) {
-			log(logArea, "Error handling meeting message: " + e.getMessage());
 		}
 	}
 
-	private static void relayMeetingChatToClients(String senderKey, String senderName, String message, String meetingId,
-			String senderStatus, long timestamp, boolean isGhostMessage, TextArea logArea) {
-		try {
-// Create JSON for the relay message
-			JSONObject relayData = new JSONObject();
-			relayData.put("type", "chat");
-			relayData.put("name", senderName);
-			relayData.put("message", message);
-			relayData.put("meetingId", "default");
-			relayData.put("status", senderStatus);
-			relayData.put("timestamp", timestamp);
-			relayData.put("isGhostMessage", isGhostMessage);
-
-			String relayMessage = "/meeting/" + relayData.toString();
-			byte[] buf = relayMessage.getBytes(StandardCharsets.UTF_8);
-
-// Send to appropriate connected clients
-			for (ClientInfo clientInfo : clientAddresses) {
-				String clientKey = clientInfo.getAddress().getHostAddress() + ":" + clientInfo.getPort();
-
-// Skip the sender to avoid echoing back
-				if (clientKey.equals(senderKey)) {
-					continue;
-				}
-
-// For ghost messages, only send to other ghosts
-				if (isGhostMessage) {
-// Check if this client is a ghost
-					PlayerInfo clientPlayer = GameLogic.playerList.get(clientKey);
-					if (clientPlayer == null || !"dead".equals(clientPlayer.getStatus())) {
-// Skip living players for ghost messages
-						continue;
-					}
-				}
-
-				try {
-					DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-							clientInfo.getPort());
-					serverSocket.send(packet);
-				} catch (IOException e) {
-					log(logArea, "Error relaying meeting message to " + clientInfo.getAddress() + ":"
-							+ clientInfo.getPort() + ": " + e.getMessage());
-				}
-			}
-		} catch (Exception e) {
-			log(logArea, "Error building relay message: " + e.getMessage());
+	private static byte[] encodeBeacon(String serverName, int serverPort, SessionServer server, int nonce) {
+		LanDiscovery.Beacon beacon = new LanDiscovery.Beacon();
+		beacon.nonce = nonce;
+		beacon.name = serverName;
+		beacon.gamePort = serverPort;
+		if (server != null) {
+			server.describe(beacon);
+		} else {
+			beacon.maxPlayers = SessionServer.MAX_PLAYERS_PER_SESSION;
 		}
+		return LanDiscovery.encodeBeacon(beacon);
 	}
 
 	/**
-	 * Handles player name registration
+	 * Stops announcing the server on the LAN
 	 */
-	private static void handleNameRegistration(String received, InetAddress clientAddress, int clientPort,
-			TextArea logArea) {
-		String clientName = received.substring(6);
-		ClientInfo clientInfo = new ClientInfo(clientAddress, clientPort, clientName);
-		clientAddresses.remove(clientInfo); // Remove old client info if exists
-		clientAddresses.add(clientInfo); // Add updated client info
-		log(logArea, clientName + " has connected");
+	public static synchronized void stopBroadcasting() {
+		if (broadcastTask != null) {
+			broadcastTask.cancel();
+			broadcastTask = null;
+		}
+		if (broadcastSocket != null) {
+			broadcastSocket.close(); // ends the discovery thread
+			broadcastSocket = null;
+		}
+		discoveryThread = null;
 	}
 
 	/**
-	 * Handles system messages from clients
+	 * Starts the server to listen for client connections and messages
+	 * 
+	 * @param state          Current server state
+	 * @param serverListener Receives the server log and lobby and meeting events
+	 * @param name           Name of the server, shown to clients
+	 * @param serverPort     Port on which to run the server
 	 */
-	private static void handleSystemMessage(String received, InetAddress clientAddress, int clientPort,
-			DatagramPacket packet, TextArea logArea) throws IOException {
-		switch (received) {
-		case "/sys/PING":
-			sendPongResponse(clientAddress, clientPort);
-			updateClientPingStatus(clientAddress, clientPort);
-			break;
-
-		case "/sys/Test_Handshake":
-			sendAckResponse(clientAddress, clientPort);
-			System.out.println("Sent ACK to client at " + clientAddress + ":" + clientPort);
-			ServerSelectGui.settoGamedisable(false);
-			break;
-
-		case "/sys/ls":
-			sendClientList(packet);
-			log(logArea, "Sent client list to " + clientAddress + ":" + clientPort);
-			break;
-
-		default:
-			System.out.println("Received unknown system message: " + received);
-			break;
+	public static void startServer(State state, ServerListener serverListener, String name, int serverPort) {
+		listener = serverListener;
+		if (isRunning) {
+			log("Server is already running.");
+			return;
 		}
-	}
 
-	private static void handleReportMessage(String received, InetAddress clientAddress, int clientPort,
-			TextArea logArea) {
+		isRunning = true;
+		GameClock.lead(); // clients follow this process's clock
+		SessionServer server = new SessionServer("Server", 1, tickRate);
 		try {
-			// Extract the JSON data from the message
-			String jsonStr = received.substring(8); // Remove "/report/" prefix
-			JSONObject reportData = new JSONObject(jsonStr);
-
-			// Extract report details
-			String reporterKey = reportData.getString("reporter");
-			String corpseKey = reportData.getString("corpse");
-
-			System.out.println("SERVER: Received body report from " + clientAddress + ":" + clientPort);
-			System.out.println("SERVER: Report details - Reporter: " + reporterKey + ", Corpse: " + corpseKey);
-
-			// Call the existing handleBodyReport method
-			handleBodyReport(reporterKey, corpseKey, logArea);
-
-		} catch (Exception e) {
-			System.err.println("ERROR: Failed to process report message: " + e.getMessage());
-			e.printStackTrace();
-			log(logArea, "Error processing body report: " + e.getMessage());
+			server.open(serverPort);
+		} catch (IOException e) {
+			log("Server error: " + e.getMessage());
+			System.err.println("Server error: " + e.getMessage());
+			server.close();
+			isRunning = false;
+			return;
 		}
+		session = server.createSession(name, GameLogic.getState(), serverListener);
+		sessionServer = server;
+		log("Server started on port " + serverPort + ", waiting for messages...");
 	}
 
 	/**
-	 * Sends a PONG response to a client's PING
+	 * Handles one incoming packet, positioned at its opcode, as if it had just
+	 * arrived from sender
 	 */
-	private static void sendPongResponse(InetAddress clientAddress, int clientPort) throws IOException {
-		String response = "/sys/PONG";
-		byte[] buf = response.getBytes(StandardCharsets.UTF_8);
-		DatagramPacket responsePacket = new DatagramPacket(buf, buf.length, clientAddress, clientPort);
-		serverSocket.send(responsePacket);
+	public static void handleIncomingMessage(ByteBuffer data, InetSocketAddress sender) {
+		SessionServer server = sessionServer;
+		if (server != null) {
+			server.handleIncomingMessage(data, sender);
+		}
 	}
 
 	/**
-	 * Updates the ping status for a client
+	 * Stops the server
 	 */
-	private static void updateClientPingStatus(InetAddress clientAddress, int clientPort) {
-		ClientInfo clientInfo = getClientInfo(clientAddress, clientPort);
-		if (clientInfo != null) {
-			clientPingCount.putIfAbsent(clientInfo, new AtomicInteger(0));
-			clientPingCount.get(clientInfo).set(0);
-		}
+	public static void stopServer() {
+		isRunning = false;
+		stopBroadcasting();
+		closeSessionServer();
+		GameLogic.playerList.clear();
 	}
 
-	/**
-	 * Sends an ACK response to a client's handshake request
-	 */
-	private static void sendAckResponse(InetAddress clientAddress, int clientPort) throws IOException {
-		String response = "/sys/ACK";
-		byte[] buf = response.getBytes(StandardCharsets.UTF_8);
-		DatagramPacket responsePacket = new DatagramPacket(buf, buf.length, clientAddress, clientPort);
-		serverSocket.send(responsePacket);
+	private static void closeSessionServer() {
+		SessionServer server = sessionServer;
+		sessionServer = null;
+		session = null;
+		if (server != null) {
+			server.close();
+		}
 	}
 
 	/**
-	 * Sends the list of connected clients to a requester
+	 * Runs task on the session's event loop, or not at all while the server is
+	 * not running
 	 */
-	private static void sendClientList(DatagramPacket packet) throws IOException {
-		StringBuilder response = new StringBuilder("/ls/");
-		response.append("======LIST OF PLAYERS======\n");
-
-		try {
-			response.append(InetAddress.getLocalHost().getHostAddress()).append(":").append(serverSocket.getLocalPort())
-					.append(" - ").append(MainMenuPane.getServerName()).append("\n");
-
-			if (!clientAddresses.isEmpty()) {
-				for (ClientInfo clientInfo : clientAddresses) {
-					String key = clientInfo.getAddress().getHostAddress() + ":" + clientInfo.getPort();
-					response.append(key).append(" - ").append(clientInfo.getName());
-				}
-			}
-
-			byte[] responseBuf = response.toString().getBytes(StandardCharsets.UTF_8);
-			DatagramPacket responsePacket = new DatagramPacket(responseBuf, responseBuf.length, packet.getAddress(),
-					packet.getPort());
-			serverSocket.send(responsePacket);
-		} catch (UnknownHostException e) {
-			System.err.println("Failed to get local host: " + e.getMessage());
+	private static void execute(Consumer<GameSession> task) {
+		SessionServer server = sessionServer;
+		GameSession current = session;
+		if (server != null && current != null) {
+			server.execute(current, () -> task.accept(current));
 		}
 	}
 
 	/**
-	 * Handles player data updates from clients
+	 * Sends a message from the server to all connected clients
 	 */
-	private static void handlePlayerData(String received, DatagramPacket packet) throws IOException {
-		String jsonStr = received.substring(6);
-		JSONObject json = new JSONObject(jsonStr);
-
-		// Extract player data
-		double posX = json.getDouble("PosX");
-		double posY = json.getDouble("PosY");
-		int direction = json.getInt("Direction");
-		boolean isMoving = json.getBoolean("isMoving");
-		String name = json.getString("name");
-		int charID = json.getInt("charID");
-		boolean isReady = json.getBoolean("playerReady");
-		double taskFinish = json.getDouble("task");
-		// Update or create player info
-		String clientKey = packet.getAddress().getHostAddress() + ":" + packet.getPort();
-		updatePlayerInfo(clientKey, packet, posX, posY, direction, isMoving, name, charID, isReady, taskFinish);
-
-		// Prepare and send response with all player data
-		sendPlayerDataResponse(packet);
+	public static void sendMessageToClients(String message) {
+		execute(current -> current.sendMessageToClients(message));
 	}
 
 	/**
-	 * Updates player information in the global player list
+	 * Logs a message through the server's listener
 	 */
-	private static void updatePlayerInfo(String clientKey, DatagramPacket packet, double posX, double posY,
-			int direction, boolean isMoving, String name, int charID, boolean isReady, double taskfinished) {
-		PlayerInfo playerInfo = GameLogic.playerList.get(clientKey);
-		if (playerInfo == null) {
-			// New player - create new player info
-			Random random = new Random();
-			int randomChar = random.nextInt(9);
-			playerInfo = new PlayerInfo(packet.getAddress(), packet.getPort(), name, 0, 0, false, 0, "crewmate",
-					randomChar);
-			playerInfo.setTaskPercent(taskfinished);
-			GameLogic.playerList.put(clientKey, playerInfo);
-		} else {
-			// Existing player - update data
-			playerInfo.setX(posX);
-			playerInfo.setY(posY);
-			playerInfo.setDirection(direction);
-			playerInfo.setMoving(isMoving);
-			playerInfo.setCharacterID(charID);
-			playerInfo.setReady(isReady);
-			playerInfo.setTaskPercent(taskfinished);
-		}
+	private static void log(String message) {
+		listener.log(message);
 	}
 
 	/**
-	 * Prepares and sends a response with all player data to the client
+	 * Randomly assigns imposter roles to players, then runs whenDone on the
+	 * session's thread
 	 */
-	private static void sendPlayerDataResponse(DatagramPacket packet) throws IOException {
-		try {
-			JSONObject responseJson = new JSONObject();
-
-			// Add server's data
-			String serverKey = InetAddress.getLocalHost().getHostAddress() + ":" + serverSocket.getLocalPort();
-			JSONObject serverData = new JSONObject();
-			serverData.put("position", new double[] { PlayerLogic.getMyPosX(), PlayerLogic.getMyPosY() });
-			serverData.put("name", MainMenuPane.getServerName());
-			serverData.put("Direction", PlayerLogic.getDirection());
-			serverData.put("isMoving", PlayerLogic.getMoving());
-			serverData.put("charID", PlayerLogic.getCharID());
-			serverData.put("prepEnded", GameLogic.isPrepEnded());
-			serverData.put("Status", PlayerLogic.getStatus());
-			serverData.put("task", PlayerLogic.getTaskPercent());
-
-			responseJson.put(serverKey, serverData);
-
-			// Add all other players' data
-			for (PlayerInfo info : GameLogic.playerList.values()) {
-				String key = info.getAddress().getHostAddress() + ":" + info.getPort();
-				JSONObject playerData = new JSONObject();
-				playerData.put("position", new double[] { info.getX(), info.getY() });
-				playerData.put("name", info.getName());
-				playerData.put("status", info.getStatus());
-				playerData.put("Direction", info.getDirection());
-				playerData.put("isMoving", info.isMoving());
-				playerData.put("charID", info.getCharacterID());
-				playerData.put("prepEnded", GameLogic.isPrepEnded());
-				playerData.put("Status", info.getStatus());
-				playerData.put("task", info.getTaskPercent());
-
-				responseJson.put(key, playerData);
-			}
-
-			// Send the response
-			String response = "/data/" + responseJson.toString();
-			byte[] responseBuf = response.getBytes(StandardCharsets.UTF_8);
-			DatagramPacket responsePacket = new DatagramPacket(responseBuf, responseBuf.length, packet.getAddress(),
-					packet.getPort());
-			serverSocket.send(responsePacket);
-		} catch (UnknownHostException e) {
-			System.err.println("Error getting local host: " + e.getMessage());
-		}
+	public static void randomizeImposters(Runnable whenDone) {
+		execute(current -> {
+			current.randomizeImposters();
+			whenDone.run();
+		});
 	}
 
 	/**
-	 * Handles chat messages from clients
+	 * Asks for a kill by the host, checked and applied on the next tick
 	 */
-	private static void handleChatMessage(String message, InetAddress clientAddress, int clientPort, TextArea logArea) {
-		ClientInfo clientInfo = getClientInfo(clientAddress, clientPort);
-		if (clientInfo != null) {
-			log(logArea, clientInfo.getName() + " : " + message);
-			relayMessageToClients(clientInfo, message, logArea);
-		} else {
-			log(logArea, "Player : " + message + " from " + clientAddress + ":" + clientPort);
+	public static void handleKillReport(String killedPlayerKey, String reporterKey) {
+		GameSession current = session;
+		if (current != null) {
+			current.getRules().requestKill(null, reporterKey, killedPlayerKey);
 		}
 	}
 
-	/**
-	 * Relays a message from one client to all other clients
-	 */
-	private static void relayMessageToClients(ClientInfo sender, String message, TextArea logArea) {
-		String relayMessage = "/r/" + sender.getName() + " : " + message;
-		byte[] buf = relayMessage.getBytes(StandardCharsets.UTF_8);
-
-		for (ClientInfo clientInfo : clientAddresses) {
-			if (!clientInfo.equals(sender)) {
-				try {
-					DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-							clientInfo.getPort());
-					serverSocket.send(packet);
-				} catch (IOException e) {
-					log(logArea, "Error relaying message to " + clientInfo.getAddress() + ":" + clientInfo.getPort()
-							+ ": " + e.getMessage());
-				}
-			}
-		}
+	public static void endMeetingAndBroadcastResults(String meetingId) {
+		execute(current -> current.endMeetingAndBroadcastResults(meetingId));
 	}
 
 	/**
-	 * Finds a client's info based on address and port
+	 * Calls an emergency meeting for the host; every window opens it when the
+	 * session announces it
 	 */
-	private static ClientInfo getClientInfo(InetAddress address, int port) {
-		for (ClientInfo clientInfo : clientAddresses) {
-			if (clientInfo.getAddress().equals(address) && clientInfo.getPort() == port) {
-				return clientInfo;
-			}
-		}
-		return null;
+	public static void callEmergencyMeeting(String reporterKey) {
+		execute(current -> current.callEmergencyMeeting(reporterKey));
 	}
 
 	/**
-	 * Checks for clients that have missed too many pings
+	 * Sends the host's meeting chat to the clients, ghost chat only to ghosts
 	 */
-	private static void checkClientPings(TextArea logArea) {
-		for (ClientInfo clientInfo : new HashSet<>(clientPingCount.keySet())) {
-			int missedPings = clientPingCount.get(clientInfo).incrementAndGet();
-			if (missedPings > MAX_MISSED_PINGS) {
-				log(logArea, "Client " + clientInfo.getAddress() + ":" + clientInfo.getPort() + " has missed "
-						+ MAX_MISSED_PINGS + " PINGs and is considered disconnected.");
-				clientPingCount.remove(clientInfo);
-				clientAddresses.remove(clientInfo);
-
-				// Remove player from player list
-				String clientKey = clientInfo.getAddress().getHostAddress() + ":" + clientInfo.getPort();
-				GameLogic.playerList.remove(clientKey);
-			}
-		}
+	public static void sendMeetingChat(String senderName, String message, String senderStatus, long timestamp,
+			boolean isGhostMessage) {
+		execute(current -> current.sendMeetingChat(senderName, message, senderStatus, timestamp, isGhostMessage));
 	}
 
 	/**
-	 * Stops the server and cleans up resources
+	 * Tells the clients who the meeting ejected
 	 */
-	public static void stopServer() {
-		isRunning = false;
-
-		clientPingCount.clear();
-		clientAddresses.clear();
-		GameLogic.playerList.clear();
-
-		if (serverSocket != null && !serverSocket.isClosed()) {
-			serverSocket.close();
-		}
-
-		if (serverThread != null && serverThread.isAlive()) {
-			serverThread.interrupt();
-		}
-
-		if (pingCheckTimer != null) {
-			pingCheckTimer.cancel();
-			pingCheckTimer = null;
-		}
+	public static void broadcastEjection(String ejectedPlayerKey, boolean wasImposter) {
+		execute(current -> current.broadcastEjection(ejectedPlayerKey, wasImposter));
 	}
 
 	/**
-	 * Sends a message from the server to all connected clients
+	 * Asks for a body report by the host, checked and applied on the next tick
 	 */
-	public static void sendMessageToClients(String message, TextArea logArea) {
-		if (clientAddresses.isEmpty()) {
-			log(logArea, "No connected clients to send the message.");
-			return;
-		}
-
-		try {
-			String servermsg = "/sname/" + MainMenuPane.getServerName() + " : " + message;
-			byte[] buf = servermsg.getBytes(StandardCharsets.UTF_8);
-
-			for (ClientInfo clientInfo : clientAddresses) {
-				DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-						clientInfo.getPort());
-				serverSocket.send(packet);
-			}
-
-			log(logArea, "You : " + message);
-		} catch (IOException e) {
-			log(logArea, "Error sending message to clients : " + e.getMessage());
+	public static void handleBodyReport(String reporterKey, String corpsePlayerKey) {
+		GameSession current = session;
+		if (current != null) {
+			current.getRules().requestReport(null, reporterKey, corpsePlayerKey);
 		}
 	}
 
 	/**
-	 * Logs a message to the text area on the JavaFX application thread
+	 * Handles a vote from the host
+	 * 
+	 * @param voterKey  The key of the voting player
+	 * @param targetKey The key of the target player (or "skip")
+	 * @param meetingId The unique ID of the meeting
 	 */
-	private static void log(TextArea logArea, String message) {
-		if (logArea != null)
-			Platform.runLater(() -> logArea.appendText(message + "\n"));
-		else
-			System.out.println("logArea missing " + message);
+	public static void handleVote(String voterKey, String targetKey, String meetingId) {
+		execute(current -> current.handleVote(voterKey, targetKey, meetingId));
 	}
 
 	/**
-	 * Checks how many players are ready and updates the UI accordingly
+	 * Calculates voting results for a specific meeting
+	 * 
+	 * @param meetingId The meeting ID
+	 * @return The key of the ejected player, or null if no one was ejected
 	 */
-	private static void checkReadyPlayers() {
-		try {
-			long readyPlayerCount = GameLogic.playerList.values().stream().filter(PlayerInfo::isReady).count();
-
-			Platform.runLater(() -> {
-				if (readyPlayerCount == GameLogic.playerList.size() && !GameLogic.playerList.isEmpty()) {
-					PrepGui.setReadydisable(false);
-				} else {
-					PrepGui.setReadydisable(true);
-				}
-			});
-		} catch (Exception e) {
-			System.err.println("Error in checkReadyPlayers: " + e.getMessage());
-			e.printStackTrace();
-		}
+	public static String calculateVotingResult(String meetingId) {
+		GameSession current = session;
+		return current != null ? current.calculateVotingResult(meetingId) : null;
 	}
 
 	/**
-	 * Randomly assigns imposter roles to players
+	 * Sets the snapshot rate used the next time the server starts
+	 * 
+	 * @param hz 20, 30 or 60
 	 */
-	public static void randomizeImposters() {
-		List<String> allPlayers = new ArrayList<>();
-		String serverKey = PlayerLogic.getLocalAddressPort();
-		allPlayers.add(serverKey);
-		allPlayers.addAll(GameLogic.playerList.keySet());
-
-		// Determine how many imposters to assign
-		int imposterCount = GameLogic.getImposterCount();
-
-		// Shuffle the player list for random selection
-		Collections.shuffle(allPlayers);
-
-		// Set all players as crewmates initially
-		PlayerLogic.setStatus("crewmate");
-		for (String key : GameLogic.playerList.keySet()) {
-			PlayerInfo player = GameLogic.playerList.get(key);
-			player.setStatus("crewmate");
-		}
-
-		// Select imposters from the shuffled list
-		List<String> imposterKeys = allPlayers.subList(0, Math.min(imposterCount, allPlayers.size()));
-
-		// Set selected players as imposters
-		for (String key : imposterKeys) {
-			if (key.equals(serverKey)) {
-				// Local player (server/host) is an imposter
-				PlayerLogic.setStatus("imposter");
-				System.out.println("You are an imposter!");
-			} else {
-				// A client is an imposter
-				PlayerInfo player = GameLogic.playerList.get(key);
-				if (player != null) {
-					player.setStatus("imposter");
-					System.out.println("Imposter assigned: " + player.getName());
-				}
-			}
+	public static void setTickRate(int hz) {
+		if (!ServerTick.isSupportedRate(hz)) {
+			throw new IllegalArgumentException("Unsupported tick rate " + hz + " Hz (use 20, 30 or 60)");
 		}
-
-		// Log info about the game configuration
-		System.out.println("Game started with " + imposterCount + " imposter(s) and "
-				+ (allPlayers.size() - imposterCount) + " crewmate(s)");
+		tickRate = hz;
 	}
 
-	public static void handleKillReport(String killedPlayerKey, String reporterKey, TextArea logArea) {
-		try {
-			System.out.println(
-					"SERVER: Processing kill report - victim: " + killedPlayerKey + ", killer: " + reporterKey);
-
-			// Find the killed player
-			PlayerInfo killedPlayer = null;
-
-			// Check if it's the server player
-			if (PlayerLogic.getLocalAddressPort().equals(killedPlayerKey)) {
-				System.out.println("SERVER: The server player got killed");
-
-				// Flag as killed instead of setting status directly
-				PlayerLogic.flagKilled(true);
-
-				// Create a special corpse for the server player
-				Corpse serverCorpse = new Corpse(new PlayerInfo(InetAddress.getLocalHost(), serverSocket.getLocalPort(),
-						MainMenuPane.getServerName(), PlayerLogic.getMyPosX(), PlayerLogic.getMyPosY(), false,
-						PlayerLogic.getDirection(), "dead", PlayerLogic.getCharID()));
-
-				GameLogic.corpseList.put(killedPlayerKey, serverCorpse);
-				System.out.println("SERVER: Created corpse for server player at " + PlayerLogic.getMyPosX() + ","
-						+ PlayerLogic.getMyPosY());
-
-				// Broadcast the kill to all clients
-				broadcastKillReport(killedPlayerKey, serverCorpse);
-
-				return;
-			} else {
-				// Find the client player
-				killedPlayer = GameLogic.playerList.get(killedPlayerKey);
-			}
-
-			if (killedPlayer == null) {
-				log(logArea, "Error: Player with key " + killedPlayerKey + " not found");
-				System.out.println("SERVER ERROR: Victim player not found in player list: " + killedPlayerKey);
-				System.out.println("SERVER: Available players: " + GameLogic.playerList.keySet());
-				return;
-			}
-
-			// Mark the player as dead
-			killedPlayer.setStatus("dead");
-			log(logArea,
-					"Player " + killedPlayer.getName() + " has been killed by "
-							+ (GameLogic.playerList.containsKey(reporterKey)
-									? GameLogic.playerList.get(reporterKey).getName()
-									: "Unknown"));
-
-			// Create a corpse
-			Corpse corpse = GameLogic.createCorpse(killedPlayer);
-			System.out.println("SERVER: Created corpse at " + corpse.getX() + "," + corpse.getY() + " for player "
-					+ killedPlayer.getName());
-
-			// Broadcast the kill to all clients
-			broadcastKillReport(killedPlayerKey, corpse);
-		} catch (Exception e) {
-			System.err.println("SERVER ERROR in handleKillReport: " + e.getMessage());
-			e.printStackTrace();
-			log(logArea, "Error processing kill report: " + e.getMessage());
-		}
+	public static int getTickRate() {
+		return tickRate;
 	}
 
-	// In ServerLogic.java, update the endMeetingAndBroadcastResults method to use
-	// the specific ejection status:
-
-	public static void endMeetingAndBroadcastResults(String meetingId, TextArea logArea) {
-		try {
-			// Calculate results
-			meetingId = "default";
-			String ejectedPlayerKey = calculateVotingResult(meetingId);
-			System.out.println("VOTING RESULT = " + ejectedPlayerKey);
-
-			// Get vote counts
-			Map<String, String> votesMap = meetingVotes.getOrDefault(meetingId, new HashMap<>());
-			Map<String, Integer> voteCounts = new HashMap<>();
-			for (String targetKey : votesMap.values()) {
-				voteCounts.put(targetKey, voteCounts.getOrDefault(targetKey, 0) + 1);
-			}
-
-			// Handle ejection locally first
-			if (ejectedPlayerKey != null) {
-				boolean wasImposter = false;
-
-				// If local player was ejected
-				if (ejectedPlayerKey.equals(PlayerLogic.getLocalAddressPort())) {
-					wasImposter = "imposter".equals(PlayerLogic.getStatus());
-
-					// Flag as ejected instead of status directly
-					PlayerLogic.flagEjected(true);
-
-					System.out.println("SERVER: Local player (you) has been flagged for ejection");
-					System.out.println("SERVER: Local player wasImposter: " + wasImposter);
-				}
-				// If another player was ejected
-				else if (GameLogic.playerList.containsKey(ejectedPlayerKey)) {
-					PlayerInfo player = GameLogic.playerList.get(ejectedPlayerKey);
-					if (player != null) {
-						wasImposter = "imposter".equals(player.getStatus());
-
-						// For other players, just set to dead
-						player.setStatus("dead");
-
-						System.out.println("SERVER: Player " + player.getName() + " has been ejected");
-						System.out.println("SERVER: Ejected player wasImposter: " + wasImposter);
-					}
-				}
-
-				// Create results data JSON with imposter info
-				JSONObject resultsData = new JSONObject();
-				resultsData.put("ejected", ejectedPlayerKey != null ? ejectedPlayerKey : JSONObject.NULL);
-				resultsData.put("meetingId", "default");
-				resultsData.put("time", System.currentTimeMillis());
-				resultsData.put("wasImposter", wasImposter); // Include imposter status in results
-				voteCounts.put("wasImposter", wasImposter ? 1 : 0);
-				// Convert vote counts to JSON
-				JSONObject votesJson = new JSONObject();
-				for (Map.Entry<String, Integer> entry : voteCounts.entrySet()) {
-					votesJson.put(entry.getKey(), entry.getValue());
-				}
-				resultsData.put("votes", votesJson);
-
-				String resultsMessage = "/results/" + resultsData.toString();
-				byte[] buf = resultsMessage.getBytes(StandardCharsets.UTF_8);
-
-				System.out.println("SERVER: Broadcasting voting results: " + resultsMessage);
-
-				// Send to all clients
-				for (ClientInfo clientInfo : clientAddresses) {
-					try {
-						DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-								clientInfo.getPort());
-
-						// Send multiple times to ensure delivery
-						for (int i = 0; i < 5; i++) {
-							serverSocket.send(packet);
-							Thread.sleep(50);
-						}
-
-						System.out.println("SERVER: Sent voting results to " + clientInfo.getAddress() + ":"
-								+ clientInfo.getPort());
-					} catch (Exception e) {
-						log(logArea, "Error sending results to " + clientInfo.getAddress() + ":" + clientInfo.getPort()
-								+ ": " + e.getMessage());
-					}
-				}
-
-				// Log the results
-				if (ejectedPlayerKey == null) {
-					log(logArea, "No one was ejected.");
-				} else {
-					String playerName = ejectedPlayerKey.equals(PlayerLogic.getLocalAddressPort())
-							? PlayerLogic.getName()
-							: GameLogic.playerList.containsKey(ejectedPlayerKey)
-									? GameLogic.playerList.get(ejectedPlayerKey).getName()
-									: "Unknown";
-					log(logArea, playerName + " was ejected.");
-				}
-
-				// Update local UI if present
-				if (GameWindow.getGameWindowInstance() != null) {
-					MeetingUI activeMeeting = GameWindow.getGameWindowInstance().getActiveMeetingUI();
-					if (activeMeeting != null) {
-						activeMeeting.showVotingResults(ejectedPlayerKey, voteCounts);
-					}
-				}
-			} else {
-				// No player ejected case - original code remains the same
-				JSONObject resultsData = new JSONObject();
-				resultsData.put("ejected", JSONObject.NULL);
-				resultsData.put("meetingId", "default");
-				resultsData.put("time", System.currentTimeMillis());
-
-				// Convert vote counts to JSON
-				JSONObject votesJson = new JSONObject();
-				for (Map.Entry<String, Integer> entry : voteCounts.entrySet()) {
-					votesJson.put(entry.getKey(), entry.getValue());
-				}
-				resultsData.put("votes", votesJson);
-
-				String resultsMessage = "/results/" + resultsData.toString();
-				byte[] buf = resultsMessage.getBytes(StandardCharsets.UTF_8);
-
-				System.out.println("SERVER: Broadcasting voting results: " + resultsMessage);
-
-				// Send to all clients
-				for (ClientInfo clientInfo : clientAddresses) {
-					try {
-						DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-								clientInfo.getPort());
-
-						// Send multiple times to ensure delivery
-						for (int i = 0; i < 5; i++) {
-							serverSocket.send(packet);
-							Thread.sleep(50);
-						}
-
-						System.out.println("SERVER: Sent voting results to " + clientInfo.getAddress() + ":"
-								+ clientInfo.getPort());
-					} catch (Exception e) {
-						log(logArea, "Error sending results to " + clientInfo.getAddress() + ":" + clientInfo.getPort()
-								+ ": " + e.getMessage());
-					}
-				}
-
-				// Log the results
-				log(logArea, "No one was ejected.");
-
-				// Update local UI if present
-				if (GameWindow.getGameWindowInstance() != null) {
-					MeetingUI activeMeeting = GameWindow.getGameWindowInstance().getActiveMeetingUI();
-					if (activeMeeting != null) {
-						activeMeeting.showVotingResults(null, voteCounts);
-					}
-				}
-			}
-			meetingVotes.remove(meetingId);
-
-		} catch (Exception e) {
-			log(logArea, "Error broadcasting voting results: " + e.getMessage());
-			System.err.println("SERVER ERROR broadcasting voting results: " + e.getMessage());
-			e.printStackTrace();
-		}
-	}
-
-	private static void broadcastKillReport(String killedPlayerKey, Corpse corpse) {
-		try {
-			// Prepare the kill report with all necessary information
-			JSONObject killData = new JSONObject();
-			killData.put("killedPlayer", killedPlayerKey);
-			killData.put("playerName", corpse.getPlayerName());
-			killData.put("x", corpse.getX());
-			killData.put("y", corpse.getY());
-			killData.put("characterID", corpse.getCharacterID());
-			killData.put("timeOfDeath", System.currentTimeMillis());
-
-			String killReport = "/kill/" + killData.toString();
-			byte[] data = killReport.getBytes(StandardCharsets.UTF_8);
-
-			System.out.println("SERVER: Broadcasting kill report: " + killReport);
-
-			// Send to all clients
-			for (ClientInfo clientInfo : clientAddresses) {
-				try {
-					DatagramPacket packet = new DatagramPacket(data, data.length, clientInfo.getAddress(),
-							clientInfo.getPort());
-
-					// Send multiple times to reduce chance of packet loss
-					for (int i = 0; i < 3; i++) {
-						serverSocket.send(packet);
-						Thread.sleep(50); // Short delay between retransmissions
-					}
-
-					System.out.println(
-							"SERVER: Kill report sent to " + clientInfo.getAddress() + ":" + clientInfo.getPort());
-				} catch (Exception e) {
-					System.err.println("SERVER ERROR sending kill report to " + clientInfo.getAddress() + ":"
-							+ clientInfo.getPort() + ": " + e.getMessage());
-				}
-			}
-		} catch (Exception e) {
-			System.err.println("SERVER ERROR in broadcastKillReport: " + e.getMessage());
-			e.printStackTrace();
-		}
+	/**
+	 * Returns the running tick for timing statistics, or null if the server is
+	 * not running
+	 */
+	public static ServerTick getServerTick() {
+		GameSession current = session;
+		return current != null ? current.getTick() : null;
 	}
 
-	public static void handleBodyReport(String reporterKey, String corpsePlayerKey, TextArea logArea) {
-		PlayerInfo reporter = GameLogic.playerList.get(reporterKey);
-		Corpse corpse = GameLogic.getCorpse(corpsePlayerKey);
-		System.out.println("List of Corpses = " + GameLogic.corpseList.size());
-		System.out.println(corpse.getPlayerName() + " has been found");
-		// Mark body as found if not already found
-		if (!corpse.isFound()) {
-			corpse.setFound(true);
-			// log(logArea, reporter.getName() + " reported " + corpse.getPlayerName() + "'s
-			// body");
-
-			broadcastEmergencyMeeting(reporterKey, corpse.getPlayerName(), corpse.getCharacterID());
-		}
+	/**
+	 * Returns the server's socket for its local port. The socket is the view of a
+	 * non-blocking channel and cannot send, use sendMessage.
+	 */
+	public static DatagramSocket getServerSocket() {
+		SessionServer server = sessionServer;
+		return server != null ? server.getSocket() : null;
 	}
 
-	private static void broadcastEmergencyMeeting(String reporterKey, String reportedPlayerName, int reportedCharId) {
-		try {
-			// Create meeting data
-			JSONObject meetingData = new JSONObject();
-			meetingData.put("reporter", reporterKey);
-			meetingData.put("reportedPlayer", reportedPlayerName);
-			meetingData.put("reportedCharId", reportedCharId);
-			meetingData.put("time", System.currentTimeMillis());
-
-			String meetingMessage = "/meeting/" + meetingData.toString();
-			byte[] buf = meetingMessage.getBytes(StandardCharsets.UTF_8);
-
-			// Send to all connected clients
-			System.out.println(clientAddresses.size());
-			for (ClientInfo clientInfo : clientAddresses) {
-				try {
-					DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-							clientInfo.getPort());
-					serverSocket.send(packet);
-
-					// Send multiple times to reduce chance of packet loss
-					for (int i = 0; i < 5; i++) {
-						Thread.sleep(50); // Short delay between retransmissions
-						serverSocket.send(packet);
-					}
-
-					System.out.println(
-							"Emergency meeting broadcast to " + clientInfo.getAddress() + ":" + clientInfo.getPort());
-				} catch (Exception e) {
-					System.err.println("Error sending meeting message to " + clientInfo.getAddress() + ":"
-							+ clientInfo.getPort() + ": " + e.getMessage());
-				}
-			}
-
-			// Also trigger meeting locally on the server
-			if (GameWindow.getGameWindowInstance() != null) {
-				Platform.runLater(() -> {
-					GameWindow.getGameWindowInstance().startEmergencyMeeting(reporterKey, reportedPlayerName,
-							reportedCharId);
-				});
-			}
-
-		} catch (Exception e) {
-			System.err.println("Error in broadcastEmergencyMeeting: " + e.getMessage());
-			e.printStackTrace();
-		}
+	/**
+	 * Returns the server's event loop for intake statistics, or null if the
+	 * server is not running
+	 */
+	public static UdpEventLoop getServerLoop() {
+		SessionServer server = sessionServer;
+		return server != null ? server.getLoop() : null;
 	}
 
 	/**
-	 * Handles a vote from a client
-	 * 
-	 * @param voterKey  The key of the voting player
-	 * @param targetKey The key of the target player (or "skip")
-	 * @param meetingId The unique ID of the meeting
-	 * @param logArea   TextArea for logging
+	 * Returns the host's session, or null if the server is not running
 	 */
-	public static void handleVote(String voterKey, String targetKey, String meetingId, TextArea logArea) {
-		try {
-			meetingId = "default";
-			// Ensure meetingVotes map exists for this meeting
-			meetingVotes.putIfAbsent(meetingId, new ConcurrentHashMap<>());
-			Map<String, String> votes = meetingVotes.get(meetingId);
-
-			// Check for duplicate vote - if already voted for the same target, ignore
-			String existingVote = votes.get(voterKey);
-			if (existingVote != null && existingVote.equals(targetKey)) {
-				System.out.println(
-						"SERVER: Duplicate vote received from " + voterKey + " for " + targetKey + " - ignoring");
-				return;
-			}
-
-			// If player already voted for someone else, log the vote change
-			if (existingVote != null && !existingVote.equals(targetKey)) {
-				System.out.println(
-						"SERVER: Player " + voterKey + " changed vote from " + existingVote + " to " + targetKey);
-			}
-
-			// Store vote
-			votes.put(voterKey, targetKey);
-
-			System.out.println(
-					"SERVER: Received vote from " + voterKey + " for " + targetKey + " in meeting " + meetingId);
-			System.out.println("SERVER: Current votes in meeting: " + votes);
-			System.out.println("Total votes : " + votes.size());
-
-			// Create vote data JSON to broadcast to clients
-			JSONObject voteData = new JSONObject();
-			voteData.put("voter", voterKey);
-			voteData.put("target", targetKey);
-			voteData.put("meetingId", "default");
-			voteData.put("time", System.currentTimeMillis());
-			// Add a unique vote ID to help clients identify duplicate messages
-			voteData.put("voteId", voterKey + "_" + System.currentTimeMillis());
-
-			String voteMessage = "/vote/" + voteData.toString();
-			byte[] buf = voteMessage.getBytes(StandardCharsets.UTF_8);
-
-			// Send to all clients
-			for (ClientInfo clientInfo : clientAddresses) {
-				try {
-					DatagramPacket packet = new DatagramPacket(buf, buf.length, clientInfo.getAddress(),
-							clientInfo.getPort());
-					serverSocket.send(packet);
-
-					// Send multiple times to ensure delivery
-					for (int i = 0; i < 2; i++) {
-						Thread.sleep(30);
-						serverSocket.send(packet);
-					}
-				} catch (Exception e) {
-					log(logArea, "Error sending vote to " + clientInfo.getAddress() + ":" + clientInfo.getPort() + ": "
-							+ e.getMessage());
-				}
-			}
-
-			// Log the vote
-			String voterName = voterKey.equals(PlayerLogic.getLocalAddressPort()) ? PlayerLogic.getName()
-					: GameLogic.playerList.containsKey(voterKey) ? GameLogic.playerList.get(voterKey).getName()
-							: "Unknown";
-
-			String targetName;
-			if (targetKey.equals("skip")) {
-				targetName = "Skip";
-			} else {
-				targetName = targetKey.equals(PlayerLogic.getLocalAddressPort()) ? PlayerLogic.getName()
-						: GameLogic.playerList.containsKey(targetKey) ? GameLogic.playerList.get(targetKey).getName()
-								: "Unknown";
-			}
-
-			// Update the local meeting UI if present
-			if (GameWindow.getGameWindowInstance() != null) {
-				MeetingUI activeMeeting = GameWindow.getGameWindowInstance().getActiveMeetingUI();
-				if (activeMeeting != null) {
-					activeMeeting.receiveVote(voterKey, targetKey);
-					activeMeeting.addChatMessage("SYSTEM", voterName + " voted for " + targetName);
-				}
-			}
-
-		} catch (Exception e) {
-			log(logArea, "Error handling vote: " + e.getMessage());
-			System.err.println("SERVER ERROR handling vote: " + e.getMessage());
-			e.printStackTrace();
-		}
+	public static GameSession getSession() {
+		return session;
 	}
 
 	/**
-	 * Calculates voting results for a specific meeting
-	 * 
-	 * @param meetingId The meeting ID
-	 * @return The key of the ejected player, or null if no one was ejected
+	 * Returns the link quality of the connected clients in one line, or null
+	 * while none has been measured
 	 */
-	public static String calculateVotingResult(String meetingId) {
-		meetingId = "default";
-		Map<String, String> votesMap = meetingVotes.getOrDefault(meetingId, new HashMap<>());
-
-		// If no votes, no one is ejected
-		if (votesMap.isEmpty()) {
-			System.out.println("SERVER: No votes were cast in meeting " + meetingId);
-			return null;
-		}
-
-		// Count votes for each target
-		Map<String, Integer> voteCounts = new HashMap<>();
-		for (String targetKey : votesMap.values()) {
-			voteCounts.put(targetKey, voteCounts.getOrDefault(targetKey, 0) + 1);
-		}
-
-		System.out.println("SERVER: Vote counts for meeting " + meetingId + ": " + voteCounts);
-
-		// Count skip votes
-		int skipVotes = voteCounts.getOrDefault("skip", 0);
-
-		// Find player with most votes and check for ties
-		String mostVotedPlayer = null;
-		int highestVotes = 0;
-		boolean hasTie = false;
-
-		// First pass to find highest vote count among players (excluding "skip")
-		for (Map.Entry<String, Integer> entry : voteCounts.entrySet()) {
-			if (!entry.getKey().equals("skip") && entry.getValue() > highestVotes) {
-				highestVotes = entry.getValue();
-				mostVotedPlayer = entry.getKey();
-				hasTie = false;
-			} else if (!entry.getKey().equals("skip") && entry.getValue() == highestVotes) {
-				// We have a tie between player votes
-				hasTie = true;
-			}
-		}
-
-		// Check if skip wins
-		if (skipVotes > highestVotes) {
-			// Skip wins outright
-			System.out.println("SERVER: Skip won the vote with " + skipVotes + " votes");
-			return null; // No one is ejected
-		} else if (skipVotes == highestVotes && highestVotes > 0) {
-			// Skip ties with highest player vote
-			System.out.println("SERVER: Skip tied with player votes at " + skipVotes + " votes");
-			return null; // No one is ejected in a tie
-		}
-
-		// Check if there's a tie between players
-		if (hasTie) {
-			System.out.println("SERVER: There was a tie between players with " + highestVotes + " votes each");
-			return null; // No one is ejected in a tie
-		}
-
-		// Return the player with the most votes if they exist and have at least one
-		// vote
-		if (mostVotedPlayer != null && highestVotes > 0) {
-			System.out.println("SERVER: " + mostVotedPlayer + " was ejected with " + highestVotes + " votes");
-			return mostVotedPlayer;
-		} else {
-			System.out.println("SERVER: No one was ejected (no valid votes)");
-			return null;
-		}
+	public static String getLinkSummary() {
+		GameSession current = session;
+		return current != null ? current.getLinkSummary() : null;
 	}
 
-	public static DatagramSocket getServerSocket() {
-		return serverSocket;
+	public static int getReadyPlayerCount() {
+		GameSession current = session;
+		return current != null ? current.getReadyPlayerCount() : 0;
 	}
 
-	public static int getReadyPlayerCount() {
-		return readyPlayers;
+	/**
+	 * Returns the connected clients, safe to iterate while clients come and go
+	 */
+	public static List<ClientInfo> getConnectedClients() {
+		GameSession current = session;
+		return current != null ? current.getConnectedClients() : Collections.emptyList();
 	}
 
-	public static Set<ClientInfo> getConnectedClients() {
-		return new HashSet<>(clientAddresses);
+	/**
+	 * Clears the votes and meeting chat of the last match. Clients stay
+	 * connected for the next one.
+	 */
+	public static void resetMatch() {
+		execute(GameSession::resetMatch);
 	}
 
 	public static void resetServerState() {
-		// Reset network-related variables
-		if (serverSocket != null && !serverSocket.isClosed()) {
-			serverSocket.close();
-		}
-		serverSocket = null;
-
-		// Clear client tracking
-		clientAddresses.clear();
-		clientPingCount.clear();
-
-		// Reset meeting-related variables
-		meetingVotes.clear();
-		recentChatMessages.clear();
-
-		// Stop timers and executors
-		if (pingCheckTimer != null) {
-			pingCheckTimer.cancel();
-			pingCheckTimer = null;
-		}
-
-		// Reset player-related tracking
-		readyPlayers = 0;
+		// Closes the socket, the session's tick and timers and forgets its clients
+		closeSessionServer();
+		stopBroadcasting();
 		isRunning = false;
-
-		// Stop server thread
-		if (serverThread != null && serverThread.isAlive()) {
-			serverThread.interrupt();
-			serverThread = null;
-		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool of direct buffers so the receive and send paths do not
+ * allocate per datagram. Buffers are handed out cleared and must be released
+ * exactly once.
+ */
+public class BufferPool {
+	private final ArrayBlockingQueue<ByteBuffer> free;
+	private final int bufferSize;
+	private final AtomicLong exhausted = new AtomicLong();
+
+	public BufferPool(int bufferCount, int bufferSize) {
+		this.free = new ArrayBlockingQueue<>(bufferCount);
+		this.bufferSize = bufferSize;
+		for (int i = 0; i < bufferCount; i++) {
+			free.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+	}
+
+	/**
+	 * Takes a cleared buffer from the pool
+	 *
+	 * @return the buffer, or null if every buffer is in use
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null) {
+			exhausted.incrementAndGet();
+			return null;
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+			free.offer(buffer);
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getAvailable() {
+		return free.size();
+	}
+
+	/**
+	 * Returns how many times acquire found the pool empty
+	 */
+	public long getExhaustedCount() {
+		return exhausted.get();
+	}
+}
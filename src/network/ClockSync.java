@@ -0,0 +1,207 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Estimates the server's game clock from the heartbeat, NTP style.
+ *
+ * Every PONG carries the server's time when it answered. With the local send
+ * and receive times of the PING, that gives one sample of the offset between
+ * the clocks, assuming the trip was equally long both ways. A sample's error
+ * is at most half its round trip, so like NTP's clock filter only the fastest
+ * round trips are trusted: the offset is that of the fastest of the last few
+ * samples. Over a longer window a least-squares line through the fast
+ * samples gives the drift between the two crystals, so the estimate stays
+ * right between pings and through a burst of slow ones.
+ *
+ * Local times are System.nanoTime, server times are the server's game clock
+ * in milliseconds. Safe to use from any thread.
+ */
+public class ClockSync {
+	public static final int PONG_SIZE = LinkQuality.PROBE_SIZE + 8; // probe and server time
+
+	private static final int FILTER_SAMPLES = 8;
+	private static final int DRIFT_SAMPLES = 64;
+	private static final double MIN_DRIFT_SPAN_MS = 10000;
+	private static final double MAX_DRIFT = 500e-6; // beyond any real crystal; anything more is noise
+	private static final double FAST_SAMPLE_SLACK_MS = 1; // plus half again the fastest round trip
+	private static final int FAST_SAMPLE_SHARE = 4; // or the fastest quarter, on a jittery link
+	private static final double STEP_MS = 500; // a jump this large means the server clock was reset
+
+	// Samples by arrival, oldest overwritten first
+	private final double[] localMs = new double[DRIFT_SAMPLES];
+	private final double[] offsetMs = new double[DRIFT_SAMPLES];
+	private final double[] rttMs = new double[DRIFT_SAMPLES];
+	private int sampleCount = 0;
+
+	// The current estimate: offset at referenceMs, changing by drift per ms
+	private double referenceMs;
+	private double offset;
+	private double drift;
+	private double bestRttMs;
+	private boolean synced = false;
+
+	/**
+	 * Builds a PONG that echoes a probe and carries the server's time
+	 */
+	public static byte[] encodePong(int opcode, int sequence, long serverMillis) {
+		return ByteBuffer.allocate(PONG_SIZE).put((byte) opcode).putInt(sequence).putLong(serverMillis).array();
+	}
+
+	/**
+	 * Returns the server time a PONG at the buffer's position carries, or
+	 * Long.MIN_VALUE if it carries none
+	 */
+	public static long readServerTime(ByteBuffer data) {
+		return data.remaining() >= PONG_SIZE ? data.getLong(data.position() + LinkQuality.PROBE_SIZE)
+				: Long.MIN_VALUE;
+	}
+
+	/**
+	 * Adds one exchange
+	 *
+	 * @param sentNanos     local time the PING left
+	 * @param serverMillis  server time in the PONG
+	 * @param receivedNanos local time the PONG arrived
+	 */
+	public synchronized void onSample(long sentNanos, long serverMillis, long receivedNanos) {
+		double rtt = (receivedNanos - sentNanos) / 1e6;
+		if (rtt < 0) {
+			return;
+		}
+		double midpoint = (sentNanos + receivedNanos) / 2e6;
+		double sampleOffset = serverMillis - midpoint;
+		if (synced && Math.abs(sampleOffset - predictOffset(midpoint)) > STEP_MS + rtt) {
+			reset(); // the server restarted or we reconnected elsewhere
+		}
+
+		int slot = sampleCount++ % DRIFT_SAMPLES;
+		localMs[slot] = midpoint;
+		offsetMs[slot] = sampleOffset;
+		rttMs[slot] = rtt;
+		estimate();
+	}
+
+	private void estimate() {
+		int count = Math.min(sampleCount, DRIFT_SAMPLES);
+		int newest = sampleCount - 1;
+
+		// Clock filter: the fastest of the latest samples
+		int best = newest % DRIFT_SAMPLES;
+		for (int i = 1; i < Math.min(count, FILTER_SAMPLES); i++) {
+			int slot = (newest - i) % DRIFT_SAMPLES;
+			if (rttMs[slot] < rttMs[best]) {
+				best = slot;
+			}
+		}
+		double fastest = rttMs[best];
+		for (int i = 0; i < count; i++) {
+			fastest = Math.min(fastest, rttMs[i]);
+		}
+
+		// Drift: least squares over the fast samples of the whole window
+		double[] sorted = Arrays.copyOf(rttMs, count);
+		Arrays.sort(sorted);
+		double limit = Math.max(fastest * 1.5 + FAST_SAMPLE_SLACK_MS, sorted[(count - 1) / FAST_SAMPLE_SHARE]);
+		int n = 0;
+		double meanT = 0;
+		double meanO = 0;
+		double minT = Double.MAX_VALUE;
+		double maxT = -Double.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			if (rttMs[i] <= limit) {
+				n++;
+				meanT += localMs[i];
+				meanO += offsetMs[i];
+				minT = Math.min(minT, localMs[i]);
+				maxT = Math.max(maxT, localMs[i]);
+			}
+		}
+		double slope = 0;
+		if (n >= FILTER_SAMPLES && maxT - minT >= MIN_DRIFT_SPAN_MS) {
+			meanT /= n;
+			meanO /= n;
+			double covariance = 0;
+			double variance = 0;
+			for (int i = 0; i < count; i++) {
+				if (rttMs[i] <= limit) {
+					double dt = localMs[i] - meanT;
+					covariance += dt * (offsetMs[i] - meanO);
+					variance += dt * dt;
+				}
+			}
+			slope = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, covariance / variance));
+		}
+
+		referenceMs = localMs[best];
+		offset = offsetMs[best];
+		drift = slope;
+		bestRttMs = rttMs[best];
+		synced = true;
+	}
+
+	private double predictOffset(double localMillis) {
+		return offset + drift * (localMillis - referenceMs);
+	}
+
+	/**
+	 * Returns whether at least one PONG has been timed
+	 */
+	public synchronized boolean isSynced() {
+		return synced;
+	}
+
+	/**
+	 * Converts a local System.nanoTime to server time in milliseconds
+	 */
+	public synchronized long toServerMillis(long localNanos) {
+		double local = localNanos / 1e6;
+		return Math.round(local + predictOffset(local));
+	}
+
+	/**
+	 * Converts a server time to the local System.nanoTime it falls on
+	 */
+	public synchronized long toLocalNanos(long serverMillis) {
+		// Solve local + offset + drift * (local - reference) = server
+		double local = (serverMillis - offset + drift * referenceMs) / (1 + drift);
+		return Math.round(local * 1e6);
+	}
+
+	/**
+	 * Returns the largest error of the current offset, half the round trip
+	 * it was measured over
+	 */
+	public synchronized double getErrorMillis() {
+		return synced ? bestRttMs / 2 : -1;
+	}
+
+	/**
+	 * Returns how much faster the server clock runs, in parts per million
+	 */
+	public synchronized double getDriftPpm() {
+		return drift * 1e6;
+	}
+
+	public synchronized int getSampleCount() {
+		return sampleCount;
+	}
+
+	public synchronized void reset() {
+		sampleCount = 0;
+		referenceMs = 0;
+		offset = 0;
+		drift = 0;
+		bestRttMs = 0;
+		synced = false;
+	}
+
+	public synchronized String getSummary() {
+		if (!synced) {
+			return "clock not synced";
+		}
+		return String.format("clock offset %+.1f ms +/-%.1f, drift %+.1f ppm over %d sample(s)",
+				predictOffset(System.nanoTime() / 1e6), bestRttMs / 2, drift * 1e6, sampleCount);
+	}
+}
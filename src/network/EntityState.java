@@ -0,0 +1,145 @@
+package network;
+
+import java.net.InetAddress;
+
+/**
+ * Immutable state of one player as carried by a snapshot. Positions are kept
+ * quantized so the server's baseline and the client's reconstruction always
+ * agree bit for bit.
+ */
+public class EntityState {
+	private final int id;
+	private final InetAddress address;
+	private final int port;
+	private final String key;
+	private final String name;
+	private final String status;
+	private final int charID;
+	private final int taskPercent;
+	private final boolean moving;
+	private final int direction;
+	private final int quantizedX;
+	private final int quantizedY;
+
+	public EntityState(int id, InetAddress address, int port, String key, String name, String status, int charID,
+			int taskPercent, boolean moving, int direction, int quantizedX, int quantizedY) {
+		this.id = id;
+		this.address = address;
+		this.port = port;
+		this.key = key;
+		this.name = name;
+		this.status = status;
+		this.charID = charID;
+		this.taskPercent = taskPercent;
+		this.moving = moving;
+		this.direction = direction;
+		this.quantizedX = quantizedX;
+		this.quantizedY = quantizedY;
+	}
+
+	/**
+	 * Builds a state from unquantized game values
+	 *
+	 * @param id  the player's compact id
+	 * @param key the player's "host:port" key
+	 */
+	public static EntityState of(int id, InetAddress address, int port, String key, String name, String status,
+			int charID, double taskPercent, boolean moving, int direction, double x, double y) {
+		return new EntityState(id, address, port, key, name, status, charID,
+				(int) Math.max(0, Math.min(100, Math.round(taskPercent))), moving, direction,
+				PlayerStateCodec.quantize(x), PlayerStateCodec.quantize(y));
+	}
+
+	/**
+	 * Returns the compact id the server assigned the player at handshake
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the "host:port" key used by GameLogic.playerList
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public int getCharID() {
+		return charID;
+	}
+
+	public int getTaskPercent() {
+		return taskPercent;
+	}
+
+	public boolean isMoving() {
+		return moving;
+	}
+
+	public int getDirection() {
+		return direction;
+	}
+
+	public int getQuantizedX() {
+		return quantizedX;
+	}
+
+	public int getQuantizedY() {
+		return quantizedY;
+	}
+
+	public double getX() {
+		return PlayerStateCodec.dequantize(quantizedX);
+	}
+
+	public double getY() {
+		return PlayerStateCodec.dequantize(quantizedY);
+	}
+
+	/**
+	 * Checks whether every replicated field matches, so nothing needs to be sent
+	 */
+	public boolean sameAs(EntityState other) {
+		return other != null && quantizedX == other.quantizedX && quantizedY == other.quantizedY
+				&& moving == other.moving && direction == other.direction && charID == other.charID
+				&& taskPercent == other.taskPercent && sameIdentity(other) && equalsNullable(name, other.name)
+				&& equalsNullable(status, other.status);
+	}
+
+	/**
+	 * Checks whether everything but position, direction and the moving flag
+	 * matches, i.e. the only news would be where the player is
+	 */
+	public boolean sameExceptMotion(EntityState other) {
+		return other != null && charID == other.charID && taskPercent == other.taskPercent && sameIdentity(other)
+				&& equalsNullable(name, other.name) && equalsNullable(status, other.status);
+	}
+
+	/**
+	 * Checks whether other is the same player, not another one that was given
+	 * the id after this one left
+	 */
+	public boolean sameIdentity(EntityState other) {
+		return other != null && id == other.id && key.equals(other.key);
+	}
+
+	static boolean equalsNullable(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
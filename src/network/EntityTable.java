@@ -0,0 +1,97 @@
+package network;
+
+import java.util.Arrays;
+
+/**
+ * Player states of one snapshot, indexed by compact player id.
+ *
+ * Lookups are an array index instead of hashing a "host:port" string, and the
+ * occupied ids are also kept packed so iterating costs only the players
+ * present. Copying a table for the next snapshot is three array copies.
+ */
+public class EntityTable {
+	public static final int CAPACITY = 256; // ids travel as one byte
+
+	private final EntityState[] byId = new EntityState[CAPACITY];
+	private final int[] ids = new int[CAPACITY]; // occupied ids, packed
+	private final int[] slots = new int[CAPACITY]; // index of each id in ids, or -1
+	private int size = 0;
+
+	public EntityTable() {
+		Arrays.fill(slots, -1);
+	}
+
+	public EntityTable(EntityTable other) {
+		System.arraycopy(other.byId, 0, byId, 0, CAPACITY);
+		System.arraycopy(other.ids, 0, ids, 0, CAPACITY);
+		System.arraycopy(other.slots, 0, slots, 0, CAPACITY);
+		size = other.size;
+	}
+
+	public static boolean isValidId(int id) {
+		return id >= 0 && id < CAPACITY;
+	}
+
+	/**
+	 * Returns the state of a player, or null if the table does not hold it
+	 */
+	public EntityState get(int id) {
+		return isValidId(id) ? byId[id] : null;
+	}
+
+	public boolean contains(int id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * Adds a state or replaces the one with the same id
+	 */
+	public void put(EntityState state) {
+		int id = state.getId();
+		if (slots[id] < 0) {
+			slots[id] = size;
+			ids[size++] = id;
+		}
+		byId[id] = state;
+	}
+
+	/**
+	 * @return the removed state, or null if the table did not hold it
+	 */
+	public EntityState remove(int id) {
+		if (!isValidId(id) || slots[id] < 0) {
+			return null;
+		}
+		EntityState removed = byId[id];
+		int slot = slots[id];
+		int last = ids[--size];
+		ids[slot] = last;
+		slots[last] = slot;
+		slots[id] = -1;
+		byId[id] = null;
+		return removed;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the i-th state present, 0 to size() - 1, in no particular order
+	 */
+	public EntityState at(int index) {
+		return byId[ids[index]];
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			byId[ids[i]] = null;
+			slots[ids[i]] = -1;
+		}
+		size = 0;
+	}
+}
@@ -0,0 +1,342 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits messages that do not fit in one datagram into MTU-sized fragments
+ * and puts them back together on the other side.
+ *
+ * Fragment: [op][version][message id i32][index u8][count u8][payload]
+ *
+ * Messages up to MAX_DATAGRAM_SIZE go out unchanged. Larger ones are cut into
+ * fragments that stay under the IPv6 minimum MTU, so no datagram is ever
+ * fragmented by IP or truncated by a receive buffer. Reassembly happens in
+ * pooled buffers, or new ones while the pool is in use, so one peer's
+ * messages never crowd out another's; a message whose fragments do not all
+ * arrive within REASSEMBLY_TIMEOUT_MS is dropped. A sender has at most
+ * MAX_PARTIALS_PER_SENDER messages in reassembly, and starting another gives
+ * up its oldest, so a peer holds at most that many buffers. Reliability, if needed, comes from the
+ * layer above: a reliable frame that loses a fragment is simply resent whole.
+ *
+ * Given an OutboundWriter, sends are queued on it instead of going straight to
+ * the socket. A message that fits is queued as a read-only view of the
+ * caller's array, so it must not be changed afterwards; split does the
+ * cutting up for a message that goes to many peers.
+ */
+public class Fragmenter {
+	public static final byte OP_FRAGMENT = (byte) 0xA5;
+	private static final byte VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	// 1280 byte IPv6 minimum MTU minus IP and UDP headers, with some slack
+	public static final int MAX_DATAGRAM_SIZE = 1200;
+	public static final int MAX_FRAGMENT_PAYLOAD = MAX_DATAGRAM_SIZE - HEADER_SIZE;
+	public static final int MAX_MESSAGE_SIZE = 64 * 1024;
+	private static final int MAX_FRAGMENTS = (MAX_MESSAGE_SIZE + MAX_FRAGMENT_PAYLOAD - 1) / MAX_FRAGMENT_PAYLOAD;
+	private static final long REASSEMBLY_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(2000);
+	private static final int REASSEMBLY_BUFFERS = 8;
+	private static final int MAX_PARTIALS_PER_SENDER = 2;
+
+	private final String name;
+	private final UdpEventLoop loop;
+	private final OutboundWriter writer; // or null to send directly
+	private final BufferPool sendPool = new BufferPool(8, MAX_DATAGRAM_SIZE);
+	private final BufferPool reassemblyPool = new BufferPool(REASSEMBLY_BUFFERS, MAX_MESSAGE_SIZE);
+	private final LinkedHashMap<PartialKey, Partial> partials = new LinkedHashMap<>();
+	private final AtomicInteger nextMessageId = new AtomicInteger(new Random().nextInt());
+
+	private final AtomicLong fragmentedCount = new AtomicLong();
+	private final AtomicLong fragmentsSentCount = new AtomicLong();
+	private final AtomicLong reassembledCount = new AtomicLong();
+	private final AtomicLong timedOutCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	public Fragmenter(String name, UdpEventLoop loop) {
+		this(name, loop, null);
+	}
+
+	public Fragmenter(String name, UdpEventLoop loop, OutboundWriter writer) {
+		this.name = name;
+		this.loop = loop;
+		this.writer = writer;
+	}
+
+	public static boolean isFragment(ByteBuffer data) {
+		return data.remaining() > HEADER_SIZE && data.get(data.position()) == OP_FRAGMENT;
+	}
+
+	public boolean isOpen() {
+		return loop.isOpen();
+	}
+
+	/**
+	 * Sends a message, fragmenting it if it does not fit in one datagram
+	 *
+	 * @throws IOException if the message is larger than MAX_MESSAGE_SIZE
+	 */
+	public void send(byte[] data, int offset, int length, SocketAddress target) throws IOException {
+		if (writer != null) {
+			for (ByteBuffer datagram : split(data, offset, length)) {
+				writer.enqueue(datagram, target);
+			}
+			return;
+		}
+		if (length <= MAX_DATAGRAM_SIZE) {
+			loop.send(data, offset, length, target);
+			return;
+		}
+		if (length > MAX_MESSAGE_SIZE) {
+			throw new IOException(name + ": message of " + length + " bytes exceeds " + MAX_MESSAGE_SIZE);
+		}
+
+		int messageId = nextMessageId.getAndIncrement();
+		int count = (length + MAX_FRAGMENT_PAYLOAD - 1) / MAX_FRAGMENT_PAYLOAD;
+		ByteBuffer fragment = sendPool.acquire();
+		if (fragment == null) {
+			fragment = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+		}
+		try {
+			for (int index = 0; index < count; index++) {
+				int start = index * MAX_FRAGMENT_PAYLOAD;
+				int size = Math.min(MAX_FRAGMENT_PAYLOAD, length - start);
+				fragment.clear();
+				fragment.put(OP_FRAGMENT).put(VERSION).putInt(messageId).put((byte) index).put((byte) count);
+				fragment.put(data, offset + start, size).flip();
+				loop.send(fragment, target);
+			}
+		} finally {
+			sendPool.release(fragment);
+		}
+		fragmentedCount.incrementAndGet();
+		fragmentsSentCount.addAndGet(count);
+	}
+
+	public void send(byte[] data, SocketAddress target) throws IOException {
+		send(data, 0, data.length, target);
+	}
+
+	/**
+	 * Cuts a message into the datagrams send would put on the wire, as
+	 * read-only buffers any number of peers can be sent. One that fits is a
+	 * view of data itself, not a copy.
+	 *
+	 * @throws IOException if the message is larger than MAX_MESSAGE_SIZE
+	 */
+	public ByteBuffer[] split(byte[] data, int offset, int length) throws IOException {
+		if (length <= MAX_DATAGRAM_SIZE) {
+			return new ByteBuffer[] { ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer() };
+		}
+		if (length > MAX_MESSAGE_SIZE) {
+			throw new IOException(name + ": message of " + length + " bytes exceeds " + MAX_MESSAGE_SIZE);
+		}
+
+		int messageId = nextMessageId.getAndIncrement();
+		int count = (length + MAX_FRAGMENT_PAYLOAD - 1) / MAX_FRAGMENT_PAYLOAD;
+		ByteBuffer[] fragments = new ByteBuffer[count];
+		for (int index = 0; index < count; index++) {
+			int start = index * MAX_FRAGMENT_PAYLOAD;
+			int size = Math.min(MAX_FRAGMENT_PAYLOAD, length - start);
+			ByteBuffer fragment = ByteBuffer.allocate(HEADER_SIZE + size);
+			fragment.put(OP_FRAGMENT).put(VERSION).putInt(messageId).put((byte) index).put((byte) count);
+			fragment.put(data, offset + start, size).flip();
+			fragments[index] = fragment.asReadOnlyBuffer();
+		}
+		fragmentedCount.incrementAndGet();
+		fragmentsSentCount.addAndGet(count);
+		return fragments;
+	}
+
+	/**
+	 * Handles one fragment
+	 *
+	 * @return the complete message, positioned at its first byte, once the last
+	 *         fragment arrives, otherwise null. The caller must pass it to
+	 *         release when done.
+	 */
+	public ByteBuffer receive(ByteBuffer data, InetSocketAddress sender) {
+		if (data.remaining() <= HEADER_SIZE || data.get() != OP_FRAGMENT || data.get() != VERSION) {
+			droppedCount.incrementAndGet();
+			return null;
+		}
+		int messageId = data.getInt();
+		int index = data.get() & 0xFF;
+		int count = data.get() & 0xFF;
+		int size = data.remaining();
+		if (count < 2 || count > MAX_FRAGMENTS || index >= count
+				|| (index < count - 1 ? size != MAX_FRAGMENT_PAYLOAD : size > MAX_FRAGMENT_PAYLOAD)) {
+			droppedCount.incrementAndGet();
+			return null;
+		}
+
+		long now = System.nanoTime();
+		PartialKey key = new PartialKey(sender, messageId);
+		synchronized (partials) {
+			expire(now);
+			Partial partial = partials.get(key);
+			if (partial == null) {
+				limitPartials(sender);
+				ByteBuffer buffer = reassemblyPool.acquire();
+				if (buffer == null) {
+					// Many senders at once; the pool only takes back its own buffers
+					buffer = ByteBuffer.allocate(count * MAX_FRAGMENT_PAYLOAD);
+				}
+				partial = new Partial(buffer, count, now);
+				partials.put(key, partial);
+			} else if (partial.count != count) {
+				droppedCount.incrementAndGet();
+				return null;
+			}
+			if (partial.received[index]) {
+				return null; // duplicate
+			}
+
+			partial.received[index] = true;
+			partial.receivedCount++;
+			int start = index * MAX_FRAGMENT_PAYLOAD;
+			ByteBuffer target = partial.buffer.duplicate();
+			target.position(start);
+			target.put(data);
+			if (index == count - 1) {
+				partial.length = start + size;
+			}
+			if (partial.receivedCount < count) {
+				return null;
+			}
+
+			partials.remove(key);
+			reassembledCount.incrementAndGet();
+			partial.buffer.position(0).limit(partial.length);
+			return partial.buffer;
+		}
+	}
+
+	/**
+	 * Makes room for one more partial message from a sender by dropping its
+	 * oldest ones, so the sender only ever waits on its own messages
+	 */
+	private void limitPartials(InetSocketAddress sender) {
+		int pending = 0;
+		for (PartialKey key : partials.keySet()) {
+			if (key.sender.equals(sender)) {
+				pending++;
+			}
+		}
+		for (Iterator<Map.Entry<PartialKey, Partial>> it = partials.entrySet().iterator(); it.hasNext()
+				&& pending >= MAX_PARTIALS_PER_SENDER;) {
+			Map.Entry<PartialKey, Partial> entry = it.next();
+			if (entry.getKey().sender.equals(sender)) {
+				it.remove();
+				reassemblyPool.release(entry.getValue().buffer);
+				droppedCount.incrementAndGet();
+				pending--;
+			}
+		}
+	}
+
+	/**
+	 * Returns a message from receive to the pool
+	 */
+	public void release(ByteBuffer message) {
+		reassemblyPool.release(message);
+	}
+
+	/**
+	 * Drops partial messages that have waited too long; oldest are first
+	 */
+	private void expire(long now) {
+		for (Iterator<Partial> it = partials.values().iterator(); it.hasNext();) {
+			Partial partial = it.next();
+			if (now - partial.startedNanos < REASSEMBLY_TIMEOUT_NANOS) {
+				break;
+			}
+			it.remove();
+			reassemblyPool.release(partial.buffer);
+			timedOutCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drops every partial message, e.g. when the connection is closed
+	 */
+	public void clear() {
+		synchronized (partials) {
+			for (Partial partial : partials.values()) {
+				reassemblyPool.release(partial.buffer);
+			}
+			partials.clear();
+		}
+	}
+
+	public long getFragmentedCount() {
+		return fragmentedCount.get();
+	}
+
+	public long getReassembledCount() {
+		return reassembledCount.get();
+	}
+
+	public long getTimedOutCount() {
+		return timedOutCount.get();
+	}
+
+	public String getStatsSummary() {
+		int pending;
+		synchronized (partials) {
+			pending = partials.size();
+		}
+		return String.format("%s fragmentation: %d message(s) fragmented into %d datagrams, %d reassembled,"
+				+ " %d timed out, %d dropped, %d pending", name, fragmentedCount.get(), fragmentsSentCount.get(),
+				reassembledCount.get(), timedOutCount.get(), droppedCount.get(), pending);
+	}
+
+	private static class PartialKey {
+		final InetSocketAddress sender;
+		final int messageId;
+
+		PartialKey(InetSocketAddress sender, int messageId) {
+			this.sender = sender;
+			this.messageId = messageId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof PartialKey)) {
+				return false;
+			}
+			PartialKey other = (PartialKey) o;
+			return messageId == other.messageId && sender.equals(other.sender);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(sender, messageId);
+		}
+	}
+
+	private static class Partial {
+		final ByteBuffer buffer;
+		final int count;
+		final boolean[] received;
+		final long startedNanos;
+		int receivedCount = 0;
+		int length = 0;
+
+		Partial(ByteBuffer buffer, int count, long startedNanos) {
+			this.buffer = buffer;
+			this.count = count;
+			this.received = new boolean[count];
+			this.startedNanos = startedNanos;
+		}
+	}
+}
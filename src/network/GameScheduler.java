@@ -0,0 +1,401 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The process's one timer thread: a hashed timing wheel that drives every
+ * periodic and one-shot task, such as pings, server-list refreshes, LAN
+ * broadcasts, retransmissions and meeting deadlines.
+ *
+ * The wheel has WHEEL_SIZE slots of TICK_MS each. A task goes into the slot
+ * its deadline falls in, with the number of whole turns left before it is
+ * due, so adding, cancelling and firing a task all cost the same however
+ * many are waiting. The thread wakes once per tick, at a time computed from
+ * when it started so sleeps never add up to drift, and fires the slot's due
+ * tasks. A task is never run early and normally at most one tick late.
+ *
+ * A task runs on the wheel thread, so it must be short, or is handed to an
+ * Executor, e.g. a session's event loop or Platform::runLater. Exceptions are
+ * logged and never cancel a periodic task. Every task has a name, and per
+ * name the scheduler keeps how late tasks fired (the timer jitter), how long
+ * they ran, and how often they overran: a periodic task that ran longer than
+ * its period, was still running on the executor when it came due again, or
+ * had periods skipped because the wheel fell behind. The number of live tasks
+ * per name makes a task that is never cancelled, e.g. one per game, show up.
+ *
+ * Scheduling and cancelling are safe from any thread.
+ */
+public class GameScheduler {
+	public static final long TICK_MS = 5;
+	private static final int WHEEL_SIZE = 512; // one turn is 2.56 s
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+	private static final long JOIN_TIMEOUT_MS = 1000;
+
+	private static GameScheduler shared;
+
+	private final String name;
+	private final List<Task>[] wheel;
+	private final Queue<Task> added = new ConcurrentLinkedQueue<>();
+	private final Map<String, Stats> statsByName = new ConcurrentHashMap<>();
+	private final LatencyHistogram tickLateness = new LatencyHistogram();
+	private final AtomicLong lateTickCount = new AtomicLong();
+	private final Thread thread;
+	private final long startNanos;
+	private volatile boolean shutdown = false;
+	private long tick = 0; // wheel thread only
+
+	/**
+	 * A scheduled task, returned so its owner can cancel it
+	 */
+	public static class Task {
+		private final String name;
+		private final Runnable action;
+		private final Executor executor; // null to run on the wheel thread
+		private final long periodNanos; // 0 for a one-shot task
+		private final Stats stats;
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final AtomicBoolean running = new AtomicBoolean();
+
+		// Wheel thread only
+		private long deadlineNanos;
+		private long rounds;
+
+		private Task(String name, Runnable action, Executor executor, long periodNanos, long deadlineNanos,
+				Stats stats) {
+			this.name = name;
+			this.action = action;
+			this.executor = executor;
+			this.periodNanos = periodNanos;
+			this.deadlineNanos = deadlineNanos;
+			this.stats = stats;
+		}
+
+		/**
+		 * Stops the task; a run already under way finishes
+		 *
+		 * @return false if it had already finished or been cancelled
+		 */
+		public boolean cancel() {
+			if (!finished.compareAndSet(false, true)) {
+				return false;
+			}
+			stats.liveCount.decrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Returns whether the task will not run again: a one-shot task that ran,
+		 * or any task that was cancelled
+		 */
+		public boolean isDone() {
+			return finished.get();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		private void run() {
+			long start = System.nanoTime();
+			try {
+				action.run();
+			} catch (Exception e) {
+				System.err.println("Error in scheduled task " + name + ": " + e.getMessage());
+				e.printStackTrace();
+			} finally {
+				long elapsed = System.nanoTime() - start;
+				stats.runTime.record(elapsed);
+				if (periodNanos > 0 && elapsed > periodNanos) {
+					stats.overrunCount.incrementAndGet();
+				}
+				running.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Timing of all tasks of one name
+	 */
+	private static class Stats {
+		final LatencyHistogram lateness = new LatencyHistogram();
+		final LatencyHistogram runTime = new LatencyHistogram();
+		final AtomicLong overrunCount = new AtomicLong();
+		final AtomicInteger liveCount = new AtomicInteger();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public GameScheduler(String name) {
+		this.name = name;
+		this.wheel = new List[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new ArrayList<>();
+		}
+		this.startNanos = System.nanoTime();
+		this.thread = new Thread(this::run, name + "-Scheduler-Thread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the process's scheduler, started on first use or after it was
+	 * shut down
+	 */
+	public static synchronized GameScheduler get() {
+		if (shared == null || shared.isShutdown()) {
+			shared = new GameScheduler("Game");
+		}
+		return shared;
+	}
+
+	/**
+	 * Shuts the process's scheduler down, e.g. when the application exits
+	 */
+	public static synchronized void shutdownShared() {
+		if (shared != null) {
+			shared.shutdown();
+			shared = null;
+		}
+	}
+
+	/**
+	 * Runs action once after delayMillis, on the wheel thread
+	 */
+	public Task schedule(String taskName, long delayMillis, Runnable action) {
+		return schedule(taskName, delayMillis, action, null);
+	}
+
+	/**
+	 * Runs action once after delayMillis, on executor
+	 */
+	public Task schedule(String taskName, long delayMillis, Runnable action, Executor executor) {
+		return add(taskName, action, executor, 0, delayMillis);
+	}
+
+	/**
+	 * Runs action every periodMillis after initialDelayMillis, on the wheel
+	 * thread, until it is cancelled
+	 */
+	public Task scheduleAtFixedRate(String taskName, long initialDelayMillis, long periodMillis, Runnable action) {
+		return scheduleAtFixedRate(taskName, initialDelayMillis, periodMillis, action, null);
+	}
+
+	/**
+	 * Runs action every periodMillis after initialDelayMillis, on executor,
+	 * until it is cancelled. A run still waiting or running on the executor
+	 * when the next one is due makes that one be skipped.
+	 */
+	public Task scheduleAtFixedRate(String taskName, long initialDelayMillis, long periodMillis, Runnable action,
+			Executor executor) {
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("Period of " + taskName + " must be positive");
+		}
+		return add(taskName, action, executor, TimeUnit.MILLISECONDS.toNanos(periodMillis), initialDelayMillis);
+	}
+
+	private Task add(String taskName, Runnable action, Executor executor, long periodNanos, long delayMillis) {
+		Stats stats = statsByName.computeIfAbsent(taskName, n -> new Stats());
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+		Task task = new Task(taskName, action, executor, periodNanos, deadline, stats);
+		stats.liveCount.incrementAndGet();
+		if (shutdown) {
+			task.cancel();
+			System.err.println(name + " scheduler is shut down, " + taskName + " will not run");
+			return task;
+		}
+		added.add(task);
+		return task;
+	}
+
+	/**
+	 * Wheel thread: wakes every tick and fires the tasks due in it
+	 */
+	private void run() {
+		while (!shutdown) {
+			long tickDeadline = startNanos + (tick + 1) * TICK_NANOS;
+			long wait;
+			while ((wait = tickDeadline - System.nanoTime()) > 0 && !shutdown) {
+				LockSupport.parkNanos(this, wait);
+			}
+			if (shutdown) {
+				break;
+			}
+			long now = System.nanoTime();
+			long late = now - tickDeadline;
+			tickLateness.record(late);
+			if (late > TICK_NANOS) {
+				lateTickCount.incrementAndGet();
+			}
+
+			Task task;
+			while ((task = added.poll()) != null) {
+				place(task, tick);
+			}
+			fire(now);
+			tick++;
+		}
+		for (List<Task> slot : wheel) {
+			for (Task task : slot) {
+				task.cancel();
+			}
+			slot.clear();
+		}
+		Task task;
+		while ((task = added.poll()) != null) {
+			task.cancel();
+		}
+	}
+
+	/**
+	 * Puts a task in the slot its deadline falls in, no earlier than minTick
+	 *
+	 * @param minTick the first tick whose slot has not been swept yet; the
+	 *                turns the task waits count from there
+	 */
+	private void place(Task task, long minTick) {
+		if (task.isDone()) {
+			return;
+		}
+		long due = Math.max(minTick, (task.deadlineNanos - startNanos) / TICK_NANOS);
+		task.rounds = (due - minTick) / WHEEL_SIZE;
+		wheel[(int) (due % WHEEL_SIZE)].add(task);
+	}
+
+	private void fire(long now) {
+		List<Task> slot = wheel[(int) (tick % WHEEL_SIZE)];
+		List<Task> due = null;
+		int kept = 0;
+		for (int i = 0; i < slot.size(); i++) {
+			Task task = slot.get(i);
+			if (task.isDone()) {
+				continue; // cancelled
+			}
+			if (task.rounds > 0) {
+				task.rounds--;
+				slot.set(kept++, task);
+				continue;
+			}
+			if (due == null) {
+				due = new ArrayList<>();
+			}
+			due.add(task);
+		}
+		slot.subList(kept, slot.size()).clear();
+		if (due == null) {
+			return;
+		}
+		for (Task task : due) {
+			expire(task, now);
+		}
+	}
+
+	private void expire(Task task, long now) {
+		task.stats.lateness.record(now - task.deadlineNanos);
+		if (task.periodNanos == 0) {
+			if (!task.finished.compareAndSet(false, true)) {
+				return;
+			}
+			task.stats.liveCount.decrementAndGet();
+			start(task);
+			return;
+		}
+
+		start(task);
+		// Fixed rate; periods the wheel fell a whole period behind on are skipped
+		task.deadlineNanos += task.periodNanos;
+		long behind = System.nanoTime() - task.deadlineNanos;
+		if (behind > task.periodNanos) {
+			long skipped = behind / task.periodNanos;
+			task.deadlineNanos += skipped * task.periodNanos;
+			task.stats.overrunCount.addAndGet(skipped);
+		}
+		place(task, tick + 1);
+	}
+
+	private void start(Task task) {
+		if (!task.running.compareAndSet(false, true)) {
+			task.stats.overrunCount.incrementAndGet(); // the last run is not done yet
+			return;
+		}
+		if (task.executor == null) {
+			task.run();
+			return;
+		}
+		try {
+			task.executor.execute(task::run);
+		} catch (RejectedExecutionException e) {
+			// The executor was shut down under the task, so its owner is gone
+			task.running.set(false);
+			task.cancel();
+		}
+	}
+
+	/**
+	 * Stops the wheel thread and cancels every task. Runs already handed to
+	 * an executor finish there.
+	 */
+	public void shutdown() {
+		if (shutdown) {
+			return;
+		}
+		shutdown = true;
+		LockSupport.unpark(thread);
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join(JOIN_TIMEOUT_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	/**
+	 * Returns the number of tasks scheduled and not yet done
+	 */
+	public int getLiveTaskCount() {
+		int count = 0;
+		for (Stats stats : statsByName.values()) {
+			count += stats.liveCount.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the timing of the wheel and of every task name, one per line
+	 */
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder(String.format(
+				"%s scheduler: %d tick(s) of %d ms, late p50=%.3fms p99=%.3fms max=%.3fms, %d more than a tick late,"
+						+ " %d live task(s)",
+				name, tickLateness.getCount(), TICK_MS, tickLateness.getPercentileMillis(50),
+				tickLateness.getPercentileMillis(99), tickLateness.getMaxMillis(), lateTickCount.get(),
+				getLiveTaskCount()));
+		for (Map.Entry<String, Stats> entry : new TreeMap<>(statsByName).entrySet()) {
+			Stats stats = entry.getValue();
+			summary.append(String.format(
+					"%n  %s: %d live, %d run(s), late p50=%.3fms p99=%.3fms max=%.3fms, run p99=%.3fms max=%.3fms,"
+							+ " %d overrun(s)",
+					entry.getKey(), stats.liveCount.get(), stats.runTime.getCount(),
+					stats.lateness.getPercentileMillis(50), stats.lateness.getPercentileMillis(99),
+					stats.lateness.getMaxMillis(), stats.runTime.getPercentileMillis(99),
+					stats.runTime.getMaxMillis(), stats.overrunCount.get()));
+		}
+		return summary.toString();
+	}
+}
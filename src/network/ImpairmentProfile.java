@@ -0,0 +1,277 @@
+package network;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A script of network conditions for the impairment proxy.
+ *
+ * A profile is a list of stages, each holding for a number of seconds, e.g.
+ *
+ * <pre>
+ * # comment
+ * 20s delay=40 jitter=10 loss=1%
+ * 4s  loss=100%
+ * 20s delay=40 jitter=10 loss=1% dup=0.5% reorder=2%
+ * loop
+ * </pre>
+ *
+ * Delay and jitter are one-way, in milliseconds, and apply to each direction.
+ * Loss, duplication and reordering are chances per datagram. Without "loop"
+ * the last stage holds forever. A profile is a built-in name, a file in this
+ * format or a single stage given inline.
+ */
+public class ImpairmentProfile {
+
+	/**
+	 * Conditions of one stage
+	 */
+	public static class Stage {
+		public final long durationMs; // 0 holds forever
+		public final double delayMs;
+		public final double jitterMs;
+		public final double loss;
+		public final double duplicate;
+		public final double reorder;
+
+		public Stage(long durationMs, double delayMs, double jitterMs, double loss, double duplicate,
+				double reorder) {
+			this.durationMs = durationMs;
+			this.delayMs = delayMs;
+			this.jitterMs = jitterMs;
+			this.loss = loss;
+			this.duplicate = duplicate;
+			this.reorder = reorder;
+		}
+
+		/**
+		 * Returns the stage as a profile line, which parses back to the same
+		 * stage
+		 */
+		public String toLine() {
+			return String.format(Locale.ROOT, "%s delay=%s jitter=%s loss=%s%% dup=%s%% reorder=%s%%",
+					durationMs > 0 ? format(durationMs / 1000.0) + "s" : "*", format(delayMs), format(jitterMs),
+					format(loss * 100), format(duplicate * 100), format(reorder * 100));
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "delay %.0f ms +/-%.0f, loss %.1f%%, dup %.1f%%, reorder %.1f%%",
+					delayMs, jitterMs, loss * 100, duplicate * 100, reorder * 100);
+		}
+	}
+
+	// Built-in profiles, from a clean LAN to a link that drops out
+	private static final String[][] BUILT_IN = {
+			{ "lan", "* delay=0" },
+			{ "wifi", "* delay=3 jitter=4 loss=0.5%" },
+			{ "mobile", "* delay=40 jitter=15 loss=2% dup=0.5% reorder=1%" },
+			{ "congested", "* delay=120 jitter=60 loss=8% dup=1% reorder=5%" },
+			// Long enough without pongs for ClientLogic to call the server gone, then back
+			{ "outage", "20s delay=20 jitter=5 loss=1%", "4s loss=100%", "20s delay=20 jitter=5 loss=1%", "loop" },
+			{ "degrading", "15s delay=5 jitter=2", "15s delay=40 jitter=15 loss=2%",
+					"15s delay=120 jitter=60 loss=8% reorder=5%", "15s delay=250 jitter=100 loss=20% reorder=10%",
+					"loop" } };
+
+	private final String name;
+	private final List<Stage> stages;
+	private final boolean loop;
+	private final long cycleMs;
+
+	public ImpairmentProfile(String name, List<Stage> stages, boolean loop) {
+		if (stages.isEmpty()) {
+			throw new IllegalArgumentException("Profile " + name + " has no stages");
+		}
+		this.name = name;
+		this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+		long total = 0;
+		for (Stage stage : stages) {
+			if (stage.durationMs <= 0) {
+				loop = false; // a stage that holds forever ends the script
+				break;
+			}
+			total += stage.durationMs;
+		}
+		this.loop = loop;
+		this.cycleMs = total;
+	}
+
+	/**
+	 * Resolves a built-in name, a profile file or an inline stage such as
+	 * "delay=80 loss=2%"
+	 *
+	 * @throws IllegalArgumentException if the profile is unknown or malformed
+	 */
+	public static ImpairmentProfile load(String spec) throws IOException {
+		for (String[] builtIn : BUILT_IN) {
+			if (builtIn[0].equalsIgnoreCase(spec)) {
+				List<String> lines = new ArrayList<>();
+				for (int i = 1; i < builtIn.length; i++) {
+					lines.add(builtIn[i]);
+				}
+				return parse(builtIn[0], lines);
+			}
+		}
+		Path file = Paths.get(spec);
+		if (Files.isRegularFile(file)) {
+			return parse(file.getFileName().toString(), Files.readAllLines(file, StandardCharsets.UTF_8));
+		}
+		if (spec.contains("=")) {
+			return parse("inline", Collections.singletonList(spec));
+		}
+		throw new IllegalArgumentException("Unknown profile " + spec + ", expected one of " + getBuiltInNames()
+				+ ", a profile file or e.g. \"delay=80 loss=2%\"");
+	}
+
+	/**
+	 * Parses profile lines; blank lines and lines starting with # are skipped
+	 */
+	public static ImpairmentProfile parse(String name, List<String> lines) {
+		List<Stage> stages = new ArrayList<>();
+		boolean loop = false;
+		int lineNumber = 0;
+		for (String raw : lines) {
+			lineNumber++;
+			String line = raw.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			if (line.equalsIgnoreCase("loop")) {
+				loop = true;
+				continue;
+			}
+			try {
+				stages.add(parseStage(line));
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException(name + " line " + lineNumber + ": " + e.getMessage());
+			}
+		}
+		return new ImpairmentProfile(name, stages, loop);
+	}
+
+	private static Stage parseStage(String line) {
+		long durationMs = 0;
+		double delay = 0, jitter = 0, loss = 0, duplicate = 0, reorder = 0;
+		for (String token : line.split("[\\s,]+")) {
+			int equals = token.indexOf('=');
+			if (equals < 0) {
+				if (token.equals("*")) {
+					durationMs = 0;
+				} else if (token.endsWith("s")) {
+					durationMs = Math.round(Double.parseDouble(token.substring(0, token.length() - 1)) * 1000);
+				} else {
+					throw new IllegalArgumentException("Expected a duration such as 10s, got " + token);
+				}
+				continue;
+			}
+			String key = token.substring(0, equals).toLowerCase(Locale.ROOT);
+			String value = token.substring(equals + 1);
+			switch (key) {
+			case "delay":
+				delay = parseMillis(value);
+				break;
+			case "jitter":
+				jitter = parseMillis(value);
+				break;
+			case "loss":
+				loss = parseChance(value);
+				break;
+			case "dup":
+			case "duplicate":
+				duplicate = parseChance(value);
+				break;
+			case "reorder":
+				reorder = parseChance(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown setting " + key);
+			}
+		}
+		return new Stage(durationMs, delay, jitter, loss, duplicate, reorder);
+	}
+
+	private static double parseMillis(String value) {
+		double millis = Double.parseDouble(value.endsWith("ms") ? value.substring(0, value.length() - 2) : value);
+		if (millis < 0) {
+			throw new IllegalArgumentException("Negative time " + value);
+		}
+		return millis;
+	}
+
+	/**
+	 * Parses "2%" or a fraction such as "0.02"
+	 */
+	private static double parseChance(String value) {
+		double chance = value.endsWith("%") ? Double.parseDouble(value.substring(0, value.length() - 1)) / 100
+				: Double.parseDouble(value);
+		if (chance < 0 || chance > 1) {
+			throw new IllegalArgumentException("Chance out of range: " + value);
+		}
+		return chance;
+	}
+
+	private static String format(double value) {
+		return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+	}
+
+	public static String getBuiltInNames() {
+		StringBuilder names = new StringBuilder();
+		for (String[] builtIn : BUILT_IN) {
+			names.append(names.length() == 0 ? "" : ", ").append(builtIn[0]);
+		}
+		return names.toString();
+	}
+
+	/**
+	 * Returns the index of the stage in force after the given time
+	 */
+	public int stageIndexAt(long elapsedMs) {
+		long t = loop ? elapsedMs % cycleMs : elapsedMs;
+		for (int i = 0; i < stages.size(); i++) {
+			long duration = stages.get(i).durationMs;
+			if (duration <= 0 || t < duration) {
+				return i;
+			}
+			t -= duration;
+		}
+		return stages.size() - 1;
+	}
+
+	public Stage stageAt(long elapsedMs) {
+		return stages.get(stageIndexAt(elapsedMs));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<Stage> getStages() {
+		return stages;
+	}
+
+	public boolean isLoop() {
+		return loop;
+	}
+
+	/**
+	 * Returns the profile in its file format, which parses back to the same
+	 * profile
+	 */
+	public List<String> toLines() {
+		List<String> lines = new ArrayList<>();
+		for (Stage stage : stages) {
+			lines.add(stage.toLine());
+		}
+		if (loop) {
+			lines.add("loop");
+		}
+		return lines;
+	}
+}
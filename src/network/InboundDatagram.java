@@ -0,0 +1,73 @@
+package network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One received datagram handed from the I/O thread to the worker stage. The
+ * payload lives in a pooled direct buffer, so release must be called once the
+ * worker is done with it.
+ */
+public class InboundDatagram {
+	private final ByteBuffer data;
+	private final InetSocketAddress sender;
+	private final long receivedNanos;
+	private final BufferPool pool;
+
+	InboundDatagram(ByteBuffer data, InetSocketAddress sender, long receivedNanos, BufferPool pool) {
+		this.data = data;
+		this.sender = sender;
+		this.receivedNanos = receivedNanos;
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the payload, positioned at its first byte
+	 */
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	public int getLength() {
+		return data.limit();
+	}
+
+	/**
+	 * Returns the first byte without moving the buffer, or -1 if empty
+	 */
+	public int peekFirstByte() {
+		return data.limit() > 0 ? data.get(0) : -1;
+	}
+
+	public InetSocketAddress getSocketAddress() {
+		return sender;
+	}
+
+	public InetAddress getAddress() {
+		return sender.getAddress();
+	}
+
+	public int getPort() {
+		return sender.getPort();
+	}
+
+	public long getReceivedNanos() {
+		return receivedNanos;
+	}
+
+	/**
+	 * Decodes the payload as a UTF-8 text message
+	 */
+	public String toText() {
+		return StandardCharsets.UTF_8.decode(data.duplicate().position(0)).toString();
+	}
+
+	/**
+	 * Returns the buffer to the pool. The datagram must not be used afterwards.
+	 */
+	public void release() {
+		pool.release(data);
+	}
+}
@@ -0,0 +1,126 @@
+package network;
+
+/**
+ * Timestamped positions of one remote player, sampled at a render time that
+ * trails the newest snapshot.
+ *
+ * Positions between two samples are interpolated linearly. When the render
+ * time runs past the newest sample, e.g. after a lost or late snapshot, the
+ * last known velocity is extrapolated for a short while and the position is
+ * then held. Jumps larger than a player can walk between two samples (spawn,
+ * ejection) snap instead of sliding across the map.
+ */
+public class InterpolationBuffer {
+	public static final int CAPACITY = 32;
+	public static final double MAX_EXTRAPOLATION_MS = 200;
+	private static final double TELEPORT_DISTANCE = 300;
+
+	/** Result of sample(), describing how the position was obtained */
+	public static final int EMPTY = 0;
+	public static final int INTERPOLATED = 1;
+	public static final int EXTRAPOLATED = 2;
+	public static final int HELD = 3;
+
+	private final double[] times = new double[CAPACITY];
+	private final double[] xs = new double[CAPACITY];
+	private final double[] ys = new double[CAPACITY];
+	private int newest = -1;
+	private int size = 0;
+
+	/**
+	 * Adds a sample. Samples at or before the newest time are ignored, apart
+	 * from an equal time which replaces the newest position.
+	 *
+	 * @param time server time in milliseconds
+	 */
+	public synchronized void add(double time, double x, double y) {
+		if (size > 0 && time <= times[newest]) {
+			if (time == times[newest]) {
+				xs[newest] = x;
+				ys[newest] = y;
+			}
+			return;
+		}
+		newest = (newest + 1) % CAPACITY;
+		times[newest] = time;
+		xs[newest] = x;
+		ys[newest] = y;
+		if (size < CAPACITY) {
+			size++;
+		}
+	}
+
+	/**
+	 * Computes the position at renderTime into out[0] and out[1]
+	 *
+	 * @return EMPTY, INTERPOLATED, EXTRAPOLATED or HELD
+	 */
+	public synchronized int sample(double renderTime, double[] out) {
+		if (size == 0) {
+			return EMPTY;
+		}
+		int oldest = Math.floorMod(newest - size + 1, CAPACITY);
+		if (size == 1 || renderTime <= times[oldest]) {
+			int slot = size == 1 ? newest : oldest;
+			out[0] = xs[slot];
+			out[1] = ys[slot];
+			return HELD;
+		}
+
+		if (renderTime >= times[newest]) {
+			return extrapolate(renderTime, out);
+		}
+
+		// Newest first, the render time is usually within the last few samples
+		int later = newest;
+		for (int i = 1; i < size; i++) {
+			int earlier = Math.floorMod(newest - i, CAPACITY);
+			if (times[earlier] <= renderTime) {
+				double dx = xs[later] - xs[earlier];
+				double dy = ys[later] - ys[earlier];
+				if (dx * dx + dy * dy > TELEPORT_DISTANCE * TELEPORT_DISTANCE) {
+					out[0] = xs[earlier];
+					out[1] = ys[earlier];
+				} else {
+					double t = (renderTime - times[earlier]) / (times[later] - times[earlier]);
+					out[0] = xs[earlier] + dx * t;
+					out[1] = ys[earlier] + dy * t;
+				}
+				return INTERPOLATED;
+			}
+			later = earlier;
+		}
+		out[0] = xs[oldest];
+		out[1] = ys[oldest];
+		return HELD;
+	}
+
+	private int extrapolate(double renderTime, double[] out) {
+		int previous = Math.floorMod(newest - 1, CAPACITY);
+		double span = times[newest] - times[previous];
+		double ahead = Math.min(renderTime - times[newest], MAX_EXTRAPOLATION_MS);
+		double dx = xs[newest] - xs[previous];
+		double dy = ys[newest] - ys[previous];
+		if (ahead <= 0 || span <= 0 || dx * dx + dy * dy > TELEPORT_DISTANCE * TELEPORT_DISTANCE) {
+			out[0] = xs[newest];
+			out[1] = ys[newest];
+			return HELD;
+		}
+		out[0] = xs[newest] + dx / span * ahead;
+		out[1] = ys[newest] + dy / span * ahead;
+		return renderTime - times[newest] > MAX_EXTRAPOLATION_MS ? HELD : EXTRAPOLATED;
+	}
+
+	public synchronized double getNewestTime() {
+		return size == 0 ? Double.NaN : times[newest];
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void clear() {
+		newest = -1;
+		size = 0;
+	}
+}
@@ -0,0 +1,123 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format of LAN discovery.
+ *
+ * A server broadcasts a beacon to BEACON_PORT every second, and answers a
+ * query broadcast to QUERY_PORT with a beacon sent straight back, so a client
+ * that just opened the server list need not wait for the next round. Every
+ * server on a host binds QUERY_PORT with address reuse, so they all hear the
+ * query.
+ *
+ * Query:  [op][version][nonce i32][zero padding to QUERY_SIZE]
+ * Beacon: [op][version][nonce i32][game port u16][players u8][max u8]
+ *         [phase u8][name length u8][name UTF-8]
+ *
+ * An unsolicited beacon has nonce 0; an answer echoes the query's, which
+ * lets the client time the round trip. The query is padded to about the size
+ * of an answer so a spoofed one cannot be turned into a flood.
+ */
+public class LanDiscovery {
+	public static final int QUERY_PORT = 4445;
+	public static final int BEACON_PORT = 4446;
+	public static final byte OP_QUERY = (byte) 0xB1;
+	public static final byte OP_BEACON = (byte) 0xB2;
+	private static final byte VERSION = 1;
+
+	public static final int NO_NONCE = 0;
+	public static final int PHASE_LOBBY = 0;
+	public static final int PHASE_PLAYING = 1;
+
+	public static final int QUERY_SIZE = 16;
+	private static final int BEACON_HEADER_SIZE = 12;
+	public static final int MAX_NAME_BYTES = 48;
+	public static final int MAX_BEACON_SIZE = BEACON_HEADER_SIZE + MAX_NAME_BYTES;
+
+	/**
+	 * What a beacon tells about a server, reused between reads
+	 */
+	public static class Beacon {
+		public int nonce = NO_NONCE;
+		public int gamePort;
+		public int players;
+		public int maxPlayers;
+		public int phase = PHASE_LOBBY;
+		public String name = "";
+	}
+
+	public static byte[] encodeQuery(int nonce) {
+		return ByteBuffer.allocate(QUERY_SIZE).put(OP_QUERY).put(VERSION).putInt(nonce).array();
+	}
+
+	/**
+	 * Returns the nonce of the query at the buffer's position, or NO_NONCE if
+	 * it is not a valid query
+	 */
+	public static int readQuery(ByteBuffer data) {
+		if (data.remaining() < QUERY_SIZE || data.get(data.position()) != OP_QUERY
+				|| data.get(data.position() + 1) != VERSION) {
+			return NO_NONCE;
+		}
+		return data.getInt(data.position() + 2);
+	}
+
+	/**
+	 * Encodes a beacon; the name is cut to MAX_NAME_BYTES, counts to a byte
+	 */
+	public static byte[] encodeBeacon(Beacon beacon) {
+		byte[] name = truncate(beacon.name);
+		return ByteBuffer.allocate(BEACON_HEADER_SIZE + name.length).put(OP_BEACON).put(VERSION)
+				.putInt(beacon.nonce).putShort((short) beacon.gamePort).put((byte) clamp(beacon.players))
+				.put((byte) clamp(beacon.maxPlayers)).put((byte) beacon.phase).put((byte) name.length).put(name)
+				.array();
+	}
+
+	/**
+	 * Reads the beacon at the buffer's position into beacon
+	 *
+	 * @return false if it is not a valid beacon
+	 */
+	public static boolean readBeacon(ByteBuffer data, Beacon beacon) {
+		int start = data.position();
+		if (data.remaining() < BEACON_HEADER_SIZE || data.get(start) != OP_BEACON || data.get(start + 1) != VERSION) {
+			return false;
+		}
+		int nameLength = data.get(start + 11) & 0xFF;
+		if (nameLength > MAX_NAME_BYTES || data.remaining() < BEACON_HEADER_SIZE + nameLength) {
+			return false;
+		}
+		beacon.nonce = data.getInt(start + 2);
+		beacon.gamePort = data.getShort(start + 6) & 0xFFFF;
+		beacon.players = data.get(start + 8) & 0xFF;
+		beacon.maxPlayers = data.get(start + 9) & 0xFF;
+		beacon.phase = data.get(start + 10);
+		ByteBuffer name = data.duplicate();
+		name.position(start + BEACON_HEADER_SIZE).limit(start + BEACON_HEADER_SIZE + nameLength);
+		beacon.name = StandardCharsets.UTF_8.decode(name).toString();
+		return true;
+	}
+
+	/**
+	 * Cuts a name to MAX_NAME_BYTES without splitting a character
+	 */
+	private static byte[] truncate(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= MAX_NAME_BYTES) {
+			return bytes;
+		}
+		int end = MAX_NAME_BYTES;
+		while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+			end--; // back to the first byte of the character that does not fit
+		}
+		byte[] cut = new byte[end];
+		System.arraycopy(bytes, 0, cut, 0, end);
+		return cut;
+	}
+
+	private static int clamp(int count) {
+		return Math.max(0, Math.min(255, count));
+	}
+}
@@ -0,0 +1,77 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two nanosecond buckets. Bucket i
+ * counts samples in [2^i, 2^(i+1)) ns, so percentiles are accurate to within a
+ * factor of two, which is plenty to tell a 20 us handler from a 2 ms one.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 40; // up to ~18 minutes
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos | 1));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMillis() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / (double) n / 1_000_000.0;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1_000_000.0;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket holding the given percentile
+	 *
+	 * @param percentile 0 to 100
+	 */
+	public double getPercentileMillis(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min((1L << (i + 1)), Math.max(maxNanos.get(), 1)) / 1_000_000.0;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	public String getSummary() {
+		return String.format("n=%d p50=%.3fms p99=%.3fms max=%.3fms", getCount(), getPercentileMillis(50),
+				getPercentileMillis(99), getMaxMillis());
+	}
+}
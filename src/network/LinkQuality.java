@@ -0,0 +1,205 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Quality of one link, measured with the heartbeat.
+ *
+ * Every PING is a probe carrying a sequence number, and the PONG echoes it,
+ * which gives one round-trip sample. The round trip is smoothed like TCP's
+ * SRTT (RFC 6298), jitter is the smoothed difference between consecutive
+ * samples (RFC 3550), and the loss rate is the share of the last WINDOW probes
+ * that were never echoed. Outbound bandwidth is the bytes sent per second,
+ * smoothed over a few seconds.
+ *
+ * The send rate and interpolation delay can adapt to these figures; they are
+ * safe to read from any thread.
+ */
+public class LinkQuality {
+	public static final int WINDOW = 64;
+	public static final int PROBE_SIZE = 1 + 4; // opcode and sequence
+
+	private static final double RTT_GAIN = 1.0 / 8;
+	private static final double JITTER_GAIN = 1.0 / 16;
+	private static final double BANDWIDTH_GAIN = 1.0 / 4;
+	private static final long PROBE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+	private static final long BANDWIDTH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	// Probes by sequence % WINDOW
+	private final int[] probeSequences = new int[WINDOW];
+	private final long[] probeSentNanos = new long[WINDOW];
+	private final boolean[] probeEchoed = new boolean[WINDOW];
+	private int nextSequence = 0;
+
+	private double smoothedRttMillis = -1;
+	private double jitterMillis = 0;
+	private double lastRttMillis = -1;
+	private long sampleCount = 0;
+
+	private final AtomicLong bytesSent = new AtomicLong();
+	private long bandwidthSampleNanos = 0;
+	private long bandwidthSampleBytes = 0;
+	private double bytesPerSecond = 0;
+
+	public LinkQuality() {
+		reset();
+	}
+
+	/**
+	 * Builds a probe, PING or PONG, carrying a sequence number
+	 */
+	public static byte[] encodeProbe(int opcode, int sequence) {
+		return ByteBuffer.allocate(PROBE_SIZE).put((byte) opcode).putInt(sequence).array();
+	}
+
+	/**
+	 * Returns the sequence of the probe at the buffer's position, or -1 if it
+	 * carries none, e.g. from an older client
+	 */
+	public static int readProbeSequence(ByteBuffer data) {
+		return data.remaining() >= PROBE_SIZE ? data.getInt(data.position() + 1) : -1;
+	}
+
+	/**
+	 * Records that a probe is being sent
+	 *
+	 * @return its sequence number
+	 */
+	public synchronized int nextProbe(long nowNanos) {
+		int sequence = nextSequence++ & Integer.MAX_VALUE;
+		int slot = sequence % WINDOW;
+		probeSequences[slot] = sequence;
+		probeSentNanos[slot] = nowNanos;
+		probeEchoed[slot] = false;
+		sampleBandwidth(nowNanos);
+		return sequence;
+	}
+
+	/**
+	 * Records the echo of a probe
+	 *
+	 * @return the round trip in nanoseconds, or -1 if the probe is unknown, too
+	 *         old or was already echoed
+	 */
+	public synchronized long onEcho(int sequence, long nowNanos) {
+		if (sequence < 0) {
+			return -1;
+		}
+		int slot = sequence % WINDOW;
+		if (probeSequences[slot] != sequence || probeEchoed[slot]) {
+			return -1;
+		}
+		probeEchoed[slot] = true;
+		long roundTripNanos = nowNanos - probeSentNanos[slot];
+		double rtt = roundTripNanos / 1_000_000.0;
+		if (smoothedRttMillis < 0) {
+			smoothedRttMillis = rtt;
+		} else {
+			smoothedRttMillis += RTT_GAIN * (rtt - smoothedRttMillis);
+		}
+		if (lastRttMillis >= 0) {
+			jitterMillis += JITTER_GAIN * (Math.abs(rtt - lastRttMillis) - jitterMillis);
+		}
+		lastRttMillis = rtt;
+		sampleCount++;
+		return roundTripNanos;
+	}
+
+	/**
+	 * Counts bytes sent over the link. Lock-free, it is called for every
+	 * datagram.
+	 */
+	public void onBytesSent(int bytes) {
+		bytesSent.addAndGet(bytes);
+	}
+
+	private void sampleBandwidth(long nowNanos) {
+		if (bandwidthSampleNanos == 0) {
+			bandwidthSampleNanos = nowNanos;
+			bandwidthSampleBytes = bytesSent.get();
+			return;
+		}
+		long elapsed = nowNanos - bandwidthSampleNanos;
+		if (elapsed < BANDWIDTH_INTERVAL_NANOS) {
+			return;
+		}
+		long bytes = bytesSent.get();
+		double rate = (bytes - bandwidthSampleBytes) * 1e9 / elapsed;
+		bytesPerSecond = bytesPerSecond == 0 ? rate : bytesPerSecond + BANDWIDTH_GAIN * (rate - bytesPerSecond);
+		bandwidthSampleNanos = nowNanos;
+		bandwidthSampleBytes = bytes;
+	}
+
+	/**
+	 * Returns the smoothed round trip in milliseconds, or -1 before the first
+	 * echo
+	 */
+	public synchronized double getRttMillis() {
+		return smoothedRttMillis;
+	}
+
+	public synchronized double getJitterMillis() {
+		return jitterMillis;
+	}
+
+	/**
+	 * Returns the share of recent probes that were never echoed, 0 to 1.
+	 * Probes younger than the timeout are not counted yet.
+	 */
+	public synchronized double getLossRate() {
+		long now = System.nanoTime();
+		int settled = 0;
+		int lost = 0;
+		for (int slot = 0; slot < WINDOW; slot++) {
+			if (probeSequences[slot] < 0 || now - probeSentNanos[slot] < PROBE_TIMEOUT_NANOS) {
+				continue;
+			}
+			settled++;
+			if (!probeEchoed[slot]) {
+				lost++;
+			}
+		}
+		return settled == 0 ? 0 : (double) lost / settled;
+	}
+
+	/**
+	 * Returns the bytes sent per second, updated with every probe
+	 */
+	public synchronized double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public synchronized long getSampleCount() {
+		return sampleCount;
+	}
+
+	public synchronized void reset() {
+		for (int slot = 0; slot < WINDOW; slot++) {
+			probeSequences[slot] = -1;
+			probeEchoed[slot] = false;
+		}
+		nextSequence = 0;
+		smoothedRttMillis = -1;
+		jitterMillis = 0;
+		lastRttMillis = -1;
+		sampleCount = 0;
+		bytesSent.set(0);
+		bandwidthSampleNanos = 0;
+		bandwidthSampleBytes = 0;
+		bytesPerSecond = 0;
+	}
+
+	public synchronized String getSummary() {
+		if (smoothedRttMillis < 0) {
+			return String.format("rtt -, loss %.1f%%, out %.1f kB/s", getLossRate() * 100, bytesPerSecond / 1000);
+		}
+		return String.format("rtt %.1f ms, jitter %.1f ms, loss %.1f%%, out %.1f kB/s", smoothedRttMillis,
+				jitterMillis, getLossRate() * 100, bytesPerSecond / 1000);
+	}
+}
@@ -0,0 +1,93 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/**
+ * One-byte opcodes for the text messages exchanged between client and server.
+ *
+ * Wire format: [opcode][UTF-8 body]. The body is what used to follow the
+ * "/prefix/" of the old text protocol, so callers keep building messages as
+ * "/kill/" + json and encode turns the prefix into its opcode. Anything
+ * without a known prefix is plain chat. Binary packets use the 0xA0 range
+ * (see PlayerStateCodec and ReliableChannel).
+ */
+public class MessageCodec {
+	public static final int OP_NAME = 0x01;
+	public static final int OP_PING = 0x02;
+	public static final int OP_PONG = 0x03;
+	public static final int OP_HANDSHAKE = 0x04;
+	public static final int OP_HANDSHAKE_ACK = 0x05;
+	public static final int OP_LIST_REQUEST = 0x06;
+	public static final int OP_LIST = 0x07;
+	public static final int OP_CHAT = 0x10;
+	public static final int OP_RELAYED_CHAT = 0x11;
+	public static final int OP_SERVER_CHAT = 0x12;
+	public static final int OP_KILL = 0x20;
+	public static final int OP_REPORT = 0x21;
+	public static final int OP_MEETING = 0x22;
+	public static final int OP_VOTE = 0x23;
+	public static final int OP_RESULTS = 0x24;
+	public static final int OP_EJECTION = 0x25;
+	public static final int OP_RESYNC = 0x26;
+	public static final int OP_PHASE = 0x27;
+
+	// Exact messages first, then prefixes; order matters for "/sys/" entries
+	private static final String[] PREFIXES = { "/sys/PING", "/sys/PONG", "/sys/Test_Handshake", "/sys/ACK",
+			"/sys/ls", "/name/", "/ls/", "/r/", "/sname/", "/kill/", "/report/", "/meeting/", "/vote/", "/results/",
+			"/ejection/", "/resync/", "/phase/" };
+	private static final int[] PREFIX_OPCODES = { OP_PING, OP_PONG, OP_HANDSHAKE, OP_HANDSHAKE_ACK,
+			OP_LIST_REQUEST, OP_NAME, OP_LIST, OP_RELAYED_CHAT, OP_SERVER_CHAT, OP_KILL, OP_REPORT, OP_MEETING,
+			OP_VOTE, OP_RESULTS, OP_EJECTION, OP_RESYNC, OP_PHASE };
+
+	/**
+	 * Encodes a message written in the "/prefix/body" form
+	 */
+	public static byte[] encode(String message) {
+		for (int i = 0; i < PREFIXES.length; i++) {
+			if (message.startsWith(PREFIXES[i])) {
+				return encode(PREFIX_OPCODES[i], message.substring(PREFIXES[i].length()));
+			}
+		}
+		return encode(OP_CHAT, message);
+	}
+
+	public static byte[] encode(int opcode, String body) {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		byte[] message = new byte[bytes.length + 1];
+		message[0] = (byte) opcode;
+		System.arraycopy(bytes, 0, message, 1, bytes.length);
+		return message;
+	}
+
+	/**
+	 * Returns the opcode of an encoded message
+	 */
+	public static int opcodeOf(byte[] message) {
+		return message.length == 0 ? -1 : message[0] & 0xFF;
+	}
+
+	/**
+	 * Decodes the body of the message at the buffer's position
+	 */
+	public static String readText(ByteBuffer data) {
+		ByteBuffer body = data.duplicate();
+		body.position(body.position() + 1);
+		return StandardCharsets.UTF_8.decode(body).toString();
+	}
+
+	public static JSONObject readJson(ByteBuffer data) {
+		return new JSONObject(readText(data));
+	}
+
+	/**
+	 * Cheap check that a body can be a JSON object, so garbage is rejected before
+	 * anything is decoded
+	 */
+	public static boolean looksLikeJson(ByteBuffer data) {
+		int start = data.position() + 1;
+		return data.limit() - start >= 2 && data.get(start) == '{' && data.get(data.limit() - 1) == '}';
+	}
+}
@@ -0,0 +1,159 @@
+package network;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Routes incoming packets to handlers through a table indexed by their first
+ * byte, replacing chains of startsWith checks on decoded strings.
+ *
+ * Unknown opcodes and packets shorter than a handler's minimum are rejected
+ * before anything is decoded or allocated. Each opcode keeps a count and a
+ * latency histogram of its handler.
+ */
+public class MessageDispatcher {
+	/**
+	 * Handles a packet whose buffer is positioned at the opcode
+	 */
+	public interface Handler {
+		void handle(ByteBuffer data, InetSocketAddress sender) throws Exception;
+	}
+
+	public interface TextHandler {
+		void handle(String body, InetSocketAddress sender) throws Exception;
+	}
+
+	public interface JsonHandler {
+		void handle(JSONObject body, InetSocketAddress sender) throws Exception;
+	}
+
+	private final String name;
+	private final Handler[] handlers = new Handler[256];
+	private final String[] names = new String[256];
+	private final int[] minLengths = new int[256];
+	private final LatencyHistogram[] latencies = new LatencyHistogram[256];
+	private final AtomicLongArray counts = new AtomicLongArray(256);
+	private final AtomicLong unknownCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+
+	public MessageDispatcher(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Registers a handler for an opcode
+	 *
+	 * @param opcode    the opcode's byte value, signed or not
+	 * @param minLength smallest valid packet, opcode included
+	 */
+	public void register(int opcode, String handlerName, int minLength, Handler handler) {
+		opcode &= 0xFF;
+		handlers[opcode] = handler;
+		names[opcode] = handlerName;
+		minLengths[opcode] = Math.max(1, minLength);
+		latencies[opcode] = new LatencyHistogram();
+	}
+
+	/**
+	 * Registers a handler that gets the UTF-8 body after the opcode
+	 */
+	public void registerText(int opcode, String handlerName, TextHandler handler) {
+		register(opcode, handlerName, 1, (data, sender) -> handler.handle(MessageCodec.readText(data), sender));
+	}
+
+	/**
+	 * Registers a handler that gets the body parsed as a JSON object. Bodies
+	 * that cannot be one are rejected without being parsed.
+	 */
+	public void registerJson(int opcode, String handlerName, JsonHandler handler) {
+		register(opcode, handlerName, 3, (data, sender) -> {
+			if (!MessageCodec.looksLikeJson(data)) {
+				rejectedCount.incrementAndGet();
+				return;
+			}
+			handler.handle(MessageCodec.readJson(data), sender);
+		});
+	}
+
+	/**
+	 * Hands a packet to the handler for its opcode
+	 *
+	 * @return false if the packet was rejected or its handler failed
+	 */
+	public boolean dispatch(ByteBuffer data, InetSocketAddress sender) {
+		if (!data.hasRemaining()) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		int opcode = data.get(data.position()) & 0xFF;
+		Handler handler = handlers[opcode];
+		if (handler == null) {
+			unknownCount.incrementAndGet();
+			return false;
+		}
+		if (data.remaining() < minLengths[opcode]) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+
+		long start = System.nanoTime();
+		try {
+			handler.handle(data, sender);
+			return true;
+		} catch (JSONException e) {
+			errorCount.incrementAndGet();
+			System.err.println(name + ": Malformed " + names[opcode] + " from " + sender + ": " + e.getMessage());
+			return false;
+		} catch (Exception e) {
+			errorCount.incrementAndGet();
+			System.err.println(name + ": Error handling " + names[opcode] + " from " + sender + ": " + e.getMessage());
+			e.printStackTrace();
+			return false;
+		} finally {
+			latencies[opcode].record(System.nanoTime() - start);
+			counts.incrementAndGet(opcode);
+		}
+	}
+
+	public boolean isRegistered(int opcode) {
+		return handlers[opcode & 0xFF] != null;
+	}
+
+	public long getCount(int opcode) {
+		return counts.get(opcode & 0xFF);
+	}
+
+	public LatencyHistogram getLatency(int opcode) {
+		return latencies[opcode & 0xFF];
+	}
+
+	public long getUnknownCount() {
+		return unknownCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	public String getStatsSummary() {
+		StringBuilder summary = new StringBuilder(name).append(" dispatch: ").append(unknownCount.get())
+				.append(" unknown, ").append(rejectedCount.get()).append(" rejected, ").append(errorCount.get())
+				.append(" errors");
+		for (int op = 0; op < 256; op++) {
+			if (counts.get(op) > 0) {
+				summary.append(String.format("%n  0x%02X %-14s %s", op, names[op], latencies[op].getSummary()));
+			}
+		}
+		return summary.toString();
+	}
+}
@@ -0,0 +1,281 @@
+package network;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts datagrams on the wire from one writer thread, so the threads that
+ * produce them, session loops and the retransmit timer, never wait on the
+ * socket.
+ *
+ * Every peer has its own bounded queue. The writer serves the peers with
+ * something queued in turn, up to BATCH_SIZE datagrams each, so a peer with a
+ * backlog, e.g. the reliable messages of a match start, does not hold up the
+ * others. When the socket's send buffer is full the writer backs off for
+ * STALL_MICROS and retries the same datagram instead of dropping it; the
+ * queues fill up meanwhile, and a datagram for a peer whose queue is full is
+ * dropped and counted at once. That is the backpressure a sender sees, as
+ * false from enqueue; reliable messages get through on retransmission.
+ *
+ * Buffers are queued as they are, without a copy, so the caller must not
+ * change them afterwards. Read-only views of one shared buffer, as a
+ * broadcast hands out, take care of that.
+ */
+public class OutboundWriter {
+	public static final int DEFAULT_PEER_CAPACITY = 256;
+	private static final int BATCH_SIZE = 16;
+	private static final long STALL_MICROS = 200;
+	private static final long IDLE_PARK_MS = 100; // enqueue wakes the writer, this is only a safety net
+	private static final long CLOSE_DRAIN_MS = 200;
+
+	private final String name;
+	private final UdpEventLoop loop;
+	private final int peerCapacity;
+	private final ConcurrentHashMap<SocketAddress, PeerQueue> peers = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<PeerQueue> ready = new ConcurrentLinkedQueue<>();
+	private Thread writerThread;
+	private volatile boolean open = false;
+	private volatile boolean closing = false;
+
+	private final AtomicLong enqueuedCount = new AtomicLong();
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong backpressureDropCount = new AtomicLong();
+	private final AtomicLong stallCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicInteger deepestQueue = new AtomicInteger();
+
+	/**
+	 * The datagrams waiting for one peer
+	 */
+	private static class PeerQueue {
+		final SocketAddress target;
+		final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>(); // guarded by this
+		boolean scheduled = false; // in the ready queue or being written, guarded by this
+
+		PeerQueue(SocketAddress target) {
+			this.target = target;
+		}
+	}
+
+	public OutboundWriter(String name, UdpEventLoop loop) {
+		this(name, loop, DEFAULT_PEER_CAPACITY);
+	}
+
+	/**
+	 * @param peerCapacity datagrams queued per peer before new ones are dropped
+	 */
+	public OutboundWriter(String name, UdpEventLoop loop, int peerCapacity) {
+		this.name = name;
+		this.loop = loop;
+		this.peerCapacity = peerCapacity;
+	}
+
+	public synchronized void start() {
+		if (open) {
+			return;
+		}
+		open = true;
+		closing = false;
+		writerThread = new Thread(this::run, name + "-Writer-Thread");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queues the remaining bytes of data for target
+	 *
+	 * @return false if the peer's queue is full and the datagram was dropped
+	 * @throws SocketException if the writer is closed
+	 */
+	public boolean enqueue(ByteBuffer data, SocketAddress target) throws SocketException {
+		if (!open || closing) {
+			throw new SocketException("Socket closed");
+		}
+		PeerQueue peer = peers.computeIfAbsent(target, PeerQueue::new);
+		boolean wake;
+		synchronized (peer) {
+			if (peer.queue.size() >= peerCapacity) {
+				backpressureDropCount.incrementAndGet();
+				return false;
+			}
+			peer.queue.add(data);
+			int depth = peer.queue.size();
+			if (depth > deepestQueue.get()) {
+				deepestQueue.accumulateAndGet(depth, Math::max);
+			}
+			wake = !peer.scheduled;
+			peer.scheduled = true;
+		}
+		enqueuedCount.incrementAndGet();
+		if (wake) {
+			ready.add(peer);
+			LockSupport.unpark(writerThread);
+		}
+		return true;
+	}
+
+	/**
+	 * Writer thread: serves the ready peers round-robin until closed, then
+	 * drains what is left for up to CLOSE_DRAIN_MS
+	 */
+	private void run() {
+		long drainDeadline = 0;
+		while (true) {
+			if (closing) {
+				if (drainDeadline == 0) {
+					drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_DRAIN_MS);
+				} else if (System.nanoTime() - drainDeadline > 0) {
+					break;
+				}
+			}
+			PeerQueue peer = ready.poll();
+			if (peer == null) {
+				if (closing) {
+					break;
+				}
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(IDLE_PARK_MS));
+				continue;
+			}
+			if (!write(peer)) {
+				break;
+			}
+		}
+		open = false;
+	}
+
+	/**
+	 * Sends up to BATCH_SIZE of the peer's datagrams, then puts it back at the
+	 * end of the line if it has more
+	 *
+	 * @return false once the socket is closed, or stays full while closing
+	 */
+	private boolean write(PeerQueue peer) {
+		int sent = 0;
+		while (sent < BATCH_SIZE) {
+			ByteBuffer data;
+			synchronized (peer) {
+				data = peer.queue.peek();
+				if (data == null) {
+					peer.scheduled = false; // the next enqueue puts it back in line
+					break;
+				}
+			}
+			try {
+				if (!loop.trySend(data, peer.target)) {
+					stallCount.incrementAndGet();
+					LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(STALL_MICROS));
+					if (closing) {
+						return false; // no time to wait for the socket
+					}
+					continue;
+				}
+				sentCount.incrementAndGet();
+				sent++;
+			} catch (IOException e) {
+				if (!loop.isOpen()) {
+					return false;
+				}
+				failedCount.incrementAndGet(); // e.g. an unreachable peer; UDP would lose it too
+			}
+			synchronized (peer) {
+				peer.queue.poll();
+			}
+		}
+		if (sent > 0) {
+			batchCount.incrementAndGet();
+		}
+		if (sent == BATCH_SIZE) {
+			synchronized (peer) {
+				if (peer.queue.isEmpty()) {
+					peer.scheduled = false;
+					return true;
+				}
+			}
+			ready.add(peer);
+		}
+		return true;
+	}
+
+	/**
+	 * Drops whatever is still queued for a peer that left
+	 */
+	public void removePeer(SocketAddress target) {
+		PeerQueue peer = peers.remove(target);
+		if (peer != null) {
+			synchronized (peer) {
+				peer.queue.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of datagrams waiting for a peer
+	 */
+	public int getQueueDepth(SocketAddress target) {
+		PeerQueue peer = peers.get(target);
+		if (peer == null) {
+			return 0;
+		}
+		synchronized (peer) {
+			return peer.queue.size();
+		}
+	}
+
+	/**
+	 * Stops taking datagrams and waits for the writer to send what is queued,
+	 * for at most CLOSE_DRAIN_MS. Call before closing the event loop.
+	 */
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			if (!open || closing) {
+				return;
+			}
+			closing = true;
+			thread = writerThread;
+		}
+		LockSupport.unpark(thread);
+		try {
+			thread.join(CLOSE_DRAIN_MS * 2);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (PeerQueue peer : peers.values()) {
+			synchronized (peer) {
+				peer.queue.clear();
+			}
+		}
+		peers.clear();
+		ready.clear();
+	}
+
+	public boolean isOpen() {
+		return open && !closing;
+	}
+
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	public long getBackpressureDropCount() {
+		return backpressureDropCount.get();
+	}
+
+	public String getStatsSummary() {
+		long batches = batchCount.get();
+		return String.format("%s writer: %d queued, %d sent in %d batch(es) of %.1f, %d dropped by backpressure,"
+				+ " %d stall(s) on a full socket, %d failed, deepest queue %d/%d", name, enqueuedCount.get(),
+				sentCount.get(), batches, batches == 0 ? 0.0 : sentCount.get() / (double) batches,
+				backpressureDropCount.get(), stallCount.get(), failedCount.get(), deepestQueue.get(), peerCapacity);
+	}
+}
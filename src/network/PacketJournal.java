@@ -0,0 +1,307 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of every datagram a socket received and sent, for
+ * replaying a match after it ended.
+ *
+ * The journal is a directory of fixed-size segment files, each mapped into
+ * memory, so appending a datagram is a copy into the page cache with no
+ * system call; the OS writes the pages out in the background, and they
+ * survive the process crashing. A full segment is left behind and the next
+ * one mapped.
+ *
+ * Each record holds its kind, a peer id, the time since the journal started
+ * from the monotonic clock, and the datagram. Peer ids are announced with a
+ * PEER record the first time a peer appears in a segment, so every segment
+ * can be read on its own. A record's length is written last, as the body's
+ * length plus one so an empty datagram is not mistaken for the end, and the
+ * unused tail of a segment is zeros, so a reader stops cleanly at the last
+ * complete record.
+ *
+ * Appends may come from any thread; they take a short lock.
+ */
+public class PacketJournal {
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	public static final byte INBOUND = 0;
+	public static final byte OUTBOUND = 1;
+	public static final byte PEER = 2;
+
+	private static final int MAGIC = 0x504A4E4C; // "PJNL"
+	private static final short VERSION = 2; // 2: lengths are stored plus one
+	private static final int SEGMENT_HEADER_SIZE = 4 + 2 + 4 + 8; // magic, version, index, start time
+	private static final int RECORD_HEADER_SIZE = 4 + 1 + 2 + 8; // length, kind, peer, nanos
+	private static final int MAX_PEERS = 0x10000; // ids travel as a short
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".pjl";
+
+	private final Path directory;
+	private final int segmentSize;
+	private final long startNanos;
+	private final long startMillis;
+	private final Map<SocketAddress, Integer> peerIds = new HashMap<>();
+	private MappedByteBuffer segment;
+	private int segmentIndex = -1;
+	private boolean closed = false;
+
+	private long recordCount = 0;
+	private long byteCount = 0;
+	private long oversizeCount = 0;
+
+	/**
+	 * Creates the directory if needed and maps the first segment. Segments
+	 * already in the directory are overwritten.
+	 */
+	public PacketJournal(Path directory, int segmentSize) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.startNanos = System.nanoTime();
+		this.startMillis = System.currentTimeMillis();
+		Files.createDirectories(directory);
+		for (Path old : listSegments(directory)) {
+			Files.delete(old);
+		}
+		nextSegment();
+	}
+
+	/**
+	 * Records a datagram that arrived. The buffer's position is not moved.
+	 */
+	public void recordInbound(ByteBuffer data, SocketAddress sender, long receivedNanos) {
+		append(INBOUND, sender, receivedNanos, data);
+	}
+
+	/**
+	 * Records a datagram that was sent. The buffer's position is not moved.
+	 */
+	public void recordOutbound(ByteBuffer data, SocketAddress target) {
+		append(OUTBOUND, target, System.nanoTime(), data);
+	}
+
+	private synchronized void append(byte kind, SocketAddress peer, long nanos, ByteBuffer data) {
+		if (closed) {
+			return;
+		}
+		int length = data.remaining();
+		if (SEGMENT_HEADER_SIZE + 2 * RECORD_HEADER_SIZE + 32 + length > segmentSize) {
+			oversizeCount++; // could never fit, even in an empty segment
+			return;
+		}
+		try {
+			// Room for the record and a PEER record, whose address takes at most 19 bytes
+			if (segment.remaining() < RECORD_HEADER_SIZE + length + RECORD_HEADER_SIZE + 32) {
+				nextSegment();
+			}
+			Integer id = peerIds.get(peer);
+			if (id == null) {
+				id = announcePeer(peer, nanos);
+			}
+			writeRecord(kind, id, nanos, data.duplicate());
+		} catch (IOException e) {
+			System.err.println("Journal error, recording stopped: " + e.getMessage());
+			e.printStackTrace();
+			closed = true;
+		}
+	}
+
+	private int announcePeer(SocketAddress peer, long nanos) {
+		if (peerIds.size() >= MAX_PEERS) {
+			peerIds.clear(); // ids are announced again, and a reader takes the latest
+		}
+		int id = peerIds.size();
+		peerIds.put(peer, id);
+		InetSocketAddress address = (InetSocketAddress) peer;
+		byte[] ip = address.getAddress().getAddress();
+		ByteBuffer body = ByteBuffer.allocate(1 + ip.length + 2);
+		body.put((byte) ip.length).put(ip).putShort((short) address.getPort()).flip();
+		writeRecord(PEER, id, nanos, body);
+		return id;
+	}
+
+	private void writeRecord(byte kind, int peer, long nanos, ByteBuffer data) {
+		int start = segment.position();
+		int length = data.remaining();
+		segment.position(start + 4);
+		segment.put(kind).putShort((short) peer).putLong(nanos - startNanos).put(data);
+		segment.putInt(start, length + 1); // last, so a reader never sees half a record; 0 ends the segment
+		recordCount++;
+		byteCount += length;
+	}
+
+	private void nextSegment() throws IOException {
+		segmentIndex++;
+		peerIds.clear();
+		Path file = directory.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			// The mapping stays valid after the channel is closed
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+		segment.putInt(MAGIC).putShort(VERSION).putInt(segmentIndex).putLong(startMillis);
+	}
+
+	/**
+	 * Flushes the journal to disk and stops recording
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		segment.force();
+	}
+
+	public synchronized String getSummary() {
+		return String.format("Journal %s: %d record(s), %.1f MB in %d segment(s), %d too large to record",
+				directory, recordCount, byteCount / 1e6, segmentIndex + 1, oversizeCount);
+	}
+
+	private static List<Path> listSegments(Path directory) throws IOException {
+		List<Path> segments = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return segments;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				segments.add(file);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Reads a journal back in order, one record at a time. PEER records are
+	 * applied internally and never returned.
+	 */
+	public static class Reader {
+		private final List<Path> segments;
+		private final Map<Integer, InetSocketAddress> peers = new HashMap<>();
+		private int nextSegment = 0;
+		private ByteBuffer segment;
+		private long startMillis;
+
+		// The current record
+		private byte kind;
+		private InetSocketAddress peer;
+		private long nanos;
+		private ByteBuffer data;
+
+		public Reader(Path directory) throws IOException {
+			segments = listSegments(directory);
+			if (segments.isEmpty()) {
+				throw new IOException("No journal segments in " + directory);
+			}
+		}
+
+		/**
+		 * Moves to the next datagram
+		 *
+		 * @return false at the end of the journal
+		 */
+		public boolean next() throws IOException {
+			while (true) {
+				if (segment == null || segment.remaining() < RECORD_HEADER_SIZE
+						|| segment.getInt(segment.position()) <= 0) {
+					if (!openNextSegment()) {
+						return false;
+					}
+					continue;
+				}
+				int length = segment.getInt() - 1;
+				byte recordKind = segment.get();
+				int id = segment.getShort() & 0xFFFF;
+				long recordNanos = segment.getLong();
+				if (length > segment.remaining()) {
+					throw new IOException("Journal record cut short in " + segments.get(nextSegment - 1));
+				}
+				ByteBuffer body = segment.slice();
+				body.limit(length);
+				segment.position(segment.position() + length);
+
+				if (recordKind == PEER) {
+					byte[] ip = new byte[body.get()];
+					body.get(ip);
+					peers.put(id, new InetSocketAddress(InetAddress.getByAddress(ip), body.getShort() & 0xFFFF));
+					continue;
+				}
+				kind = recordKind;
+				peer = peers.get(id);
+				nanos = recordNanos;
+				data = body;
+				return true;
+			}
+		}
+
+		private boolean openNextSegment() throws IOException {
+			if (nextSegment >= segments.size()) {
+				return false;
+			}
+			Path file = segments.get(nextSegment++);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			if (segment.remaining() < SEGMENT_HEADER_SIZE || segment.getInt() != MAGIC) {
+				throw new IOException(file + " is not a journal segment");
+			}
+			short version = segment.getShort();
+			if (version != VERSION) {
+				throw new IOException(file + " has journal version " + version + ", expected " + VERSION);
+			}
+			segment.getInt(); // index
+			startMillis = segment.getLong();
+			peers.clear();
+			return true;
+		}
+
+		/**
+		 * INBOUND or OUTBOUND
+		 */
+		public byte getKind() {
+			return kind;
+		}
+
+		public InetSocketAddress getPeer() {
+			return peer;
+		}
+
+		/**
+		 * Returns the time of the record since the journal started
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Returns the datagram, read-only
+		 */
+		public ByteBuffer getData() {
+			return data.duplicate();
+		}
+
+		/**
+		 * Returns the wall-clock time the journal started
+		 */
+		public long getStartMillis() {
+			return startMillis;
+		}
+	}
+}
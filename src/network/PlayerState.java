@@ -0,0 +1,202 @@
+package network;
+
+import java.net.InetAddress;
+
+/**
+ * Mutable holder for one decoded player entry. The codec fills the same
+ * instance for every entry so decoding a snapshot does not allocate per player.
+ */
+public class PlayerState {
+	private InetAddress address;
+	private int port;
+	private String name;
+	private String status;
+	private double x;
+	private double y;
+	private int direction;
+	private boolean moving;
+	private int charID;
+	private boolean ready;
+	private double taskPercent;
+	private int ackedSnapshot;
+	private boolean fullSnapshotRequested;
+	private int probeSequence = -1; // heartbeat carried in a client state packet, -1 if none
+
+	// Input commands carried by a client state packet, consecutive from inputFirstSequence
+	public static final int MAX_INPUTS = 64;
+	private int inputFirstSequence;
+	private int inputCount;
+	private final int[] inputs = new int[MAX_INPUTS];
+	private final int[] inputDts = new int[MAX_INPUTS];
+	private final boolean[] inputTeleports = new boolean[MAX_INPUTS];
+	private final double[] inputX = new double[MAX_INPUTS];
+	private final double[] inputY = new double[MAX_INPUTS];
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public void setAddress(InetAddress address) {
+		this.address = address;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Returns the "host:port" key used by GameLogic.playerList
+	 */
+	public String getKey() {
+		return address.getHostAddress() + ":" + port;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public void setX(double x) {
+		this.x = x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	public void setY(double y) {
+		this.y = y;
+	}
+
+	public int getDirection() {
+		return direction;
+	}
+
+	public void setDirection(int direction) {
+		this.direction = direction;
+	}
+
+	public boolean isMoving() {
+		return moving;
+	}
+
+	public void setMoving(boolean moving) {
+		this.moving = moving;
+	}
+
+	public int getCharID() {
+		return charID;
+	}
+
+	public void setCharID(int charID) {
+		this.charID = charID;
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public void setReady(boolean ready) {
+		this.ready = ready;
+	}
+
+	public double getTaskPercent() {
+		return taskPercent;
+	}
+
+	public void setTaskPercent(double taskPercent) {
+		this.taskPercent = taskPercent;
+	}
+
+	public int getAckedSnapshot() {
+		return ackedSnapshot;
+	}
+
+	public void setAckedSnapshot(int ackedSnapshot) {
+		this.ackedSnapshot = ackedSnapshot;
+	}
+
+	public boolean isFullSnapshotRequested() {
+		return fullSnapshotRequested;
+	}
+
+	public void setFullSnapshotRequested(boolean fullSnapshotRequested) {
+		this.fullSnapshotRequested = fullSnapshotRequested;
+	}
+
+	/**
+	 * Returns the sequence of the heartbeat probe the packet carries, to be
+	 * answered with a PONG, or -1 if it carries none
+	 */
+	public int getProbeSequence() {
+		return probeSequence;
+	}
+
+	public void setProbeSequence(int probeSequence) {
+		this.probeSequence = probeSequence;
+	}
+
+	public int getInputFirstSequence() {
+		return inputFirstSequence;
+	}
+
+	public int getInputCount() {
+		return inputCount;
+	}
+
+	void setInputs(int firstSequence, int count) {
+		this.inputFirstSequence = firstSequence;
+		this.inputCount = count;
+	}
+
+	void setInput(int index, int input, int dtMillis, boolean teleport, double x, double y) {
+		inputs[index] = input;
+		inputDts[index] = dtMillis;
+		inputTeleports[index] = teleport;
+		inputX[index] = x;
+		inputY[index] = y;
+	}
+
+	public int getInput(int index) {
+		return inputs[index];
+	}
+
+	public int getInputDtMillis(int index) {
+		return inputDts[index];
+	}
+
+	/**
+	 * Returns whether the command places the player at getInputX, getInputY
+	 * instead of moving it
+	 */
+	public boolean isInputTeleport(int index) {
+		return inputTeleports[index];
+	}
+
+	public double getInputX(int index) {
+		return inputX[index];
+	}
+
+	public double getInputY(int index) {
+		return inputY[index];
+	}
+}
@@ -0,0 +1,557 @@
+package network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of player state for the /data/ hot path.
+ *
+ * Client state packet: [op][version][flags][direction][charID][x f32][y f32][task u8][ack i32]
+ *                      ([probe i32] when the probe flag is set)[name]
+ *                      [input count u8][first input i32] then count commands of [input u8][dt u8]
+ *                      ([x f32][y f32] when the teleport bit is set)
+ * Snapshot packet:     [op][version][flags][sequence i32][base i32][server time i32][input ack i32]
+ *                      [removed u8] removed ids [id u8]
+ *                      [count u8] then count entries of [id u8][field mask u8][identity][changed fields]
+ * Identity:            [addrLen][addr][port u16], only in entries for a player new to the client
+ *
+ * Snapshots are delta-compressed per client: each entry only carries the
+ * fields that changed since the baseline snapshot the client acknowledged, and
+ * positions travel as fixed-point deltas. Players that did not change are left
+ * out and carried forward by the client. A full snapshot (no baseline) carries
+ * every field of every player. The input ack is the newest input command of
+ * the receiving client that the server has applied, so the client can
+ * reconcile its predicted position. The server time is the tick's clock in
+ * milliseconds and wraps; clients only use differences between snapshots to
+ * place them on a timeline for interpolation.
+ *
+ * A client state packet may carry the client's heartbeat: a probe sequence
+ * the server answers with a PONG, exactly as if it had come in a PING, so a
+ * client that is sending its state anyway needs no separate PING datagram.
+ *
+ * Players are named by the compact id the server assigned them at handshake.
+ * Their "host:port" address only travels the first time a client hears of
+ * them; after that the client finds them in its baseline by id.
+ *
+ * Text messages use opcodes below 0xA0 (see MessageCodec), so these can never
+ * be mistaken for one.
+ */
+public class PlayerStateCodec {
+	public static final byte OP_CLIENT_STATE = (byte) 0xA1;
+	public static final byte OP_SNAPSHOT = (byte) 0xA2;
+	public static final byte VERSION = 6;
+	public static final int MAX_PACKET_SIZE = 1024;
+	// Worst case for one snapshot entry: id, mask, IPv6 identity, longest name, custom status, full position
+	public static final int MAX_ENTRY_SIZE = 1 + 1 + 19 + 33 + 34 + 1 + 1 + 2 + 8;
+	public static final int REMOVED_ENTRY_SIZE = 1;
+	// Positions are sent in 1/8 map units
+	public static final int POSITION_SCALE = 8;
+
+	private static final int FLAG_MOVING = 1;
+	private static final int FLAG_READY = 1 << 1;
+	private static final int FLAG_NEED_FULL = 1 << 2;
+	private static final int FLAG_PROBE = 1 << 3;
+	private static final int INPUT_TELEPORT = 0x80;
+	private static final int FLAG_PREP_ENDED = 1;
+	private static final int FLAG_FULL = 1 << 1;
+
+	private static final int FIELD_NAME = 1;
+	private static final int FIELD_STATUS = 1 << 1;
+	private static final int FIELD_CHAR = 1 << 2;
+	private static final int FIELD_TASK = 1 << 3;
+	private static final int FIELD_MOTION = 1 << 4;
+	private static final int FIELD_POSITION = 1 << 5;
+	private static final int FIELD_POSITION_DELTA = 1 << 6;
+	private static final int FIELD_IDENTITY = 1 << 7;
+	private static final int FIELD_ALL = FIELD_NAME | FIELD_STATUS | FIELD_CHAR | FIELD_TASK | FIELD_MOTION
+			| FIELD_POSITION;
+	private static final int MAX_NAME_BYTES = 32;
+	private static final int STATUS_CUSTOM = 0xFF;
+	private static final String[] STATUS_NAMES = { "crewmate", "imposter", "dead", "killed", "ejected" };
+
+	/**
+	 * Checks whether a received datagram is a binary client state packet
+	 */
+	public static boolean isClientState(byte[] data, int length) {
+		return length >= 2 && data[0] == OP_CLIENT_STATE;
+	}
+
+	public static boolean isClientState(ByteBuffer data) {
+		return data.remaining() >= 2 && data.get(data.position()) == OP_CLIENT_STATE;
+	}
+
+	/**
+	 * Checks whether a received datagram is a binary snapshot packet
+	 */
+	public static boolean isSnapshot(byte[] data, int length) {
+		return length >= 2 && data[0] == OP_SNAPSHOT;
+	}
+
+	public static boolean isSnapshot(ByteBuffer data) {
+		return data.remaining() >= 2 && data.get(data.position()) == OP_SNAPSHOT;
+	}
+
+	/**
+	 * Writes the local player's state into buf, replacing its contents. The
+	 * buffer is left flipped and ready to send.
+	 *
+	 * @param ackSequence newest snapshot the client has reconstructed
+	 * @param needFull    asks the server for a full snapshot because a delta
+	 *                    arrived whose baseline the client no longer holds
+	 * @param inputs      the local player's commands, the unacknowledged ones
+	 *                    are sent; null sends none
+	 * @param probe       sequence of a heartbeat probe for the server to echo,
+	 *                    negative to send none
+	 */
+	public static void writeClientState(ByteBuffer buf, String name, double x, double y, int direction,
+			boolean isMoving, int charID, boolean isReady, double taskPercent, int ackSequence, boolean needFull,
+			PredictionBuffer inputs, int probe) {
+		buf.clear();
+		buf.put(OP_CLIENT_STATE);
+		buf.put(VERSION);
+		buf.put((byte) ((isMoving ? FLAG_MOVING : 0) | (isReady ? FLAG_READY : 0) | (needFull ? FLAG_NEED_FULL : 0)
+				| (probe >= 0 ? FLAG_PROBE : 0)));
+		buf.put((byte) direction);
+		buf.put((byte) charID);
+		buf.putFloat((float) x);
+		buf.putFloat((float) y);
+		buf.put(encodeTask(taskPercent));
+		buf.putInt(ackSequence);
+		if (probe >= 0) {
+			buf.putInt(probe);
+		}
+		putName(buf, name);
+		putInputs(buf, inputs);
+		buf.flip();
+	}
+
+	/**
+	 * Writes the newest unacknowledged commands, at most PlayerState.MAX_INPUTS
+	 */
+	private static void putInputs(ByteBuffer buf, PredictionBuffer inputs) {
+		if (inputs == null) {
+			buf.put((byte) 0);
+			buf.putInt(PredictionBuffer.NO_SEQUENCE);
+			return;
+		}
+		synchronized (inputs) {
+			int next = inputs.getNextSequence();
+			int first = Math.max(inputs.getFirstUnacked(), next - PlayerState.MAX_INPUTS);
+			buf.put((byte) (next - first));
+			buf.putInt(first);
+			for (int sequence = first; sequence < next; sequence++) {
+				if (inputs.isTeleport(sequence)) {
+					buf.put((byte) INPUT_TELEPORT);
+					buf.put((byte) 0);
+					buf.putFloat((float) inputs.getCommandX(sequence));
+					buf.putFloat((float) inputs.getCommandY(sequence));
+				} else {
+					buf.put((byte) inputs.getInput(sequence));
+					buf.put((byte) inputs.getDtMillis(sequence));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a client state packet into out
+	 *
+	 * @return false if the packet is truncated or from another protocol version
+	 */
+	public static boolean readClientState(ByteBuffer buf, PlayerState out) {
+		try {
+			if (buf.get() != OP_CLIENT_STATE || buf.get() != VERSION) {
+				return false;
+			}
+			int flags = buf.get();
+			out.setMoving((flags & FLAG_MOVING) != 0);
+			out.setReady((flags & FLAG_READY) != 0);
+			out.setFullSnapshotRequested((flags & FLAG_NEED_FULL) != 0);
+			out.setDirection(buf.get());
+			out.setCharID(buf.get() & 0xFF);
+			out.setX(buf.getFloat());
+			out.setY(buf.getFloat());
+			out.setTaskPercent(buf.get() & 0xFF);
+			out.setAckedSnapshot(buf.getInt());
+			out.setProbeSequence((flags & FLAG_PROBE) != 0 ? buf.getInt() & Integer.MAX_VALUE : -1);
+			out.setName(getName(buf));
+			int count = buf.get() & 0xFF;
+			if (count > PlayerState.MAX_INPUTS) {
+				return false;
+			}
+			out.setInputs(buf.getInt(), count);
+			for (int i = 0; i < count; i++) {
+				int input = buf.get() & 0xFF;
+				int dtMillis = buf.get() & 0xFF;
+				if ((input & INPUT_TELEPORT) != 0) {
+					out.setInput(i, 0, 0, true, buf.getFloat(), buf.getFloat());
+				} else {
+					out.setInput(i, input, dtMillis, false, 0, 0);
+				}
+			}
+			return true;
+		} catch (BufferUnderflowException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Starts a snapshot in buf. A baseSequence of SnapshotHistory.NO_SEQUENCE
+	 * marks a full snapshot that does not depend on anything the client holds.
+	 * Removed players are appended with writeRemovedEntity, then beginEntries
+	 * starts the entry list.
+	 *
+	 * @return position of the removed count, to be passed to beginEntries
+	 */
+	public static int beginSnapshot(ByteBuffer buf, boolean prepEnded, int sequence, int baseSequence,
+			int serverTimeMillis, int inputAck) {
+		boolean full = baseSequence == SnapshotHistory.NO_SEQUENCE;
+		buf.clear();
+		buf.put(OP_SNAPSHOT);
+		buf.put(VERSION);
+		buf.put((byte) ((prepEnded ? FLAG_PREP_ENDED : 0) | (full ? FLAG_FULL : 0)));
+		buf.putInt(sequence);
+		buf.putInt(baseSequence);
+		buf.putInt(serverTimeMillis);
+		buf.putInt(inputAck);
+		int removedPosition = buf.position();
+		buf.put((byte) 0);
+		return removedPosition;
+	}
+
+	public static void writeRemovedEntity(ByteBuffer buf, EntityState removed) {
+		buf.put((byte) removed.getId());
+	}
+
+	/**
+	 * Patches the removed count and starts the entry list
+	 *
+	 * @return position of the entry count, to be passed to endSnapshot
+	 */
+	public static int beginEntries(ByteBuffer buf, int removedPosition, int removedCount) {
+		buf.put(removedPosition, (byte) removedCount);
+		int countPosition = buf.position();
+		buf.put((byte) 0);
+		return countPosition;
+	}
+
+	/**
+	 * Writes the fields of current that differ from base. A null base, or one
+	 * of another player that had the id before, writes every field and the
+	 * player's address.
+	 *
+	 * @return false if nothing changed and no entry was written
+	 */
+	public static boolean writeEntityDelta(ByteBuffer buf, EntityState current, EntityState base) {
+		if (base != null && !current.sameIdentity(base)) {
+			base = null;
+		}
+		int mask = FIELD_ALL | FIELD_IDENTITY;
+		int dx = 0;
+		int dy = 0;
+		if (base != null) {
+			mask = 0;
+			if (!EntityState.equalsNullable(current.getName(), base.getName())) {
+				mask |= FIELD_NAME;
+			}
+			if (!EntityState.equalsNullable(current.getStatus(), base.getStatus())) {
+				mask |= FIELD_STATUS;
+			}
+			if (current.getCharID() != base.getCharID()) {
+				mask |= FIELD_CHAR;
+			}
+			if (current.getTaskPercent() != base.getTaskPercent()) {
+				mask |= FIELD_TASK;
+			}
+			if (current.isMoving() != base.isMoving() || current.getDirection() != base.getDirection()) {
+				mask |= FIELD_MOTION;
+			}
+			dx = current.getQuantizedX() - base.getQuantizedX();
+			dy = current.getQuantizedY() - base.getQuantizedY();
+			if (dx != 0 || dy != 0) {
+				boolean fitsShort = dx >= Short.MIN_VALUE && dx <= Short.MAX_VALUE && dy >= Short.MIN_VALUE
+						&& dy <= Short.MAX_VALUE;
+				mask |= fitsShort ? FIELD_POSITION_DELTA : FIELD_POSITION;
+			}
+			if (mask == 0) {
+				return false;
+			}
+		}
+
+		buf.put((byte) current.getId());
+		buf.put((byte) mask);
+		if ((mask & FIELD_IDENTITY) != 0) {
+			putAddress(buf, current.getAddress(), current.getPort());
+		}
+		if ((mask & FIELD_NAME) != 0) {
+			putName(buf, current.getName());
+		}
+		if ((mask & FIELD_STATUS) != 0) {
+			putStatus(buf, current.getStatus());
+		}
+		if ((mask & FIELD_CHAR) != 0) {
+			buf.put((byte) current.getCharID());
+		}
+		if ((mask & FIELD_TASK) != 0) {
+			buf.put((byte) current.getTaskPercent());
+		}
+		if ((mask & FIELD_MOTION) != 0) {
+			buf.put((byte) (current.isMoving() ? FLAG_MOVING : 0));
+			buf.put((byte) current.getDirection());
+		}
+		if ((mask & FIELD_POSITION_DELTA) != 0) {
+			buf.putShort((short) dx);
+			buf.putShort((short) dy);
+		} else if ((mask & FIELD_POSITION) != 0) {
+			buf.putInt(current.getQuantizedX());
+			buf.putInt(current.getQuantizedY());
+		}
+		return true;
+	}
+
+	/**
+	 * Patches the entry count and flips the buffer ready to send
+	 */
+	public static void endSnapshot(ByteBuffer buf, int countPosition, int count) {
+		buf.put(countPosition, (byte) count);
+		buf.flip();
+	}
+
+	/**
+	 * Reads a snapshot header into out
+	 *
+	 * @return false if the packet is not a valid snapshot
+	 */
+	public static boolean readSnapshotHeader(ByteBuffer buf, SnapshotHeader out) {
+		try {
+			if (buf.get() != OP_SNAPSHOT || buf.get() != VERSION) {
+				return false;
+			}
+			int flags = buf.get();
+			out.prepEnded = (flags & FLAG_PREP_ENDED) != 0;
+			out.full = (flags & FLAG_FULL) != 0;
+			out.sequence = buf.getInt();
+			out.baseSequence = buf.getInt();
+			out.serverTime = buf.getInt();
+			out.inputAck = buf.getInt();
+			return out.full == (out.baseSequence == SnapshotHistory.NO_SEQUENCE);
+		} catch (BufferUnderflowException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the removed count or the entry count
+	 *
+	 * @return the count, or -1 if the packet is truncated
+	 */
+	public static int readCount(ByteBuffer buf) {
+		return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+	}
+
+	/**
+	 * Reads the id of a removed player
+	 *
+	 * @return the id, or -1 if the packet is truncated
+	 */
+	public static int readRemovedEntity(ByteBuffer buf) {
+		return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+	}
+
+	/**
+	 * Reads the next entry and applies it on top of the player's state in
+	 * baseline, or on nothing if this is a full snapshot
+	 *
+	 * @return the reconstructed state, or null if the entry is malformed or
+	 *         refers to a player the baseline does not hold
+	 */
+	public static EntityState readEntityDelta(ByteBuffer buf, EntityTable baseline) {
+		try {
+			int id = buf.get() & 0xFF;
+			int mask = buf.get() & 0xFF;
+			EntityState base;
+			InetAddress address;
+			int port;
+			String key;
+			if ((mask & FIELD_IDENTITY) != 0) {
+				// A player new to us, or a new one under a reused id
+				if ((mask & FIELD_ALL) != FIELD_ALL || (address = getAddress(buf)) == null) {
+					return null;
+				}
+				port = buf.getShort() & 0xFFFF;
+				key = address.getHostAddress() + ":" + port;
+				base = null;
+			} else {
+				base = baseline == null ? null : baseline.get(id);
+				if (base == null) {
+					return null;
+				}
+				address = base.getAddress();
+				port = base.getPort();
+				key = base.getKey();
+			}
+
+			String name = (mask & FIELD_NAME) != 0 ? getName(buf) : base.getName();
+			String status = (mask & FIELD_STATUS) != 0 ? getStatus(buf) : base.getStatus();
+			int charID = (mask & FIELD_CHAR) != 0 ? buf.get() & 0xFF : base.getCharID();
+			int task = (mask & FIELD_TASK) != 0 ? buf.get() & 0xFF : base.getTaskPercent();
+			boolean moving;
+			int direction;
+			if ((mask & FIELD_MOTION) != 0) {
+				moving = (buf.get() & FLAG_MOVING) != 0;
+				direction = buf.get();
+			} else {
+				moving = base.isMoving();
+				direction = base.getDirection();
+			}
+			int qx;
+			int qy;
+			if ((mask & FIELD_POSITION_DELTA) != 0) {
+				if (base == null) {
+					return null;
+				}
+				qx = base.getQuantizedX() + buf.getShort();
+				qy = base.getQuantizedY() + buf.getShort();
+			} else if ((mask & FIELD_POSITION) != 0) {
+				qx = buf.getInt();
+				qy = buf.getInt();
+			} else {
+				qx = base.getQuantizedX();
+				qy = base.getQuantizedY();
+			}
+			return new EntityState(id, address, port, key, name, status, charID, task, moving, direction, qx, qy);
+		} catch (BufferUnderflowException | UnknownHostException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Converts a map coordinate to the fixed-point form carried in snapshots
+	 */
+	public static int quantize(double value) {
+		return (int) Math.round(value * POSITION_SCALE);
+	}
+
+	public static double dequantize(int value) {
+		return value / (double) POSITION_SCALE;
+	}
+
+	private static void putAddress(ByteBuffer buf, InetAddress address, int port) {
+		byte[] addr = address.getAddress();
+		buf.put((byte) addr.length);
+		buf.put(addr);
+		buf.putShort((short) port);
+	}
+
+	private static InetAddress getAddress(ByteBuffer buf) throws UnknownHostException {
+		int addrLength = buf.get() & 0xFF;
+		if (addrLength != 4 && addrLength != 16) {
+			return null;
+		}
+		byte[] addr = new byte[addrLength];
+		buf.get(addr);
+		return InetAddress.getByAddress(addr);
+	}
+
+	private static byte encodeTask(double taskPercent) {
+		return (byte) Math.max(0, Math.min(100, Math.round(taskPercent)));
+	}
+
+	private static void putName(ByteBuffer buf, String name) {
+		if (name == null) {
+			name = "";
+		}
+		// Encoded every time: the strings come from clients, and a cache keyed by them would grow without bound
+		byte[] bytes = truncateName(name);
+		buf.put((byte) bytes.length);
+		buf.put(bytes);
+	}
+
+	private static byte[] truncateName(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= MAX_NAME_BYTES) {
+			return bytes;
+		}
+		// Cut on a character boundary so the name still decodes cleanly
+		int end = MAX_NAME_BYTES;
+		while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+			end--;
+		}
+		byte[] truncated = new byte[end];
+		System.arraycopy(bytes, 0, truncated, 0, end);
+		return truncated;
+	}
+
+	private static String getName(ByteBuffer buf) {
+		int length = buf.get() & 0xFF;
+		if (length > buf.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		if (buf.hasArray()) {
+			String name = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+			buf.position(buf.position() + length);
+			return name;
+		}
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void putStatus(ByteBuffer buf, String status) {
+		for (int i = 0; i < STATUS_NAMES.length; i++) {
+			if (STATUS_NAMES[i].equals(status)) {
+				buf.put((byte) i);
+				return;
+			}
+		}
+		buf.put((byte) STATUS_CUSTOM);
+		putName(buf, status);
+	}
+
+	private static String getStatus(ByteBuffer buf) {
+		int code = buf.get() & 0xFF;
+		if (code < STATUS_NAMES.length) {
+			return STATUS_NAMES[code];
+		}
+		return getName(buf);
+	}
+
+	/**
+	 * Decoded snapshot header, reused across packets
+	 */
+	public static class SnapshotHeader {
+		private boolean prepEnded;
+		private boolean full;
+		private int sequence;
+		private int baseSequence;
+		private int serverTime;
+		private int inputAck;
+
+		public boolean isPrepEnded() {
+			return prepEnded;
+		}
+
+		public boolean isFull() {
+			return full;
+		}
+
+		public int getSequence() {
+			return sequence;
+		}
+
+		public int getBaseSequence() {
+			return baseSequence;
+		}
+
+		public int getServerTime() {
+			return serverTime;
+		}
+
+		public int getInputAck() {
+			return inputAck;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package network;
+
+/**
+ * The local player's numbered input commands and the position predicted after
+ * each one, kept until the server confirms it has processed them.
+ *
+ * Unacknowledged commands are resent with every client state packet, so a
+ * lost packet costs nothing as long as a later one arrives. When a snapshot
+ * reports the server's position after some command and it differs from what
+ * was predicted for that command, the position is reset to the server's and
+ * every later command is replayed on top of it, so the correction lands where
+ * the player would now be instead of snapping back in time.
+ */
+public class PredictionBuffer {
+	public static final int CAPACITY = 128;
+	public static final int NO_SEQUENCE = -1;
+	// Snapshot positions are quantized to 1/8 unit, so smaller differences are noise
+	private static final double TOLERANCE = 0.25;
+
+	/**
+	 * Replays one command during reconciliation
+	 */
+	public interface Simulator {
+		void step(double[] position, int input, int dtMillis);
+	}
+
+	private final int[] sequences = new int[CAPACITY];
+	private final int[] inputs = new int[CAPACITY];
+	private final int[] dts = new int[CAPACITY];
+	private final boolean[] teleports = new boolean[CAPACITY];
+	private final double[] commandX = new double[CAPACITY]; // teleport target
+	private final double[] commandY = new double[CAPACITY];
+	private final double[] predictedX = new double[CAPACITY];
+	private final double[] predictedY = new double[CAPACITY];
+	private int nextSequence = 0;
+	private int ackedSequence = NO_SEQUENCE;
+
+	// Latest authoritative state from a snapshot, applied by reconcile
+	private boolean hasServerState = false;
+	private int serverSequence;
+	private double serverX;
+	private double serverY;
+	private long correctionCount = 0;
+
+	public PredictionBuffer() {
+		reset();
+	}
+
+	/**
+	 * Records a movement command and the position predicted after it
+	 *
+	 * @return the command's sequence number
+	 */
+	public synchronized int record(int input, int dtMillis, double x, double y) {
+		int sequence = nextSequence++;
+		int slot = Math.floorMod(sequence, CAPACITY);
+		sequences[slot] = sequence;
+		inputs[slot] = input;
+		dts[slot] = dtMillis;
+		teleports[slot] = false;
+		predictedX[slot] = x;
+		predictedY[slot] = y;
+		return sequence;
+	}
+
+	/**
+	 * Records that the player was placed at x, y, e.g. on a spawn point
+	 */
+	public synchronized int recordTeleport(double x, double y) {
+		int sequence = record(0, 0, x, y);
+		int slot = Math.floorMod(sequence, CAPACITY);
+		teleports[slot] = true;
+		commandX[slot] = x;
+		commandY[slot] = y;
+		return sequence;
+	}
+
+	/**
+	 * Returns the oldest command the server has not confirmed that is still
+	 * held; commands older than CAPACITY are lost
+	 */
+	public synchronized int getFirstUnacked() {
+		return Math.max(ackedSequence + 1, nextSequence - CAPACITY);
+	}
+
+	public synchronized int getNextSequence() {
+		return nextSequence;
+	}
+
+	public synchronized int getAckedSequence() {
+		return ackedSequence;
+	}
+
+	synchronized int getInput(int sequence) {
+		return inputs[Math.floorMod(sequence, CAPACITY)];
+	}
+
+	synchronized int getDtMillis(int sequence) {
+		return dts[Math.floorMod(sequence, CAPACITY)];
+	}
+
+	synchronized boolean isTeleport(int sequence) {
+		return teleports[Math.floorMod(sequence, CAPACITY)];
+	}
+
+	synchronized double getCommandX(int sequence) {
+		return commandX[Math.floorMod(sequence, CAPACITY)];
+	}
+
+	synchronized double getCommandY(int sequence) {
+		return commandY[Math.floorMod(sequence, CAPACITY)];
+	}
+
+	/**
+	 * Stores the server's position after the given command. Called from the
+	 * receive thread; the game loop applies it with reconcile.
+	 */
+	public synchronized void setServerState(int sequence, double x, double y) {
+		if (sequence == NO_SEQUENCE || sequence >= nextSequence
+				|| (hasServerState && sequence <= serverSequence)) {
+			return;
+		}
+		hasServerState = true;
+		serverSequence = sequence;
+		serverX = x;
+		serverY = y;
+	}
+
+	/**
+	 * Applies the latest server state, if any arrived since the last call.
+	 * position holds the current predicted position and is replaced by the
+	 * corrected one when the prediction was wrong.
+	 *
+	 * @return true if position was corrected
+	 */
+	public synchronized boolean reconcile(double[] position, Simulator simulator) {
+		if (!hasServerState || serverSequence <= ackedSequence) {
+			return false;
+		}
+		int sequence = serverSequence;
+		ackedSequence = sequence;
+
+		int slot = Math.floorMod(sequence, CAPACITY);
+		if (sequences[slot] == sequence && Math.abs(predictedX[slot] - serverX) <= TOLERANCE
+				&& Math.abs(predictedY[slot] - serverY) <= TOLERANCE) {
+			return false;
+		}
+
+		// Rewind to the server's state and replay what it has not seen yet
+		position[0] = serverX;
+		position[1] = serverY;
+		for (int replay = Math.max(sequence + 1, nextSequence - CAPACITY); replay < nextSequence; replay++) {
+			int replaySlot = Math.floorMod(replay, CAPACITY);
+			if (teleports[replaySlot]) {
+				position[0] = commandX[replaySlot];
+				position[1] = commandY[replaySlot];
+			} else {
+				simulator.step(position, inputs[replaySlot], dts[replaySlot]);
+			}
+			predictedX[replaySlot] = position[0];
+			predictedY[replaySlot] = position[1];
+		}
+		correctionCount++;
+		return true;
+	}
+
+	public synchronized long getCorrectionCount() {
+		return correctionCount;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < CAPACITY; i++) {
+			sequences[i] = NO_SEQUENCE;
+		}
+		nextSequence = 0;
+		ackedSequence = NO_SEQUENCE;
+		hasServerState = false;
+		correctionCount = 0;
+	}
+}
@@ -0,0 +1,434 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reliable, ordered delivery of encoded messages on top of a UdpEventLoop.
+ *
+ * Data frame: [op][version][epoch i32][sequence i32][message]
+ * Ack frame:  [op][version][epoch i32][sequence i32]
+ *
+ * Every peer gets its own sequence space. The receiver acks each frame it
+ * delivers, buffers or already delivered, drops duplicates and hands messages
+ * over in sequence order, so each one is delivered exactly once. A frame
+ * beyond the receive window is not acked, so the sender resends it later.
+ * Unacked frames are resent from a game scheduler task using a
+ * retransmission timeout derived from measured round-trip times, so senders
+ * never block or sleep. The epoch is picked at random per peer; a receiver
+ * that sees a new epoch starting at sequence 0 knows the sender restarted and
+ * resets its sequence state. Late frames of an epoch it left are ignored.
+ *
+ * Frames go out through a Fragmenter, so messages larger than a datagram are
+ * fine; losing any fragment just means the whole frame is retransmitted.
+ */
+public class ReliableChannel {
+	public static final byte OP_RELIABLE = (byte) 0xA3;
+	public static final byte OP_ACK = (byte) 0xA4;
+	private static final byte VERSION = 1;
+	private static final int HEADER_SIZE = 10;
+
+	private static final long TIMER_INTERVAL_MS = 10;
+	private static final long INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+	private static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	private static final long MAX_RTO_NANOS = TimeUnit.SECONDS.toNanos(2);
+	private static final long GIVE_UP_NANOS = TimeUnit.SECONDS.toNanos(15);
+	private static final int RECEIVE_WINDOW = 256;
+	private static final int RETIRED_EPOCHS = 8; // remembered per peer, so their late frames are ignored
+
+	private final String name;
+	private final UdpEventLoop loop;
+	private final Fragmenter fragmenter;
+	private final Random random = new Random();
+	private final ConcurrentHashMap<InetSocketAddress, Peer> peers = new ConcurrentHashMap<>();
+	private GameScheduler.Task timer;
+
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong retransmitCount = new AtomicLong();
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong duplicateCount = new AtomicLong();
+	private final AtomicLong givenUpCount = new AtomicLong();
+
+	public ReliableChannel(String name, UdpEventLoop loop, Fragmenter fragmenter) {
+		this.name = name;
+		this.loop = loop;
+		this.fragmenter = fragmenter;
+	}
+
+	public static boolean isReliable(ByteBuffer data) {
+		return data.remaining() >= HEADER_SIZE && data.get(data.position()) == OP_RELIABLE;
+	}
+
+	public static boolean isAck(ByteBuffer data) {
+		return data.remaining() >= HEADER_SIZE && data.get(data.position()) == OP_ACK;
+	}
+
+	/**
+	 * Builds a data frame, for peers that keep their own sequence state
+	 */
+	public static byte[] encodeFrame(int epoch, int sequence, byte[] payload) {
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		frame.put(OP_RELIABLE).put(VERSION).putInt(epoch).putInt(sequence).put(payload);
+		return frame.array();
+	}
+
+	/**
+	 * Builds the ack of a data frame, ready to send
+	 */
+	public static ByteBuffer encodeAck(int epoch, int sequence) {
+		ByteBuffer ack = ByteBuffer.allocate(HEADER_SIZE);
+		ack.put(OP_ACK).put(VERSION).putInt(epoch).putInt(sequence).flip();
+		return ack;
+	}
+
+	/**
+	 * Returns the epoch of the data or ack frame at the buffer's position,
+	 * without consuming it
+	 */
+	public static int peekEpoch(ByteBuffer frame) {
+		return frame.getInt(frame.position() + 2);
+	}
+
+	/**
+	 * Returns the sequence of the data or ack frame at the buffer's position,
+	 * without consuming it
+	 */
+	public static int peekSequence(ByteBuffer frame) {
+		return frame.getInt(frame.position() + 6);
+	}
+
+	/**
+	 * Returns the message carried by the data frame at the buffer's position,
+	 * sharing its content
+	 */
+	public static ByteBuffer peekMessage(ByteBuffer frame) {
+		ByteBuffer message = frame.duplicate();
+		message.position(frame.position() + HEADER_SIZE);
+		return message.slice();
+	}
+
+	/**
+	 * Starts the retransmission timer
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		timer = GameScheduler.get().scheduleAtFixedRate(name + " retransmit", TIMER_INTERVAL_MS, TIMER_INTERVAL_MS,
+				this::retransmitDue);
+	}
+
+	/**
+	 * Stops the timer and forgets all peers. Unacked messages are discarded.
+	 */
+	public synchronized void close() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		peers.clear();
+	}
+
+	/**
+	 * Queues a message for reliable delivery and sends it right away. Returns
+	 * without waiting for the ack.
+	 */
+	public void send(byte[] payload, InetSocketAddress target) throws IOException {
+		Peer peer = getPeer(target);
+		Pending pending;
+		synchronized (peer) {
+			int sequence = peer.nextSequence++;
+			long now = System.nanoTime();
+			pending = new Pending(encodeFrame(peer.epoch, sequence, payload), now, now + peer.rtoNanos);
+			peer.unacked.put(sequence, pending);
+		}
+		sentCount.incrementAndGet();
+		fragmenter.send(pending.frame, target);
+	}
+
+	/**
+	 * Handles a reliable data frame: acks it and returns the messages that are
+	 * now deliverable in order, each positioned at its first byte. Duplicates
+	 * return an empty list.
+	 */
+	public List<ByteBuffer> receive(ByteBuffer data, InetSocketAddress sender) throws IOException {
+		int epoch;
+		int sequence;
+		ByteBuffer message;
+		try {
+			if (data.get() != OP_RELIABLE || data.get() != VERSION) {
+				return Collections.emptyList();
+			}
+			epoch = data.getInt();
+			sequence = data.getInt();
+			// Copied out, the datagram buffer goes back to its pool once handled
+			message = ByteBuffer.allocate(data.remaining());
+			message.put(data).flip();
+		} catch (BufferUnderflowException e) {
+			return Collections.emptyList();
+		}
+
+		Peer peer = getPeer(sender);
+		List<ByteBuffer> deliverable;
+		synchronized (peer) {
+			if (!peer.hasRemoteEpoch || peer.remoteEpoch != epoch) {
+				// A restart begins at sequence 0; anything else is a late frame
+				// of an epoch we left, or of a restart whose first frame is
+				// still on its way and will be resent
+				if (sequence != 0 || peer.retiredEpochs.contains(epoch)) {
+					return Collections.emptyList();
+				}
+				if (peer.hasRemoteEpoch) {
+					peer.retireRemoteEpoch();
+				}
+				peer.hasRemoteEpoch = true;
+				peer.remoteEpoch = epoch;
+				peer.nextExpected = 0;
+				peer.outOfOrder.clear();
+			}
+			int ahead = sequence - peer.nextExpected;
+			if (ahead >= RECEIVE_WINDOW) {
+				return Collections.emptyList(); // no room yet, unacked so it is resent
+			}
+			// Acked from here on, the previous ack may have been the packet that got lost
+			if (ahead < 0 || peer.outOfOrder.containsKey(sequence)) {
+				duplicateCount.incrementAndGet();
+				deliverable = Collections.emptyList();
+			} else if (ahead > 0) {
+				peer.outOfOrder.put(sequence, message);
+				deliverable = Collections.emptyList();
+			} else {
+				deliverable = new ArrayList<>();
+				deliverable.add(message);
+				peer.nextExpected++;
+				ByteBuffer next;
+				while ((next = peer.outOfOrder.remove(peer.nextExpected)) != null) {
+					deliverable.add(next);
+					peer.nextExpected++;
+				}
+			}
+		}
+		sendAck(epoch, sequence, sender);
+		deliveredCount.addAndGet(deliverable.size());
+		return deliverable;
+	}
+
+	/**
+	 * Handles an ack frame, clearing the message and sampling the round trip
+	 */
+	public void handleAck(ByteBuffer data, InetSocketAddress sender) {
+		int epoch;
+		int sequence;
+		try {
+			if (data.get() != OP_ACK || data.get() != VERSION) {
+				return;
+			}
+			epoch = data.getInt();
+			sequence = data.getInt();
+		} catch (BufferUnderflowException e) {
+			return;
+		}
+
+		Peer peer = peers.get(sender);
+		if (peer == null) {
+			return;
+		}
+		synchronized (peer) {
+			if (epoch != peer.epoch) {
+				return; // ack for a sequence space we already abandoned
+			}
+			Pending pending = peer.unacked.remove(sequence);
+			// Karn's rule: a retransmitted frame's ack could belong to any copy
+			if (pending != null && pending.attempts == 1) {
+				peer.sampleRtt(System.nanoTime() - pending.firstSentNanos);
+			}
+		}
+	}
+
+	/**
+	 * Forgets a peer, e.g. when a client disconnects
+	 */
+	public void removePeer(InetSocketAddress address) {
+		peers.remove(address);
+	}
+
+	private Peer getPeer(InetSocketAddress address) {
+		return peers.computeIfAbsent(address, a -> new Peer(random.nextInt()));
+	}
+
+	private void sendAck(int epoch, int sequence, InetSocketAddress target) throws IOException {
+		loop.send(encodeAck(epoch, sequence), target);
+	}
+
+	/**
+	 * Timer body: resends every frame whose retransmission timeout expired
+	 */
+	private void retransmitDue() {
+		if (!loop.isOpen()) {
+			return;
+		}
+		long now = System.nanoTime();
+		for (Map.Entry<InetSocketAddress, Peer> entry : peers.entrySet()) {
+			InetSocketAddress target = entry.getKey();
+			Peer peer = entry.getValue();
+			List<Pending> due = null;
+			synchronized (peer) {
+				for (Iterator<Pending> it = peer.unacked.values().iterator(); it.hasNext();) {
+					Pending pending = it.next();
+					if (now - pending.nextSendNanos < 0) {
+						continue;
+					}
+					if (now - pending.firstSentNanos > GIVE_UP_NANOS) {
+						// The peer is gone or unreachable. Start a fresh sequence space so a
+						// receiver that comes back is not stuck waiting for this gap.
+						givenUpCount.addAndGet(peer.unacked.size());
+						System.err.println(name + ": Gave up on " + peer.unacked.size() + " message(s) to " + target);
+						peer.resetSending(random.nextInt());
+						due = null;
+						break;
+					}
+					pending.attempts++;
+					if (due == null) {
+						due = new ArrayList<>();
+					}
+					due.add(pending);
+				}
+				if (due != null) {
+					// Exponential backoff per frame; the estimate itself only moves on samples
+					for (Pending pending : due) {
+						pending.nextSendNanos = now + peer.backedOffRto(pending.attempts);
+					}
+				}
+			}
+			if (due == null) {
+				continue;
+			}
+			for (Pending pending : due) {
+				try {
+					retransmitCount.incrementAndGet();
+					fragmenter.send(pending.frame, target);
+				} catch (IOException e) {
+					System.err.println(name + ": Retransmit to " + target + " failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the current retransmission timeout towards a peer in milliseconds,
+	 * or -1 for an unknown peer
+	 */
+	public double getRtoMillis(InetSocketAddress address) {
+		Peer peer = peers.get(address);
+		if (peer == null) {
+			return -1;
+		}
+		synchronized (peer) {
+			return peer.rtoNanos / 1_000_000.0;
+		}
+	}
+
+	/**
+	 * Returns the number of messages still waiting for an ack
+	 */
+	public int getUnackedCount() {
+		int count = 0;
+		for (Peer peer : peers.values()) {
+			synchronized (peer) {
+				count += peer.unacked.size();
+			}
+		}
+		return count;
+	}
+
+	public String getStatsSummary() {
+		return String.format("%s reliable: %d sent, %d retransmitted, %d delivered, %d duplicates, %d given up, %d unacked",
+				name, sentCount.get(), retransmitCount.get(), deliveredCount.get(), duplicateCount.get(),
+				givenUpCount.get(), getUnackedCount());
+	}
+
+	/**
+	 * Send and receive state for one remote address, guarded by its own monitor
+	 */
+	private static class Peer {
+		int epoch;
+		int nextSequence = 0;
+		final LinkedHashMap<Integer, Pending> unacked = new LinkedHashMap<>();
+		boolean hasRemoteEpoch = false;
+		int remoteEpoch;
+		int nextExpected = 0;
+		final TreeMap<Integer, ByteBuffer> outOfOrder = new TreeMap<>();
+		final ArrayDeque<Integer> retiredEpochs = new ArrayDeque<>();
+
+		// RFC 6298 estimator; srtt < 0 until the first sample
+		double srttNanos = -1;
+		double rttVarNanos = 0;
+		long rtoNanos = INITIAL_RTO_NANOS;
+
+		Peer(int epoch) {
+			this.epoch = epoch;
+		}
+
+		void retireRemoteEpoch() {
+			if (retiredEpochs.size() == RETIRED_EPOCHS) {
+				retiredEpochs.removeFirst();
+			}
+			retiredEpochs.addLast(remoteEpoch);
+		}
+
+		void resetSending(int newEpoch) {
+			epoch = newEpoch;
+			nextSequence = 0;
+			unacked.clear();
+			srttNanos = -1;
+			rttVarNanos = 0;
+			rtoNanos = INITIAL_RTO_NANOS;
+		}
+
+		void sampleRtt(long rttNanos) {
+			if (srttNanos < 0) {
+				srttNanos = rttNanos;
+				rttVarNanos = rttNanos / 2.0;
+			} else {
+				rttVarNanos = 0.75 * rttVarNanos + 0.25 * Math.abs(srttNanos - rttNanos);
+				srttNanos = 0.875 * srttNanos + 0.125 * rttNanos;
+			}
+			rtoNanos = clampRto((long) (srttNanos + 4 * rttVarNanos));
+		}
+
+		long backedOffRto(int attempts) {
+			return clampRto(rtoNanos << Math.min(attempts - 1, 8));
+		}
+
+		private static long clampRto(long rto) {
+			return Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, rto));
+		}
+	}
+
+	private static class Pending {
+		final byte[] frame;
+		final long firstSentNanos;
+		long nextSendNanos;
+		int attempts = 1;
+
+		Pending(byte[] frame, long firstSentNanos, long nextSendNanos) {
+			this.frame = frame;
+			this.firstSentNanos = firstSentNanos;
+			this.nextSendNanos = nextSendNanos;
+		}
+	}
+}
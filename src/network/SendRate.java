@@ -0,0 +1,169 @@
+package network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a client sends its state, so a player standing still costs
+ * next to nothing and a moving one gets through even on a poor link.
+ *
+ * While the player moves, or has inputs the server has not acknowledged, the
+ * state goes out every interval, MIN_INTERVAL_MS on a good link. Otherwise a
+ * packet goes out only when something in it changed, or to acknowledge new
+ * snapshots every ACK_INTERVAL_MS, well inside the snapshot history the
+ * server deltas against at 60 Hz.
+ *
+ * The heartbeat, a probe the server echoes, rides in a state packet when one
+ * is going out anyway; only a client with no state to send, e.g. before it
+ * enters the game window, sends it as a PING. It is due every
+ * ACTIVE_HEARTBEAT_MS while active and every IDLE_HEARTBEAT_MS when idle,
+ * which still keeps the server from suspending the client.
+ *
+ * Once a second the interval adapts to the link, AIMD style: while the
+ * measured loss is above LOSS_LIMIT or the round trip has risen well above the
+ * fastest one seen, which means packets are queueing, the interval grows by
+ * half up to MAX_INTERVAL_MS; on a clear link it shrinks back step by step.
+ * Inputs are sent until acknowledged, so a longer interval delays movement
+ * but loses none of it.
+ *
+ * Safe to use from any thread.
+ */
+public class SendRate {
+	public static final long MIN_INTERVAL_MS = 40; // 25 Hz, what the server's flood guard expects at most
+	private static final long MAX_INTERVAL_MS = 120;
+	private static final long ACK_INTERVAL_MS = 250;
+	private static final long ACTIVE_HEARTBEAT_MS = 360;
+	private static final long IDLE_HEARTBEAT_MS = 1000;
+	private static final long ADAPT_INTERVAL_MS = 1000;
+	private static final double LOSS_LIMIT = 0.05;
+	private static final double RTT_RISE_MS = 50; // over the fastest round trip, or twice it if larger
+	private static final double BACKOFF = 1.5;
+	private static final long RECOVERY_STEP_MS = 10;
+
+	private final long slackNanos;
+
+	private long intervalNanos = TimeUnit.MILLISECONDS.toNanos(MIN_INTERVAL_MS);
+	private long lastStateNanos;
+	private long lastHeartbeatNanos;
+	private long lastAdaptNanos;
+	private boolean stateSent = false;
+	private boolean heartbeatSent = false;
+	private double fastestRttMillis = -1;
+
+	private long activeCount = 0;
+	private long changeCount = 0;
+	private long ackCount = 0;
+	private long heartbeatCount = 0;
+	private long backoffCount = 0;
+
+	/**
+	 * @param pollMillis how often the caller asks, half of which is allowed as
+	 *                   early so a send is not put off by a whole poll
+	 */
+	public SendRate(long pollMillis) {
+		this.slackNanos = TimeUnit.MILLISECONDS.toNanos(pollMillis) / 2;
+		this.lastAdaptNanos = System.nanoTime();
+	}
+
+	/**
+	 * Adapts the interval to the link, at most once per ADAPT_INTERVAL_MS
+	 */
+	public synchronized void adapt(double lossRate, double rttMillis, long nowNanos) {
+		if (nowNanos - lastAdaptNanos < TimeUnit.MILLISECONDS.toNanos(ADAPT_INTERVAL_MS)) {
+			return;
+		}
+		lastAdaptNanos = nowNanos;
+		if (rttMillis >= 0 && (fastestRttMillis < 0 || rttMillis < fastestRttMillis)) {
+			fastestRttMillis = rttMillis;
+		}
+		boolean queueing = rttMillis >= 0 && rttMillis > fastestRttMillis + Math.max(fastestRttMillis, RTT_RISE_MS);
+		long min = TimeUnit.MILLISECONDS.toNanos(MIN_INTERVAL_MS);
+		long max = TimeUnit.MILLISECONDS.toNanos(MAX_INTERVAL_MS);
+		if (lossRate > LOSS_LIMIT || queueing) {
+			if (intervalNanos < max) {
+				backoffCount++;
+			}
+			intervalNanos = Math.min(max, (long) (intervalNanos * BACKOFF));
+		} else {
+			intervalNanos = Math.max(min, intervalNanos - TimeUnit.MILLISECONDS.toNanos(RECOVERY_STEP_MS));
+		}
+	}
+
+	/**
+	 * Returns whether the state should go out now
+	 *
+	 * @param active     the player moves or has unacknowledged inputs
+	 * @param changed    something in the packet differs from the last one sent
+	 * @param ackPending snapshots arrived since the last one acknowledged
+	 */
+	public synchronized boolean isStateDue(long nowNanos, boolean active, boolean changed, boolean ackPending) {
+		if (!stateSent) {
+			return true;
+		}
+		long since = nowNanos - lastStateNanos + slackNanos;
+		if (active) {
+			if (since >= intervalNanos) {
+				activeCount++;
+				return true;
+			}
+		} else if (changed) {
+			if (since >= TimeUnit.MILLISECONDS.toNanos(MIN_INTERVAL_MS)) {
+				changeCount++;
+				return true;
+			}
+		} else if (ackPending && since >= TimeUnit.MILLISECONDS.toNanos(ACK_INTERVAL_MS)) {
+			ackCount++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether a heartbeat is due
+	 *
+	 * @param active the player moves, or the last heartbeat went unanswered
+	 */
+	public synchronized boolean isHeartbeatDue(long nowNanos, boolean active) {
+		if (!heartbeatSent) {
+			return true;
+		}
+		long interval = TimeUnit.MILLISECONDS.toNanos(active ? ACTIVE_HEARTBEAT_MS : IDLE_HEARTBEAT_MS);
+		return nowNanos - lastHeartbeatNanos + slackNanos >= interval;
+	}
+
+	public synchronized void onStateSent(long nowNanos) {
+		lastStateNanos = nowNanos;
+		stateSent = true;
+	}
+
+	public synchronized void onHeartbeatSent(long nowNanos) {
+		lastHeartbeatNanos = nowNanos;
+		heartbeatSent = true;
+		heartbeatCount++;
+	}
+
+	/**
+	 * Returns the current interval between state packets of a moving player
+	 */
+	public synchronized double getIntervalMillis() {
+		return intervalNanos / 1e6;
+	}
+
+	public synchronized void reset() {
+		intervalNanos = TimeUnit.MILLISECONDS.toNanos(MIN_INTERVAL_MS);
+		stateSent = false;
+		heartbeatSent = false;
+		lastAdaptNanos = System.nanoTime();
+		fastestRttMillis = -1;
+		activeCount = 0;
+		changeCount = 0;
+		ackCount = 0;
+		heartbeatCount = 0;
+		backoffCount = 0;
+	}
+
+	public synchronized String getSummary() {
+		return String.format("send interval %.0f ms; %d state(s) while active, %d on change, %d to ack, %d heartbeat(s),"
+				+ " %d backoff(s)", intervalNanos / 1e6, activeCount, changeCount, ackCount, heartbeatCount,
+				backoffCount);
+	}
+}
@@ -0,0 +1,189 @@
+package network;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The servers a client has heard of on the LAN, kept up to date beacon by
+ * beacon.
+ *
+ * A server is keyed by its game address, the beacon's source address with the
+ * port the beacon advertises, and keeps its place in the list as long as it
+ * is heard from. One not heard from for EXPIRY_MS, three missed beacons, is
+ * dropped. The version goes up whenever anything a player would see changes,
+ * so the list is only shown again when it did.
+ *
+ * Safe to use from any thread.
+ */
+public class ServerTable {
+	private static final long EXPIRY_MS = 3500;
+
+	private final LinkedHashMap<InetSocketAddress, Entry> entries = new LinkedHashMap<>();
+	private long version = 0;
+
+	/**
+	 * One server as last heard
+	 */
+	public static class Entry {
+		private final InetSocketAddress address;
+		private String name;
+		private int players;
+		private int maxPlayers;
+		private int phase;
+		private double pingMillis = -1;
+		private long lastSeenNanos;
+
+		Entry(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		public InetSocketAddress getAddress() {
+			return address;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getPlayers() {
+			return players;
+		}
+
+		public int getMaxPlayers() {
+			return maxPlayers;
+		}
+
+		public boolean isPlaying() {
+			return phase == LanDiscovery.PHASE_PLAYING;
+		}
+
+		/**
+		 * Returns the round trip of the last query it answered, or -1
+		 */
+		public double getPingMillis() {
+			return pingMillis;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			text.append(address.getAddress().getHostAddress()).append(':').append(address.getPort()).append(" - ")
+					.append(name).append(" (").append(players).append('/').append(maxPlayers)
+					.append(isPlaying() ? ", in game" : ", in lobby");
+			if (pingMillis >= 0) {
+				text.append(String.format(", %.0f ms", pingMillis));
+			}
+			return text.append(')').toString();
+		}
+	}
+
+	/**
+	 * Adds or refreshes the server a beacon came from
+	 *
+	 * @param source     where the beacon came from
+	 * @param pingMillis round trip of the query it answers, or -1
+	 * @return whether the list changed
+	 */
+	public synchronized boolean update(InetSocketAddress source, LanDiscovery.Beacon beacon, double pingMillis,
+			long nowNanos) {
+		InetSocketAddress address = new InetSocketAddress(source.getAddress(), beacon.gamePort);
+		Entry entry = entries.get(address);
+		boolean changed = false;
+		if (entry == null) {
+			entry = new Entry(address);
+			entries.put(address, entry);
+			changed = true;
+		}
+		entry.lastSeenNanos = nowNanos;
+		if (!beacon.name.equals(entry.name) || beacon.players != entry.players
+				|| beacon.maxPlayers != entry.maxPlayers || beacon.phase != entry.phase) {
+			entry.name = beacon.name;
+			entry.players = beacon.players;
+			entry.maxPlayers = beacon.maxPlayers;
+			entry.phase = beacon.phase;
+			changed = true;
+		}
+		if (pingMillis >= 0) {
+			// Only the first ping shows the list again; later ones wait for the next change
+			changed = changed || entry.pingMillis < 0;
+			entry.pingMillis = pingMillis;
+		}
+		if (changed) {
+			version++;
+		}
+		return changed;
+	}
+
+	/**
+	 * Drops the servers not heard from for EXPIRY_MS
+	 *
+	 * @return whether any was dropped
+	 */
+	public synchronized boolean expire(long nowNanos) {
+		boolean changed = false;
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			if (nowNanos - it.next().lastSeenNanos > TimeUnit.MILLISECONDS.toNanos(EXPIRY_MS)) {
+				it.remove();
+				changed = true;
+			}
+		}
+		if (changed) {
+			version++;
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the server at a place in the list, from 0, or null
+	 */
+	public synchronized Entry get(int index) {
+		if (index < 0 || index >= entries.size()) {
+			return null;
+		}
+		return getEntries().get(index);
+	}
+
+	/**
+	 * Returns the servers in the order they were first heard from
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns a number that changes whenever the list does
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	public synchronized void clear() {
+		if (!entries.isEmpty()) {
+			entries.clear();
+			version++;
+		}
+	}
+
+	/**
+	 * Returns the numbered list, as a player picks from it
+	 */
+	public synchronized String format() {
+		if (entries.isEmpty()) {
+			return "No servers found yet.";
+		}
+		StringBuilder text = new StringBuilder("Servers on the LAN:\n");
+		int number = 1;
+		for (Entry entry : entries.values()) {
+			text.append(number++).append(". ").append(entry).append('\n');
+		}
+		return text.toString();
+	}
+}
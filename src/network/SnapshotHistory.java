@@ -0,0 +1,89 @@
+package network;
+
+/**
+ * Ring of recent snapshots indexed by sequence number.
+ *
+ * On the server there is one per client, holding what that client will have
+ * reconstructed for each snapshot sent, plus the newest sequence the client
+ * acknowledged. On the client it holds the reconstructed snapshots so a delta
+ * can be applied against whichever baseline the server chose.
+ */
+public class SnapshotHistory {
+	public static final int CAPACITY = 32;
+	public static final int NO_SEQUENCE = -1;
+
+	private final int[] sequences = new int[CAPACITY];
+	private final EntityTable[] states = new EntityTable[CAPACITY];
+	private int latestSequence = NO_SEQUENCE;
+	private int ackedSequence = NO_SEQUENCE;
+	private boolean fullRequested = true;
+
+	public SnapshotHistory() {
+		reset();
+	}
+
+	public synchronized void store(int sequence, EntityTable snapshot) {
+		int slot = Math.floorMod(sequence, CAPACITY);
+		sequences[slot] = sequence;
+		states[slot] = snapshot;
+		if (sequence > latestSequence) {
+			latestSequence = sequence;
+		}
+	}
+
+	/**
+	 * Returns the snapshot stored for a sequence, or null if it was never stored
+	 * or has already been overwritten
+	 */
+	public synchronized EntityTable get(int sequence) {
+		if (sequence == NO_SEQUENCE) {
+			return null;
+		}
+		int slot = Math.floorMod(sequence, CAPACITY);
+		return sequences[slot] == sequence ? states[slot] : null;
+	}
+
+	/**
+	 * Records that the peer holds this snapshot. Older acknowledgements arriving
+	 * out of order are ignored.
+	 */
+	public synchronized void acknowledge(int sequence) {
+		if (sequence > ackedSequence) {
+			ackedSequence = sequence;
+		}
+	}
+
+	public synchronized int getAckedSequence() {
+		return ackedSequence;
+	}
+
+	public synchronized int getLatestSequence() {
+		return latestSequence;
+	}
+
+	/**
+	 * Returns the snapshot to delta against, or null when the next snapshot has
+	 * to be sent in full because the peer asked for one or the baseline is gone
+	 */
+	public synchronized EntityTable getBaseline(int sequence) {
+		return fullRequested ? null : get(sequence);
+	}
+
+	public synchronized void setFullRequested(boolean fullRequested) {
+		this.fullRequested = fullRequested;
+	}
+
+	public synchronized boolean isFullRequested() {
+		return fullRequested;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < CAPACITY; i++) {
+			sequences[i] = NO_SEQUENCE;
+			states[i] = null;
+		}
+		latestSequence = NO_SEQUENCE;
+		ackedSequence = NO_SEQUENCE;
+		fullRequested = true;
+	}
+}
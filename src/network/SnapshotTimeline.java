@@ -0,0 +1,114 @@
+package network;
+
+/**
+ * Maps snapshot server times onto the client's clock and picks how far behind
+ * the newest snapshot remote players are drawn.
+ *
+ * The render delay is one snapshot interval plus a margin of a few times the
+ * measured arrival jitter, so the render time normally sits between two
+ * received snapshots even when packets arrive in bursts. It follows jitter up
+ * quickly and comes back down slowly, which keeps motion smooth without
+ * carrying more delay than the network needs.
+ */
+public class SnapshotTimeline {
+	public static final double MIN_DELAY_MS = 50;
+	public static final double MAX_DELAY_MS = 400;
+	private static final double JITTER_MULTIPLIER = 3;
+	private static final double INTERVAL_WEIGHT = 0.1;
+	private static final double DELAY_RISE_WEIGHT = 0.25;
+	private static final double DELAY_FALL_WEIGHT = 0.02;
+	// Lets the clock offset follow drift upwards, it drops to a faster path at once
+	private static final double OFFSET_RISE_WEIGHT = 0.01;
+
+	private boolean started = false;
+	private int lastServerTime;
+	private long serverTimeMillis; // unwrapped
+	private double offsetMillis; // local time minus server time on the fastest path seen
+	private double lastTransitMillis;
+	private double jitterMillis = 0;
+	private double intervalMillis = 0;
+	private double delayMillis = 100;
+	private long snapshotCount = 0;
+
+	/**
+	 * Records a snapshot's arrival
+	 *
+	 * @param serverTime   the snapshot's wrapping server time in milliseconds
+	 * @param arrivalNanos System.nanoTime() when it arrived
+	 * @return the snapshot's unwrapped server time, used to timestamp samples
+	 */
+	public synchronized double onSnapshot(int serverTime, long arrivalNanos) {
+		double arrivalMillis = arrivalNanos / 1_000_000.0;
+		if (!started) {
+			started = true;
+			serverTimeMillis = serverTime;
+			offsetMillis = arrivalMillis - serverTimeMillis;
+			lastTransitMillis = offsetMillis;
+		} else {
+			int elapsed = serverTime - lastServerTime;
+			if (elapsed <= 0) {
+				return serverTimeMillis; // reordered, keep the timeline monotonic
+			}
+			serverTimeMillis += elapsed;
+			intervalMillis = intervalMillis == 0 ? elapsed
+					: intervalMillis + INTERVAL_WEIGHT * (elapsed - intervalMillis);
+
+			// RFC 3550 interarrival jitter
+			double transit = arrivalMillis - serverTimeMillis;
+			jitterMillis += (Math.abs(transit - lastTransitMillis) - jitterMillis) / 16;
+			lastTransitMillis = transit;
+			if (transit < offsetMillis) {
+				offsetMillis = transit;
+			} else {
+				offsetMillis += OFFSET_RISE_WEIGHT * (transit - offsetMillis);
+			}
+		}
+		lastServerTime = serverTime;
+		snapshotCount++;
+
+		double target = Math.max(MIN_DELAY_MS,
+				Math.min(MAX_DELAY_MS, intervalMillis + JITTER_MULTIPLIER * jitterMillis));
+		delayMillis += (target > delayMillis ? DELAY_RISE_WEIGHT : DELAY_FALL_WEIGHT) * (target - delayMillis);
+		return serverTimeMillis;
+	}
+
+	/**
+	 * Returns the server time remote players should be drawn at, or NaN before
+	 * the first snapshot
+	 */
+	public synchronized double getRenderTime(long nowNanos) {
+		if (!started) {
+			return Double.NaN;
+		}
+		return nowNanos / 1_000_000.0 - offsetMillis - delayMillis;
+	}
+
+	public synchronized double getDelayMillis() {
+		return delayMillis;
+	}
+
+	public synchronized double getJitterMillis() {
+		return jitterMillis;
+	}
+
+	public synchronized double getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	public synchronized long getSnapshotCount() {
+		return snapshotCount;
+	}
+
+	public synchronized void reset() {
+		started = false;
+		jitterMillis = 0;
+		intervalMillis = 0;
+		delayMillis = 100;
+		snapshotCount = 0;
+	}
+
+	public synchronized String getSummary() {
+		return String.format("interpolation delay %.1f ms, jitter %.1f ms, snapshot interval %.1f ms",
+				delayMillis, jitterMillis, intervalMillis);
+	}
+}
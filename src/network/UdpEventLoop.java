@@ -0,0 +1,333 @@
+package network;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking UDP endpoint built on a DatagramChannel and a Selector.
+ *
+ * A dedicated I/O thread drains the socket into pooled direct buffers and
+ * queues them for a worker stage, which pulls them with receive() the same
+ * way it would call DatagramSocket.receive. Handlers that take their time
+ * only slow down the worker; intake keeps running, and when the bounded queue
+ * is full new datagrams are dropped and counted instead of piling up.
+ *
+ * Sends may come from any thread and go straight to the channel, or through
+ * an OutboundWriter that queues them per peer.
+ */
+public class UdpEventLoop {
+	public static final int DEFAULT_QUEUE_CAPACITY = 512;
+	public static final int DEFAULT_BUFFER_SIZE = 2048;
+	private static final long CLOSE_CHECK_INTERVAL_MS = 200;
+
+	private final String name;
+	private final int queueCapacity;
+	private final BufferPool receivePool;
+	private final BufferPool sendPool;
+	private final ArrayBlockingQueue<InboundDatagram> inbound;
+	private final ByteBuffer discardBuffer;
+	private DatagramChannel channel;
+	private Selector selector;
+	private Thread ioThread;
+	private volatile boolean open = false;
+	private volatile PacketJournal journal;
+	private volatile boolean discardSends = false;
+
+	private final AtomicLong receivedCount = new AtomicLong();
+	private final AtomicLong queueDropCount = new AtomicLong();
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong sendDropCount = new AtomicLong();
+
+	public UdpEventLoop(String name) {
+		this(name, DEFAULT_QUEUE_CAPACITY, DEFAULT_BUFFER_SIZE);
+	}
+
+	public UdpEventLoop(String name, int queueCapacity, int bufferSize) {
+		this.name = name;
+		this.queueCapacity = queueCapacity;
+		// One extra buffer per queued datagram plus headroom for the one being read
+		this.receivePool = new BufferPool(queueCapacity + 8, bufferSize);
+		this.sendPool = new BufferPool(32, bufferSize);
+		this.inbound = new ArrayBlockingQueue<>(queueCapacity);
+		this.discardBuffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * Binds the channel and starts the I/O thread
+	 *
+	 * @param port local port, or 0 for an ephemeral one
+	 */
+	public synchronized void open(int port, boolean broadcast) throws IOException {
+		if (open) {
+			return;
+		}
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.SO_BROADCAST, broadcast);
+		channel.bind(new InetSocketAddress(port));
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+		open = true;
+
+		ioThread = new Thread(this::runIoLoop, name + "-IO-Thread");
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+
+	private void runIoLoop() {
+		try {
+			while (open) {
+				selector.select();
+				selector.selectedKeys().clear();
+				drainChannel();
+			}
+		} catch (IOException e) {
+			if (open) {
+				System.err.println(name + " I/O loop error: " + e.getMessage());
+			}
+		} finally {
+			// Closed here rather than in close() so select never sees a closed selector
+			try {
+				selector.close();
+			} catch (IOException e) {
+				System.err.println(name + " error closing selector: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Reads every datagram currently waiting on the socket
+	 */
+	private void drainChannel() throws IOException {
+		while (true) {
+			ByteBuffer buffer = receivePool.acquire();
+			if (buffer == null) {
+				// Worker is far behind, still drain the socket so it does not stall
+				discardBuffer.clear();
+				if (channel.receive(discardBuffer) == null) {
+					return;
+				}
+				queueDropCount.incrementAndGet();
+				continue;
+			}
+
+			SocketAddress sender = channel.receive(buffer);
+			if (sender == null) {
+				receivePool.release(buffer);
+				return;
+			}
+			buffer.flip();
+			receivedCount.incrementAndGet();
+			long receivedNanos = System.nanoTime();
+			PacketJournal recorder = journal;
+			if (recorder != null) {
+				recorder.recordInbound(buffer, sender, receivedNanos);
+			}
+			InboundDatagram datagram = new InboundDatagram(buffer, (InetSocketAddress) sender, receivedNanos,
+					receivePool);
+			if (!inbound.offer(datagram)) {
+				datagram.release();
+				queueDropCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next datagram. The caller must release it when done.
+	 *
+	 * @throws SocketException once the loop is closed
+	 */
+	public InboundDatagram receive() throws IOException {
+		while (true) {
+			InboundDatagram datagram = poll(CLOSE_CHECK_INTERVAL_MS);
+			if (datagram != null) {
+				return datagram;
+			}
+			if (!open) {
+				throw new SocketException("Socket closed");
+			}
+		}
+	}
+
+	/**
+	 * Waits up to timeoutMillis for the next datagram
+	 *
+	 * @throws SocketTimeoutException if nothing arrives in time
+	 * @throws SocketException        once the loop is closed
+	 */
+	public InboundDatagram receive(long timeoutMillis) throws IOException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (true) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				throw new SocketTimeoutException("Receive timed out");
+			}
+			InboundDatagram datagram = poll(Math.min(remaining, CLOSE_CHECK_INTERVAL_MS));
+			if (datagram != null) {
+				return datagram;
+			}
+			if (!open) {
+				throw new SocketException("Socket closed");
+			}
+		}
+	}
+
+	private InboundDatagram poll(long timeoutMillis) throws IOException {
+		try {
+			return inbound.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SocketException("Socket closed");
+		}
+	}
+
+	/**
+	 * Sends the remaining bytes of data. Datagrams the socket has no room for
+	 * are dropped and counted, as UDP would.
+	 */
+	public void send(ByteBuffer data, SocketAddress target) throws IOException {
+		if (!trySend(data, target)) {
+			sendDropCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Sends the remaining bytes of data if the socket has room for them
+	 *
+	 * @return false if it has none; data is left as it was, to be retried
+	 */
+	public boolean trySend(ByteBuffer data, SocketAddress target) throws IOException {
+		if (!open) {
+			throw new SocketException("Socket closed");
+		}
+		PacketJournal recorder = journal;
+		ByteBuffer sent = recorder != null ? data.duplicate() : null;
+		if (discardSends) {
+			data.position(data.limit());
+		} else if (channel.send(data, target) == 0) {
+			return false;
+		}
+		sentCount.incrementAndGet();
+		if (recorder != null) {
+			recorder.recordOutbound(sent, target);
+		}
+		return true;
+	}
+
+	/**
+	 * Copies data into a pooled direct buffer and sends it
+	 */
+	public void send(byte[] data, int offset, int length, SocketAddress target) throws IOException {
+		ByteBuffer buffer = length <= sendPool.getBufferSize() ? sendPool.acquire() : null;
+		if (buffer == null) {
+			send(ByteBuffer.wrap(data, offset, length), target);
+			return;
+		}
+		try {
+			buffer.put(data, offset, length).flip();
+			send(buffer, target);
+		} finally {
+			sendPool.release(buffer);
+		}
+	}
+
+	public void send(byte[] data, int length, InetAddress address, int port) throws IOException {
+		send(data, 0, length, new InetSocketAddress(address, port));
+	}
+
+	/**
+	 * Stops the I/O thread and closes the channel. Workers blocked in receive
+	 * get a SocketException.
+	 */
+	public synchronized void close() {
+		if (!open) {
+			return;
+		}
+		open = false;
+		try {
+			selector.wakeup();
+			channel.close();
+		} catch (IOException e) {
+			System.err.println(name + " error closing channel: " + e.getMessage());
+		}
+		InboundDatagram datagram;
+		while ((datagram = inbound.poll()) != null) {
+			datagram.release();
+		}
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Returns the socket view of the channel, for its local port and address.
+	 * Sending through it is not possible in non-blocking mode, use send instead.
+	 */
+	public DatagramSocket getSocket() {
+		return channel == null ? null : channel.socket();
+	}
+
+	public int getLocalPort() {
+		return channel == null ? -1 : channel.socket().getLocalPort();
+	}
+
+	public int getQueueDepth() {
+		return inbound.size();
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	public long getQueueDropCount() {
+		return queueDropCount.get();
+	}
+
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	public long getSendDropCount() {
+		return sendDropCount.get();
+	}
+
+	/**
+	 * Records every datagram received and sent from now on, or stops if
+	 * journal is null
+	 */
+	public void setJournal(PacketJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Counts and records sends without putting them on the wire, e.g. when
+	 * replaying a journal whose peers must not hear from us
+	 */
+	public void setDiscardSends(boolean discardSends) {
+		this.discardSends = discardSends;
+	}
+
+	public String getStatsSummary() {
+		return String.format("%s: %d received, %d dropped at intake, queue %d/%d, %d sent, %d send drops", name,
+				getReceivedCount(), getQueueDropCount(), getQueueDepth(), queueCapacity, getSentCount(),
+				getSendDropCount());
+	}
+}
@@ -0,0 +1,128 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import network.Fragmenter;
+import network.OutboundWriter;
+import network.ReliableChannel;
+
+/**
+ * Sends one message to many clients, encoded once for all of them.
+ *
+ * The caller builds and encodes the message a single time; the broadcaster
+ * cuts it into the datagrams it takes, read-only buffers of which every
+ * recipient is queued a view, so no bytes are copied per client. A filter
+ * picks the recipients as it goes, e.g. everyone but the sender, or only the
+ * ghosts for ghost chat. Everything goes through the server's OutboundWriter,
+ * so the session's thread never waits on the socket, and a client that cannot
+ * keep up loses its own datagrams rather than delaying the others'.
+ *
+ * A reliable broadcast still takes one frame per recipient, since every
+ * client has its own sequence numbers, but the message in it is the shared
+ * encoding. Safe to use from any thread.
+ */
+public class Broadcaster {
+	private final Fragmenter fragmenter;
+	private final OutboundWriter writer;
+	private final ReliableChannel reliableChannel;
+
+	private final AtomicLong broadcastCount = new AtomicLong();
+	private final AtomicLong reliableCount = new AtomicLong();
+	private final AtomicLong recipientCount = new AtomicLong();
+	private final AtomicLong filteredCount = new AtomicLong();
+	private final AtomicLong backpressureCount = new AtomicLong();
+	private final AtomicLong encodedBytes = new AtomicLong();
+	private final AtomicLong deliveredBytes = new AtomicLong();
+
+	Broadcaster(Fragmenter fragmenter, OutboundWriter writer, ReliableChannel reliableChannel) {
+		this.fragmenter = fragmenter;
+		this.writer = writer;
+		this.reliableChannel = reliableChannel;
+	}
+
+	public static Predicate<ClientInfo> everyone() {
+		return clientInfo -> true;
+	}
+
+	/**
+	 * Skips the client a relayed message came from
+	 */
+	public static Predicate<ClientInfo> allBut(ClientInfo sender) {
+		return clientInfo -> !clientInfo.equals(sender);
+	}
+
+	/**
+	 * Queues an encoded message, without delivery guarantees, for every
+	 * recipient the filter accepts
+	 *
+	 * @return the number of recipients it was queued for
+	 */
+	public int broadcast(byte[] message, Iterable<ClientInfo> recipients, Predicate<ClientInfo> filter)
+			throws IOException {
+		ByteBuffer[] datagrams = fragmenter.split(message, 0, message.length);
+		int sent = 0;
+		for (ClientInfo clientInfo : recipients) {
+			if (!filter.test(clientInfo)) {
+				filteredCount.incrementAndGet();
+				continue;
+			}
+			InetSocketAddress target = new InetSocketAddress(clientInfo.getAddress(), clientInfo.getPort());
+			boolean queued = true;
+			for (ByteBuffer datagram : datagrams) {
+				if (!writer.enqueue(datagram.duplicate(), target)) {
+					queued = false; // the rest of the message is no use without this part
+					break;
+				}
+			}
+			if (!queued) {
+				backpressureCount.incrementAndGet();
+				continue;
+			}
+			clientInfo.getLinkQuality().onBytesSent(message.length);
+			sent++;
+		}
+		count(message, sent);
+		return sent;
+	}
+
+	/**
+	 * Sends an encoded message exactly once to every recipient the filter
+	 * accepts, in order with the other reliable messages to each of them
+	 *
+	 * @return the number of recipients it was sent to
+	 */
+	public int broadcastReliable(byte[] message, Iterable<ClientInfo> recipients, Predicate<ClientInfo> filter)
+			throws IOException {
+		int sent = 0;
+		for (ClientInfo clientInfo : recipients) {
+			if (!filter.test(clientInfo)) {
+				filteredCount.incrementAndGet();
+				continue;
+			}
+			clientInfo.getLinkQuality().onBytesSent(message.length);
+			reliableChannel.send(message, new InetSocketAddress(clientInfo.getAddress(), clientInfo.getPort()));
+			sent++;
+		}
+		reliableCount.incrementAndGet();
+		count(message, sent);
+		return sent;
+	}
+
+	private void count(byte[] message, int sent) {
+		broadcastCount.incrementAndGet();
+		recipientCount.addAndGet(sent);
+		encodedBytes.addAndGet(message.length);
+		deliveredBytes.addAndGet((long) message.length * sent);
+	}
+
+	public String getStatsSummary() {
+		return String.format("Broadcasts: %d (%d reliable) to %d recipient(s), %d filtered out, %d lost to"
+				+ " backpressure; %d byte(s) encoded for %d sent", broadcastCount.get(), reliableCount.get(),
+				recipientCount.get(), filteredCount.get(), backpressureCount.get(), encodedBytes.get(),
+				deliveredBytes.get());
+	}
+}
@@ -3,15 +3,27 @@ package server;
 import java.net.InetAddress;
 import java.util.Objects;
 
+import network.LinkQuality;
+import network.SnapshotHistory;
+
 public class ClientInfo {
+    public static final int NO_ID = -1;
+
     private final InetAddress address;
     private final int port;
     private final String name;
+    private final String key; // built once, it is looked up on every packet
+    private volatile int playerId = NO_ID;
+    private volatile String resumeToken;
+    private volatile long suspendedAtNanos = 0; // 0 while connected
+    private SnapshotHistory snapshotHistory;
+    private LinkQuality linkQuality;
 
     public ClientInfo(InetAddress address, int port, String name) {
         this.address = address;
         this.port = port;
         this.name = name;
+        this.key = address.getHostAddress() + ":" + port;
     }
 
     public InetAddress getAddress() {
@@ -26,6 +38,82 @@ public class ClientInfo {
         return name;
     }
 
+    /**
+     * Returns the "host:port" key used by GameLogic.playerList and in messages
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the compact id assigned at handshake, or NO_ID
+     */
+    public int getPlayerId() {
+        return playerId;
+    }
+
+    public void setPlayerId(int playerId) {
+        this.playerId = playerId;
+    }
+
+    /**
+     * Returns the secret the client presents to take its place back after a
+     * disconnect, or null if it has none
+     */
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    /**
+     * Whether the client stopped answering and its place is being kept for it
+     */
+    public boolean isSuspended() {
+        return suspendedAtNanos != 0;
+    }
+
+    long getSuspendedAtNanos() {
+        return suspendedAtNanos;
+    }
+
+    void setSuspendedAtNanos(long suspendedAtNanos) {
+        this.suspendedAtNanos = suspendedAtNanos;
+    }
+
+    /**
+     * Returns the snapshots sent to this client, created on first use since
+     * only the server needs it
+     */
+    public synchronized SnapshotHistory getSnapshotHistory() {
+        if (snapshotHistory == null) {
+            snapshotHistory = new SnapshotHistory();
+        }
+        return snapshotHistory;
+    }
+
+    /**
+     * Returns the measured quality of the link to this client, created on
+     * first use
+     */
+    public synchronized LinkQuality getLinkQuality() {
+        if (linkQuality == null) {
+            linkQuality = new LinkQuality();
+        }
+        return linkQuality;
+    }
+
+    /**
+     * Keeps the link measurements and resume token of the entry this one
+     * replaces, e.g. on a rename
+     */
+    synchronized void inherit(ClientInfo previous) {
+        linkQuality = previous.getLinkQuality();
+        resumeToken = previous.getResumeToken();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,310 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import network.EntityTable;
+
+/**
+ * The clients connected to one session, indexed by address and by player id.
+ *
+ * Lookups are O(1) and never lock. Broadcast loops iterate an immutable list
+ * that is replaced on every connect and disconnect, so they never see a
+ * half-made change or throw ConcurrentModificationException. Connect and
+ * disconnect take a lock and update everything a client owns in one step:
+ * its entry, its player id, its missed-ping count and its player in the game's
+ * player list.
+ *
+ * A client that stops answering can be suspended instead of removed: it
+ * leaves the client list but keeps its player id and player, so it can take
+ * its place back, from the same address or by presenting its resume token
+ * from a new one, until the grace period runs out.
+ */
+public class ClientRegistry {
+	public static final String DEFAULT_NAME = "Player";
+
+	private final Map<String, PlayerInfo> players;
+	private final int firstId;
+	private final String tokenPrefix;
+	private final SecureRandom random = new SecureRandom();
+	private final ConcurrentHashMap<InetSocketAddress, ClientInfo> byAddress = new ConcurrentHashMap<>();
+	private final AtomicReferenceArray<ClientInfo> byId = new AtomicReferenceArray<>(EntityTable.CAPACITY);
+	private final AtomicReferenceArray<PlayerInfo> playersById = new AtomicReferenceArray<>(EntityTable.CAPACITY);
+	private final AtomicIntegerArray missedPings = new AtomicIntegerArray(EntityTable.CAPACITY);
+	private final ConcurrentHashMap<String, ClientInfo> byToken = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<InetSocketAddress, ClientInfo> suspended = new ConcurrentHashMap<>();
+	private volatile List<ClientInfo> clients = Collections.emptyList();
+
+	/**
+	 * @param players the game's player list, cleaned up on disconnect
+	 * @param firstId     lowest id handed out; ids below it are reserved, e.g.
+	 *                    for the hosting player
+	 * @param tokenPrefix starts every resume token, so a server can tell which
+	 *                    registry issued one
+	 */
+	public ClientRegistry(Map<String, PlayerInfo> players, int firstId, String tokenPrefix) {
+		this.players = players;
+		this.firstId = firstId;
+		this.tokenPrefix = tokenPrefix;
+	}
+
+	/**
+	 * Registers a client, or renames it if it is already connected. A rename
+	 * keeps its player id. A suspended client at the address is resumed.
+	 *
+	 * @param name the client's name, or null to keep the current one
+	 * @return the client's entry, or null if there is no player id left
+	 */
+	public synchronized ClientInfo connect(InetSocketAddress address, String name) {
+		ClientInfo away = suspended.remove(address);
+		if (away != null) {
+			attach(away, address);
+		}
+		ClientInfo existing = byAddress.get(address);
+		if (existing != null && (name == null || name.equals(existing.getName()))) {
+			return existing;
+		}
+
+		int id = existing != null ? existing.getPlayerId() : freeId();
+		if (id == ClientInfo.NO_ID) {
+			return null;
+		}
+		ClientInfo client = new ClientInfo(address.getAddress(), address.getPort(),
+				name != null ? name : DEFAULT_NAME);
+		client.setPlayerId(id);
+		if (existing != null) {
+			client.inherit(existing);
+		} else {
+			missedPings.set(id, 0);
+			playersById.set(id, null);
+			client.setResumeToken(newToken());
+		}
+		byAddress.put(address, client);
+		byId.set(id, client);
+		byToken.put(client.getResumeToken(), client);
+		publish();
+		return client;
+	}
+
+	/**
+	 * Whether a suspended client is waiting at the address
+	 */
+	public boolean isSuspended(InetSocketAddress address) {
+		return suspended.containsKey(address);
+	}
+
+	/**
+	 * Takes a client out of the client list but keeps its player id and
+	 * player for it
+	 *
+	 * @return the suspended entry, or null if the client was not connected
+	 */
+	public synchronized ClientInfo suspend(InetSocketAddress address, long nowNanos) {
+		ClientInfo client = byAddress.remove(address);
+		if (client == null) {
+			return null;
+		}
+		client.setSuspendedAtNanos(nowNanos);
+		suspended.put(address, client);
+		missedPings.set(client.getPlayerId(), 0);
+		publish();
+		return client;
+	}
+
+	/**
+	 * Returns the client, connected or suspended, that holds a resume token
+	 */
+	public ClientInfo getByToken(String token) {
+		return token == null ? null : byToken.get(token);
+	}
+
+	/**
+	 * Gives the client holding a resume token its place back at an address.
+	 * If the address is new, its player moves there, and whatever else had
+	 * registered at the address since is removed.
+	 *
+	 * @return the client's entry, or null if the token is unknown or expired
+	 */
+	public synchronized ClientInfo resume(String token, InetSocketAddress address) {
+		ClientInfo client = getByToken(token);
+		if (client == null) {
+			return null;
+		}
+		InetSocketAddress previous = new InetSocketAddress(client.getAddress(), client.getPort());
+		if (previous.equals(address)) {
+			if (suspended.remove(address) != null) {
+				attach(client, address);
+			}
+			return client;
+		}
+
+		ClientInfo squatter = byAddress.get(address);
+		if (squatter != null) {
+			disconnect(address);
+		}
+		byAddress.remove(previous);
+		suspended.remove(previous);
+		int id = client.getPlayerId();
+		ClientInfo moved = new ClientInfo(address.getAddress(), address.getPort(), client.getName());
+		moved.setPlayerId(id);
+		moved.inherit(client);
+		PlayerInfo player = playersById.get(id);
+		if (player != null) {
+			PlayerInfo movedPlayer = player.movedTo(address.getAddress(), address.getPort());
+			players.remove(player.getKey(), player);
+			playersById.set(id, movedPlayer);
+			players.put(movedPlayer.getKey(), movedPlayer);
+		}
+		byToken.put(token, moved);
+		attach(moved, address);
+		return moved;
+	}
+
+	/**
+	 * Removes the clients that were suspended for longer than the grace period
+	 *
+	 * @return the removed entries
+	 */
+	public synchronized List<ClientInfo> expireSuspended(long nowNanos, long graceNanos) {
+		List<ClientInfo> expired = new ArrayList<>();
+		Iterator<ClientInfo> it = suspended.values().iterator();
+		while (it.hasNext()) {
+			ClientInfo client = it.next();
+			if (nowNanos - client.getSuspendedAtNanos() >= graceNanos) {
+				it.remove();
+				release(client);
+				expired.add(client);
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Removes a client, connected or suspended, along with its player id,
+	 * missed-ping count, resume token and player
+	 *
+	 * @return the removed entry, or null if the client was not known
+	 */
+	public synchronized ClientInfo disconnect(InetSocketAddress address) {
+		ClientInfo client = byAddress.remove(address);
+		if (client == null) {
+			client = suspended.remove(address);
+			if (client == null) {
+				return null;
+			}
+		}
+		release(client);
+		publish();
+		return client;
+	}
+
+	private void attach(ClientInfo client, InetSocketAddress address) {
+		client.setSuspendedAtNanos(0);
+		byAddress.put(address, client);
+		byId.set(client.getPlayerId(), client);
+		missedPings.set(client.getPlayerId(), 0);
+		publish();
+	}
+
+	private void release(ClientInfo client) {
+		int id = client.getPlayerId();
+		byId.compareAndSet(id, client, null);
+		PlayerInfo player = playersById.getAndSet(id, null);
+		players.remove(client.getKey(), player != null ? player : players.get(client.getKey()));
+		missedPings.set(id, 0);
+		if (client.getResumeToken() != null) {
+			byToken.remove(client.getResumeToken(), client);
+		}
+	}
+
+	private String newToken() {
+		return tokenPrefix + Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+	}
+
+	public ClientInfo get(InetSocketAddress address) {
+		return byAddress.get(address);
+	}
+
+	/**
+	 * Returns the client holding a player id, which may be suspended
+	 */
+	public ClientInfo get(int playerId) {
+		return EntityTable.isValidId(playerId) ? byId.get(playerId) : null;
+	}
+
+	/**
+	 * Returns the player a client plays, or null before its first state packet
+	 */
+	public PlayerInfo getPlayer(int playerId) {
+		return EntityTable.isValidId(playerId) ? playersById.get(playerId) : null;
+	}
+
+	/**
+	 * Records the player of a connected client and adds it to the player list
+	 *
+	 * @return false if the client disconnected in the meantime
+	 */
+	public synchronized boolean setPlayer(PlayerInfo player) {
+		int id = player.getPlayerId();
+		ClientInfo client = get(id);
+		if (client == null || client.isSuspended() || !client.getKey().equals(player.getKey())) {
+			return false;
+		}
+		playersById.set(id, player);
+		players.put(player.getKey(), player);
+		return true;
+	}
+
+	/**
+	 * Returns the connected clients, not the suspended ones. The list is
+	 * immutable and can be iterated from any thread without locking.
+	 */
+	public List<ClientInfo> getClients() {
+		return clients;
+	}
+
+	public int size() {
+		return clients.size();
+	}
+
+	public boolean isEmpty() {
+		return clients.isEmpty();
+	}
+
+	/**
+	 * Records that a client answered, e.g. with a ping
+	 */
+	public void resetMissedPings(ClientInfo client) {
+		missedPings.set(client.getPlayerId(), 0);
+	}
+
+	/**
+	 * Counts one more missed ping for a client
+	 *
+	 * @return the pings it has missed in a row
+	 */
+	public int incrementMissedPings(ClientInfo client) {
+		return missedPings.incrementAndGet(client.getPlayerId());
+	}
+
+	private int freeId() {
+		for (int id = firstId; id < EntityTable.CAPACITY; id++) {
+			if (byId.get(id) == null) {
+				return id;
+			}
+		}
+		return ClientInfo.NO_ID;
+	}
+
+	private void publish() {
+		clients = Collections.unmodifiableList(new ArrayList<>(byAddress.values()));
+	}
+}
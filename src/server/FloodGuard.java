@@ -0,0 +1,219 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import network.Fragmenter;
+import network.MessageCodec;
+import network.PlayerStateCodec;
+import network.ReliableChannel;
+
+/**
+ * Per-peer rate limits, checked on the opcode of every datagram before
+ * anything else is read, so one client flooding the server cannot slow down
+ * everyone else's messages.
+ *
+ * Each peer has a token bucket per message class, sized well above what a
+ * real client sends: its state 25 times a second, a ping every 400 ms, chat
+ * and game events at human speed. A datagram its bucket has no token for is
+ * dropped and counted. A peer that keeps going over, more than BAN_DROPS drops
+ * within BAN_WINDOW_MS, is banned: everything it sends is dropped unread for
+ * a while, twice as long with each ban up to MAX_BAN_MS.
+ *
+ * Only the router thread checks datagrams; the statistics can be read from
+ * any thread.
+ */
+public class FloodGuard {
+
+	/**
+	 * What a datagram is, as far as its first byte tells
+	 */
+	public enum MessageClass {
+		// rate per second, burst
+		STATE(50, 25), CONTROL(10, 20), CHAT(2, 8), RELIABLE(20, 40), ACK(60, 120), FRAGMENT(100, 100);
+
+		final double rate;
+		final double burst;
+
+		MessageClass(double rate, double burst) {
+			this.rate = rate;
+			this.burst = burst;
+		}
+
+		/**
+		 * Classifies the datagram at the buffer's position
+		 */
+		public static MessageClass of(ByteBuffer data) {
+			byte opcode = data.get(data.position());
+			if (opcode == PlayerStateCodec.OP_CLIENT_STATE) {
+				return STATE;
+			} else if (opcode == ReliableChannel.OP_RELIABLE) {
+				return RELIABLE; // kills, reports, votes and meeting chat
+			} else if (opcode == ReliableChannel.OP_ACK) {
+				return ACK;
+			} else if (opcode == Fragmenter.OP_FRAGMENT) {
+				return FRAGMENT;
+			} else if ((opcode & 0xFF) == MessageCodec.OP_CHAT) {
+				return CHAT;
+			}
+			return CONTROL;
+		}
+	}
+
+	private static final int BAN_DROPS = 100;
+	private static final long BAN_WINDOW_MS = 5000;
+	private static final long FIRST_BAN_MS = 10000;
+	private static final long MAX_BAN_MS = 5 * 60000;
+	private static final long IDLE_MS = 60000; // a quiet peer is forgotten, unless it is banned
+	private static final long PRUNE_INTERVAL_MS = 10000;
+	private static final int MAX_PEERS = 4096; // beyond this, new peers wait for the next prune
+
+	private static final MessageClass[] CLASSES = MessageClass.values();
+
+	private final ConcurrentHashMap<InetSocketAddress, Peer> peers = new ConcurrentHashMap<>();
+	private volatile boolean enabled = true;
+	private long lastPruneNanos = System.nanoTime();
+
+	private final AtomicLongArray droppedByClass = new AtomicLongArray(CLASSES.length);
+	private final AtomicLong bannedDropCount = new AtomicLong();
+	private final AtomicLong overflowDropCount = new AtomicLong();
+	private final AtomicLong banCount = new AtomicLong();
+
+	/**
+	 * Rate-limit state of one peer, touched by the router thread only
+	 */
+	private static class Peer {
+		final double[] tokens = new double[CLASSES.length];
+		long refilledNanos;
+		long lastSeenNanos;
+		long windowStartNanos;
+		int windowDrops;
+		long bannedUntilNanos;
+		long nextBanMs = FIRST_BAN_MS;
+		long droppedCount;
+
+		Peer(long nowNanos) {
+			for (MessageClass messageClass : CLASSES) {
+				tokens[messageClass.ordinal()] = messageClass.burst;
+			}
+			refilledNanos = nowNanos;
+			windowStartNanos = nowNanos;
+		}
+	}
+
+	/**
+	 * Decides whether a datagram gets handled
+	 *
+	 * @return false if it is to be dropped unread
+	 */
+	public boolean allow(ByteBuffer data, InetSocketAddress sender, long nowNanos) {
+		if (!enabled || !data.hasRemaining()) {
+			return true;
+		}
+		if (nowNanos - lastPruneNanos > TimeUnit.MILLISECONDS.toNanos(PRUNE_INTERVAL_MS)) {
+			prune(nowNanos);
+		}
+
+		Peer peer = peers.get(sender);
+		if (peer == null) {
+			if (peers.size() >= MAX_PEERS) {
+				overflowDropCount.incrementAndGet();
+				return false;
+			}
+			peer = new Peer(nowNanos);
+			peers.put(sender, peer);
+		}
+		peer.lastSeenNanos = nowNanos;
+		if (peer.bannedUntilNanos - nowNanos > 0) {
+			bannedDropCount.incrementAndGet();
+			return false;
+		}
+
+		// Refill every bucket for the time passed, then take a token
+		double elapsed = (nowNanos - peer.refilledNanos) / 1e9;
+		peer.refilledNanos = nowNanos;
+		for (MessageClass messageClass : CLASSES) {
+			int i = messageClass.ordinal();
+			peer.tokens[i] = Math.min(messageClass.burst, peer.tokens[i] + elapsed * messageClass.rate);
+		}
+		MessageClass messageClass = MessageClass.of(data);
+		int i = messageClass.ordinal();
+		if (peer.tokens[i] >= 1) {
+			peer.tokens[i] -= 1;
+			return true;
+		}
+
+		droppedByClass.incrementAndGet(i);
+		peer.droppedCount++;
+		if (nowNanos - peer.windowStartNanos > TimeUnit.MILLISECONDS.toNanos(BAN_WINDOW_MS)) {
+			peer.windowStartNanos = nowNanos;
+			peer.windowDrops = 0;
+		}
+		if (++peer.windowDrops > BAN_DROPS) {
+			ban(sender, peer, nowNanos);
+		}
+		return false;
+	}
+
+	private void ban(InetSocketAddress sender, Peer peer, long nowNanos) {
+		long banMs = peer.nextBanMs;
+		peer.bannedUntilNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(banMs);
+		peer.nextBanMs = Math.min(MAX_BAN_MS, banMs * 2);
+		peer.windowDrops = 0;
+		banCount.incrementAndGet();
+		System.out.println("SERVER: Banned " + sender + " for " + banMs / 1000 + " s after "
+				+ peer.droppedCount + " dropped datagram(s)");
+	}
+
+	/**
+	 * Forgets peers that went quiet and are not banned
+	 */
+	private void prune(long nowNanos) {
+		lastPruneNanos = nowNanos;
+		long idle = TimeUnit.MILLISECONDS.toNanos(IDLE_MS);
+		Iterator<Peer> it = peers.values().iterator();
+		while (it.hasNext()) {
+			Peer peer = it.next();
+			if (nowNanos - peer.lastSeenNanos > idle && peer.bannedUntilNanos - nowNanos <= 0) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Turns the limits on or off, e.g. off to replay a journal faster than it
+	 * was recorded
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long getDroppedCount() {
+		long total = bannedDropCount.get() + overflowDropCount.get();
+		for (int i = 0; i < CLASSES.length; i++) {
+			total += droppedByClass.get(i);
+		}
+		return total;
+	}
+
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder("Flood guard dropped");
+		for (MessageClass messageClass : CLASSES) {
+			summary.append(' ').append(messageClass.name().toLowerCase()).append('=')
+					.append(droppedByClass.get(messageClass.ordinal()));
+		}
+		summary.append(", ").append(bannedDropCount.get()).append(" from banned peers, ")
+				.append(overflowDropCount.get()).append(" over the peer limit; ").append(banCount.get())
+				.append(" ban(s)");
+		return summary.toString();
+	}
+}
@@ -0,0 +1,303 @@
+package server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import gameObjects.Corpse;
+import logic.GameClock;
+import logic.GameLogic;
+import logic.GamePhase;
+import logic.GameState;
+import logic.PlayerLogic;
+
+/**
+ * The rules of a match, applied by the server on its tick.
+ *
+ * Kills and body reports are requests: a client, or the hosting player, asks
+ * for one and the next tick checks it against the server's own state before
+ * anything changes. A kill needs a living imposter whose cooldown has run out
+ * and a living crewmate within KILL_RANGE; a report needs a living player
+ * within REPORT_RANGE of a body nobody found yet. Neither happens during a
+ * meeting or after the match ended. The positions are the server's, which lag
+ * what the player saw by about a round trip and the render delay, so both
+ * ranges allow RANGE_SLACK, and the cooldown COOLDOWN_SLACK_MS of clock
+ * error. A client whose request is rejected gets a resync, which undoes
+ * whatever it showed ahead of the server.
+ *
+ * After the requests the tick checks the win conditions and works out the
+ * phase of the match; a change of phase goes to the clients and the listener.
+ *
+ * Requests may come from any thread, the rest runs on the session's.
+ */
+public class GameRules {
+	public static final double KILL_RANGE = 100;
+	public static final double REPORT_RANGE = 150;
+	private static final double RANGE_SLACK = 40; // about what a player walks in 300 ms
+	private static final long COOLDOWN_SLACK_MS = 500;
+
+	/**
+	 * A kill or report waiting for the next tick
+	 */
+	private static class Request {
+		final boolean kill;
+		final ClientInfo sender; // null for the hosting player
+		final String actorKey; // the killer or reporter
+		final String targetKey; // the victim or the body
+
+		Request(boolean kill, ClientInfo sender, String actorKey, String targetKey) {
+			this.kill = kill;
+			this.sender = sender;
+			this.actorKey = actorKey;
+			this.targetKey = targetKey;
+		}
+	}
+
+	private final GameSession session;
+	private final GameState game;
+	private final ConcurrentLinkedQueue<Request> requests = new ConcurrentLinkedQueue<>();
+	private GamePhase phase = GamePhase.LOBBY;
+
+	// Written by the session's thread only
+	private volatile long killsAccepted = 0;
+	private volatile long killsRejected = 0;
+	private volatile long reportsAccepted = 0;
+	private volatile long reportsRejected = 0;
+	private volatile long phaseChanges = 0;
+
+	GameRules(GameSession session, GameState game) {
+		this.session = session;
+		this.game = game;
+	}
+
+	/**
+	 * Asks for a kill on the next tick
+	 *
+	 * @param sender the client that asked, or null for the hosting player
+	 */
+	public void requestKill(ClientInfo sender, String killerKey, String victimKey) {
+		requests.add(new Request(true, sender, killerKey, victimKey));
+	}
+
+	/**
+	 * Asks for a body report on the next tick
+	 *
+	 * @param sender the client that asked, or null for the hosting player
+	 */
+	public void requestReport(ClientInfo sender, String reporterKey, String corpseKey) {
+		requests.add(new Request(false, sender, reporterKey, corpseKey));
+	}
+
+	/**
+	 * Applies the waiting requests, checks the win conditions and publishes a
+	 * change of phase. Runs on the session's thread.
+	 */
+	void tick() {
+		Request request;
+		while ((request = requests.poll()) != null) {
+			try {
+				apply(request);
+			} catch (Exception e) {
+				System.err.println("SERVER ERROR applying " + describe(request) + ": " + e.getMessage());
+				e.printStackTrace();
+			}
+		}
+
+		if (game.checkGameConditions()) {
+			System.out.println("SERVER: " + session.getName() + " match over: " + game.getGameResult());
+		}
+		GamePhase next = currentPhase();
+		if (next != phase) {
+			GamePhase previous = phase;
+			phase = next;
+			phaseChanges++;
+			session.broadcastPhase(previous, next);
+		}
+	}
+
+	private void apply(Request request) {
+		String reason = request.kill ? checkKill(request) : checkReport(request);
+		if (reason != null) {
+			reject(request, reason);
+			return;
+		}
+		if (request.kill) {
+			killsAccepted++;
+			session.handleKillReport(request.targetKey, request.actorKey);
+		} else {
+			reportsAccepted++;
+			session.handleBodyReport(request.actorKey, request.targetKey);
+		}
+	}
+
+	/**
+	 * Returns why a kill is not allowed, or null if it is
+	 */
+	private String checkKill(Request request) {
+		String reason = checkSender(request);
+		if (reason != null) {
+			return reason;
+		}
+		GamePhase current = currentPhase();
+		if (current != GamePhase.ROLE_REVEAL && current != GamePhase.PLAYING) {
+			return "not allowed in phase " + current;
+		}
+		if (!"imposter".equals(getStatus(request.actorKey))) {
+			return "the killer is not a living imposter";
+		}
+		if (!"crewmate".equals(getStatus(request.targetKey))) {
+			return "the victim is not a living crewmate";
+		}
+		long left = session.getKillReadyAt(request.actorKey) - GameClock.ownTime();
+		if (left > COOLDOWN_SLACK_MS) {
+			return "the cooldown has " + left + " ms left";
+		}
+		double[] killer = getPosition(request.actorKey);
+		double[] victim = getPosition(request.targetKey);
+		double distance = Math.hypot(killer[0] - victim[0], killer[1] - victim[1]);
+		if (distance > KILL_RANGE + RANGE_SLACK) {
+			return String.format("the victim is %.0f units away", distance);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns why a body report is not allowed, or null if it is
+	 */
+	private String checkReport(Request request) {
+		String reason = checkSender(request);
+		if (reason != null) {
+			return reason;
+		}
+		GamePhase current = currentPhase();
+		if (current != GamePhase.ROLE_REVEAL && current != GamePhase.PLAYING) {
+			return "not allowed in phase " + current;
+		}
+		String status = getStatus(request.actorKey);
+		if (status == null || "dead".equals(status)) {
+			return "the reporter is not alive";
+		}
+		Corpse corpse = game.getCorpse(request.targetKey);
+		if (corpse == null) {
+			return "there is no such body";
+		}
+		if (corpse.isFound()) {
+			return "the body was already found";
+		}
+		double[] reporter = getPosition(request.actorKey);
+		double distance = Math.hypot(reporter[0] - corpse.getX(), reporter[1] - corpse.getY());
+		if (distance > REPORT_RANGE + RANGE_SLACK) {
+			return String.format("the body is %.0f units away", distance);
+		}
+		return null;
+	}
+
+	/**
+	 * A client may only kill or report as itself
+	 */
+	private static String checkSender(Request request) {
+		if (request.sender != null && !request.sender.getKey().equals(request.actorKey)) {
+			return "sent by " + request.sender.getKey();
+		}
+		return null;
+	}
+
+	/**
+	 * Tells the player its request did not go through and puts its client
+	 * back in line with the server
+	 */
+	private void reject(Request request, String reason) {
+		if (request.kill) {
+			killsRejected++;
+		} else {
+			reportsRejected++;
+		}
+		System.out.println("SERVER: Rejected " + describe(request) + ", " + reason);
+		if (request.sender != null) {
+			session.sendResync(request.sender);
+		} else if (request.kill) {
+			// The host's window guessed a cooldown when it asked
+			GameLogic.setKillReadyAt(session.getKillReadyAt(request.actorKey));
+		}
+	}
+
+	private String describe(Request request) {
+		return (request.kill ? "kill of " : "report of ") + request.targetKey + " by " + request.actorKey;
+	}
+
+	/**
+	 * Returns a player's status, "dead" for a hosting player on the way out,
+	 * or null for an unknown key
+	 */
+	private String getStatus(String key) {
+		if (session.isHostKey(key)) {
+			if (PlayerLogic.isBeingKilled() || PlayerLogic.isBeingEjected()) {
+				return "dead";
+			}
+			return PlayerLogic.getStatus();
+		}
+		PlayerInfo player = game.getPlayers().get(key);
+		return player != null ? player.getStatus() : null;
+	}
+
+	/**
+	 * Returns a known player's position on the server
+	 */
+	private double[] getPosition(String key) {
+		if (session.isHostKey(key)) {
+			return new double[] { PlayerLogic.getMyPosX(), PlayerLogic.getMyPosY() };
+		}
+		PlayerInfo player = game.getPlayers().get(key);
+		return new double[] { player.getX(), player.getY() };
+	}
+
+	/**
+	 * Works out the phase from the game state
+	 */
+	private GamePhase currentPhase() {
+		if (!game.isPrepEnded()) {
+			return GamePhase.LOBBY;
+		}
+		if (game.isGameEnded()) {
+			return GamePhase.ENDED;
+		}
+		if (session.isMeetingOpen()) {
+			return GamePhase.MEETING;
+		}
+		return game.isImposterRolesSet() ? GamePhase.PLAYING : GamePhase.ROLE_REVEAL;
+	}
+
+	/**
+	 * Returns the task progress to keep for a client from what it reported:
+	 * 0 to 100, never less than before while a match is on, and nothing for a
+	 * living imposter, who has no tasks
+	 */
+	double acceptTaskPercent(PlayerInfo player, double reported) {
+		double percent = Math.max(0, Math.min(100, reported));
+		if (!game.isPrepEnded()) {
+			return percent;
+		}
+		if ("imposter".equals(player.getStatus())) {
+			return player.getTaskPercent();
+		}
+		return Math.max(player.getTaskPercent(), percent);
+	}
+
+	/**
+	 * Returns the phase as of the last tick
+	 */
+	public GamePhase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Drops the requests of the last match
+	 */
+	void reset() {
+		requests.clear();
+	}
+
+	public String getStatsSummary() {
+		return String.format("%s rules: %d kill(s) applied, %d rejected; %d report(s) applied, %d rejected;"
+				+ " %d phase change(s)", session.getName(), killsAccepted, killsRejected, reportsAccepted,
+				reportsRejected, phaseChanges);
+	}
+}
@@ -0,0 +1,1671 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import gameObjects.Corpse;
+import logic.GameClock;
+import logic.GameLogic.GameResult;
+import logic.GamePhase;
+import logic.GameState;
+import logic.MovementLogic;
+import logic.PlayerLogic;
+import network.ClockSync;
+import network.EntityState;
+import network.EntityTable;
+import network.GameScheduler;
+import network.LinkQuality;
+import network.MessageCodec;
+import network.MessageDispatcher;
+import network.PlayerState;
+import network.PlayerStateCodec;
+import network.PredictionBuffer;
+import network.SnapshotHistory;
+
+/**
+ * One lobby and the match played in it: its clients, players, meeting votes
+ * and snapshot state.
+ *
+ * A session never touches the socket itself. Its SessionServer hands it the
+ * messages of its own clients, and runs its handlers, tick and timers on the
+ * one event-loop thread the session is pinned to, so they never run
+ * concurrently with each other.
+ *
+ * A client that stops answering keeps its player for a grace period. When it
+ * comes back, from its old address or with the resume token it got at
+ * handshake, it gets one resync message with the whole match state and a
+ * full snapshot, so it is consistent again after a single round trip.
+ */
+public class GameSession {
+	public static final char TOKEN_SEPARATOR = '-'; // resume tokens are "<session id>-<secret>"
+
+	private static final int MAX_MISSED_PINGS = 5;
+	private static final long RESUME_GRACE_MS = 60000;
+
+	// Area of interest: players are drawn within 1000 units, the margin lets
+	// them arrive at full rate before they come into view
+	private static final double INTEREST_RADIUS = 1200;
+	private static final int FAR_UPDATE_RATE_HZ = 5;
+	private static final double START_SLACK = 50; // around the start a client may report for a new player
+
+	// The hosting player, if any, is always id 0
+	private static final int HOST_ID = 0;
+
+	// Fixed replies, encoded once
+	private static final byte[] PONG_MESSAGE = MessageCodec.encode(MessageCodec.OP_PONG, "");
+
+	private final int id;
+	private final String name;
+	private final GameState game;
+	private final ConcurrentHashMap<String, PlayerInfo> players;
+	private final SessionServer host;
+	private final ServerListener listener;
+	private final MessageDispatcher dispatcher;
+	private final GameRules rules;
+
+	// Reused on the session's thread for the binary state path
+	private final ByteBuffer snapshotBuffer = ByteBuffer.allocateDirect(PlayerStateCodec.MAX_PACKET_SIZE);
+	private final PlayerState inboundState = new PlayerState();
+	private final EntityTable currentEntities = new EntityTable();
+	private final InterestGrid interestGrid = new InterestGrid(INTEREST_RADIUS);
+	private final boolean[] nearIds = new boolean[EntityTable.CAPACITY];
+
+	private int snapshotSequence = 0;
+	private volatile long interestSentCount = 0;
+	private volatile long interestDeferredCount = 0;
+
+	// Connected clients with their compact player ids, assigned at handshake
+	private final ClientRegistry clients;
+	private final ConcurrentHashMap<String, Map<String, String>> meetingVotes = new ConcurrentHashMap<>();
+	private final Set<String> recentChatMessages = new LinkedHashSet<>(); // oldest first
+	private volatile int readyPlayers = 0;
+
+	// Match state a returning client is resynced with
+	private volatile JSONObject currentMeeting; // the meeting message while a vote is open
+	private final ConcurrentHashMap<String, Long> killReadyAt = new ConcurrentHashMap<>(); // by killer key, game time
+
+	// Set by the SessionServer when the session is pinned to a thread
+	ScheduledExecutorService worker;
+	ServerTick tick;
+	final List<GameScheduler.Task> tasks = new ArrayList<>();
+
+	/**
+	 * @param game     the state this session plays in; GameLogic's when the
+	 *                 host plays along, otherwise one of its own
+	 * @param listener receives the session's log and lobby and meeting events
+	 */
+	public GameSession(int id, String name, GameState game, SessionServer host, ServerListener listener) {
+		this.id = id;
+		this.name = name;
+		this.game = game;
+		this.players = game.getPlayers();
+		this.clients = new ClientRegistry(players, HOST_ID + 1, id + String.valueOf(TOKEN_SEPARATOR));
+		this.host = host;
+		this.listener = listener;
+		this.dispatcher = createDispatcher();
+		this.rules = new GameRules(this, game);
+	}
+
+	/**
+	 * Handles one message of a client routed to this session, positioned at its
+	 * opcode. Runs on the session's thread.
+	 */
+	public void handleMessage(ByteBuffer data, InetSocketAddress sender) {
+		dispatcher.dispatch(data, sender);
+	}
+
+	/**
+	 * Builds the opcode table for the game messages. Reliable frames, acks and
+	 * fragments are unwrapped by the SessionServer before they get here.
+	 */
+	private MessageDispatcher createDispatcher() {
+		MessageDispatcher table = new MessageDispatcher(name);
+
+		// Player state is binary and never needs a String
+		table.register(PlayerStateCodec.OP_CLIENT_STATE, "client-state", 2,
+				(data, sender) -> handlePlayerData(data, sender));
+		table.registerText(MessageCodec.OP_NAME, "name",
+				(clientName, sender) -> handleNameRegistration(clientName, sender.getAddress(), sender.getPort()));
+		table.register(MessageCodec.OP_PING, "ping", 1, (data, sender) -> {
+			sendPongResponse(LinkQuality.readProbeSequence(data), sender.getAddress(), sender.getPort());
+			updateClientPingStatus(sender.getAddress(), sender.getPort());
+		});
+		table.register(MessageCodec.OP_PONG, "pong", LinkQuality.PROBE_SIZE,
+				(data, sender) -> handlePongMessage(data, sender));
+		table.register(MessageCodec.OP_HANDSHAKE, "handshake", 1, (data, sender) -> {
+			String body = MessageCodec.readText(data).trim();
+			ClientInfo clientInfo = null;
+			if (body.startsWith(SessionServer.RESUME_PREFIX)) {
+				clientInfo = resumeClient(body.substring(SessionServer.RESUME_PREFIX.length()), sender);
+			}
+			if (clientInfo == null) {
+				clientInfo = connectClient(sender, null);
+			}
+			if (clientInfo == null) {
+				log("Turned away " + sender + ", " + name + " has no player ids left");
+				return;
+			}
+			sendAckResponse(clientInfo, sender.getAddress(), sender.getPort());
+			System.out.println("Sent ACK to client at " + sender.getAddress() + ":" + sender.getPort() + ", player id "
+					+ clientInfo.getPlayerId());
+			listener.onClientHandshake(sender);
+		});
+		table.register(MessageCodec.OP_LIST_REQUEST, "list-request", 1, (data, sender) -> {
+			sendClientList(sender.getAddress(), sender.getPort());
+			log("Sent client list to " + sender.getAddress() + ":" + sender.getPort());
+		});
+		table.registerText(MessageCodec.OP_CHAT, "chat",
+				(message, sender) -> handleChatMessage(message, sender.getAddress(), sender.getPort()));
+		table.registerJson(MessageCodec.OP_KILL, "kill",
+				(json, sender) -> handleKillMessage(json, sender.getAddress(), sender.getPort()));
+		table.registerJson(MessageCodec.OP_REPORT, "report",
+				(json, sender) -> handleReportMessage(json, sender.getAddress(), sender.getPort()));
+		table.registerJson(MessageCodec.OP_MEETING, "meeting",
+				(json, sender) -> handleMeetingMessage(json, sender.getAddress(), sender.getPort()));
+		table.registerJson(MessageCodec.OP_VOTE, "vote",
+				(json, sender) -> handleVoteMessage(json, sender.getAddress(), sender.getPort()));
+		return table;
+	}
+
+	private void handleVoteMessage(JSONObject voteData, InetAddress clientAddress, int clientPort) {
+		try {
+			// Extract vote details
+			String voterKey = voteData.getString("voter");
+			String targetKey = voteData.getString("target");
+			String meetingId = "default";
+
+			System.out.println("SERVER: Received vote from " + clientAddress + ":" + clientPort);
+			System.out.println("SERVER: Vote details - Voter: " + voterKey + ", Target: " + targetKey);
+
+			// Process the vote
+			handleVote(voterKey, targetKey, meetingId);
+		} catch (Exception e) {
+			System.err.println("SERVER ERROR: Failed to process vote message: " + e.getMessage());
+			e.printStackTrace();
+			log("Error processing vote: " + e.getMessage());
+		}
+	}
+
+	private void handleKillMessage(JSONObject killReport, InetAddress clientAddress, int clientPort) {
+		try {
+			String killedPlayerKey = killReport.getString("killedPlayer");
+			String reporterKey = killReport.getString("reporter");
+
+			System.out.println("SERVER: Received kill report from " + clientAddress + ":" + clientPort);
+			System.out.println("SERVER: Kill details - Victim: " + killedPlayerKey + ", Reporter: " + reporterKey);
+
+			// Checked and applied on the next tick
+			ClientInfo sender = clients.get(new InetSocketAddress(clientAddress, clientPort));
+			if (sender != null) {
+				rules.requestKill(sender, reporterKey, killedPlayerKey);
+			}
+		} catch (Exception e) {
+			System.err.println("SERVER ERROR: Failed to process kill message: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	private void handleMeetingMessage(JSONObject meetingData, InetAddress clientAddress, int clientPort) {
+		try {
+			String messageType = meetingData.getString("type");
+			String senderKey = clientAddress.getHostAddress() + ":" + clientPort;
+
+			// Handle different types of meeting messages
+			switch (messageType) {
+			case "chat":
+				// Meeting chat message
+				String chatMessage = meetingData.getString("message");
+				String senderName = meetingData.getString("name");
+				String senderStatus = meetingData.optString("status", "crewmate");
+				boolean isGhostMessage = meetingData.optBoolean("isGhostMessage", false);
+
+				// Get timestamp for deduplication if available
+				long timestamp = meetingData.has("timestamp") ? meetingData.getLong("timestamp")
+						: System.currentTimeMillis();
+
+				// Create a unique message ID for server-side deduplication
+				String messageId = senderName + ":" + chatMessage + ":" + timestamp;
+
+				// Check if this is a duplicate on the server side
+				if (recentChatMessages.contains(messageId)) {
+					System.out.println("SERVER: Ignoring duplicate chat message: " + messageId);
+					return;
+				}
+
+				// Add to recent messages
+				recentChatMessages.add(messageId);
+
+				// Limit cache size
+				if (recentChatMessages.size() > 100) {
+					// Keep only the most recent 50 messages
+					Iterator<String> oldest = recentChatMessages.iterator();
+					while (recentChatMessages.size() > 50) {
+						oldest.next();
+						oldest.remove();
+					}
+				}
+
+				// Log the message
+				if (isGhostMessage) {
+					System.out.println("SERVER: Ghost " + senderName + " sent ghost message: " + chatMessage);
+				} else {
+					System.out.println("SERVER: " + senderName + " sent message: " + chatMessage);
+				}
+
+				listener.onMeetingChat(senderName, chatMessage, senderStatus, isGhostMessage);
+
+				// Relay the chat message to appropriate clients
+				relayMeetingChatToClients(senderKey, senderName, chatMessage, "default", senderStatus, timestamp,
+						isGhostMessage);
+				break;
+			default:
+				log("Unknown meeting message type: " + messageType);
+				break;
+			}
+		} catch (Exception e) {
+			log("Error handling meeting message: " + e.getMessage());
+		}
+	}
+
+	private void relayMeetingChatToClients(String senderKey, String senderName, String message, String meetingId,
+			String senderStatus, long timestamp, boolean isGhostMessage) {
+		try {
+// Create JSON for the relay message
+			JSONObject relayData = new JSONObject();
+			relayData.put("type", "chat");
+			relayData.put("name", senderName);
+			relayData.put("message", message);
+			relayData.put("meetingId", "default");
+			relayData.put("status", senderStatus);
+			relayData.put("timestamp", timestamp);
+			relayData.put("isGhostMessage", isGhostMessage);
+
+			String relayMessage = "/meeting/" + relayData.toString();
+
+// Send to every other client; ghost messages only to other ghosts
+			Predicate<ClientInfo> recipients = clientInfo -> !clientInfo.getKey().equals(senderKey);
+			if (isGhostMessage) {
+				recipients = recipients.and(this::isGhost);
+			}
+			broadcastReliable(MessageCodec.encode(relayMessage), recipients);
+		} catch (Exception e) {
+			log("Error building relay message: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends the hosting player's meeting chat to every client, ghost chat only
+	 * to ghosts
+	 */
+	public void sendMeetingChat(String senderName, String message, String senderStatus, long timestamp,
+			boolean isGhostMessage) {
+		relayMeetingChatToClients(PlayerLogic.getLocalAddressPort(), senderName, message, "default", senderStatus,
+				timestamp, isGhostMessage);
+	}
+
+	/**
+	 * Handles player name registration
+	 */
+	private void handleNameRegistration(String clientName, InetAddress clientAddress, int clientPort) {
+		if (connectClient(new InetSocketAddress(clientAddress, clientPort), clientName) == null) {
+			log("Turned away " + clientName + ", " + name + " has no player ids left");
+			return;
+		}
+		log(clientName + " has connected");
+	}
+
+	private void handleReportMessage(JSONObject reportData, InetAddress clientAddress, int clientPort) {
+		try {
+			// Extract report details
+			String reporterKey = reportData.getString("reporter");
+			String corpseKey = reportData.getString("corpse");
+
+			System.out.println("SERVER: Received body report from " + clientAddress + ":" + clientPort);
+			System.out.println("SERVER: Report details - Reporter: " + reporterKey + ", Corpse: " + corpseKey);
+
+			// Checked and applied on the next tick
+			ClientInfo sender = clients.get(new InetSocketAddress(clientAddress, clientPort));
+			if (sender != null) {
+				rules.requestReport(sender, reporterKey, corpseKey);
+			}
+
+		} catch (Exception e) {
+			System.err.println("ERROR: Failed to process report message: " + e.getMessage());
+			e.printStackTrace();
+			log("Error processing body report: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends a PONG response to a client's PING, echoing its sequence so the
+	 * client can measure the round trip, and the game time so it can follow
+	 * the server's clock
+	 */
+	private void sendPongResponse(int sequence, InetAddress clientAddress, int clientPort) throws IOException {
+		byte[] pong = sequence < 0 ? PONG_MESSAGE
+				: ClockSync.encodePong(MessageCodec.OP_PONG, sequence, GameClock.ownTime());
+		sendBytes(pong, clientAddress, clientPort);
+	}
+
+	/**
+	 * Handles a client's answer to one of our PINGs: a round-trip sample for
+	 * its link, and proof it is still there
+	 */
+	private void handlePongMessage(ByteBuffer data, InetSocketAddress sender) {
+		ClientInfo clientInfo = clients.get(sender);
+		if (clientInfo != null) {
+			clientInfo.getLinkQuality().onEcho(LinkQuality.readProbeSequence(data), System.nanoTime());
+			clients.resetMissedPings(clientInfo);
+		}
+	}
+
+	/**
+	 * Updates the ping status for a client
+	 */
+	private void updateClientPingStatus(InetAddress clientAddress, int clientPort) {
+		ClientInfo clientInfo = clients.get(new InetSocketAddress(clientAddress, clientPort));
+		if (clientInfo != null) {
+			clients.resetMissedPings(clientInfo);
+		}
+	}
+
+	/**
+	 * Sends an ACK response to a client's handshake request, carrying the
+	 * client's player id and its resume token: "&lt;id&gt; &lt;token&gt;"
+	 */
+	private void sendAckResponse(ClientInfo clientInfo, InetAddress clientAddress, int clientPort)
+			throws IOException {
+		sendBytes(MessageCodec.encode(MessageCodec.OP_HANDSHAKE_ACK,
+				clientInfo.getPlayerId() + " " + clientInfo.getResumeToken()), clientAddress, clientPort);
+	}
+
+	/**
+	 * Registers a client like ClientRegistry.connect, resyncing it if it was
+	 * suspended at this address
+	 */
+	private ClientInfo connectClient(InetSocketAddress address, String clientName) {
+		boolean returning = clients.isSuspended(address);
+		ClientInfo clientInfo = clients.connect(address, clientName);
+		if (clientInfo != null && returning) {
+			log(clientInfo.getName() + " is back");
+			sendResync(clientInfo);
+		}
+		return clientInfo;
+	}
+
+	/**
+	 * Gives a client that presents its resume token its player back, at the
+	 * address it comes from now, and resyncs it
+	 *
+	 * @return the client, or null if the token is unknown or has expired
+	 */
+	private ClientInfo resumeClient(String token, InetSocketAddress address) {
+		ClientInfo before = clients.getByToken(token);
+		if (before == null) {
+			log("Unknown or expired resume token from " + address);
+			return null;
+		}
+		String oldKey = before.getKey();
+		InetSocketAddress oldAddress = new InetSocketAddress(before.getAddress(), before.getPort());
+		ClientInfo clientInfo = clients.resume(token, address);
+		if (clientInfo == null) {
+			return null;
+		}
+		if (!oldAddress.equals(address)) {
+			host.removePeer(oldAddress);
+			rekeyPlayer(oldKey, clientInfo.getKey());
+			log(clientInfo.getName() + " is back from " + clientInfo.getKey() + ", was " + oldKey);
+		} else if (before.isSuspended()) {
+			log(clientInfo.getName() + " is back");
+		}
+		sendResync(clientInfo);
+		return clientInfo;
+	}
+
+	/**
+	 * Moves the votes and kill cooldown of a player to the key it came back
+	 * under
+	 */
+	private void rekeyPlayer(String oldKey, String newKey) {
+		for (Map<String, String> votes : meetingVotes.values()) {
+			String vote = votes.remove(oldKey);
+			if (vote != null) {
+				votes.put(newKey, vote);
+			}
+			votes.replaceAll((voter, target) -> target.equals(oldKey) ? newKey : target);
+		}
+		Long readyAt = killReadyAt.remove(oldKey);
+		if (readyAt != null) {
+			killReadyAt.put(newKey, readyAt);
+		}
+	}
+
+	/**
+	 * Sends a returning client the whole match state in one reliable message:
+	 * every player with its role, the corpses, the open meeting with its votes
+	 * and the client's kill cooldown. The next snapshot it gets is a full one.
+	 */
+	void sendResync(ClientInfo clientInfo) {
+		PlayerInfo own = clients.getPlayer(clientInfo.getPlayerId());
+		if (own != null) {
+			own.getSnapshotHistory().reset();
+		}
+
+		JSONObject state = new JSONObject();
+		state.put("playerId", clientInfo.getPlayerId());
+		state.put("key", clientInfo.getKey());
+		state.put("time", GameClock.ownTime());
+		state.put("prepEnded", game.isPrepEnded());
+		state.put("gameEnded", game.isGameEnded());
+
+		JSONArray playerList = new JSONArray();
+		if (game.hasLocalPlayer()) {
+			playerList.put(describePlayer(HOST_ID, PlayerLogic.getLocalAddressPort(), name, PlayerLogic.getStatus(),
+					PlayerLogic.getCharID(), PlayerLogic.getTaskPercent()));
+		}
+		for (PlayerInfo player : players.values()) {
+			playerList.put(describePlayer(player.getPlayerId(), player.getKey(), player.getName(),
+					player.getStatus(), player.getCharacterID(), player.getTaskPercent()));
+		}
+		state.put("players", playerList);
+
+		JSONArray corpseList = new JSONArray();
+		for (Map.Entry<String, Corpse> entry : game.getCorpses().entrySet()) {
+			Corpse corpse = entry.getValue();
+			JSONObject corpseData = new JSONObject();
+			corpseData.put("key", entry.getKey());
+			corpseData.put("playerName", corpse.getPlayerName());
+			corpseData.put("x", corpse.getX());
+			corpseData.put("y", corpse.getY());
+			corpseData.put("characterID", corpse.getCharacterID());
+			corpseData.put("found", corpse.isFound());
+			corpseList.put(corpseData);
+		}
+		state.put("corpses", corpseList);
+
+		if (currentMeeting != null && !GameClock.hasPassed(game.getMeetingEndsAt())) {
+			JSONObject meeting = new JSONObject(currentMeeting.toString());
+			meeting.put("votes", new JSONObject(meetingVotes.getOrDefault("default", new HashMap<>())));
+			state.put("meeting", meeting);
+		}
+		// Also undoes the cooldown a client guessed for a kill the rules rejected
+		state.put("killReadyAt", getKillReadyAt(clientInfo.getKey()));
+
+		try {
+			sendReliable("/resync/" + state.toString(), clientInfo.getAddress(), clientInfo.getPort());
+		} catch (IOException e) {
+			System.err.println("SERVER ERROR sending resync to " + clientInfo.getKey() + ": " + e.getMessage());
+		}
+	}
+
+	private static JSONObject describePlayer(int playerId, String key, String playerName, String status,
+			int characterId, double taskPercent) {
+		JSONObject player = new JSONObject();
+		player.put("id", playerId);
+		player.put("key", key);
+		player.put("name", playerName);
+		player.put("status", status);
+		player.put("characterID", characterId);
+		player.put("taskPercent", taskPercent);
+		return player;
+	}
+
+	/**
+	 * Sends the list of connected clients to a requester
+	 */
+	private void sendClientList(InetAddress clientAddress, int clientPort) throws IOException {
+		StringBuilder response = new StringBuilder("/ls/");
+		response.append("======LIST OF PLAYERS======\n");
+
+		try {
+			if (game.hasLocalPlayer()) {
+				response.append(InetAddress.getLocalHost().getHostAddress()).append(":")
+						.append(host.getLocalPort()).append(" - ").append(name).append("\n");
+			}
+
+			for (ClientInfo clientInfo : clients.getClients()) {
+				response.append(clientInfo.getKey()).append(" - ").append(clientInfo.getName());
+			}
+
+			sendMessage(response.toString(), clientAddress, clientPort);
+		} catch (UnknownHostException e) {
+			System.err.println("Failed to get local host: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Handles binary player state updates from clients. The latest state is kept
+	 * and picked up by the next server tick.
+	 */
+	private void handlePlayerData(ByteBuffer data, InetSocketAddress sender) {
+		if (!PlayerStateCodec.readClientState(data, inboundState)) {
+			System.out.println("SERVER: Dropped malformed player state from " + sender);
+			return;
+		}
+
+		// A suspended client is heard again only once its handshake resyncs it,
+		// but its heartbeat is answered: the answer is what tells it to resume
+		if (clients.isSuspended(sender)) {
+			answerProbe(sender);
+			return;
+		}
+		// Clients get their id at handshake; one that skipped it gets one now
+		ClientInfo clientInfo = clients.connect(sender, null);
+		if (clientInfo == null) {
+			return;
+		}
+		// Any state proves the client is there; a probe in it is its heartbeat
+		clients.resetMissedPings(clientInfo);
+		answerProbe(sender);
+		PlayerInfo playerInfo = updatePlayerInfo(clientInfo.getPlayerId(), sender, inboundState);
+		applyInputCommands(playerInfo, inboundState);
+
+		// Piggybacked snapshot acknowledgement picks the baseline for the next delta
+		SnapshotHistory history = playerInfo.getSnapshotHistory();
+		history.acknowledge(inboundState.getAckedSnapshot());
+		history.setFullRequested(inboundState.isFullSnapshotRequested());
+	}
+
+	/**
+	 * Answers the heartbeat probe riding in the state just read, if any
+	 */
+	private void answerProbe(InetSocketAddress sender) {
+		if (inboundState.getProbeSequence() < 0) {
+			return;
+		}
+		try {
+			sendPongResponse(inboundState.getProbeSequence(), sender.getAddress(), sender.getPort());
+		} catch (IOException e) {
+			System.err.println("SERVER ERROR sending PONG to " + sender + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Moves a player by the input commands it has not applied yet, using the
+	 * same movement and collision rules the client predicts with. Commands
+	 * that were lost for good are skipped; the client's reconciliation corrects
+	 * for them.
+	 *
+	 * The client's own position is only taken for a player the server has not
+	 * placed yet, and only near a place it could have started from. A teleport
+	 * is honoured once per match or meeting start, onto a spawn point; any
+	 * other is ignored and the client is pulled back to the server's position.
+	 */
+	private void applyInputCommands(PlayerInfo player, PlayerState state) {
+		int count = state.getInputCount();
+		int first = state.getInputFirstSequence();
+		int newest = first + count - 1;
+		if (count == 0 || newest <= player.getLastProcessedInput()) {
+			if (newest < player.getLastProcessedInput() - PredictionBuffer.CAPACITY) {
+				// Client restarted its sequence: start over from where the server has it
+				player.setLastProcessedInput(newest);
+			}
+			return;
+		}
+		if (player.getLastProcessedInput() == PredictionBuffer.NO_SEQUENCE) {
+			// First commands from this player, its reported position already includes them
+			double[] start = checkStartPosition(state);
+			player.setX(start[0]);
+			player.setY(start[1]);
+			player.setLastProcessedInput(newest);
+			return;
+		}
+
+		double[] position = { player.getX(), player.getY() };
+		boolean ghost = "dead".equals(player.getStatus());
+		double budget = player.refillInputBudget(System.nanoTime());
+		for (int i = 0; i < count; i++) {
+			if (first + i <= player.getLastProcessedInput()) {
+				continue;
+			}
+			if (state.isInputTeleport(i)) {
+				if (MovementLogic.isSpawnPoint(state.getInputX(i), state.getInputY(i)) && player.takeTeleport()) {
+					position[0] = state.getInputX(i);
+					position[1] = state.getInputY(i);
+				} else {
+					System.out.println("SERVER: Ignored a teleport of " + player.getName() + " the server did not start");
+				}
+			} else {
+				int dtMillis = (int) Math.min(Math.min(state.getInputDtMillis(i), MovementLogic.MAX_STEP_MILLIS),
+						budget);
+				budget -= dtMillis;
+				if (dtMillis > 0) {
+					MovementLogic.step(position, state.getInput(i), dtMillis, ghost);
+				}
+			}
+		}
+		player.setInputBudgetMillis(budget);
+		player.setX(position[0]);
+		player.setY(position[1]);
+		player.setLastProcessedInput(newest);
+	}
+
+	/**
+	 * Returns the position a client reports for a player the server has not
+	 * placed yet if it could have walked there, with the commands in the same
+	 * packet, from the lobby start or a spawn point; otherwise the lobby start
+	 */
+	private static double[] checkStartPosition(PlayerState state) {
+		double reach = START_SLACK
+				+ state.getInputCount() * MovementLogic.MAX_STEP_MILLIS * MovementLogic.SPEED / 1000;
+		if (MovementLogic.isNearStart(state.getX(), state.getY(), reach)) {
+			return new double[] { state.getX(), state.getY() };
+		}
+		return new double[] { MovementLogic.LOBBY_X, MovementLogic.LOBBY_Y };
+	}
+
+	/**
+	 * Updates a player from its latest state, creating it on its first packet
+	 * or after the game state was reset
+	 *
+	 * @return the player
+	 */
+	private PlayerInfo updatePlayerInfo(int playerId, InetSocketAddress sender, PlayerState state) {
+		PlayerInfo playerInfo = clients.getPlayer(playerId);
+		if (playerInfo == null || players.get(playerInfo.getKey()) != playerInfo) {
+			// New player - create new player info
+			Random random = new Random();
+			int randomChar = random.nextInt(9);
+			double[] start = checkStartPosition(state);
+			playerInfo = new PlayerInfo(sender.getAddress(), sender.getPort(), state.getName(), start[0], start[1],
+					false, 0, "crewmate", randomChar);
+			playerInfo.setPlayerId(playerId);
+			playerInfo.setTaskPercent(rules.acceptTaskPercent(playerInfo, state.getTaskPercent()));
+			clients.setPlayer(playerInfo);
+		} else {
+			// Existing player - update data. The position is the server's own,
+			// moved by the player's input commands.
+			playerInfo.setDirection(state.getDirection());
+			playerInfo.setMoving(state.isMoving());
+			playerInfo.setCharacterID(state.getCharID());
+			playerInfo.setReady(state.isReady());
+			playerInfo.setTaskPercent(rules.acceptTaskPercent(playerInfo, state.getTaskPercent()));
+		}
+		return playerInfo;
+	}
+
+	/**
+	 * Server tick body: applies the game rules to what the players asked for
+	 * since the last tick, then sends the snapshots
+	 */
+	public void tick() {
+		rules.tick();
+		broadcastSnapshot();
+	}
+
+	/**
+	 * Captures every player's state once, then sends each client a snapshot
+	 * delta-compressed against the last one it acknowledged. Players near the
+	 * client are sent every tick; movement of the others only a few times per
+	 * second.
+	 */
+	public void broadcastSnapshot() {
+		if (!host.isOpen() || players.isEmpty()) {
+			return;
+		}
+
+		int sequence = ++snapshotSequence;
+		int serverTime = (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+		boolean prepEnded = game.isPrepEnded();
+		EntityTable current = captureEntityStates(host.getLocalPort());
+		interestGrid.rebuild(current);
+		int farInterval = Math.max(1, host.getTickRate() / FAR_UPDATE_RATE_HZ);
+
+		for (PlayerInfo info : players.values()) {
+			Arrays.fill(nearIds, false);
+			interestGrid.collectNear(info.getX(), info.getY(), INTEREST_RADIUS, nearIds);
+			// Staggered by port so far updates for different clients fall on different ticks
+			boolean farDue = Math.floorMod(sequence + info.getPort(), farInterval) == 0;
+
+			SnapshotHistory history = info.getSnapshotHistory();
+			int baseSequence = history.getAckedSequence();
+			EntityTable baseline = history.getBaseline(baseSequence);
+			if (baseline == null) {
+				baseSequence = SnapshotHistory.NO_SEQUENCE;
+			}
+			history.store(sequence, encodeSnapshot(sequence, baseSequence, serverTime, info.getLastProcessedInput(),
+					baseline, current, prepEnded, nearIds, farDue));
+
+			ClientInfo client = clients.get(info.getPlayerId());
+			if (client == null || client.isSuspended()) {
+				continue; // kept for its client, which is not listening
+			}
+			try {
+				countSent(client, snapshotBuffer.remaining());
+				host.sendDatagram(snapshotBuffer, new InetSocketAddress(info.getAddress(), info.getPort()));
+			} catch (IOException e) {
+				System.err.println("SERVER ERROR sending snapshot to " + info.getAddress() + ":" + info.getPort()
+						+ ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Captures the hosting player, if any, and all connected players for this
+	 * tick
+	 */
+	private EntityTable captureEntityStates(int serverPort) {
+		EntityTable current = currentEntities;
+		current.clear();
+		if (game.hasLocalPlayer()) {
+			current.put(EntityState.of(HOST_ID, host.getHostAddress(), serverPort, PlayerLogic.getLocalAddressPort(),
+					name, PlayerLogic.getStatus(), PlayerLogic.getCharID(), PlayerLogic.getTaskPercent(),
+					PlayerLogic.getMoving(), PlayerLogic.getDirection(), PlayerLogic.getMyPosX(),
+					PlayerLogic.getMyPosY()));
+		}
+		for (PlayerInfo info : players.values()) {
+			if (!EntityTable.isValidId(info.getPlayerId())) {
+				continue;
+			}
+			current.put(EntityState.of(info.getPlayerId(), info.getAddress(), info.getPort(), info.getKey(),
+					info.getName(), info.getStatus(), info.getCharacterID(), info.getTaskPercent(), info.isMoving(),
+					info.getDirection(), info.getX(), info.getY()));
+		}
+		return current;
+	}
+
+	/**
+	 * Encodes one client's snapshot into snapshotBuffer
+	 *
+	 * @param near   marks the ids of the players within the client's area of
+	 *               interest
+	 * @param farDue whether players outside it get their movement sent this
+	 *               tick; other changes (status, tasks) are always sent
+	 * @return the player states the client will hold once it applies this
+	 *         snapshot, kept as a future baseline
+	 */
+	private EntityTable encodeSnapshot(int sequence, int baseSequence, int serverTime, int inputAck,
+			EntityTable baseline, EntityTable current, boolean prepEnded, boolean[] near, boolean farDue) {
+		EntityTable sent = baseline == null ? new EntityTable() : new EntityTable(baseline);
+		int removedPosition = PlayerStateCodec.beginSnapshot(snapshotBuffer, prepEnded, sequence, baseSequence,
+				serverTime, inputAck);
+
+		// Players that left since the baseline
+		int removed = 0;
+		if (baseline != null) {
+			for (int i = 0; i < baseline.size(); i++) {
+				EntityState old = baseline.at(i);
+				if (current.contains(old.getId())) {
+					continue; // still here, or its id went to someone new and the entry replaces it
+				}
+				if (removed == 255 || snapshotBuffer.remaining() < PlayerStateCodec.REMOVED_ENTRY_SIZE + 1) {
+					break;
+				}
+				PlayerStateCodec.writeRemovedEntity(snapshotBuffer, old);
+				sent.remove(old.getId());
+				removed++;
+			}
+		}
+
+		// Only players that changed; the rest are carried forward by the client
+		int countPosition = PlayerStateCodec.beginEntries(snapshotBuffer, removedPosition, removed);
+		int count = 0;
+		int leftOut = 0;
+		int deferred = 0;
+		for (int i = 0; i < current.size(); i++) {
+			EntityState state = current.at(i);
+			EntityState base = sent.get(state.getId());
+			if (state.sameAs(base)) {
+				continue;
+			}
+			if (!farDue && !near[state.getId()] && state.sameExceptMotion(base)) {
+				deferred++; // client keeps the older position until the next far update
+				continue;
+			}
+			if (count == 255 || snapshotBuffer.remaining() < PlayerStateCodec.MAX_ENTRY_SIZE) {
+				leftOut++;
+				continue;
+			}
+			PlayerStateCodec.writeEntityDelta(snapshotBuffer, state, base);
+			sent.put(state);
+			count++;
+		}
+		PlayerStateCodec.endSnapshot(snapshotBuffer, countPosition, count);
+		interestSentCount += count;
+		interestDeferredCount += deferred;
+		if (leftOut > 0) {
+			System.err.println("SERVER: Snapshot full, " + leftOut + " player(s) left out");
+		}
+		return sent;
+	}
+
+	/**
+	 * Handles chat messages from clients
+	 */
+	private void handleChatMessage(String message, InetAddress clientAddress, int clientPort) {
+		ClientInfo clientInfo = clients.get(new InetSocketAddress(clientAddress, clientPort));
+		if (clientInfo != null) {
+			log(clientInfo.getName() + " : " + message);
+			relayMessageToClients(clientInfo, message);
+		} else {
+			log("Player : " + message + " from " + clientAddress + ":" + clientPort);
+		}
+	}
+
+	/**
+	 * Relays a message from one client to all other clients
+	 */
+	private void relayMessageToClients(ClientInfo sender, String message) {
+		byte[] relayMessage = MessageCodec.encode(MessageCodec.OP_RELAYED_CHAT, sender.getName() + " : " + message);
+		try {
+			broadcast(relayMessage, Broadcaster.allBut(sender));
+		} catch (IOException e) {
+			log("Error relaying message from " + sender.getKey() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Checks for clients that have missed too many pings. Every connected
+	 * client counts, including one that never pinged at all. Such a client is
+	 * suspended, and removed for good once the grace period runs out. The
+	 * others get a PING of ours, which measures their link.
+	 */
+	public void checkClientPings() {
+		long now = System.nanoTime();
+		for (ClientInfo expired : clients.expireSuspended(now, TimeUnit.MILLISECONDS.toNanos(RESUME_GRACE_MS))) {
+			log(expired.getName() + " (" + expired.getKey() + ") did not come back within "
+					+ RESUME_GRACE_MS / 1000 + " s and was removed.");
+			host.removePeer(new InetSocketAddress(expired.getAddress(), expired.getPort()));
+		}
+		for (ClientInfo clientInfo : clients.getClients()) {
+			InetSocketAddress address = new InetSocketAddress(clientInfo.getAddress(), clientInfo.getPort());
+			if (clients.incrementMissedPings(clientInfo) > MAX_MISSED_PINGS) {
+				log("Client " + clientInfo.getAddress() + ":" + clientInfo.getPort() + " has missed "
+						+ MAX_MISSED_PINGS + " PINGs and is considered disconnected; its place is kept for "
+						+ RESUME_GRACE_MS / 1000 + " s.");
+				clients.suspend(address, now);
+				continue;
+			}
+			int sequence = clientInfo.getLinkQuality().nextProbe(now);
+			try {
+				sendBytes(LinkQuality.encodeProbe(MessageCodec.OP_PING, sequence), clientInfo.getAddress(),
+						clientInfo.getPort());
+			} catch (IOException e) {
+				System.err.println("SERVER ERROR sending PING to " + address + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Logs the link quality of every client
+	 */
+	public void logLinkQuality() {
+		for (ClientInfo clientInfo : clients.getClients()) {
+			log("Network " + clientInfo.getName() + " (" + clientInfo.getKey() + "): "
+					+ clientInfo.getLinkQuality().getSummary());
+		}
+	}
+
+	/**
+	 * Returns the link quality of all clients in one line, e.g. for the prep
+	 * lobby, or null while no client has been measured
+	 */
+	public String getLinkSummary() {
+		int measured = 0;
+		double totalRtt = 0;
+		double worstRtt = 0;
+		double worstLoss = 0;
+		for (ClientInfo clientInfo : clients.getClients()) {
+			LinkQuality link = clientInfo.getLinkQuality();
+			double rtt = link.getRttMillis();
+			if (rtt < 0) {
+				continue;
+			}
+			measured++;
+			totalRtt += rtt;
+			worstRtt = Math.max(worstRtt, rtt);
+			worstLoss = Math.max(worstLoss, link.getLossRate());
+		}
+		if (measured == 0) {
+			return null;
+		}
+		return String.format("Ping %.0f ms (worst %.0f), loss %.0f%%", totalRtt / measured, worstRtt,
+				worstLoss * 100);
+	}
+
+	/**
+	 * Sends a message from the server to all connected clients
+	 */
+	public void sendMessageToClients(String message) {
+		if (clients.isEmpty()) {
+			log("No connected clients to send the message.");
+			return;
+		}
+
+		try {
+			byte[] servermsg = MessageCodec.encode(MessageCodec.OP_SERVER_CHAT,
+					name + " : " + message);
+			broadcast(servermsg, Broadcaster.everyone());
+
+			log("You : " + message);
+		} catch (IOException e) {
+			log("Error sending message to clients : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Logs a message through the server's listener
+	 */
+	private void log(String message) {
+		listener.log(message);
+	}
+
+	/**
+	 * Whether key belongs to the hosting player. A dedicated server has none.
+	 */
+	boolean isHostKey(String key) {
+		return game.hasLocalPlayer() && PlayerLogic.getLocalAddressPort().equals(key);
+	}
+
+	/**
+	 * Returns a player's name, including the hosting player's
+	 */
+	private String getPlayerName(String key) {
+		if (isHostKey(key)) {
+			return PlayerLogic.getName();
+		}
+		PlayerInfo player = players.get(key);
+		return player != null ? player.getName() : "Unknown";
+	}
+
+	/**
+	 * Checks how many players are ready and tells the listener
+	 */
+	public void checkReadyPlayers() {
+		try {
+			int playerCount = players.size();
+			long readyPlayerCount = players.values().stream().filter(PlayerInfo::isReady).count();
+			readyPlayers = (int) readyPlayerCount;
+			listener.onReadyStateChanged(readyPlayerCount == playerCount && playerCount > 0, playerCount);
+		} catch (Exception e) {
+			System.err.println("Error in checkReadyPlayers: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Randomly assigns imposter roles to players
+	 */
+	public void randomizeImposters() {
+		List<String> allPlayers = new ArrayList<>();
+		String serverKey = game.hasLocalPlayer() ? PlayerLogic.getLocalAddressPort() : null;
+		if (serverKey != null) {
+			allPlayers.add(serverKey);
+		}
+		allPlayers.addAll(players.keySet());
+
+		// Determine how many imposters to assign
+		int imposterCount = game.getImposterCount();
+
+		// Shuffle the player list for random selection
+		Collections.shuffle(allPlayers);
+
+		// Set all players as crewmates initially
+		if (serverKey != null) {
+			PlayerLogic.setStatus("crewmate");
+		}
+		for (String key : players.keySet()) {
+			PlayerInfo player = players.get(key);
+			player.setStatus("crewmate");
+		}
+
+		// Select imposters from the shuffled list
+		List<String> imposterKeys = allPlayers.subList(0, Math.min(imposterCount, allPlayers.size()));
+
+		// Set selected players as imposters
+		for (String key : imposterKeys) {
+			if (key.equals(serverKey)) {
+				// Local player (server/host) is an imposter
+				PlayerLogic.setStatus("imposter");
+				System.out.println("You are an imposter!");
+			} else {
+				// A client is an imposter
+				PlayerInfo player = players.get(key);
+				if (player != null) {
+					player.setStatus("imposter");
+					System.out.println("Imposter assigned: " + player.getName());
+				}
+			}
+		}
+
+		// Log info about the game configuration
+		System.out.println("Game started with " + imposterCount + " imposter(s) and "
+				+ (allPlayers.size() - imposterCount) + " crewmate(s)");
+	}
+
+	public void handleKillReport(String killedPlayerKey, String reporterKey) {
+		try {
+			System.out.println(
+					"SERVER: Processing kill report - victim: " + killedPlayerKey + ", killer: " + reporterKey);
+
+			// Find the killed player
+			PlayerInfo killedPlayer = null;
+
+			// Check if it's the server player
+			if (isHostKey(killedPlayerKey)) {
+				System.out.println("SERVER: The server player got killed");
+
+				// Flag as killed instead of setting status directly
+				PlayerLogic.flagKilled(true);
+
+				// Create a special corpse for the server player
+				Corpse serverCorpse = new Corpse(new PlayerInfo(InetAddress.getLocalHost(), host.getLocalPort(),
+						name, PlayerLogic.getMyPosX(), PlayerLogic.getMyPosY(), false,
+						PlayerLogic.getDirection(), "dead", PlayerLogic.getCharID()));
+
+				game.getCorpses().put(killedPlayerKey, serverCorpse);
+				System.out.println("SERVER: Created corpse for server player at " + PlayerLogic.getMyPosX() + ","
+						+ PlayerLogic.getMyPosY());
+
+				// Broadcast the kill to all clients
+				broadcastKillReport(killedPlayerKey, reporterKey, serverCorpse);
+
+				return;
+			} else {
+				// Find the client player
+				killedPlayer = players.get(killedPlayerKey);
+			}
+
+			if (killedPlayer == null) {
+				log("Error: Player with key " + killedPlayerKey + " not found");
+				System.out.println("SERVER ERROR: Victim player not found in player list: " + killedPlayerKey);
+				System.out.println("SERVER: Available players: " + players.keySet());
+				return;
+			}
+
+			// Mark the player as dead
+			killedPlayer.setStatus("dead");
+			log("Player " + killedPlayer.getName() + " has been killed by " + getPlayerName(reporterKey));
+
+			// Create a corpse
+			Corpse corpse = game.createCorpse(killedPlayer);
+			System.out.println("SERVER: Created corpse at " + corpse.getX() + "," + corpse.getY() + " for player "
+					+ killedPlayer.getName());
+
+			// Broadcast the kill to all clients
+			broadcastKillReport(killedPlayerKey, reporterKey, corpse);
+		} catch (Exception e) {
+			System.err.println("SERVER ERROR in handleKillReport: " + e.getMessage());
+			e.printStackTrace();
+			log("Error processing kill report: " + e.getMessage());
+		}
+	}
+
+	public void endMeetingAndBroadcastResults(String meetingId) {
+		try {
+			// Calculate results
+			meetingId = "default";
+			String ejectedPlayerKey = calculateVotingResult(meetingId);
+			System.out.println("VOTING RESULT = " + ejectedPlayerKey);
+
+			// Get vote counts
+			Map<String, String> votesMap = meetingVotes.getOrDefault(meetingId, new HashMap<>());
+			Map<String, Integer> voteCounts = new HashMap<>();
+			for (String targetKey : votesMap.values()) {
+				voteCounts.put(targetKey, voteCounts.getOrDefault(targetKey, 0) + 1);
+			}
+
+			// Handle ejection locally first
+			if (ejectedPlayerKey != null) {
+				boolean wasImposter = false;
+
+				// If local player was ejected
+				if (isHostKey(ejectedPlayerKey)) {
+					wasImposter = "imposter".equals(PlayerLogic.getStatus());
+
+					// Flag as ejected instead of status directly
+					PlayerLogic.flagEjected(true);
+
+					System.out.println("SERVER: Local player (you) has been flagged for ejection");
+					System.out.println("SERVER: Local player wasImposter: " + wasImposter);
+				}
+				// If another player was ejected
+				else if (players.containsKey(ejectedPlayerKey)) {
+					PlayerInfo player = players.get(ejectedPlayerKey);
+					if (player != null) {
+						wasImposter = "imposter".equals(player.getStatus());
+
+						// For other players, just set to dead
+						player.setStatus("dead");
+
+						System.out.println("SERVER: Player " + player.getName() + " has been ejected");
+						System.out.println("SERVER: Ejected player wasImposter: " + wasImposter);
+					}
+				}
+
+				// Create results data JSON with imposter info
+				JSONObject resultsData = new JSONObject();
+				resultsData.put("ejected", ejectedPlayerKey != null ? ejectedPlayerKey : JSONObject.NULL);
+				resultsData.put("meetingId", "default");
+				resultsData.put("time", GameClock.ownTime());
+				resultsData.put("wasImposter", wasImposter); // Include imposter status in results
+				voteCounts.put("wasImposter", wasImposter ? 1 : 0);
+				// Convert vote counts to JSON
+				JSONObject votesJson = new JSONObject();
+				for (Map.Entry<String, Integer> entry : voteCounts.entrySet()) {
+					votesJson.put(entry.getKey(), entry.getValue());
+				}
+				resultsData.put("votes", votesJson);
+
+				String resultsMessage = "/results/" + resultsData.toString();
+
+				System.out.println("SERVER: Broadcasting voting results: " + resultsMessage);
+
+				// Send to all clients
+				try {
+					int sent = broadcastReliable(MessageCodec.encode(resultsMessage), Broadcaster.everyone());
+					System.out.println("SERVER: Sent voting results to " + sent + " client(s)");
+				} catch (IOException e) {
+					log("Error sending results: " + e.getMessage());
+				}
+
+				// Log the results
+				if (ejectedPlayerKey == null) {
+					log("No one was ejected.");
+				} else {
+					log(getPlayerName(ejectedPlayerKey) + " was ejected.");
+				}
+
+				listener.onVotingResults(ejectedPlayerKey, voteCounts);
+			} else {
+				// No player ejected case - original code remains the same
+				JSONObject resultsData = new JSONObject();
+				resultsData.put("ejected", JSONObject.NULL);
+				resultsData.put("meetingId", "default");
+				resultsData.put("time", GameClock.ownTime());
+
+				// Convert vote counts to JSON
+				JSONObject votesJson = new JSONObject();
+				for (Map.Entry<String, Integer> entry : voteCounts.entrySet()) {
+					votesJson.put(entry.getKey(), entry.getValue());
+				}
+				resultsData.put("votes", votesJson);
+
+				String resultsMessage = "/results/" + resultsData.toString();
+
+				System.out.println("SERVER: Broadcasting voting results: " + resultsMessage);
+
+				// Send to all clients
+				try {
+					int sent = broadcastReliable(MessageCodec.encode(resultsMessage), Broadcaster.everyone());
+					System.out.println("SERVER: Sent voting results to " + sent + " client(s)");
+				} catch (IOException e) {
+					log("Error sending results: " + e.getMessage());
+				}
+
+				// Log the results
+				log("No one was ejected.");
+
+				listener.onVotingResults(null, voteCounts);
+			}
+			meetingVotes.remove(meetingId);
+			currentMeeting = null;
+			game.setMeetingEndsAt(0);
+
+		} catch (Exception e) {
+			log("Error broadcasting voting results: " + e.getMessage());
+			System.err.println("SERVER ERROR broadcasting voting results: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Tells every client who the meeting ejected, so each shows the ejection
+	 */
+	public void broadcastEjection(String ejectedPlayerKey, boolean wasImposter) {
+		try {
+			JSONObject ejectionData = new JSONObject();
+			ejectionData.put("type", "ejection");
+			ejectionData.put("ejectedPlayer", ejectedPlayerKey);
+			ejectionData.put("wasImposter", wasImposter);
+			broadcastReliable(MessageCodec.encode("/ejection/" + ejectionData.toString()), Broadcaster.everyone());
+		} catch (IOException e) {
+			log("Error sending ejection: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the game time a player's kill cooldown ends, or 0 if it has none
+	 */
+	long getKillReadyAt(String killerKey) {
+		return killReadyAt.getOrDefault(killerKey, 0L);
+	}
+
+	/**
+	 * Whether an emergency meeting is open
+	 */
+	boolean isMeetingOpen() {
+		return currentMeeting != null;
+	}
+
+	/**
+	 * Tells the clients and the listener the match moved on to another phase
+	 */
+	void broadcastPhase(GamePhase from, GamePhase to) {
+		if (to == GamePhase.ROLE_REVEAL || to == GamePhase.MEETING) {
+			// Every client puts its player on a spawn point at the start
+			for (PlayerInfo player : players.values()) {
+				player.grantTeleport();
+			}
+		}
+		GameResult result = game.getGameResult();
+		JSONObject phaseData = new JSONObject();
+		phaseData.put("phase", to.name());
+		phaseData.put("previous", from.name());
+		phaseData.put("result", result.name());
+		phaseData.put("time", GameClock.ownTime());
+		try {
+			broadcastReliable(MessageCodec.encode("/phase/" + phaseData.toString()), Broadcaster.everyone());
+		} catch (IOException e) {
+			log("Error sending phase change: " + e.getMessage());
+		}
+		listener.onPhaseChanged(from, to, result);
+	}
+
+	private void broadcastKillReport(String killedPlayerKey, String killerKey, Corpse corpse) {
+		try {
+			long now = GameClock.ownTime();
+			// Prepare the kill report with all necessary information
+			JSONObject killData = new JSONObject();
+			killData.put("killedPlayer", killedPlayerKey);
+			killData.put("killer", killerKey);
+			killData.put("playerName", corpse.getPlayerName());
+			killData.put("x", corpse.getX());
+			killData.put("y", corpse.getY());
+			killData.put("characterID", corpse.getCharacterID());
+			killData.put("timeOfDeath", now);
+			// The killer's client counts down to this instead of starting its own timer
+			killData.put("killReadyAt", now + GameState.KILL_COOLDOWN_MS);
+			killReadyAt.put(killerKey, now + GameState.KILL_COOLDOWN_MS);
+
+			String killReport = "/kill/" + killData.toString();
+
+			System.out.println("SERVER: Broadcasting kill report: " + killReport);
+
+			// Send to all clients
+			int sent = broadcastReliable(MessageCodec.encode(killReport), Broadcaster.everyone());
+			System.out.println("SERVER: Kill report sent to " + sent + " client(s)");
+		} catch (Exception e) {
+			System.err.println("SERVER ERROR in broadcastKillReport: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	public void handleBodyReport(String reporterKey, String corpsePlayerKey) {
+		PlayerInfo reporter = players.get(reporterKey);
+		Corpse corpse = game.getCorpse(corpsePlayerKey);
+		System.out.println("List of Corpses = " + game.getCorpses().size());
+		System.out.println(corpse.getPlayerName() + " has been found");
+		// Mark body as found if not already found
+		if (!corpse.isFound()) {
+			corpse.setFound(true);
+			// log(reporter.getName() + " reported " + corpse.getPlayerName() + "'s
+			// body");
+
+			broadcastEmergencyMeeting(reporterKey, corpse.getPlayerName(), corpse.getCharacterID());
+		}
+	}
+
+	/**
+	 * Calls an emergency meeting with no body, as the emergency button does,
+	 * if the match is on and no meeting is open. The next tick moves the rules
+	 * to the MEETING phase, which stops kills and reports until it ends.
+	 */
+	public void callEmergencyMeeting(String reporterKey) {
+		GamePhase phase = rules.getPhase();
+		if (isMeetingOpen() || (phase != GamePhase.ROLE_REVEAL && phase != GamePhase.PLAYING)) {
+			log("Ignored the meeting " + getPlayerName(reporterKey) + " called in phase "
+					+ (isMeetingOpen() ? GamePhase.MEETING : phase));
+			return;
+		}
+		broadcastEmergencyMeeting(reporterKey, null, 0);
+	}
+
+	private void broadcastEmergencyMeeting(String reporterKey, String reportedPlayerName, int reportedCharId) {
+		try {
+			// Create meeting data
+			JSONObject meetingData = new JSONObject();
+			meetingData.put("reporter", reporterKey);
+			meetingData.put("reportedPlayer", reportedPlayerName);
+			meetingData.put("reportedCharId", reportedCharId);
+			long now = GameClock.ownTime();
+			meetingData.put("time", now);
+			// Every client ends the vote at this game time
+			long votingEnds = now + GameState.VOTING_TIME_MS;
+			meetingData.put("votingEnds", votingEnds);
+			game.setMeetingEndsAt(votingEnds);
+			currentMeeting = meetingData;
+
+			String meetingMessage = "/meeting/" + meetingData.toString();
+
+			// Send to all connected clients
+			int sent = broadcastReliable(MessageCodec.encode(meetingMessage), Broadcaster.everyone());
+			System.out.println("Emergency meeting broadcast to " + sent + " client(s)");
+
+			// Also start the meeting on the server side
+			listener.onMeetingStarted(reporterKey, reportedPlayerName, reportedCharId);
+
+		} catch (Exception e) {
+			System.err.println("Error in broadcastEmergencyMeeting: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Handles a vote from a client
+	 * 
+	 * @param voterKey  The key of the voting player
+	 * @param targetKey The key of the target player (or "skip")
+	 * @param meetingId The unique ID of the meeting
+	 */
+	public void handleVote(String voterKey, String targetKey, String meetingId) {
+		try {
+			meetingId = "default";
+			// Ensure meetingVotes map exists for this meeting
+			meetingVotes.putIfAbsent(meetingId, new ConcurrentHashMap<>());
+			Map<String, String> votes = meetingVotes.get(meetingId);
+
+			// Check for duplicate vote - if already voted for the same target, ignore
+			String existingVote = votes.get(voterKey);
+			if (existingVote != null && existingVote.equals(targetKey)) {
+				System.out.println(
+						"SERVER: Duplicate vote received from " + voterKey + " for " + targetKey + " - ignoring");
+				return;
+			}
+
+			// If player already voted for someone else, log the vote change
+			if (existingVote != null && !existingVote.equals(targetKey)) {
+				System.out.println(
+						"SERVER: Player " + voterKey + " changed vote from " + existingVote + " to " + targetKey);
+			}
+
+			// Store vote
+			votes.put(voterKey, targetKey);
+
+			System.out.println(
+					"SERVER: Received vote from " + voterKey + " for " + targetKey + " in meeting " + meetingId);
+			System.out.println("SERVER: Current votes in meeting: " + votes);
+			System.out.println("Total votes : " + votes.size());
+
+			// Create vote data JSON to broadcast to clients
+			JSONObject voteData = new JSONObject();
+			voteData.put("voter", voterKey);
+			voteData.put("target", targetKey);
+			voteData.put("meetingId", "default");
+			voteData.put("time", GameClock.ownTime());
+			// Add a unique vote ID to help clients identify duplicate messages
+			voteData.put("voteId", voterKey + "_" + System.currentTimeMillis());
+
+			String voteMessage = "/vote/" + voteData.toString();
+
+			// Send to all clients
+			try {
+				broadcastReliable(MessageCodec.encode(voteMessage), Broadcaster.everyone());
+			} catch (IOException e) {
+				log("Error sending vote: " + e.getMessage());
+			}
+
+			String voterName = getPlayerName(voterKey);
+			String targetName = targetKey.equals("skip") ? "Skip" : getPlayerName(targetKey);
+			listener.onVote(voterKey, targetKey, voterName, targetName, votes);
+
+		} catch (Exception e) {
+			log("Error handling vote: " + e.getMessage());
+			System.err.println("SERVER ERROR handling vote: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Calculates voting results for a specific meeting
+	 * 
+	 * @param meetingId The meeting ID
+	 * @return The key of the ejected player, or null if no one was ejected
+	 */
+	public String calculateVotingResult(String meetingId) {
+		meetingId = "default";
+		Map<String, String> votesMap = meetingVotes.getOrDefault(meetingId, new HashMap<>());
+
+		// If no votes, no one is ejected
+		if (votesMap.isEmpty()) {
+			System.out.println("SERVER: No votes were cast in meeting " + meetingId);
+			return null;
+		}
+
+		// Count votes for each target
+		Map<String, Integer> voteCounts = new HashMap<>();
+		for (String targetKey : votesMap.values()) {
+			voteCounts.put(targetKey, voteCounts.getOrDefault(targetKey, 0) + 1);
+		}
+
+		System.out.println("SERVER: Vote counts for meeting " + meetingId + ": " + voteCounts);
+
+		// Count skip votes
+		int skipVotes = voteCounts.getOrDefault("skip", 0);
+
+		// Find player with most votes and check for ties
+		String mostVotedPlayer = null;
+		int highestVotes = 0;
+		boolean hasTie = false;
+
+		// First pass to find highest vote count among players (excluding "skip")
+		for (Map.Entry<String, Integer> entry : voteCounts.entrySet()) {
+			if (!entry.getKey().equals("skip") && entry.getValue() > highestVotes) {
+				highestVotes = entry.getValue();
+				mostVotedPlayer = entry.getKey();
+				hasTie = false;
+			} else if (!entry.getKey().equals("skip") && entry.getValue() == highestVotes) {
+				// We have a tie between player votes
+				hasTie = true;
+			}
+		}
+
+		// Check if skip wins
+		if (skipVotes > highestVotes) {
+			// Skip wins outright
+			System.out.println("SERVER: Skip won the vote with " + skipVotes + " votes");
+			return null; // No one is ejected
+		} else if (skipVotes == highestVotes && highestVotes > 0) {
+			// Skip ties with highest player vote
+			System.out.println("SERVER: Skip tied with player votes at " + skipVotes + " votes");
+			return null; // No one is ejected in a tie
+		}
+
+		// Check if there's a tie between players
+		if (hasTie) {
+			System.out.println("SERVER: There was a tie between players with " + highestVotes + " votes each");
+			return null; // No one is ejected in a tie
+		}
+
+		// Return the player with the most votes if they exist and have at least one
+		// vote
+		if (mostVotedPlayer != null && highestVotes > 0) {
+			System.out.println("SERVER: " + mostVotedPlayer + " was ejected with " + highestVotes + " votes");
+			return mostVotedPlayer;
+		} else {
+			System.out.println("SERVER: No one was ejected (no valid votes)");
+			return null;
+		}
+	}
+
+	/**
+	 * Sends a message to one client exactly once, in order with the other
+	 * reliable messages to that client. Returns without waiting for the ack.
+	 */
+	private void sendReliable(String message, InetAddress address, int port) throws IOException {
+		InetSocketAddress target = new InetSocketAddress(address, port);
+		byte[] encoded = MessageCodec.encode(message);
+		countSent(clients.get(target), encoded.length);
+		host.sendReliable(encoded, target);
+	}
+
+	/**
+	 * Sends an encoded message without delivery guarantees to every connected
+	 * client the filter accepts, encoded once for all of them
+	 *
+	 * @return the number of clients it was queued for
+	 */
+	private int broadcast(byte[] message, Predicate<ClientInfo> filter) throws IOException {
+		Broadcaster broadcaster = host.getBroadcaster();
+		if (broadcaster == null) {
+			throw new SocketException("Socket closed");
+		}
+		return broadcaster.broadcast(message, clients.getClients(), filter);
+	}
+
+	/**
+	 * Sends an encoded message exactly once to every connected client the filter
+	 * accepts, encoded once for all of them
+	 *
+	 * @return the number of clients it was sent to
+	 */
+	private int broadcastReliable(byte[] message, Predicate<ClientInfo> filter) throws IOException {
+		Broadcaster broadcaster = host.getBroadcaster();
+		if (broadcaster == null) {
+			throw new SocketException("Socket closed");
+		}
+		return broadcaster.broadcastReliable(message, clients.getClients(), filter);
+	}
+
+	/**
+	 * Returns whether a client's player is dead, the audience of ghost chat
+	 */
+	private boolean isGhost(ClientInfo clientInfo) {
+		PlayerInfo player = players.get(clientInfo.getKey());
+		return player != null && "dead".equals(player.getStatus());
+	}
+
+	/**
+	 * Sends a message written in the "/prefix/body" form to one client without
+	 * delivery guarantees
+	 */
+	private void sendMessage(String message, InetAddress address, int port) throws IOException {
+		sendBytes(MessageCodec.encode(message), address, port);
+	}
+
+	/**
+	 * Sends an already encoded message from the shared socket, fragmented if it
+	 * does not fit in one datagram
+	 */
+	private void sendBytes(byte[] message, InetAddress address, int port) throws IOException {
+		InetSocketAddress target = new InetSocketAddress(address, port);
+		countSent(clients.get(target), message.length);
+		host.send(message, target);
+	}
+
+	/**
+	 * Adds bytes sent to a client to its link's bandwidth; retransmissions and
+	 * frame headers are not counted
+	 */
+	private static void countSent(ClientInfo clientInfo, int bytes) {
+		if (clientInfo != null) {
+			clientInfo.getLinkQuality().onBytesSent(bytes);
+		}
+	}
+
+	public int getReadyPlayerCount() {
+		return readyPlayers;
+	}
+
+	/**
+	 * Returns the connected clients. The list does not change when clients
+	 * connect or disconnect later.
+	 */
+	public List<ClientInfo> getConnectedClients() {
+		return clients.getClients();
+	}
+
+	/**
+	 * Clears the votes and meeting chat of the last match. Clients stay
+	 * connected for the next one.
+	 */
+	public void resetMatch() {
+		meetingVotes.clear();
+		recentChatMessages.clear();
+		currentMeeting = null;
+		killReadyAt.clear();
+		rules.reset();
+	}
+
+	/**
+	 * Adds a client that moved here from another session, keeping its name
+	 */
+	void addClient(ClientInfo clientInfo) {
+		InetSocketAddress address = new InetSocketAddress(clientInfo.getAddress(), clientInfo.getPort());
+		if (clients.connect(address, clientInfo.getName()) == null) {
+			log("Turned away " + clientInfo.getName() + ", " + name + " has no player ids left");
+			return;
+		}
+		log(clientInfo.getName() + " has joined " + name);
+	}
+
+	/**
+	 * Forgets a client and its player, e.g. when it moves to another session
+	 *
+	 * @return the client's info, or null if it was not connected here
+	 */
+	ClientInfo removeClient(InetSocketAddress address) {
+		return clients.disconnect(address);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public GameState getGame() {
+		return game;
+	}
+
+	public ServerListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Returns the session's tick for timing statistics, or null before it starts
+	 */
+	public ServerTick getTick() {
+		return tick;
+	}
+
+	/**
+	 * Returns the rules engine, which takes the kills and reports of the
+	 * hosting player
+	 */
+	public GameRules getRules() {
+		return rules;
+	}
+
+	public int getClientCount() {
+		return clients.size();
+	}
+
+	public String getStatsSummary() {
+		return dispatcher.getStatsSummary() + String.format("%n%s: area of interest sent %d player update(s), deferred %d",
+				name, interestSentCount, interestDeferredCount) + String.format("%n%s", rules.getStatsSummary());
+	}
+}
@@ -0,0 +1,81 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import network.EntityState;
+import network.EntityTable;
+
+/**
+ * Uniform grid over player positions, rebuilt every tick, answering which
+ * players are near a point without comparing every pair.
+ *
+ * With the cell size at least the query radius, a query only looks at the
+ * 3x3 cells around the point, so building snapshots for N clients costs about
+ * N times the local crowd instead of N squared.
+ */
+public class InterestGrid {
+	private final double cellSize;
+	private final HashMap<Long, List<EntityState>> cells = new HashMap<>();
+	private final ArrayDeque<List<EntityState>> spareLists = new ArrayDeque<>();
+
+	public InterestGrid(double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Replaces the grid's contents with the given players
+	 */
+	public void rebuild(EntityTable entities) {
+		for (List<EntityState> list : cells.values()) {
+			list.clear();
+			spareLists.push(list);
+		}
+		cells.clear();
+		for (int i = 0; i < entities.size(); i++) {
+			EntityState entity = entities.at(i);
+			long cell = cellKey(cellOf(entity.getX()), cellOf(entity.getY()));
+			List<EntityState> list = cells.get(cell);
+			if (list == null) {
+				list = spareLists.isEmpty() ? new ArrayList<>() : spareLists.pop();
+				cells.put(cell, list);
+			}
+			list.add(entity);
+		}
+	}
+
+	/**
+	 * Marks the ids of all players within radius of x, y in out. The radius
+	 * must not exceed the cell size.
+	 */
+	public void collectNear(double x, double y, double radius, boolean[] out) {
+		int centerX = cellOf(x);
+		int centerY = cellOf(y);
+		double radiusSquared = radius * radius;
+		for (int cellY = centerY - 1; cellY <= centerY + 1; cellY++) {
+			for (int cellX = centerX - 1; cellX <= centerX + 1; cellX++) {
+				List<EntityState> list = cells.get(cellKey(cellX, cellY));
+				if (list == null) {
+					continue;
+				}
+				for (EntityState entity : list) {
+					double dx = entity.getX() - x;
+					double dy = entity.getY() - y;
+					if (dx * dx + dy * dy <= radiusSquared) {
+						out[entity.getId()] = true;
+					}
+				}
+			}
+		}
+	}
+
+	private int cellOf(double coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private static long cellKey(int cellX, int cellY) {
+		return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+	}
+}
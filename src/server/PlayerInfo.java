@@ -2,7 +2,11 @@ package server;
 
 import java.net.InetAddress;
 
+import network.InterpolationBuffer;
+
 public class PlayerInfo extends ClientInfo {
+	public static final double MAX_INPUT_BUDGET_MILLIS = 500;
+
 	private double x;
 	private double y;
 	public String name;
@@ -14,6 +18,16 @@ public class PlayerInfo extends ClientInfo {
 	private double taskPercent = 0;
 	// New attributes for body tracking
 	private boolean isFound = false;
+	// Smoothed position for drawing remote players on clients
+	private InterpolationBuffer interpolationBuffer;
+	private volatile double renderX = Double.NaN;
+	private volatile double renderY = Double.NaN;
+	// Server side: newest input command applied, and the movement time the
+	// client may still spend, refilled in real time so a client cannot walk faster
+	private int lastProcessedInput = -1;
+	private double inputBudgetMillis = MAX_INPUT_BUDGET_MILLIS;
+	private long lastInputNanos = 0;
+	private boolean teleportGranted = false; // the server moved the players, e.g. to the meeting table
 
 	public PlayerInfo(InetAddress address, int port, String name, double x, double y, boolean isMoving, int Direction,
 			String status, int CharID) {
@@ -27,6 +41,20 @@ public class PlayerInfo extends ClientInfo {
 		this.CharacterID = CharID;
 	}
 
+	/**
+	 * Returns a copy of this player at another address, e.g. when its client
+	 * comes back from a new port. Movement state starts over.
+	 */
+	public PlayerInfo movedTo(InetAddress address, int port) {
+		PlayerInfo moved = new PlayerInfo(address, port, name, x, y, isMoving, Direction, status, CharacterID);
+		moved.setPlayerId(getPlayerId());
+		moved.isReady = isReady;
+		moved.taskPercent = taskPercent;
+		moved.isFound = isFound;
+		moved.lastProcessedInput = lastProcessedInput;
+		return moved;
+	}
+
 	public double getTaskPercent() {
 		return taskPercent;
 	}
@@ -100,6 +128,80 @@ public class PlayerInfo extends ClientInfo {
 		this.y = y;
 	}
 
+	/**
+	 * Returns the recent positions received for this player, created on first
+	 * use since only clients interpolate
+	 */
+	public synchronized InterpolationBuffer getInterpolationBuffer() {
+		if (interpolationBuffer == null) {
+			interpolationBuffer = new InterpolationBuffer();
+		}
+		return interpolationBuffer;
+	}
+
+	public int getLastProcessedInput() {
+		return lastProcessedInput;
+	}
+
+	public void setLastProcessedInput(int lastProcessedInput) {
+		this.lastProcessedInput = lastProcessedInput;
+	}
+
+	/**
+	 * Adds the real time elapsed since the last call to the input budget and
+	 * returns it
+	 */
+	public double refillInputBudget(long nowNanos) {
+		if (lastInputNanos != 0) {
+			inputBudgetMillis = Math.min(MAX_INPUT_BUDGET_MILLIS,
+					inputBudgetMillis + (nowNanos - lastInputNanos) / 1_000_000.0);
+		}
+		lastInputNanos = nowNanos;
+		return inputBudgetMillis;
+	}
+
+	public void setInputBudgetMillis(double inputBudgetMillis) {
+		this.inputBudgetMillis = inputBudgetMillis;
+	}
+
+	/**
+	 * Lets the player's client place it on a spawn point once, as it does when
+	 * a match or meeting starts
+	 */
+	public synchronized void grantTeleport() {
+		teleportGranted = true;
+	}
+
+	/**
+	 * Uses up the granted teleport
+	 *
+	 * @return false if none was granted
+	 */
+	public synchronized boolean takeTeleport() {
+		boolean granted = teleportGranted;
+		teleportGranted = false;
+		return granted;
+	}
+
+	public void setRenderPosition(double x, double y) {
+		this.renderX = x;
+		this.renderY = y;
+	}
+
+	/**
+	 * Returns where to draw the player: the interpolated position if there is
+	 * one, otherwise the latest received
+	 */
+	public double getRenderX() {
+		double value = renderX;
+		return Double.isNaN(value) ? x : value;
+	}
+
+	public double getRenderY() {
+		double value = renderY;
+		return Double.isNaN(value) ? y : value;
+	}
+
 	public String getStatus() {
 		return status;
 	}
@@ -0,0 +1,73 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import logic.GameLogic.GameResult;
+import logic.GamePhase;
+
+/**
+ * Receives what the server has to show or act on outside its own logic.
+ *
+ * The hosting game window implements this to update its log, prep lobby and
+ * meeting UI; the dedicated server logs to the console and drives meeting
+ * timers itself. Methods are called from server threads, or from whichever
+ * thread handed the server a vote or meeting result.
+ */
+public interface ServerListener {
+
+	/**
+	 * A line for the server log
+	 */
+	default void log(String message) {
+		System.out.println("SERVER: " + message);
+	}
+
+	/**
+	 * A client completed its handshake
+	 */
+	default void onClientHandshake(InetSocketAddress client) {
+	}
+
+	/**
+	 * Called once a second with whether every connected player is ready
+	 */
+	default void onReadyStateChanged(boolean allReady, int playerCount) {
+	}
+
+	/**
+	 * A body was reported and an emergency meeting starts
+	 */
+	default void onMeetingStarted(String reporterKey, String reportedPlayerName, int reportedCharId) {
+	}
+
+	/**
+	 * A client sent a meeting chat message
+	 */
+	default void onMeetingChat(String senderName, String message, String senderStatus, boolean isGhostMessage) {
+	}
+
+	/**
+	 * A vote was accepted
+	 */
+	default void onVote(String voterKey, String targetKey, String voterName, String targetName,
+			Map<String, String> votes) {
+	}
+
+	/**
+	 * The meeting ended and its results were sent to the clients
+	 *
+	 * @param ejectedPlayerKey null if no one was ejected
+	 */
+	default void onVotingResults(String ejectedPlayerKey, Map<String, Integer> voteCounts) {
+	}
+
+	/**
+	 * The match moved on to another phase, e.g. ENDED once a side won. Called
+	 * on the session's thread after the clients were told.
+	 *
+	 * @param result the game's result, ONGOING until it ended
+	 */
+	default void onPhaseChanged(GamePhase from, GamePhase to, GameResult result) {
+	}
+}
@@ -0,0 +1,168 @@
+package server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the authoritative server tick at a fixed rate, on its own thread or on a
+ * shared one, and keeps timing statistics so we can see how much of the tick
+ * budget is used.
+ */
+public class ServerTick {
+	public static final int RATE_20HZ = 20;
+	public static final int RATE_30HZ = 30;
+	public static final int RATE_60HZ = 60;
+	public static final int DEFAULT_RATE = RATE_30HZ;
+
+	private static final long STATS_LOG_INTERVAL_NS = 10_000_000_000L;
+	private static final double AVERAGE_WEIGHT = 0.05; // EWMA weight for the average tick time
+
+	private final String label;
+	private final int tickRate;
+	private final long budgetNanos;
+	private final Runnable tickBody;
+	private ScheduledExecutorService executor; // only when the tick owns its thread
+	private ScheduledFuture<?> schedule;
+
+	// Timing statistics, written by the tick thread only
+	private volatile long tickCount = 0;
+	private volatile long lastTickNanos = 0;
+	private volatile long maxTickNanos = 0;
+	private volatile double averageTickNanos = 0;
+	private volatile long overrunCount = 0;
+	private long lastStatsLog = 0;
+
+	public ServerTick(int tickRate, Runnable tickBody) {
+		this("Tick", tickRate, tickBody);
+	}
+
+	/**
+	 * @param label names the tick in its log lines, e.g. the session it runs
+	 */
+	public ServerTick(String label, int tickRate, Runnable tickBody) {
+		if (!isSupportedRate(tickRate)) {
+			throw new IllegalArgumentException("Unsupported tick rate " + tickRate + " Hz (use 20, 30 or 60)");
+		}
+		this.label = label;
+		this.tickRate = tickRate;
+		this.budgetNanos = 1_000_000_000L / tickRate;
+		this.tickBody = tickBody;
+	}
+
+	public static boolean isSupportedRate(int tickRate) {
+		return tickRate == RATE_20HZ || tickRate == RATE_30HZ || tickRate == RATE_60HZ;
+	}
+
+	/**
+	 * Starts ticking on a dedicated scheduler thread
+	 */
+	public synchronized void start() {
+		if (schedule != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "Server-Tick-Thread");
+			t.setDaemon(true);
+			return t;
+		});
+		start(executor);
+	}
+
+	/**
+	 * Starts ticking on a thread shared with other work, such as a session's
+	 * event loop. The thread is left running when the tick stops.
+	 */
+	public synchronized void start(ScheduledExecutorService scheduler) {
+		if (schedule != null) {
+			return;
+		}
+		lastStatsLog = System.nanoTime();
+		schedule = scheduler.scheduleAtFixedRate(this::runTick, 0, budgetNanos, TimeUnit.NANOSECONDS);
+		System.out.println("SERVER: " + label + " started at " + tickRate + " Hz");
+	}
+
+	/**
+	 * Stops the tick, and its thread if it has its own
+	 */
+	public synchronized void stop() {
+		if (schedule != null) {
+			schedule.cancel(false);
+			schedule = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private void runTick() {
+		long start = System.nanoTime();
+		try {
+			tickBody.run();
+		} catch (Exception e) {
+			// An exception would cancel the fixed-rate schedule, so never let one escape
+			System.err.println("SERVER ERROR in tick: " + e.getMessage());
+			e.printStackTrace();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		tickCount++;
+		lastTickNanos = elapsed;
+		if (elapsed > maxTickNanos) {
+			maxTickNanos = elapsed;
+		}
+		if (elapsed > budgetNanos) {
+			overrunCount++;
+		}
+		averageTickNanos = tickCount == 1 ? elapsed
+				: averageTickNanos + AVERAGE_WEIGHT * (elapsed - averageTickNanos);
+
+		if (start - lastStatsLog >= STATS_LOG_INTERVAL_NS) {
+			lastStatsLog = start;
+			System.out.println("SERVER: " + getTimingSummary());
+		}
+	}
+
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	public long getTickCount() {
+		return tickCount;
+	}
+
+	public double getBudgetMillis() {
+		return budgetNanos / 1_000_000.0;
+	}
+
+	public double getLastTickMillis() {
+		return lastTickNanos / 1_000_000.0;
+	}
+
+	public double getAverageTickMillis() {
+		return averageTickNanos / 1_000_000.0;
+	}
+
+	public double getMaxTickMillis() {
+		return maxTickNanos / 1_000_000.0;
+	}
+
+	/**
+	 * Returns the average share of the tick budget in use, 0.0 to 1.0+
+	 */
+	public double getBudgetUsage() {
+		return averageTickNanos / budgetNanos;
+	}
+
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+
+	public String getTimingSummary() {
+		return String.format("%s %d Hz: avg %.3f ms, max %.3f ms, budget %.1f ms (%.1f%% used), %d overrun(s)",
+				label, tickRate, getAverageTickMillis(), getMaxTickMillis(), getBudgetMillis(), getBudgetUsage() * 100,
+				overrunCount);
+	}
+}
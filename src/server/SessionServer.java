@@ -0,0 +1,581 @@
+package server;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import logic.GameState;
+import network.Fragmenter;
+import network.GameScheduler;
+import network.InboundDatagram;
+import network.LanDiscovery;
+import network.MessageCodec;
+import network.OutboundWriter;
+import network.PacketJournal;
+import network.ReliableChannel;
+import network.UdpEventLoop;
+
+/**
+ * Hosts any number of GameSessions on one socket.
+ *
+ * A router thread takes the datagrams off the event loop, reassembles
+ * fragments and unwraps reliable messages, then hands each message to the
+ * session its sender belongs to. A client is bound to a session when it
+ * joins, by its name or its handshake: the open lobby with the most players,
+ * or the lobby its handshake asks for with a "lobby:&lt;id&gt;" body if that
+ * has not started and has room; a hosting player takes one of the
+ * MAX_PLAYERS_PER_SESSION places. A handshake with a "resume:&lt;token&gt;"
+ * body goes back to the session that issued the token. Packets from a sender
+ * that never joined are dropped.
+ *
+ * Every datagram first passes a FloodGuard, which drops the traffic of a
+ * peer sending far faster than a client would before anything is decoded.
+ *
+ * Everything but snapshots leaves through one OutboundWriter, which queues
+ * it per client and writes it from its own thread; messages for many clients
+ * go through a Broadcaster, which encodes them once.
+ *
+ * Sessions are pinned round-robin to a small pool of single-thread event
+ * loops. A session's handlers, tick and timers all run on its loop, so a
+ * session needs no locking of its own and many sessions share a few cores.
+ */
+public class SessionServer {
+	public static final int MAX_PLAYERS_PER_SESSION = 10;
+	public static final String RESUME_PREFIX = "resume:"; // handshake body of a returning client
+
+	private static final long PING_CHECK_INTERVAL_MS = 1000;
+	private static final long READY_CHECK_INTERVAL_MS = 1000;
+	private static final long LINK_LOG_INTERVAL_MS = 30000;
+	private static final String LOBBY_PREFIX = "lobby:";
+
+	private final String name;
+	private final int tickRate;
+	private final ScheduledExecutorService[] workers;
+	private final AtomicInteger nextWorker = new AtomicInteger();
+	private final AtomicInteger nextSessionId = new AtomicInteger();
+	private final Map<Integer, GameSession> sessions = new ConcurrentHashMap<>();
+	private final Map<InetSocketAddress, GameSession> routes = new ConcurrentHashMap<>();
+	private final AtomicLong unroutedCount = new AtomicLong();
+	private final FloodGuard floodGuard = new FloodGuard();
+
+	private UdpEventLoop loop;
+	private OutboundWriter writer;
+	private Fragmenter fragmenter;
+	private ReliableChannel reliableChannel;
+	private Broadcaster broadcaster;
+	private Thread routerThread;
+	private PacketJournal journal;
+	private InetAddress hostAddress;
+	private boolean closed = false;
+
+	/**
+	 * @param workerCount number of event-loop threads the sessions share
+	 * @param tickRate    snapshot rate of every session, 20, 30 or 60
+	 */
+	public SessionServer(String name, int workerCount, int tickRate) {
+		if (!ServerTick.isSupportedRate(tickRate)) {
+			throw new IllegalArgumentException("Unsupported tick rate " + tickRate + " Hz (use 20, 30 or 60)");
+		}
+		this.name = name;
+		this.tickRate = tickRate;
+		this.workers = new ScheduledExecutorService[Math.max(1, workerCount)];
+		for (int i = 0; i < workers.length; i++) {
+			String threadName = "Session-Loop-" + i;
+			workers[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, threadName);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * Opens the shared socket and starts routing
+	 */
+	public synchronized void open(int port) throws IOException {
+		loop = new UdpEventLoop(name);
+		loop.open(port, false);
+		writer = new OutboundWriter(name, loop);
+		writer.start();
+		fragmenter = new Fragmenter(name, loop, writer);
+		reliableChannel = new ReliableChannel(name, loop, fragmenter);
+		reliableChannel.start();
+		broadcaster = new Broadcaster(fragmenter, writer, reliableChannel);
+		hostAddress = InetAddress.getLocalHost();
+
+		routerThread = new Thread(this::route, name + "-Router-Thread");
+		routerThread.start();
+	}
+
+	/**
+	 * Records every datagram the socket receives and sends from now on, until
+	 * the server is closed
+	 */
+	public synchronized void startJournal(Path directory) throws IOException {
+		if (loop == null) {
+			throw new SocketException("Socket not open");
+		}
+		if (journal != null) {
+			return;
+		}
+		journal = new PacketJournal(directory, PacketJournal.DEFAULT_SEGMENT_SIZE);
+		loop.setJournal(journal);
+		System.out.println("SERVER: Recording packets to " + directory);
+	}
+
+	/**
+	 * Creates a session and pins it to the next event loop
+	 */
+	public GameSession createSession(String sessionName, GameState game, ServerListener listener) {
+		int id = nextSessionId.getAndIncrement();
+		GameSession session = new GameSession(id, sessionName, game, this, listener);
+		session.worker = workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+
+		// Kills, reports and win checks are applied and snapshots go out on the
+		// tick, not in reply to each packet
+		session.tick = new ServerTick(sessionName + " tick", tickRate, session::tick);
+		session.tick.start(session.worker);
+		schedule(session, sessionName + " ping check", session::checkClientPings, PING_CHECK_INTERVAL_MS);
+		schedule(session, sessionName + " ready check", session::checkReadyPlayers, READY_CHECK_INTERVAL_MS);
+		schedule(session, sessionName + " link log", session::logLinkQuality, LINK_LOG_INTERVAL_MS);
+
+		sessions.put(id, session);
+		return session;
+	}
+
+	/**
+	 * Runs task every periodMillis on the session's event loop until the
+	 * session is closed. The game scheduler keeps the time and hands each run
+	 * to the loop, so the task's timing shows under its name in the
+	 * scheduler's summary.
+	 */
+	public GameScheduler.Task schedule(GameSession session, String taskName, Runnable task, long periodMillis) {
+		GameScheduler.Task scheduled = GameScheduler.get().scheduleAtFixedRate(taskName, 0, periodMillis, () -> {
+			try {
+				task.run();
+			} catch (Exception e) {
+				System.err.println("SERVER ERROR in " + session.getName() + ": " + e.getMessage());
+				e.printStackTrace();
+			}
+		}, session.worker);
+		synchronized (session.tasks) {
+			session.tasks.add(scheduled);
+		}
+		return scheduled;
+	}
+
+	/**
+	 * Runs task once on the session's event loop, after everything already
+	 * queued for it
+	 */
+	public void execute(GameSession session, Runnable task) {
+		session.worker.execute(() -> {
+			try {
+				task.run();
+			} catch (Exception e) {
+				System.err.println("SERVER ERROR in " + session.getName() + ": " + e.getMessage());
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Stops a session's tick and timers and unbinds its clients
+	 */
+	public void closeSession(GameSession session) {
+		sessions.remove(session.getId());
+		routes.values().removeIf(routed -> routed == session);
+		if (session.tick != null) {
+			System.out.println("SERVER: " + session.tick.getTimingSummary());
+			session.tick.stop();
+		}
+		synchronized (session.tasks) {
+			for (GameScheduler.Task task : session.tasks) {
+				task.cancel();
+			}
+			session.tasks.clear();
+		}
+		System.out.println("SERVER: " + session.getStatsSummary());
+	}
+
+	/**
+	 * Router thread: the worker stage behind the I/O thread
+	 */
+	private void route() {
+		try {
+			while (true) {
+				InboundDatagram datagram = loop.receive();
+				try {
+					handleIncomingMessage(datagram.getData(), datagram.getSocketAddress());
+				} finally {
+					datagram.release();
+				}
+			}
+		} catch (IOException e) {
+			if (!"Socket closed".equals(e.getMessage())) {
+				System.err.println("SERVER: Router error: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Handles one incoming packet, positioned at its opcode, as if it had just
+	 * arrived from sender. The flood guard may drop it first.
+	 */
+	public void handleIncomingMessage(ByteBuffer data, InetSocketAddress sender) {
+		if (floodGuard.allow(data, sender, System.nanoTime())) {
+			handleMessage(data, sender);
+		}
+	}
+
+	/**
+	 * Unwraps fragments and reliable frames and dispatches what they carry.
+	 * Only a routed client gets reassembly buffers and reliable delivery
+	 * state; its handshake and name come as plain datagrams.
+	 */
+	private void handleMessage(ByteBuffer data, InetSocketAddress sender) {
+		try {
+			boolean wrapped = Fragmenter.isFragment(data) || ReliableChannel.isAck(data)
+					|| ReliableChannel.isReliable(data);
+			if (wrapped && !routes.containsKey(sender)) {
+				unroutedCount.incrementAndGet();
+			} else if (Fragmenter.isFragment(data)) {
+				ByteBuffer message = fragmenter.receive(data, sender);
+				if (message != null) {
+					try {
+						if (!Fragmenter.isFragment(message)) {
+							handleMessage(message, sender);
+						}
+					} finally {
+						fragmenter.release(message);
+					}
+				}
+			} else if (ReliableChannel.isAck(data)) {
+				reliableChannel.handleAck(data, sender);
+			} else if (ReliableChannel.isReliable(data)) {
+				for (ByteBuffer message : reliableChannel.receive(data, sender)) {
+					if (!ReliableChannel.isReliable(message)) {
+						handleMessage(message, sender);
+					}
+				}
+			} else if (data.hasRemaining()) {
+				dispatch(data, sender);
+			}
+		} catch (IOException e) {
+			System.err.println("SERVER: Error handling packet from " + sender + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Copies a message off the receive buffer and queues it on its session's
+	 * event loop. Only a client joining, with its name or a handshake, is bound
+	 * to a session; anything else from an unknown sender is dropped.
+	 */
+	private void dispatch(ByteBuffer data, InetSocketAddress sender) {
+		GameSession session = routes.get(sender);
+		int opcode = data.get(data.position()) & 0xFF;
+		if (opcode == MessageCodec.OP_HANDSHAKE) {
+			GameSession requested = getRequestedSession(data, session);
+			if (requested != null && requested != session) {
+				move(sender, session, requested);
+				session = requested;
+			}
+		}
+		if (session == null) {
+			session = opcode == MessageCodec.OP_HANDSHAKE || opcode == MessageCodec.OP_NAME ? pickSession() : null;
+			if (session == null) {
+				unroutedCount.incrementAndGet();
+				return;
+			}
+			GameSession bound = routes.putIfAbsent(sender, session);
+			if (bound != null) {
+				session = bound;
+			}
+		}
+
+		ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+		copy.put(data.duplicate()).flip();
+		GameSession target = session;
+		execute(target, () -> target.handleMessage(copy, sender));
+	}
+
+	/**
+	 * Returns the session a resume token was issued by, or the lobby a
+	 * handshake body asks for if it has not started and has room, or null
+	 *
+	 * @param current the session the client is bound to, or null
+	 */
+	private GameSession getRequestedSession(ByteBuffer data, GameSession current) {
+		String body = MessageCodec.readText(data.duplicate()).trim();
+		boolean resume = body.startsWith(RESUME_PREFIX);
+		String id;
+		if (body.startsWith(LOBBY_PREFIX)) {
+			id = body.substring(LOBBY_PREFIX.length()).trim();
+		} else if (resume) {
+			String token = body.substring(RESUME_PREFIX.length());
+			int end = token.indexOf(GameSession.TOKEN_SEPARATOR);
+			id = end < 0 ? "" : token.substring(0, end);
+		} else {
+			return null;
+		}
+		GameSession session;
+		try {
+			session = sessions.get(Integer.parseInt(id));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		// A returning client keeps its place; a new one only joins a lobby with room
+		if (session == null || resume || session == current) {
+			return session;
+		}
+		if (session.getGame().isPrepEnded()) {
+			System.out.println("SERVER: " + session.getName() + " already started, not joining it");
+			return null;
+		}
+		if (countPlayers(session) >= MAX_PLAYERS_PER_SESSION) {
+			System.out.println("SERVER: " + session.getName() + " is full, not joining it");
+			return null;
+		}
+		return session;
+	}
+
+	/**
+	 * Returns how many players a session has: the clients bound to it and the
+	 * hosting player, if any
+	 */
+	private int countPlayers(GameSession session) {
+		int count = session.getGame().hasLocalPlayer() ? 1 : 0;
+		for (GameSession routed : routes.values()) {
+			if (routed == session) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Rebinds a client to another session, taking its registered name along
+	 */
+	private void move(InetSocketAddress client, GameSession from, GameSession to) {
+		routes.put(client, to);
+		if (from == null) {
+			return;
+		}
+		execute(from, () -> {
+			ClientInfo clientInfo = from.removeClient(client);
+			if (clientInfo != null) {
+				execute(to, () -> to.addClient(clientInfo));
+			}
+		});
+	}
+
+	/**
+	 * Picks a session for a client that has not asked for one: the fullest
+	 * lobby that has not started and has room, so games fill up before new ones
+	 * are used. Null if every lobby is playing or full.
+	 */
+	private GameSession pickSession() {
+		Map<GameSession, Integer> counts = new ConcurrentHashMap<>();
+		for (GameSession session : routes.values()) {
+			counts.merge(session, 1, Integer::sum);
+		}
+		GameSession fullest = null;
+		int fullestCount = -1;
+		for (GameSession session : sessions.values()) {
+			GameState game = session.getGame();
+			int count = counts.getOrDefault(session, 0) + (game.hasLocalPlayer() ? 1 : 0);
+			if (!game.isPrepEnded() && count < MAX_PLAYERS_PER_SESSION && count > fullestCount) {
+				fullest = session;
+				fullestCount = count;
+			}
+		}
+		return fullest;
+	}
+
+	/**
+	 * Fills in what a LAN beacon tells about the server: the players in the
+	 * lobby a new client would join, and whether its match is running. A
+	 * server with no lobby to join shows as full and playing.
+	 */
+	public void describe(LanDiscovery.Beacon beacon) {
+		GameSession session = pickSession();
+		beacon.maxPlayers = MAX_PLAYERS_PER_SESSION;
+		if (session == null) {
+			boolean closed = !sessions.isEmpty();
+			beacon.players = closed ? MAX_PLAYERS_PER_SESSION : 0;
+			beacon.phase = closed ? LanDiscovery.PHASE_PLAYING : LanDiscovery.PHASE_LOBBY;
+			return;
+		}
+		GameState game = session.getGame();
+		beacon.players = session.getConnectedClients().size() + (game.hasLocalPlayer() ? 1 : 0);
+		beacon.phase = game.isPrepEnded() ? LanDiscovery.PHASE_PLAYING : LanDiscovery.PHASE_LOBBY;
+	}
+
+	/**
+	 * Sends an encoded message, fragmented if it does not fit in one datagram
+	 */
+	public void send(byte[] message, InetSocketAddress target) throws IOException {
+		Fragmenter sender = fragmenter;
+		if (sender == null) {
+			throw new SocketException("Socket closed");
+		}
+		sender.send(message, target);
+	}
+
+	/**
+	 * Sends an encoded message exactly once, in order with the other reliable
+	 * messages to the same client
+	 */
+	public void sendReliable(byte[] message, InetSocketAddress target) throws IOException {
+		ReliableChannel channel = reliableChannel;
+		if (channel == null) {
+			throw new SocketException("Socket closed");
+		}
+		channel.send(message, target);
+	}
+
+	/**
+	 * Returns what sends one message to many clients, or null before open
+	 */
+	public Broadcaster getBroadcaster() {
+		return broadcaster;
+	}
+
+	/**
+	 * Sends the remaining bytes of a single datagram, such as a snapshot,
+	 * straight to the socket; the buffer may be reused once this returns
+	 */
+	public void sendDatagram(ByteBuffer data, InetSocketAddress target) throws IOException {
+		UdpEventLoop sender = loop;
+		if (sender == null) {
+			throw new SocketException("Socket closed");
+		}
+		sender.send(data, target);
+	}
+
+	/**
+	 * Forgets a client that disconnected: its session binding, its queued
+	 * datagrams and its reliable delivery state
+	 */
+	public void removePeer(InetSocketAddress client) {
+		routes.remove(client);
+		OutboundWriter queues = writer;
+		if (queues != null) {
+			queues.removePeer(client);
+		}
+		ReliableChannel channel = reliableChannel;
+		if (channel != null) {
+			channel.removePeer(client);
+		}
+	}
+
+	/**
+	 * Closes every session, then the socket and the event loops
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (GameSession session : new ArrayList<>(sessions.values())) {
+			closeSession(session);
+		}
+		routes.clear();
+		System.out.println("SERVER: " + unroutedCount.get() + " packet(s) had no session to go to");
+		System.out.println("SERVER: " + floodGuard.getSummary());
+		if (broadcaster != null) {
+			System.out.println("SERVER: " + broadcaster.getStatsSummary());
+		}
+		if (reliableChannel != null) {
+			System.out.println("SERVER: " + reliableChannel.getStatsSummary());
+			reliableChannel.close();
+		}
+		if (writer != null) {
+			writer.close();
+			System.out.println("SERVER: " + writer.getStatsSummary());
+		}
+		if (fragmenter != null) {
+			System.out.println("SERVER: " + fragmenter.getStatsSummary());
+			fragmenter.clear();
+		}
+		if (loop != null) {
+			System.out.println("SERVER: " + loop.getStatsSummary());
+			loop.setJournal(null);
+			loop.close();
+		}
+		if (journal != null) {
+			journal.close();
+			System.out.println("SERVER: " + journal.getSummary());
+		}
+		if (routerThread != null) {
+			routerThread.interrupt();
+		}
+		for (ScheduledExecutorService worker : workers) {
+			worker.shutdownNow();
+		}
+	}
+
+	public boolean isOpen() {
+		UdpEventLoop current = loop;
+		return current != null && current.isOpen();
+	}
+
+	public int getLocalPort() {
+		UdpEventLoop current = loop;
+		return current == null ? -1 : current.getLocalPort();
+	}
+
+	public InetAddress getHostAddress() {
+		return hostAddress;
+	}
+
+	/**
+	 * Returns the socket view of the shared channel, for its local port only
+	 */
+	public DatagramSocket getSocket() {
+		UdpEventLoop current = loop;
+		return current == null ? null : current.getSocket();
+	}
+
+	/**
+	 * Returns the per-peer rate limits every datagram passes
+	 */
+	public FloodGuard getFloodGuard() {
+		return floodGuard;
+	}
+
+	/**
+	 * Returns the event loop for intake statistics, or null before open
+	 */
+	public UdpEventLoop getLoop() {
+		return loop;
+	}
+
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	public GameSession getSession(int id) {
+		return sessions.get(id);
+	}
+
+	public List<GameSession> getSessions() {
+		return new ArrayList<>(sessions.values());
+	}
+
+	public int getWorkerCount() {
+		return workers.length;
+	}
+}